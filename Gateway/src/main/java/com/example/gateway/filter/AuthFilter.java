@@ -1,6 +1,7 @@
 package com.example.gateway.filter;
 
 import brave.Tracer;
+import com.example.gateway.metrics.GatewayMetrics;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.cloud.gateway.filter.GatewayFilterChain;
 import org.springframework.cloud.gateway.filter.GlobalFilter;
@@ -25,9 +26,14 @@ public class AuthFilter implements GlobalFilter, Ordered {
     
     @Autowired(required = false)
     private Tracer tracer;
+
+    @Autowired
+    private GatewayMetrics gatewayMetrics;
     
     @Override
     public Mono<Void> filter(ServerWebExchange exchange, GatewayFilterChain chain) {
+        gatewayMetrics.mark(exchange, GatewayMetrics.Stage.AUTH);
+
         // 添加链路追踪信息到请求头
         ServerHttpRequest request = exchange.getRequest();
         if (tracer != null && tracer.currentSpan() != null) {
@@ -40,6 +46,8 @@ public class AuthFilter implements GlobalFilter, Ordered {
                 .build();
             
             exchange = exchange.mutate().request(request).build();
+            // 慢请求日志使用同一个 TraceId
+            exchange.getAttributes().put(GatewayMetrics.TRACE_ID_ATTR, traceId);
         }
         
         String path = exchange.getRequest().getURI().getPath();
@@ -1,5 +1,6 @@
 package com.example.gateway.filter;
 
+import com.example.gateway.metrics.GatewayMetrics;
 import com.example.gateway.util.JwtVerifier;
 import io.jsonwebtoken.Claims;
 import lombok.extern.slf4j.Slf4j;
@@ -72,6 +73,10 @@ public class AuthGlobalFilter implements GlobalFilter, Ordered {
     @Autowired
     private JwtVerifier jwtVerifier;
 
+    /** 请求耗时打点 - 记录本过滤器耗时与 Redis 调用次数 */
+    @Autowired
+    private GatewayMetrics gatewayMetrics;
+
     /**
      * 响应式Redis模板
      * 
@@ -140,6 +145,7 @@ public class AuthGlobalFilter implements GlobalFilter, Ordered {
 
     @Override
     public Mono<Void> filter(ServerWebExchange exchange, GatewayFilterChain chain) {
+        gatewayMetrics.mark(exchange, GatewayMetrics.Stage.AUTH_GLOBAL);
         String path = exchange.getRequest().getURI().getPath();
 
         // 1. 白名单检查
@@ -186,6 +192,7 @@ public class AuthGlobalFilter implements GlobalFilter, Ordered {
                                         String token, String userId, String deviceId, Claims claims) {
         // 检查用户封禁
         String banKey = "risk:ban:user:" + userId;
+        gatewayMetrics.redisCall(exchange);
         
         return redisTemplate.hasKey(banKey)
                 .flatMap(banned -> {
@@ -197,6 +204,7 @@ public class AuthGlobalFilter implements GlobalFilter, Ordered {
                     // 检查设备踢下线
                     if (StringUtils.hasText(deviceId)) {
                         String kickKey = "auth:kick:" + userId + ":" + deviceId;
+                        gatewayMetrics.redisCall(exchange);
                         return redisTemplate.hasKey(kickKey)
                                 .flatMap(kicked -> {
                                     if (Boolean.TRUE.equals(kicked)) {
@@ -206,6 +214,7 @@ public class AuthGlobalFilter implements GlobalFilter, Ordered {
                                     
                                     // 检查 Token 黑名单
                                     String blockKey = "auth:block:token:" + token.hashCode();
+                                    gatewayMetrics.redisCall(exchange);
                                     return redisTemplate.hasKey(blockKey)
                                             .flatMap(blocked -> {
                                                 if (Boolean.TRUE.equals(blocked)) {
@@ -0,0 +1,111 @@
+package com.example.gateway.filter;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.cloud.client.ServiceInstance;
+import org.springframework.cloud.client.discovery.ReactiveDiscoveryClient;
+import org.springframework.cloud.gateway.filter.GatewayFilterChain;
+import org.springframework.cloud.gateway.filter.GlobalFilter;
+import org.springframework.cloud.gateway.filter.ReactiveLoadBalancerClientFilter;
+import org.springframework.core.Ordered;
+import org.springframework.stereotype.Component;
+import org.springframework.util.AntPathMatcher;
+import org.springframework.web.server.ServerWebExchange;
+import org.springframework.web.util.UriComponentsBuilder;
+import reactor.core.publisher.Mono;
+
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.zip.CRC32;
+
+import static org.springframework.cloud.gateway.support.ServerWebExchangeUtils.GATEWAY_REQUEST_URL_ATTR;
+
+/**
+ * @author Junjie
+ * @version 1.0.0
+ * @date 2025-11-20
+ * 协同编辑连接路由过滤器
+ * collab-service 每个文档的房间和增量序号只在一个节点内存中，同一文档的 WebSocket 连接必须落到同一节点。
+ * 按 docId 对 collab-service 实例做最高随机权重哈希（rendezvous hashing），替代默认负载均衡；
+ * 实例增减时只有原本落在变动实例上的文档会换节点。
+ * 实例列表变化的过渡期内由 collab-service 的文档归属租约拒绝非归属节点的连接，客户端重连即可。
+ */
+@Slf4j
+@Component
+public class CollabRoutingFilter implements GlobalFilter, Ordered {
+
+    private static final String COLLAB_SERVICE = "collab-service";
+
+    private static final String COLLAB_WS_PATTERN = "/api/v1/docs/ws/*";
+
+    private final ReactiveDiscoveryClient discoveryClient;
+
+    private final AntPathMatcher pathMatcher = new AntPathMatcher();
+
+    public CollabRoutingFilter(ReactiveDiscoveryClient discoveryClient) {
+        this.discoveryClient = discoveryClient;
+    }
+
+    @Override
+    public Mono<Void> filter(ServerWebExchange exchange, GatewayFilterChain chain) {
+        URI url = exchange.getAttribute(GATEWAY_REQUEST_URL_ATTR);
+        String path = exchange.getRequest().getURI().getRawPath();
+        if (url == null || !"lb".equals(url.getScheme()) || !COLLAB_SERVICE.equals(url.getHost())
+                || !pathMatcher.match(COLLAB_WS_PATTERN, path)) {
+            return chain.filter(exchange);
+        }
+        String docId = path.substring(path.lastIndexOf('/') + 1);
+
+        return discoveryClient.getInstances(COLLAB_SERVICE).collectList().flatMap(instances -> {
+            ServiceInstance owner = select(instances, docId);
+            if (owner == null) {
+                // 没有可用实例，交给负载均衡过滤器按原逻辑返回 503
+                return chain.filter(exchange);
+            }
+            URI target = UriComponentsBuilder.fromUri(owner.getUri())
+                    .replacePath(url.getRawPath())
+                    .replaceQuery(url.getRawQuery())
+                    .build(true)
+                    .toUri();
+            exchange.getAttributes().put(GATEWAY_REQUEST_URL_ATTR, target);
+            log.debug("协同连接按文档路由: docId={}, instance={}:{}", docId, owner.getHost(), owner.getPort());
+            return chain.filter(exchange);
+        });
+    }
+
+    /**
+     * 最高随机权重哈希：每个实例与 docId 组合打分，分数最高者为归属节点
+     */
+    private static ServiceInstance select(List<ServiceInstance> instances, String docId) {
+        ServiceInstance best = null;
+        long bestScore = -1;
+        for (ServiceInstance instance : instances) {
+            CRC32 crc = new CRC32();
+            crc.update((instance.getHost() + ":" + instance.getPort() + "#" + docId).getBytes(StandardCharsets.UTF_8));
+            long score = mix(crc.getValue());
+            if (score > bestScore) {
+                bestScore = score;
+                best = instance;
+            }
+        }
+        return best;
+    }
+
+    /**
+     * 打散 CRC32 结果，避免相近输入得到相近分数
+     */
+    private static long mix(long value) {
+        value ^= value >>> 33;
+        value *= 0xff51afd7ed558ccdL;
+        value ^= value >>> 33;
+        return value & Long.MAX_VALUE;
+    }
+
+    /**
+     * 在 RouteToRequestUrlFilter 之后、负载均衡过滤器之前执行
+     */
+    @Override
+    public int getOrder() {
+        return ReactiveLoadBalancerClientFilter.LOAD_BALANCER_CLIENT_FILTER_ORDER - 1;
+    }
+}
@@ -1,5 +1,6 @@
 package com.example.gateway.filter;
 
+import com.example.gateway.metrics.GatewayMetrics;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import org.springframework.cloud.gateway.filter.GatewayFilterChain;
 import org.springframework.cloud.gateway.filter.GlobalFilter;
@@ -70,6 +71,15 @@ public class EmailVerificationFilter implements GlobalFilter, Ordered {
         "/favicon.ico",        // 图标
         "/error"               // 错误页面
     };
+
+    /**
+     * 请求耗时打点
+     */
+    private final GatewayMetrics gatewayMetrics;
+
+    public EmailVerificationFilter(GatewayMetrics gatewayMetrics) {
+        this.gatewayMetrics = gatewayMetrics;
+    }
     
     /**
      * @author Junjie
@@ -79,6 +89,7 @@ public class EmailVerificationFilter implements GlobalFilter, Ordered {
      */
     @Override
     public Mono<Void> filter(ServerWebExchange exchange, GatewayFilterChain chain) {
+        gatewayMetrics.mark(exchange, GatewayMetrics.Stage.EMAIL_VERIFICATION);
         ServerHttpRequest request = exchange.getRequest();
         String path = request.getURI().getPath();
         
@@ -0,0 +1,38 @@
+package com.example.gateway.filter;
+
+import com.example.gateway.metrics.GatewayMetrics;
+import org.springframework.cloud.gateway.filter.GatewayFilterChain;
+import org.springframework.cloud.gateway.filter.GlobalFilter;
+import org.springframework.core.Ordered;
+import org.springframework.stereotype.Component;
+import org.springframework.web.server.ServerWebExchange;
+import reactor.core.publisher.Mono;
+
+/**
+ * @author Junjie
+ * @version 1.0.0
+ * @date 2025-11-20
+ * 请求耗时统计过滤器
+ * 最先执行，初始化打点上下文，请求结束（含异常、取消）时上报各阶段耗时
+ */
+@Component
+public class RequestMetricsFilter implements GlobalFilter, Ordered {
+
+    private final GatewayMetrics gatewayMetrics;
+
+    public RequestMetricsFilter(GatewayMetrics gatewayMetrics) {
+        this.gatewayMetrics = gatewayMetrics;
+    }
+
+    @Override
+    public Mono<Void> filter(ServerWebExchange exchange, GatewayFilterChain chain) {
+        gatewayMetrics.start(exchange);
+        return chain.filter(exchange)
+                .doFinally(signal -> gatewayMetrics.finish(exchange));
+    }
+
+    @Override
+    public int getOrder() {
+        return Ordered.HIGHEST_PRECEDENCE;
+    }
+}
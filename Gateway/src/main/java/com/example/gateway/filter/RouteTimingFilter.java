@@ -0,0 +1,39 @@
+package com.example.gateway.filter;
+
+import com.example.gateway.metrics.GatewayMetrics;
+import org.springframework.cloud.gateway.filter.GatewayFilterChain;
+import org.springframework.cloud.gateway.filter.GlobalFilter;
+import org.springframework.cloud.gateway.filter.ReactiveLoadBalancerClientFilter;
+import org.springframework.core.Ordered;
+import org.springframework.stereotype.Component;
+import org.springframework.web.server.ServerWebExchange;
+import reactor.core.publisher.Mono;
+
+/**
+ * @author Junjie
+ * @version 1.0.0
+ * @date 2025-11-20
+ * 下游路由打点过滤器
+ * 负载均衡选定实例之后、路由过滤器（Netty/WebSocket）之前执行，此后的耗时计入下游服务（gateway.route.duration）
+ */
+@Component
+public class RouteTimingFilter implements GlobalFilter, Ordered {
+
+    private final GatewayMetrics gatewayMetrics;
+
+    public RouteTimingFilter(GatewayMetrics gatewayMetrics) {
+        this.gatewayMetrics = gatewayMetrics;
+    }
+
+    @Override
+    public Mono<Void> filter(ServerWebExchange exchange, GatewayFilterChain chain) {
+        gatewayMetrics.mark(exchange, GatewayMetrics.Stage.ROUTE);
+        return chain.filter(exchange);
+    }
+
+    @Override
+    public int getOrder() {
+        // 与 WebsocketRoutingFilter（LOWEST_PRECEDENCE - 1）错开，顺序确定
+        return ReactiveLoadBalancerClientFilter.LOAD_BALANCER_CLIENT_FILTER_ORDER + 1;
+    }
+}
@@ -1,10 +1,12 @@
 package com.example.gateway.filter;
 
 import com.example.common.config.ServiceAuthConfig;
+import com.example.gateway.metrics.GatewayMetrics;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.cloud.gateway.filter.GatewayFilterChain;
 import org.springframework.cloud.gateway.filter.GlobalFilter;
 import org.springframework.core.Ordered;
+import org.springframework.http.HttpStatus;
 import org.springframework.http.server.reactive.ServerHttpRequest;
 import org.springframework.stereotype.Component;
 import org.springframework.util.AntPathMatcher;
@@ -20,6 +22,7 @@ import java.util.List;
  * @date 2025-11-09
  * Gateway 服务间认证过滤器
  * 为转发到后端服务的请求添加服务认证 Token
+ * internal 接口只供服务间直接调用（Feign + 服务发现），从网关进入的请求一律拒绝，不签发 Token
  */
 @Component
 @Slf4j
@@ -27,14 +30,19 @@ public class ServiceAuthGatewayFilter implements GlobalFilter, Ordered {
 
     private final ServiceAuthConfig authConfig;
 
+    private final GatewayMetrics gatewayMetrics;
+
     private final AntPathMatcher pathMatcher = new AntPathMatcher();
 
     // 需要添加服务认证的路径（内部接口）.
     private static final List<String> INTERNAL_API_PATTERNS = Arrays.asList(
         "/api/users/details/**",
-        "/api/users/internal/**",
-        "/api/v1/users/details/**",
-        "/api/v1/users/internal/**"
+        "/api/v1/users/details/**"
+    );
+
+    // 仅限服务间调用的接口，外部请求直接拒绝.
+    private static final List<String> BLOCKED_API_PATTERNS = Arrays.asList(
+        "/**/internal/**"
     );
 
     //公开接口,比如登录接口,注册接口,确认注册接口,检查用户是否存在接口等等.
@@ -61,15 +69,26 @@ public class ServiceAuthGatewayFilter implements GlobalFilter, Ordered {
         "/doc.html**"
     );
 
-    public ServiceAuthGatewayFilter(ServiceAuthConfig authConfig) {
+    public ServiceAuthGatewayFilter(ServiceAuthConfig authConfig, GatewayMetrics gatewayMetrics) {
         this.authConfig = authConfig;
+        this.gatewayMetrics = gatewayMetrics;
         log.info("ServiceAuthGatewayFilter 初始化完成, authConfig 是否为空: {}", this.authConfig == null ? "null" : "非空");
     }
 
     @Override
     public Mono<Void> filter(ServerWebExchange exchange, GatewayFilterChain chain) {
+        gatewayMetrics.mark(exchange, GatewayMetrics.Stage.SERVICE_AUTH);
         String path = exchange.getRequest().getURI().getPath();
         
+        boolean isBlockedApi = BLOCKED_API_PATTERNS.stream()
+            .anyMatch(pattern -> pathMatcher.match(pattern, path));
+
+        if (isBlockedApi) {
+            log.warn("拒绝外部访问内部接口: path={}", path);
+            exchange.getResponse().setStatusCode(HttpStatus.FORBIDDEN);
+            return exchange.getResponse().setComplete();
+        }
+        
         boolean isPublicApi = PUBLIC_API_PATTERNS.stream()
             .anyMatch(pattern -> pathMatcher.match(pattern, path));
 
@@ -0,0 +1,215 @@
+package com.example.gateway.metrics;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.cloud.gateway.route.Route;
+import org.springframework.cloud.gateway.support.ServerWebExchangeUtils;
+import org.springframework.http.HttpStatusCode;
+import org.springframework.stereotype.Component;
+import org.springframework.web.server.ServerWebExchange;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * @author Junjie
+ * @version 1.0.0
+ * @date 2025-11-20
+ * Gateway 请求耗时拆解指标
+ * 每个过滤器入口打点（纳秒时间戳存入 exchange 属性），请求结束时由 RequestMetricsFilter
+ * 按相邻打点计算各阶段耗时，写入 Micrometer Timer，通过 /actuator/prometheus 暴露。
+ * 标签只包含 stage / route / outcome，取值均为有限集合。
+ */
+@Slf4j
+@Component
+public class GatewayMetrics {
+
+    /** 请求上下文属性名 */
+    public static final String CONTEXT_ATTR = GatewayMetrics.class.getName() + ".context";
+
+    /** 链路追踪ID属性名（由 AuthFilter 写入） */
+    public static final String TRACE_ID_ATTR = GatewayMetrics.class.getName() + ".traceId";
+
+    /**
+     * 过滤器链阶段
+     */
+    public enum Stage {
+        AUTH("auth"),
+        AUTH_GLOBAL("auth_global"),
+        SERVICE_AUTH("service_auth"),
+        EMAIL_VERIFICATION("email_verification"),
+        ROUTE("route");
+
+        private final String tag;
+
+        Stage(String tag) {
+            this.tag = tag;
+        }
+
+        public String tag() {
+            return tag;
+        }
+    }
+
+    /**
+     * 单个请求的打点数据
+     */
+    public static final class RequestContext {
+        private final long startNanos = System.nanoTime();
+        private final long[] marks = new long[Stage.values().length];
+        private int redisCalls;
+    }
+
+    private final MeterRegistry registry;
+
+    private final Map<String, Timer> timers = new ConcurrentHashMap<>();
+
+    private final Map<String, DistributionSummary> redisCallSummaries = new ConcurrentHashMap<>();
+
+    private final Counter slowRequests;
+
+    /** 慢请求阈值（毫秒） */
+    @Value("${gateway.metrics.slow-threshold-ms:500}")
+    private long slowThresholdMs;
+
+    /** 慢请求日志采样率 */
+    @Value("${gateway.metrics.slow-sample-rate:0.1}")
+    private double slowSampleRate;
+
+    public GatewayMetrics(MeterRegistry registry) {
+        this.registry = registry;
+        this.slowRequests = Counter.builder("gateway.requests.slow")
+                .description("超过慢请求阈值的请求数")
+                .register(registry);
+    }
+
+    /**
+     * 请求开始，初始化打点上下文
+     */
+    public void start(ServerWebExchange exchange) {
+        exchange.getAttributes().put(CONTEXT_ATTR, new RequestContext());
+    }
+
+    /**
+     * 记录进入某个阶段的时间
+     */
+    public void mark(ServerWebExchange exchange, Stage stage) {
+        RequestContext context = exchange.getAttribute(CONTEXT_ATTR);
+        if (context != null && context.marks[stage.ordinal()] == 0) {
+            context.marks[stage.ordinal()] = System.nanoTime();
+        }
+    }
+
+    /**
+     * 记录一次 Redis 调用
+     */
+    public void redisCall(ServerWebExchange exchange) {
+        RequestContext context = exchange.getAttribute(CONTEXT_ATTR);
+        if (context != null) {
+            context.redisCalls++;
+        }
+    }
+
+    /**
+     * 请求结束，计算各阶段耗时并上报
+     */
+    public void finish(ServerWebExchange exchange) {
+        RequestContext context = exchange.getAttribute(CONTEXT_ATTR);
+        if (context == null) {
+            return;
+        }
+        long end = System.nanoTime();
+        String route = routeId(exchange);
+        String outcome = outcome(exchange.getResponse().getStatusCode());
+        long[] marks = context.marks;
+
+        // 每个阶段耗时 = 下一个（按时间先后）打点时间 - 本阶段打点时间
+        StringBuilder breakdown = null;
+        long total = end - context.startNanos;
+        boolean slow = total >= TimeUnit.MILLISECONDS.toNanos(slowThresholdMs);
+        if (slow) {
+            breakdown = new StringBuilder();
+        }
+        for (Stage stage : Stage.values()) {
+            long at = marks[stage.ordinal()];
+            if (at == 0) {
+                continue;
+            }
+            long next = end;
+            for (long other : marks) {
+                if (other > at && other < next) {
+                    next = other;
+                }
+            }
+            long duration = next - at;
+            if (stage == Stage.ROUTE) {
+                timer("gateway.route.duration", stage, route, outcome).record(duration, TimeUnit.NANOSECONDS);
+            } else {
+                timer("gateway.filter.duration", stage, route, null).record(duration, TimeUnit.NANOSECONDS);
+            }
+            if (breakdown != null) {
+                breakdown.append(stage.tag()).append('=')
+                        .append(TimeUnit.NANOSECONDS.toMillis(duration)).append("ms ");
+            }
+        }
+
+        timer("gateway.request.duration", null, route, outcome).record(total, TimeUnit.NANOSECONDS);
+        redisCallSummaries.computeIfAbsent(route, r -> DistributionSummary.builder("gateway.redis.calls")
+                        .description("单个请求的 Redis 调用次数")
+                        .tag("route", r)
+                        .register(registry))
+                .record(context.redisCalls);
+
+        if (slow) {
+            slowRequests.increment();
+            if (ThreadLocalRandom.current().nextDouble() < slowSampleRate) {
+                log.warn("慢请求: traceId={}, route={}, path={}, total={}ms, redisCalls={}, {}",
+                        exchange.getAttributeOrDefault(TRACE_ID_ATTR, "-"), route,
+                        exchange.getRequest().getURI().getPath(),
+                        TimeUnit.NANOSECONDS.toMillis(total), context.redisCalls, breakdown);
+            }
+        }
+    }
+
+    private Timer timer(String name, Stage stage, String route, String outcome) {
+        String key = name + '|' + (stage != null ? stage.tag() : "") + '|' + route + '|' + (outcome != null ? outcome : "");
+        return timers.computeIfAbsent(key, k -> {
+            Timer.Builder builder = Timer.builder(name)
+                    .tag("route", route)
+                    .publishPercentileHistogram();
+            if (stage != null) {
+                builder.tag("stage", stage.tag());
+            }
+            if (outcome != null) {
+                builder.tag("outcome", outcome);
+            }
+            return builder.register(registry);
+        });
+    }
+
+    private String routeId(ServerWebExchange exchange) {
+        Route route = exchange.getAttribute(ServerWebExchangeUtils.GATEWAY_ROUTE_ATTR);
+        return route != null ? route.getId() : "none";
+    }
+
+    private String outcome(HttpStatusCode status) {
+        if (status == null) {
+            return "UNKNOWN";
+        }
+        int series = status.value() / 100;
+        return switch (series) {
+            case 1 -> "INFORMATIONAL";
+            case 2 -> "SUCCESS";
+            case 3 -> "REDIRECTION";
+            case 4 -> "CLIENT_ERROR";
+            case 5 -> "SERVER_ERROR";
+            default -> "UNKNOWN";
+        };
+    }
+}
@@ -3,10 +3,14 @@ package com.example.av.service;
 import com.example.av.entity.CallRoom;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
+import org.apache.rocketmq.spring.core.RocketMQTemplate;
 import org.springframework.data.redis.core.RedisTemplate;
 import org.springframework.stereotype.Service;
 
+import java.time.Duration;
 import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.Iterator;
 import java.util.Set;
 import java.util.UUID;
 import java.util.concurrent.TimeUnit;
@@ -21,6 +25,8 @@ public class CallRoomService {
     
     private final RedisTemplate<String, Object> redisTemplate;
     
+    private final RocketMQTemplate rocketMQTemplate;
+    
     private static final String ROOM_KEY_PREFIX = "av:room:";
     private static final String USER_ROOM_KEY_PREFIX = "av:user:room:";
     private static final long ROOM_EXPIRE_HOURS = 2;
@@ -97,14 +103,19 @@ public class CallRoomService {
      */
     public void endCall(String roomId, Long userId) {
         CallRoom room = getRoom(roomId);
-        if (room == null) {
+        if (room == null || CallRoom.STATUS_ENDED.equals(room.getStatus())) {
             return;
         }
         
+        boolean wasActive = CallRoom.STATUS_ACTIVE.equals(room.getStatus());
         room.setStatus(CallRoom.STATUS_ENDED);
         room.setEndedAt(LocalDateTime.now());
         updateRoom(room);
         
+        if (wasActive) {
+            sendCallEndedEvent(room);
+        }
+        
         // 清除用户房间关联
         for (Long participantId : room.getParticipantIds()) {
             redisTemplate.delete(USER_ROOM_KEY_PREFIX + participantId);
@@ -136,6 +147,27 @@ public class CallRoomService {
         log.info("用户离开房间: roomId={}, userId={}", roomId, userId);
     }
     
+    /**
+     * 一对一通话结束后发送 CALL_ENDED 事件（关系服务据此累计好友互动）
+     */
+    private void sendCallEndedEvent(CallRoom room) {
+        if (!CallRoom.ROOM_P2P.equals(room.getRoomType()) || room.getStartedAt() == null
+                || room.getParticipantIds().size() != 2) {
+            return;
+        }
+        try {
+            Iterator<Long> participants = room.getParticipantIds().iterator();
+            long durationSeconds = Duration.between(room.getStartedAt(), room.getEndedAt()).getSeconds();
+            long endedAt = room.getEndedAt().atZone(ZoneId.systemDefault()).toInstant().toEpochMilli();
+            String message = String.format(
+                    "{\"event\":\"CALL_ENDED\",\"roomId\":\"%s\",\"callType\":\"%s\",\"userId1\":%d,\"userId2\":%d,\"durationSeconds\":%d,\"endedAt\":%d}",
+                    room.getRoomId(), room.getCallType(), participants.next(), participants.next(), durationSeconds, endedAt);
+            rocketMQTemplate.convertAndSend("IM_CALL_TOPIC", message);
+        } catch (Exception e) {
+            log.error("发送通话结束事件失败: roomId={}", room.getRoomId(), e);
+        }
+    }
+    
     private void updateRoom(CallRoom room) {
         String roomKey = ROOM_KEY_PREFIX + room.getRoomId();
         redisTemplate.opsForValue().set(roomKey, room, ROOM_EXPIRE_HOURS, TimeUnit.HOURS);
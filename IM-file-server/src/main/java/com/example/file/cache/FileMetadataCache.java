@@ -0,0 +1,151 @@
+package com.example.file.cache;
+
+import com.example.file.entity.FileMetadata;
+import com.example.file.mapper.FileMetadataMapper;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.LoadingCache;
+import io.minio.GetPresignedObjectUrlArgs;
+import io.minio.MinioClient;
+import io.minio.http.Method;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.connection.Message;
+import org.springframework.data.redis.connection.MessageListener;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 热点文件近端缓存
+ *
+ * 【元数据】
+ * 按 fileHash 缓存 file_metadata。内容寻址决定了对象位置、大小、类型对同一哈希不会变，
+ * 会变的只有引用计数、缩略图等，修改处调用 {@link #invalidate(String)}。
+ * 失效除清除本地缓存外，还通过 Redis 频道 {@value #INVALIDATE_CHANNEL} 广播给其他实例；
+ * 在事务内调用时提交后再清除并广播一次，避免其他请求在提交前把旧数据重新加载进缓存。
+ * 广播是尽力而为的，丢失的通知由较短的过期时间兜底。
+ * 同一哈希的并发未命中由 Caffeine 合并为一次数据库查询；查不到的不缓存，刚上传的文件立即可见。
+ *
+ * 【预签名URL】
+ * 按 (对象, 有效期, 时间窗口) 缓存。同一窗口内的请求拿到同一个URL，
+ * 签发时把有效期延长到窗口结束后再加请求的有效期，保证每个请求方拿到的URL至少还有请求的有效期。
+ * 频道里几百个客户端同时下载同一文件时，只查一次库、只签一次名。
+ */
+@Slf4j
+@Component
+public class FileMetadataCache implements MessageListener {
+
+    public static final String INVALIDATE_CHANNEL = "file:metadata:invalidate";
+
+    /** S3 预签名最长有效期 7 天 */
+    private static final long MAX_PRESIGN_SECONDS = 7 * 24 * 3600;
+
+    private final MinioClient minioClient;
+
+    private final StringRedisTemplate redisTemplate;
+
+    private final LoadingCache<String, FileMetadata> metadata;
+
+    private final Cache<String, String> urls;
+
+    private final long windowSeconds;
+
+    public FileMetadataCache(MinioClient minioClient,
+                             FileMetadataMapper fileMetadataMapper,
+                             StringRedisTemplate redisTemplate,
+                             @Value("${file.cache.metadata-max-size:50000}") long metadataMaxSize,
+                             @Value("${file.cache.metadata-ttl-minutes:5}") long metadataTtlMinutes,
+                             @Value("${file.cache.url-max-size:50000}") long urlMaxSize,
+                             @Value("${file.cache.url-window-seconds:300}") long windowSeconds) {
+        this.minioClient = minioClient;
+        this.redisTemplate = redisTemplate;
+        this.windowSeconds = windowSeconds;
+        this.metadata = Caffeine.newBuilder()
+                .maximumSize(metadataMaxSize)
+                .expireAfterWrite(Duration.ofMinutes(metadataTtlMinutes))
+                .build(fileMetadataMapper::selectById);
+        this.urls = Caffeine.newBuilder()
+                .maximumSize(urlMaxSize)
+                .expireAfterWrite(Duration.ofSeconds(windowSeconds))
+                .build();
+    }
+
+    /**
+     * 获取文件元数据，不存在返回 null
+     */
+    public FileMetadata get(String fileHash) {
+        return metadata.get(fileHash);
+    }
+
+    /**
+     * 元数据变更后失效本地缓存并通知其他实例
+     */
+    public void invalidate(String fileHash) {
+        metadata.invalidate(fileHash);
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCommit() {
+                    metadata.invalidate(fileHash);
+                    broadcast(fileHash);
+                }
+            });
+        } else {
+            broadcast(fileHash);
+        }
+    }
+
+    /**
+     * 收到其他实例的失效通知（自己发出的通知也会收到，重复清除无副作用）
+     */
+    @Override
+    public void onMessage(Message message, byte[] pattern) {
+        String fileHash = new String(message.getBody(), StandardCharsets.UTF_8);
+        metadata.invalidate(fileHash);
+        log.debug("收到文件元数据失效通知: fileHash={}", fileHash);
+    }
+
+    private void broadcast(String fileHash) {
+        try {
+            redisTemplate.convertAndSend(INVALIDATE_CHANNEL, fileHash);
+        } catch (Exception e) {
+            // 其他实例等缓存过期后读到新数据
+            log.warn("广播文件元数据失效失败: fileHash={}, error={}", fileHash, e.getMessage());
+        }
+    }
+
+    /**
+     * 获取预签名下载URL，同一时间窗口内复用
+     */
+    public String getDownloadUrl(FileMetadata file, int expireMinutes) {
+        return getObjectUrl(file.getBucketName(), file.getObjectKey(), expireMinutes);
+    }
+
+    /**
+     * 获取任意对象（原文件、缩略图、预览）的预签名URL，同一时间窗口内复用
+     */
+    public String getObjectUrl(String bucket, String objectKey, int expireMinutes) {
+        long now = System.currentTimeMillis() / 1000;
+        long windowStart = now - now % windowSeconds;
+        String key = bucket + "/" + objectKey + ":" + expireMinutes + ":" + windowStart;
+        return urls.get(key, k -> {
+            long expiry = Math.min(windowStart + windowSeconds + expireMinutes * 60L - now, MAX_PRESIGN_SECONDS);
+            try {
+                return minioClient.getPresignedObjectUrl(GetPresignedObjectUrlArgs.builder()
+                        .bucket(bucket)
+                        .object(objectKey)
+                        .method(Method.GET)
+                        .expiry((int) expiry, TimeUnit.SECONDS)
+                        .build());
+            } catch (Exception e) {
+                throw new IllegalStateException("生成下载链接失败: " + e.getMessage(), e);
+            }
+        });
+    }
+}
@@ -0,0 +1,25 @@
+package com.example.file.config;
+
+import com.example.file.cache.FileMetadataCache;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.data.redis.connection.RedisConnectionFactory;
+import org.springframework.data.redis.listener.ChannelTopic;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
+
+/**
+ * 近端缓存失效广播配置
+ * 订阅文件元数据失效频道，各实例收到通知后清除本地缓存
+ */
+@Configuration
+public class CacheInvalidationConfig {
+
+    @Bean
+    public RedisMessageListenerContainer cacheInvalidationListenerContainer(RedisConnectionFactory connectionFactory,
+                                                                            FileMetadataCache fileMetadataCache) {
+        RedisMessageListenerContainer container = new RedisMessageListenerContainer();
+        container.setConnectionFactory(connectionFactory);
+        container.addMessageListener(fileMetadataCache, new ChannelTopic(FileMetadataCache.INVALIDATE_CHANNEL));
+        return container;
+    }
+}
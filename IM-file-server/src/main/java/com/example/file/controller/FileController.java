@@ -3,6 +3,8 @@ package com.example.file.controller;
 import com.example.file.entity.FileUploadSession;
 import com.example.file.entity.UserFile;
 import com.example.file.service.FileStorageService;
+import com.example.file.service.MultipartUploadService;
+import jakarta.servlet.http.HttpServletRequest;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.http.ResponseEntity;
@@ -10,6 +12,7 @@ import org.springframework.web.bind.annotation.*;
 import org.springframework.web.multipart.MultipartFile;
 
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 
 /**
@@ -23,6 +26,8 @@ public class FileController {
 
     private final FileStorageService fileStorageService;
 
+    private final MultipartUploadService multipartUploadService;
+
     /**
      * 上传文件
      */
@@ -31,9 +36,10 @@ public class FileController {
             @RequestHeader("X-User-Id") Long userId,
             @RequestParam("file") MultipartFile file,
             @RequestParam(value = "sourceType", defaultValue = "upload") String sourceType,
-            @RequestParam(value = "sourceId", required = false) String sourceId) {
+            @RequestParam(value = "sourceId", required = false) String sourceId,
+            @RequestParam(value = "fileHash", required = false) String fileHash) {
         try {
-            UserFile userFile = fileStorageService.uploadFile(userId, file, sourceType, sourceId);
+            UserFile userFile = fileStorageService.uploadFile(userId, file, sourceType, sourceId, fileHash);
             
             Map<String, Object> result = new HashMap<>();
             result.put("success", true);
@@ -89,6 +95,31 @@ public class FileController {
         }
     }
 
+    /**
+     * 获取缩略图/预览链接
+     */
+    @GetMapping("/thumbnail/{fileHash}")
+    public ResponseEntity<Map<String, Object>> getThumbnailUrl(
+            @PathVariable String fileHash,
+            @RequestParam(value = "size", defaultValue = "medium") String size,
+            @RequestParam(value = "expireMinutes", defaultValue = "30") int expireMinutes) {
+        try {
+            String url = fileStorageService.getThumbnailUrl(fileHash, size, expireMinutes);
+            
+            Map<String, Object> result = new HashMap<>();
+            result.put("success", true);
+            result.put("url", url);
+            
+            return ResponseEntity.ok(result);
+        } catch (Exception e) {
+            log.error("获取缩略图链接失败", e);
+            Map<String, Object> result = new HashMap<>();
+            result.put("success", false);
+            result.put("message", e.getMessage());
+            return ResponseEntity.badRequest().body(result);
+        }
+    }
+
     /**
      * 初始化分片上传
      */
@@ -98,18 +129,144 @@ public class FileController {
             @RequestParam String fileName,
             @RequestParam Long fileSize,
             @RequestParam(defaultValue = "application/octet-stream") String mimeType,
-            @RequestParam(defaultValue = "5242880") int chunkSize) {
-        
-        FileUploadSession session = fileStorageService.initMultipartUpload(
-                userId, fileName, fileSize, mimeType, chunkSize);
-        
-        Map<String, Object> result = new HashMap<>();
-        result.put("success", true);
-        result.put("uploadId", session.getUploadId());
-        result.put("chunkCount", session.getChunkCount());
-        result.put("chunkSize", session.getChunkSize());
-        
-        return ResponseEntity.ok(result);
+            @RequestParam(defaultValue = "5242880") int chunkSize,
+            @RequestParam(value = "fileHash", required = false) String fileHash,
+            @RequestParam(value = "sourceType", defaultValue = "upload") String sourceType,
+            @RequestParam(value = "sourceId", required = false) String sourceId) {
+        try {
+            // 秒传：客户端提供的哈希已存在时不创建会话
+            UserFile userFile = fileStorageService.uploadExisting(
+                    userId, fileHash, fileSize, fileName, sourceType, sourceId);
+            if (userFile != null) {
+                Map<String, Object> result = new HashMap<>();
+                result.put("success", true);
+                result.put("fastUpload", true);
+                result.put("fileId", userFile.getId());
+                result.put("fileHash", userFile.getFileHash());
+                return ResponseEntity.ok(result);
+            }
+            
+            FileUploadSession session = multipartUploadService.initMultipartUpload(
+                    userId, fileName, fileSize, mimeType, chunkSize, fileHash);
+            
+            Map<String, Object> result = new HashMap<>();
+            result.put("success", true);
+            result.put("fastUpload", false);
+            result.put("uploadId", session.getUploadId());
+            result.put("chunkCount", session.getChunkCount());
+            result.put("chunkSize", session.getChunkSize());
+            
+            return ResponseEntity.ok(result);
+        } catch (Exception e) {
+            log.error("初始化分片上传失败", e);
+            Map<String, Object> result = new HashMap<>();
+            result.put("success", false);
+            result.put("message", e.getMessage());
+            return ResponseEntity.badRequest().body(result);
+        }
+    }
+
+    /**
+     * 上传分片（请求体为分片原始字节，可并行、可重传）
+     */
+    @PutMapping("/multipart/{uploadId}/parts/{partNumber}")
+    public ResponseEntity<Map<String, Object>> uploadPart(
+            @RequestHeader("X-User-Id") Long userId,
+            @PathVariable String uploadId,
+            @PathVariable int partNumber,
+            HttpServletRequest request) {
+        try {
+            long uploaded = multipartUploadService.uploadPart(
+                    userId, uploadId, partNumber, request.getInputStream(), request.getContentLengthLong());
+            
+            Map<String, Object> result = new HashMap<>();
+            result.put("success", true);
+            result.put("partNumber", partNumber);
+            result.put("uploadedChunks", uploaded);
+            
+            return ResponseEntity.ok(result);
+        } catch (Exception e) {
+            log.error("分片上传失败: uploadId={}, partNumber={}", uploadId, partNumber, e);
+            Map<String, Object> result = new HashMap<>();
+            result.put("success", false);
+            result.put("message", e.getMessage());
+            return ResponseEntity.badRequest().body(result);
+        }
+    }
+
+    /**
+     * 查询已上传的分片（断点续传）
+     */
+    @GetMapping("/multipart/{uploadId}/parts")
+    public ResponseEntity<Map<String, Object>> getUploadedParts(
+            @RequestHeader("X-User-Id") Long userId,
+            @PathVariable String uploadId) {
+        try {
+            List<Integer> parts = multipartUploadService.getUploadedParts(userId, uploadId);
+            
+            Map<String, Object> result = new HashMap<>();
+            result.put("success", true);
+            result.put("uploadedParts", parts);
+            
+            return ResponseEntity.ok(result);
+        } catch (Exception e) {
+            log.error("查询分片失败: uploadId={}", uploadId, e);
+            Map<String, Object> result = new HashMap<>();
+            result.put("success", false);
+            result.put("message", e.getMessage());
+            return ResponseEntity.badRequest().body(result);
+        }
+    }
+
+    /**
+     * 完成分片上传
+     */
+    @PostMapping("/multipart/{uploadId}/complete")
+    public ResponseEntity<Map<String, Object>> completeMultipartUpload(
+            @RequestHeader("X-User-Id") Long userId,
+            @PathVariable String uploadId,
+            @RequestParam(value = "sourceType", defaultValue = "upload") String sourceType,
+            @RequestParam(value = "sourceId", required = false) String sourceId) {
+        try {
+            UserFile userFile = multipartUploadService.completeUpload(userId, uploadId, sourceType, sourceId);
+            
+            Map<String, Object> result = new HashMap<>();
+            result.put("success", true);
+            result.put("fileId", userFile.getId());
+            result.put("fileHash", userFile.getFileHash());
+            result.put("fileName", userFile.getOriginalName());
+            
+            return ResponseEntity.ok(result);
+        } catch (Exception e) {
+            log.error("完成分片上传失败: uploadId={}", uploadId, e);
+            Map<String, Object> result = new HashMap<>();
+            result.put("success", false);
+            result.put("message", e.getMessage());
+            return ResponseEntity.badRequest().body(result);
+        }
+    }
+
+    /**
+     * 取消分片上传
+     */
+    @DeleteMapping("/multipart/{uploadId}")
+    public ResponseEntity<Map<String, Object>> abortMultipartUpload(
+            @RequestHeader("X-User-Id") Long userId,
+            @PathVariable String uploadId) {
+        try {
+            multipartUploadService.abortUpload(userId, uploadId);
+            
+            Map<String, Object> result = new HashMap<>();
+            result.put("success", true);
+            
+            return ResponseEntity.ok(result);
+        } catch (Exception e) {
+            log.error("取消分片上传失败: uploadId={}", uploadId, e);
+            Map<String, Object> result = new HashMap<>();
+            result.put("success", false);
+            result.put("message", e.getMessage());
+            return ResponseEntity.badRequest().body(result);
+        }
     }
 
     /**
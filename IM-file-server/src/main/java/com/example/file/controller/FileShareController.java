@@ -74,8 +74,7 @@ public class FileShareController {
     public Result<Boolean> validateShare(
             @PathVariable Long shareId,
             @RequestParam(required = false) String password) {
-        FileShare share = fileShareService.getShareById(shareId);
-        boolean valid = fileShareService.isShareValid(share);
+        boolean valid = fileShareService.validateShare(shareId);
         return Result.success(valid);
     }
     
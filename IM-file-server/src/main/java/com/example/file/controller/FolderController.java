@@ -36,8 +36,21 @@ public class FolderController {
     @PutMapping("/{folderId}/rename")
     public Result<Folder> renameFolder(
             @PathVariable Long folderId,
-            @RequestParam String newName) {
-        Folder folder = folderService.renameFolder(folderId, newName);
+            @RequestParam String newName,
+            @RequestHeader("X-User-Id") Long userId) {
+        Folder folder = folderService.renameFolder(userId, folderId, newName);
+        return Result.success(folder);
+    }
+    
+    /**
+     * 移动文件夹
+     */
+    @PutMapping("/{folderId}/move")
+    public Result<Folder> moveFolder(
+            @PathVariable Long folderId,
+            @RequestParam(required = false) Long parentId,
+            @RequestHeader("X-User-Id") Long userId) {
+        Folder folder = folderService.moveFolder(userId, folderId, parentId);
         return Result.success(folder);
     }
     
@@ -45,8 +58,10 @@ public class FolderController {
      * 删除文件夹
      */
     @DeleteMapping("/{folderId}")
-    public Result<Void> deleteFolder(@PathVariable Long folderId) {
-        folderService.deleteFolder(folderId);
+    public Result<Void> deleteFolder(
+            @PathVariable Long folderId,
+            @RequestHeader("X-User-Id") Long userId) {
+        folderService.deleteFolder(userId, folderId);
         return Result.success(null);
     }
     
@@ -54,8 +69,10 @@ public class FolderController {
      * 获取文件夹详情
      */
     @GetMapping("/{folderId}")
-    public Result<Folder> getFolder(@PathVariable Long folderId) {
-        Folder folder = folderService.getFolderById(folderId);
+    public Result<Folder> getFolder(
+            @PathVariable Long folderId,
+            @RequestHeader("X-User-Id") Long userId) {
+        Folder folder = folderService.getFolderById(userId, folderId);
         return Result.success(folder);
     }
     
@@ -72,8 +89,10 @@ public class FolderController {
      * 获取子文件夹列表
      */
     @GetMapping("/{folderId}/children")
-    public Result<List<Folder>> getSubFolders(@PathVariable Long folderId) {
-        List<Folder> folders = folderService.getSubFolders(folderId);
+    public Result<List<Folder>> getSubFolders(
+            @PathVariable Long folderId,
+            @RequestHeader("X-User-Id") Long userId) {
+        List<Folder> folders = folderService.getSubFolders(userId, folderId);
         return Result.success(folders);
     }
 }
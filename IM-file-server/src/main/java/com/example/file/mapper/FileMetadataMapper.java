@@ -4,6 +4,7 @@ import com.baomidou.mybatisplus.core.mapper.BaseMapper;
 import com.example.file.entity.FileMetadata;
 import org.apache.ibatis.annotations.Mapper;
 import org.apache.ibatis.annotations.Param;
+import org.apache.ibatis.annotations.Select;
 import org.apache.ibatis.annotations.Update;
 
 /**
@@ -23,4 +24,28 @@ public interface FileMetadataMapper extends BaseMapper<FileMetadata> {
      */
     @Update("UPDATE file_metadata SET ref_count = ref_count - 1 WHERE file_hash = #{fileHash}")
     int decrementRefCount(@Param("fileHash") String fileHash);
+
+    /**
+     * 插入元数据，哈希已存在时改为引用计数+1（并发上传相同内容）
+     *
+     * @return 最终入库的对象键
+     */
+    @Select("INSERT INTO file_metadata (file_hash, file_size, file_type, mime_type, ext, storage_backend, " +
+            "bucket_name, object_key, ref_count, status, virus_scan_status, content_audit_status, created_at, updated_at) " +
+            "VALUES (#{m.fileHash}, #{m.fileSize}, #{m.fileType}, #{m.mimeType}, #{m.ext}, #{m.storageBackend}, " +
+            "#{m.bucketName}, #{m.objectKey}, 1, 1, 0, 0, NOW(), NOW()) " +
+            "ON CONFLICT (file_hash) DO UPDATE SET ref_count = file_metadata.ref_count + 1, updated_at = NOW() " +
+            "RETURNING object_key")
+    String insertOrIncrement(@Param("m") FileMetadata metadata);
+
+    /**
+     * 写入缩略图、预览及媒体信息（为 null 的字段保持不变）
+     */
+    @Update("UPDATE file_metadata SET thumbnail_keys = COALESCE(CAST(#{thumbnailKeys} AS JSONB), thumbnail_keys), " +
+            "preview_key = COALESCE(#{previewKey}, preview_key), width = COALESCE(#{width}, width), " +
+            "height = COALESCE(#{height}, height), page_count = COALESCE(#{pageCount}, page_count), " +
+            "updated_at = NOW() WHERE file_hash = #{fileHash}")
+    int updateDerived(@Param("fileHash") String fileHash, @Param("thumbnailKeys") String thumbnailKeys,
+                      @Param("previewKey") String previewKey, @Param("width") Integer width,
+                      @Param("height") Integer height, @Param("pageCount") Integer pageCount);
 }
@@ -23,4 +23,16 @@ public interface FileShareMapper extends BaseMapper<FileShare> {
     
     @Update("UPDATE file_shares SET download_count = download_count + 1 WHERE id = #{id}")
     int incrementDownloadCount(@Param("id") Long id);
+    
+    /**
+     * 批量累加查看/下载次数（unnest 展开为一条语句，每个分享一行）
+     */
+    @Update("UPDATE file_shares s SET view_count = s.view_count + d.views, " +
+            "download_count = s.download_count + d.downloads " +
+            "FROM unnest(" +
+            "  #{ids, typeHandler=org.apache.ibatis.type.ArrayTypeHandler}::bigint[]," +
+            "  #{views, typeHandler=org.apache.ibatis.type.ArrayTypeHandler}::bigint[]," +
+            "  #{downloads, typeHandler=org.apache.ibatis.type.ArrayTypeHandler}::bigint[]" +
+            ") AS d(id, views, downloads) WHERE s.id = d.id")
+    int addCounts(@Param("ids") Long[] ids, @Param("views") Long[] views, @Param("downloads") Long[] downloads);
 }
@@ -2,9 +2,13 @@ package com.example.file.mapper;
 
 import com.baomidou.mybatisplus.core.mapper.BaseMapper;
 import com.example.file.entity.FileTranscodeTask;
+import org.apache.ibatis.annotations.Insert;
 import org.apache.ibatis.annotations.Mapper;
+import org.apache.ibatis.annotations.Options;
 import org.apache.ibatis.annotations.Param;
+import org.apache.ibatis.annotations.ResultMap;
 import org.apache.ibatis.annotations.Select;
+import org.apache.ibatis.annotations.Update;
 
 import java.util.List;
 
@@ -16,4 +20,33 @@ public interface FileTranscodeTaskMapper extends BaseMapper<FileTranscodeTask> {
     
     @Select("SELECT * FROM file_transcode_tasks WHERE user_id = #{userId} ORDER BY created_at DESC")
     List<FileTranscodeTask> selectByUserId(@Param("userId") Long userId);
+    
+    /**
+     * 入队（同一文件同一目标只建一次任务）
+     */
+    @Insert("INSERT INTO file_transcode_tasks (file_hash, user_id, source_format, target_format, quality, status, progress, created_at) " +
+            "SELECT #{fileHash}, #{userId}, #{sourceFormat}, #{targetFormat}, 'medium', 0, 0, NOW() " +
+            "WHERE NOT EXISTS (SELECT 1 FROM file_transcode_tasks WHERE file_hash = #{fileHash} AND target_format = #{targetFormat})")
+    int enqueue(@Param("fileHash") String fileHash, @Param("userId") Long userId,
+                @Param("sourceFormat") String sourceFormat, @Param("targetFormat") String targetFormat);
+    
+    /**
+     * 认领待处理任务，SKIP LOCKED 让多个 worker / 多实例并发认领互不阻塞、不重复
+     */
+    @Select("UPDATE file_transcode_tasks SET status = 1, worker_id = #{workerId}, progress = 0, started_at = NOW() " +
+            "WHERE id IN (SELECT id FROM file_transcode_tasks WHERE status = 0 ORDER BY created_at " +
+            "LIMIT #{limit} FOR UPDATE SKIP LOCKED) RETURNING *")
+    @Options(flushCache = Options.FlushCachePolicy.TRUE)
+    @ResultMap("mybatis-plus_FileTranscodeTask")
+    List<FileTranscodeTask> claimTasks(@Param("workerId") String workerId, @Param("limit") int limit);
+    
+    @Update("UPDATE file_transcode_tasks SET progress = #{progress} WHERE id = #{id}")
+    int updateProgress(@Param("id") Long id, @Param("progress") int progress);
+    
+    /**
+     * 处理中超时的任务（worker 宕机）退回待处理
+     */
+    @Update("UPDATE file_transcode_tasks SET status = 0, worker_id = NULL, progress = 0 " +
+            "WHERE status = 1 AND started_at < NOW() - make_interval(mins => #{minutes})")
+    int resetStale(@Param("minutes") int minutes);
 }
@@ -3,10 +3,35 @@ package com.example.file.mapper;
 import com.baomidou.mybatisplus.core.mapper.BaseMapper;
 import com.example.file.entity.FileUploadSession;
 import org.apache.ibatis.annotations.Mapper;
+import org.apache.ibatis.annotations.Param;
+import org.apache.ibatis.annotations.Select;
+import org.apache.ibatis.annotations.Update;
+
+import java.util.List;
 
 /**
  * 文件上传会话 Mapper
  */
 @Mapper
 public interface FileUploadSessionMapper extends BaseMapper<FileUploadSession> {
+
+    /**
+     * 按上传会话ID查询
+     */
+    @Select("SELECT * FROM file_upload_sessions WHERE upload_id = #{uploadId}")
+    FileUploadSession findByUploadId(@Param("uploadId") String uploadId);
+
+    /**
+     * 条件更新状态（仅当前状态为 from 时生效）
+     */
+    @Update("UPDATE file_upload_sessions SET status = #{to} WHERE upload_id = #{uploadId} AND status = #{from}")
+    int transitStatus(@Param("uploadId") String uploadId, @Param("from") int from, @Param("to") int to);
+
+    /**
+     * 查询已过期仍在上传中的会话，以及过期超过合并超时仍停在合并中的会话（合并中途实例宕机）
+     */
+    @Select("SELECT * FROM file_upload_sessions WHERE (status = 1 AND expires_at < NOW()) " +
+            "OR (status = 2 AND expires_at < NOW() - make_interval(mins => #{mergeTimeoutMinutes})) " +
+            "ORDER BY expires_at LIMIT #{limit}")
+    List<FileUploadSession> findExpired(@Param("limit") int limit, @Param("mergeTimeoutMinutes") int mergeTimeoutMinutes);
 }
@@ -5,6 +5,7 @@ import com.example.file.entity.Folder;
 import org.apache.ibatis.annotations.Mapper;
 import org.apache.ibatis.annotations.Param;
 import org.apache.ibatis.annotations.Select;
+import org.apache.ibatis.annotations.Update;
 
 import java.util.List;
 
@@ -19,4 +20,40 @@ public interface FolderMapper extends BaseMapper<Folder> {
     
     @Select("SELECT * FROM folders WHERE user_id = #{userId} AND path LIKE #{pathPrefix} || '%' AND deleted_at IS NULL")
     List<Folder> selectByPathPrefix(@Param("userId") Long userId, @Param("pathPrefix") String pathPrefix);
+    
+    /**
+     * 用户下是否已有该路径的文件夹（同级重名检查，需持有 lockTree）
+     */
+    @Select("SELECT EXISTS (SELECT 1 FROM folders WHERE user_id = #{userId} AND path = #{path} AND deleted_at IS NULL)")
+    boolean existsActivePath(@Param("userId") Long userId, @Param("path") String path);
+    
+    /**
+     * 事务级锁住用户的文件夹树，串行化同一用户的创建/重命名/移动/删除
+     */
+    @Select("SELECT 1 FROM (SELECT pg_advisory_xact_lock(#{userId})) t")
+    Integer lockTree(@Param("userId") Long userId);
+    
+    /**
+     * 一条语句重写整棵子树：路径前缀替换、层级平移，根节点同时更新名称和父节点
+     *
+     * @param descendantPattern 已转义的 LIKE 模式：oldPath + "/%"
+     */
+    @Update("UPDATE folders SET " +
+            "path = #{newPath} || substr(path, char_length(#{oldPath}) + 1), " +
+            "level = level + #{levelDelta}, " +
+            "name = CASE WHEN id = #{folderId} THEN #{name} ELSE name END, " +
+            "parent_id = CASE WHEN id = #{folderId} THEN #{parentId,jdbcType=BIGINT} ELSE parent_id END, " +
+            "updated_at = NOW() " +
+            "WHERE user_id = #{userId} AND (id = #{folderId} " +
+            "OR (path LIKE #{descendantPattern} ESCAPE '\\' AND deleted_at IS NULL))")
+    int rewriteSubtree(@Param("userId") Long userId, @Param("folderId") Long folderId,
+                       @Param("name") String name, @Param("parentId") Long parentId,
+                       @Param("oldPath") String oldPath, @Param("newPath") String newPath,
+                       @Param("descendantPattern") String descendantPattern, @Param("levelDelta") int levelDelta);
+    
+    /**
+     * 原子调整子文件夹数
+     */
+    @Update("UPDATE folders SET folder_count = GREATEST(folder_count + #{delta}, 0), updated_at = NOW() WHERE id = #{folderId}")
+    int adjustFolderCount(@Param("folderId") Long folderId, @Param("delta") int delta);
 }
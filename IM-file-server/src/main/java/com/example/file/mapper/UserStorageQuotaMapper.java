@@ -2,18 +2,62 @@ package com.example.file.mapper;
 
 import com.baomidou.mybatisplus.core.mapper.BaseMapper;
 import com.example.file.entity.UserStorageQuota;
+import org.apache.ibatis.annotations.Insert;
 import org.apache.ibatis.annotations.Mapper;
+import org.apache.ibatis.annotations.Options;
 import org.apache.ibatis.annotations.Param;
+import org.apache.ibatis.annotations.Select;
 import org.apache.ibatis.annotations.Update;
 
+import java.time.LocalDateTime;
+import java.util.List;
+
 @Mapper
 public interface UserStorageQuotaMapper extends BaseMapper<UserStorageQuota> {
-    
+
     @Update("UPDATE user_storage_quotas SET used_storage = used_storage + #{size}, " +
-            "file_count = file_count + 1 WHERE user_id = #{userId}")
+            "file_count = file_count + 1, updated_at = clock_timestamp() WHERE user_id = #{userId}")
     int incrementUsage(@Param("userId") Long userId, @Param("size") Long size);
-    
-    @Update("UPDATE user_storage_quotas SET used_storage = used_storage - #{size}, " +
-            "file_count = file_count - 1 WHERE user_id = #{userId}")
+
+    @Update("UPDATE user_storage_quotas SET used_storage = GREATEST(used_storage - #{size}, 0), " +
+            "file_count = GREATEST(file_count - 1, 0), updated_at = clock_timestamp() WHERE user_id = #{userId}")
     int decrementUsage(@Param("userId") Long userId, @Param("size") Long size);
+
+    /**
+     * 创建默认配额，已存在时不做任何事
+     */
+    @Insert("INSERT INTO user_storage_quotas (user_id, max_storage, max_file_size, used_storage, file_count, extra_storage, updated_at) " +
+            "VALUES (#{userId}, #{maxStorage}, #{maxFileSize}, 0, 0, 0, clock_timestamp()) ON CONFLICT (user_id) DO NOTHING")
+    int insertDefault(@Param("userId") Long userId, @Param("maxStorage") long maxStorage,
+                      @Param("maxFileSize") long maxFileSize);
+
+    @Update("UPDATE user_storage_quotas SET extra_storage = COALESCE(extra_storage, 0) + #{size}, " +
+            "expires_at = #{expiresAt}, updated_at = clock_timestamp() WHERE user_id = #{userId}")
+    int addExtraStorage(@Param("userId") Long userId, @Param("size") long size,
+                        @Param("expiresAt") LocalDateTime expiresAt);
+
+    /**
+     * 按用户ID分页（纠偏批次）
+     */
+    @Select("SELECT user_id FROM user_storage_quotas WHERE user_id > #{afterUserId} ORDER BY user_id LIMIT #{limit}")
+    List<Long> selectUserIdsAfter(@Param("afterUserId") long afterUserId, @Param("limit") int limit);
+
+    /**
+     * 按 user_files 重算一个用户ID区间的用量，只改有偏差的行，返回被修正的用户
+     * 最近有变动的行跳过：语句执行期间被触发器并发更新的行重新检查时 updated_at 不满足，不会被旧快照覆盖。
+     * 各处写 updated_at 都用 clock_timestamp()，长事务里的变动按实际写入时刻计入静默窗口
+     */
+    @Select("UPDATE user_storage_quotas q SET used_storage = s.used, file_count = s.cnt, updated_at = clock_timestamp() " +
+            "FROM (SELECT q2.user_id, COALESCE(SUM(m.file_size), 0) AS used, COUNT(f.id) AS cnt " +
+            "      FROM user_storage_quotas q2 " +
+            "      LEFT JOIN user_files f ON f.user_id = q2.user_id AND f.deleted_at IS NULL " +
+            "      LEFT JOIN file_metadata m ON m.file_hash = f.file_hash " +
+            "      WHERE q2.user_id BETWEEN #{fromUserId} AND #{toUserId} GROUP BY q2.user_id) s " +
+            "WHERE q.user_id = s.user_id " +
+            "AND (q.used_storage IS DISTINCT FROM s.used OR q.file_count IS DISTINCT FROM s.cnt) " +
+            "AND q.updated_at < clock_timestamp() - make_interval(mins => #{quietMinutes}) " +
+            "RETURNING q.user_id")
+    @Options(flushCache = Options.FlushCachePolicy.TRUE)
+    List<Long> reconcileRange(@Param("fromUserId") long fromUserId, @Param("toUserId") long toUserId,
+                              @Param("quietMinutes") int quietMinutes);
 }
@@ -2,24 +2,47 @@ package com.example.file.service;
 
 import com.example.file.entity.FileShare;
 import com.example.file.mapper.FileShareMapper;
-import lombok.RequiredArgsConstructor;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.LoadingCache;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
 
+import java.time.Duration;
 import java.time.LocalDateTime;
 import java.util.List;
+import java.util.Optional;
 
 /**
  * 文件分享服务
+ *
+ * 分享链接的校验与计数是高频访问：
+ * - 分享记录本地缓存（含不存在的ID），过期时间短；取消分享时本实例立即失效，其他实例最迟一个 TTL 后失效
+ * - 查看/下载计数先进 {@link ShareCounterBuffer}，定时批量写回
  */
 @Slf4j
 @Service
-@RequiredArgsConstructor
 public class FileShareService {
     
     private final FileShareMapper fileShareMapper;
     
+    private final ShareCounterBuffer shareCounterBuffer;
+    
+    private final LoadingCache<Long, Optional<FileShare>> shares;
+    
+    public FileShareService(FileShareMapper fileShareMapper,
+                            ShareCounterBuffer shareCounterBuffer,
+                            @Value("${file.share.cache-max-size:20000}") long cacheMaxSize,
+                            @Value("${file.share.cache-ttl-seconds:30}") long cacheTtlSeconds) {
+        this.fileShareMapper = fileShareMapper;
+        this.shareCounterBuffer = shareCounterBuffer;
+        this.shares = Caffeine.newBuilder()
+                .maximumSize(cacheMaxSize)
+                .expireAfterWrite(Duration.ofSeconds(cacheTtlSeconds))
+                .build(id -> Optional.ofNullable(fileShareMapper.selectById(id)));
+    }
+    
     /**
      * 创建分享
      */
@@ -51,16 +74,24 @@ public class FileShareService {
     @Transactional
     public void cancelShare(Long shareId) {
         fileShareMapper.deleteById(shareId);
+        shares.invalidate(shareId);
         log.info("取消文件分享成功: shareId={}", shareId);
     }
     
     /**
-     * 获取分享详情
+     * 获取分享详情（计数为最近一次写回的值）
      */
     public FileShare getShareById(Long shareId) {
         return fileShareMapper.selectById(shareId);
     }
     
+    /**
+     * 校验分享是否有效（读缓存）
+     */
+    public boolean validateShare(Long shareId) {
+        return isShareValid(shares.get(shareId).orElse(null));
+    }
+    
     /**
      * 获取文件的所有分享
      */
@@ -76,19 +107,17 @@ public class FileShareService {
     }
     
     /**
-     * 记录查看
+     * 记录查看（缓冲后批量写回）
      */
-    @Transactional
     public void recordView(Long shareId) {
-        fileShareMapper.incrementViewCount(shareId);
+        shareCounterBuffer.addView(shareId);
     }
     
     /**
-     * 记录下载
+     * 记录下载（缓冲后批量写回）
      */
-    @Transactional
     public void recordDownload(Long shareId) {
-        fileShareMapper.incrementDownloadCount(shareId);
+        shareCounterBuffer.addDownload(shareId);
     }
     
     /**
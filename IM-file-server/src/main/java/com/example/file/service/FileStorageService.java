@@ -1,25 +1,32 @@
 package com.example.file.service;
 
+import com.example.file.cache.FileMetadataCache;
 import com.example.file.entity.FileMetadata;
-import com.example.file.entity.FileUploadSession;
 import com.example.file.entity.UserFile;
 import com.example.file.mapper.FileMetadataMapper;
-import com.example.file.mapper.FileUploadSessionMapper;
 import com.example.file.mapper.UserFileMapper;
+import com.example.file.transcode.TranscodeService;
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
 import io.minio.*;
-import io.minio.http.Method;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
 import org.springframework.web.multipart.MultipartFile;
 
 import java.io.InputStream;
+import java.security.DigestInputStream;
 import java.security.MessageDigest;
+import java.time.Duration;
 import java.time.LocalDateTime;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Map;
 import java.util.UUID;
-import java.util.concurrent.TimeUnit;
 
 /**
  * ====================================================================
@@ -30,7 +37,7 @@ import java.util.concurrent.TimeUnit;
  * 实现企业级文件存储功能：
  * - 文件上传/下载
  * - CAS去重（秒传）
- * - 分片上传（大文件）
+ * - 分片上传（大文件，见 MultipartUploadService）
  * - 引用计数管理
  * 
  * 【CAS（内容寻址存储）原理】
@@ -47,10 +54,13 @@ import java.util.concurrent.TimeUnit;
  * └─────────────────────────────────────────────────────────┘
  * 
  * 【文件上传流程】
- * 1. 客户端计算文件SHA-256哈希
+ * 1. 客户端计算文件SHA-256哈希（可选）
  * 2. 查询数据库是否已存在该哈希
- * 3. 存在 → 秒传成功（仅增加引用计数）
- * 4. 不存在 → 上传到MinIO → 保存元数据
+ * 3. 存在 → 秒传成功（仅增加引用计数，不读取上传内容）
+ * 4. 不存在 → 单遍读取：边算哈希边写入MinIO临时对象（tmp/uuid）
+ * 5. 哈希已存在 → 丢弃临时对象；否则服务端拷贝到CAS路径 → 保存元数据
+ * 
+ * 临时对象在 finally 中删除，进程异常退出遗留的 tmp/ 对象由存储桶生命周期规则清理。
  * 
  * 【引用计数机制】
  * - 每个文件有 ref_count 字段
@@ -81,69 +91,108 @@ public class FileStorageService {
     /** 文件元数据访问 - 物理文件信息（CAS表） */
     private final FileMetadataMapper fileMetadataMapper;
     
+    /** 热点文件元数据与预签名URL近端缓存 */
+    private final FileMetadataCache fileMetadataCache;
+    
+    /** 缩略图/预览生成 */
+    private final TranscodeService transcodeService;
+    
+    /** JSON 解析（缩略图路径） */
+    private final ObjectMapper objectMapper;
+    
+    /** 存储配额 - 上传前预留空间 */
+    private final UserStorageService userStorageService;
+    
     /** 用户文件访问 - 用户与文件的关联关系 */
     private final UserFileMapper userFileMapper;
-    
-    /** 上传会话访问 - 分片上传状态管理 */
-    private final FileUploadSessionMapper uploadSessionMapper;
 
     /** MinIO存储桶名称 */
     @Value("${minio.bucket-name:files}")
     private String bucketName;
 
+    /** 上传临时对象前缀 */
+    static final String TEMP_PREFIX = "tmp/";
+
+    /** 单次上传的空间预留有效期 */
+    private static final Duration UPLOAD_RESERVATION_TTL = Duration.ofMinutes(30);
+
     /**
      * 上传文件（支持秒传）
+     *
+     * @param clientHash 客户端计算的SHA-256，可为空；提供且已存在时直接秒传
      */
     @Transactional
-    public UserFile uploadFile(Long userId, MultipartFile file, String sourceType, String sourceId) throws Exception {
-        // 1. 计算文件哈希
-        String fileHash = calculateSHA256(file.getInputStream());
+    public UserFile uploadFile(Long userId, MultipartFile file, String sourceType, String sourceId,
+                               String clientHash) throws Exception {
+        // 0. 预留空间，事务提交后计入已用量，失败回滚时释放
+        String reservationId = UUID.randomUUID().toString();
+        userStorageService.reserve(userId, reservationId, file.getSize(), UPLOAD_RESERVATION_TTL);
+        userStorageService.settleWithTransaction(userId, reservationId, file.getSize());
         
-        // 2. 检查是否已存在（秒传）
-        FileMetadata existingFile = fileMetadataMapper.selectById(fileHash);
+        String fileHash = normalizeHash(clientHash);
         
-        if (existingFile != null) {
-            // 文件已存在，增加引用计数
-            fileMetadataMapper.incrementRefCount(fileHash);
-            log.info("秒传成功: fileHash={}", fileHash);
-        } else {
-            // 3. 上传到MinIO
-            String objectKey = buildObjectKey(fileHash, getExtension(file.getOriginalFilename()));
-            
-            minioClient.putObject(PutObjectArgs.builder()
-                    .bucket(bucketName)
-                    .object(objectKey)
-                    .stream(file.getInputStream(), file.getSize(), -1)
-                    .contentType(file.getContentType())
-                    .build());
+        // 1. 客户端提供了哈希：先尝试秒传
+        if (fileHash == null || !reuseExisting(fileHash, file.getSize())) {
+            // 2. 单遍读取上传内容，边算哈希边写入MinIO
+            fileHash = storeContent(userId, file, fileHash);
+        }
 
-            // 4. 保存元数据
-            FileMetadata metadata = new FileMetadata();
-            metadata.setFileHash(fileHash);
-            metadata.setFileSize(file.getSize());
-            metadata.setFileType(getFileType(file.getContentType()));
-            metadata.setMimeType(file.getContentType());
-            metadata.setExt(getExtension(file.getOriginalFilename()));
-            metadata.setStorageBackend("minio");
-            metadata.setBucketName(bucketName);
-            metadata.setObjectKey(objectKey);
-            metadata.setRefCount(1);
-            metadata.setStatus(1);
-            metadata.setVirusScanStatus(0);
-            metadata.setContentAuditStatus(0);
-            metadata.setCreatedAt(LocalDateTime.now());
-            metadata.setUpdatedAt(LocalDateTime.now());
-            
-            fileMetadataMapper.insert(metadata);
-            log.info("文件上传成功: fileHash={}, objectKey={}", fileHash, objectKey);
+        // 3. 创建用户文件关联
+        return createUserFile(userId, fileHash, file.getOriginalFilename(), sourceType, sourceId);
+    }
+
+    /**
+     * 仅凭客户端哈希秒传（分片上传初始化时使用）
+     *
+     * @return 未命中时返回 null
+     */
+    @Transactional
+    public UserFile uploadExisting(Long userId, String clientHash, long fileSize, String fileName,
+                                   String sourceType, String sourceId) {
+        String fileHash = normalizeHash(clientHash);
+        if (fileHash == null) {
+            return null;
+        }
+        String reservationId = UUID.randomUUID().toString();
+        userStorageService.reserve(userId, reservationId, fileSize, UPLOAD_RESERVATION_TTL);
+        if (!reuseExisting(fileHash, fileSize)) {
+            userStorageService.release(userId, reservationId, fileSize);
+            return null;
+        }
+        userStorageService.settleWithTransaction(userId, reservationId, fileSize);
+        return createUserFile(userId, fileHash, fileName, sourceType, sourceId);
+    }
+
+    /**
+     * 秒传：哈希已存在且大小一致时增加引用计数
+     * 缓存中的元数据可能已被清理任务删除，以引用计数更新是否命中行为准
+     *
+     * @return 是否命中
+     */
+    public boolean reuseExisting(String fileHash, long fileSize) {
+        FileMetadata existingFile = fileMetadataCache.get(fileHash);
+        if (existingFile == null || existingFile.getFileSize() != fileSize) {
+            return false;
         }
+        if (fileMetadataMapper.incrementRefCount(fileHash) == 0) {
+            // 元数据和对象已被清理，缓存过期，走正常上传
+            fileMetadataCache.invalidate(fileHash);
+            log.info("秒传未命中（元数据已清理）: fileHash={}", fileHash);
+            return false;
+        }
+        log.info("秒传成功: fileHash={}", fileHash);
+        return true;
+    }
 
-        // 5. 创建用户文件关联
+    /**
+     * 创建用户文件关联
+     */
+    public UserFile createUserFile(Long userId, String fileHash, String fileName, String sourceType, String sourceId) {
         UserFile userFile = new UserFile();
         userFile.setUserId(userId);
         userFile.setFileHash(fileHash);
-        userFile.setOriginalName(file.getOriginalFilename());
-        userFile.setDisplayName(file.getOriginalFilename());
+        userFile.setOriginalName(fileName);
+        userFile.setDisplayName(fileName);
         userFile.setSourceType(sourceType);
         userFile.setSourceId(sourceId);
         userFile.setIsPublic(false);
@@ -159,52 +208,52 @@ public class FileStorageService {
      * 检查文件是否存在（用于秒传）
      */
     public boolean checkFileExists(String fileHash) {
-        return fileMetadataMapper.selectById(fileHash) != null;
+        return fileMetadataCache.get(fileHash) != null;
     }
 
     /**
-     * 获取文件下载URL（预签名）
+     * 获取文件下载URL（预签名，同一时间窗口内复用同一个URL）
      */
     public String getDownloadUrl(String fileHash, int expireMinutes) throws Exception {
-        FileMetadata metadata = fileMetadataMapper.selectById(fileHash);
+        FileMetadata metadata = fileMetadataCache.get(fileHash);
         if (metadata == null) {
             throw new RuntimeException("文件不存在");
         }
 
-        return minioClient.getPresignedObjectUrl(GetPresignedObjectUrlArgs.builder()
-                .bucket(metadata.getBucketName())
-                .object(metadata.getObjectKey())
-                .method(Method.GET)
-                .expiry(expireMinutes, TimeUnit.MINUTES)
-                .build());
+        return fileMetadataCache.getDownloadUrl(metadata, expireMinutes);
     }
 
     /**
-     * 初始化分片上传
+     * 获取缩略图/预览下载URL
+     *
+     * @param size small, medium, large 或 preview（PDF首页）
      */
-    public FileUploadSession initMultipartUpload(Long userId, String fileName, Long fileSize, 
-                                                  String mimeType, int chunkSize) {
-        int chunkCount = (int) Math.ceil((double) fileSize / chunkSize);
-        
-        FileUploadSession session = new FileUploadSession();
-        session.setUploadId(UUID.randomUUID().toString());
-        session.setUserId(userId);
-        session.setFileName(fileName);
-        session.setFileSize(fileSize);
-        session.setMimeType(mimeType);
-        session.setChunkSize(chunkSize);
-        session.setChunkCount(chunkCount);
-        session.setUploadedChunks(0);
-        session.setStatus(1); // 上传中
-        session.setExpiresAt(LocalDateTime.now().plusHours(24));
-        session.setCreatedAt(LocalDateTime.now());
-        
-        uploadSessionMapper.insert(session);
-        
-        log.info("初始化分片上传: uploadId={}, fileName={}, chunkCount={}", 
-                session.getUploadId(), fileName, chunkCount);
-        
-        return session;
+    public String getThumbnailUrl(String fileHash, String size, int expireMinutes) throws Exception {
+        String objectKey = thumbnailKey(fileMetadataCache.get(fileHash), size);
+        if (objectKey == null) {
+            // 本地缓存可能早于缩略图生成，重新读一次
+            fileMetadataCache.invalidate(fileHash);
+            objectKey = thumbnailKey(fileMetadataCache.get(fileHash), size);
+        }
+        if (objectKey == null) {
+            throw new RuntimeException("缩略图尚未生成");
+        }
+        return fileMetadataCache.getObjectUrl(bucketName, objectKey, expireMinutes);
+    }
+
+    private String thumbnailKey(FileMetadata metadata, String size) throws Exception {
+        if (metadata == null) {
+            throw new RuntimeException("文件不存在");
+        }
+        if ("preview".equals(size)) {
+            return metadata.getPreviewKey();
+        }
+        if (metadata.getThumbnailKeys() == null) {
+            return null;
+        }
+        Map<String, String> keys = objectMapper.readValue(metadata.getThumbnailKeys(),
+                new TypeReference<Map<String, String>>() {});
+        return keys.get(size);
     }
 
     /**
@@ -213,7 +262,7 @@ public class FileStorageService {
     @Transactional
     public void deleteUserFile(Long userId, Long fileId) {
         UserFile userFile = userFileMapper.selectById(fileId);
-        if (userFile == null || !userFile.getUserId().equals(userId)) {
+        if (userFile == null || !userFile.getUserId().equals(userId) || userFile.getDeletedAt() != null) {
             throw new RuntimeException("文件不存在或无权限");
         }
 
@@ -224,28 +273,149 @@ public class FileStorageService {
         // 减少引用计数
         fileMetadataMapper.decrementRefCount(userFile.getFileHash());
         
+        // 扣减存储用量（触发器只处理物理删除）
+        FileMetadata metadata = fileMetadataCache.get(userFile.getFileHash());
+        if (metadata != null) {
+            userStorageService.decreaseUsage(userId, metadata.getFileSize());
+        }
+        fileMetadataCache.invalidate(userFile.getFileHash());
+        
         log.info("文件删除成功: userId={}, fileId={}", userId, fileId);
     }
 
     /**
-     * 计算SHA-256哈希
+     * 存储上传内容，返回实际的文件哈希
+     * 
+     * 上传流只读一遍：DigestInputStream 在 MinIO 消费数据时同步计算哈希，
+     * 大文件由 SDK 自动按分片上传到临时对象，读完即得到哈希，再决定丢弃还是拷贝到CAS路径。
      */
-    private String calculateSHA256(InputStream inputStream) throws Exception {
+    private String storeContent(Long userId, MultipartFile file, String claimedHash) throws Exception {
+        String ext = getExtension(file.getOriginalFilename());
+        String tempKey = TEMP_PREFIX + UUID.randomUUID();
         MessageDigest digest = MessageDigest.getInstance("SHA-256");
-        byte[] buffer = new byte[8192];
-        int bytesRead;
-        while ((bytesRead = inputStream.read(buffer)) != -1) {
-            digest.update(buffer, 0, bytesRead);
+        try {
+            // 1. 写入临时对象，同时计算哈希
+            try (InputStream in = new DigestInputStream(file.getInputStream(), digest)) {
+                minioClient.putObject(PutObjectArgs.builder()
+                        .bucket(bucketName)
+                        .object(tempKey)
+                        .stream(in, file.getSize(), -1)
+                        .contentType(file.getContentType())
+                        .build());
+            }
+            String fileHash = HexFormat.of().formatHex(digest.digest());
+            if (claimedHash != null && !claimedHash.equals(fileHash)) {
+                throw new RuntimeException("文件哈希校验失败");
+            }
+            
+            // 2. 丢弃或转存临时对象
+            promoteTempObject(userId, tempKey, fileHash, file.getSize(), file.getContentType(), ext);
+            return fileHash;
+        } finally {
+            removeObjectQuietly(tempKey);
+        }
+    }
+
+    /**
+     * 将已算出哈希的临时对象转为CAS对象（临时对象由调用方删除）
+     * 
+     * 内容已存在时只增加引用计数；否则服务端拷贝到CAS路径并保存元数据，
+     * 并发上传相同内容时由 ON CONFLICT 合并为引用计数+1。新内容同时登记缩略图/预览生成任务。
+     * 在事务内调用时，事务回滚后删除本次拷贝出的CAS对象（元数据未入库的孤儿对象）。
+     */
+    public void promoteTempObject(Long userId, String tempKey, String fileHash, long fileSize,
+                                  String contentType, String ext) throws Exception {
+        // 1. 内容已存在：仅增加引用计数
+        if (fileMetadataMapper.incrementRefCount(fileHash) > 0) {
+            log.info("秒传成功: fileHash={}", fileHash);
+            return;
+        }
+        
+        // 2. 服务端拷贝到CAS路径（超过5GB时SDK自动改为分片拷贝）
+        String objectKey = buildObjectKey(fileHash, ext);
+        minioClient.composeObject(ComposeObjectArgs.builder()
+                .bucket(bucketName)
+                .object(objectKey)
+                .sources(List.of(ComposeSource.builder().bucket(bucketName).object(tempKey).build()))
+                .build());
+        
+        // 3. 保存元数据
+        FileMetadata metadata = new FileMetadata();
+        metadata.setFileHash(fileHash);
+        metadata.setFileSize(fileSize);
+        metadata.setFileType(getFileType(contentType));
+        metadata.setMimeType(contentType);
+        metadata.setExt(ext);
+        metadata.setStorageBackend("minio");
+        metadata.setBucketName(bucketName);
+        metadata.setObjectKey(objectKey);
+        
+        String storedKey = fileMetadataMapper.insertOrIncrement(metadata);
+        if (!objectKey.equals(storedKey)) {
+            // 对方先入库且扩展名不同，以已入库的对象为准
+            removeObjectQuietly(objectKey);
+        } else {
+            removeObjectOnRollback(fileHash, objectKey);
         }
-        byte[] hashBytes = digest.digest();
         
-        StringBuilder hexString = new StringBuilder();
-        for (byte b : hashBytes) {
-            String hex = Integer.toHexString(0xff & b);
-            if (hex.length() == 1) hexString.append('0');
-            hexString.append(hex);
+        // 4. 登记缩略图/预览生成（同一文件只建一次任务）
+        transcodeService.enqueue(fileHash, userId, contentType, ext);
+        log.info("文件上传成功: fileHash={}, objectKey={}", fileHash, storedKey);
+    }
+
+    /**
+     * 事务回滚后删除CAS对象；同一内容已由其他上传入库并引用该对象时保留
+     */
+    private void removeObjectOnRollback(String fileHash, String objectKey) {
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            return;
+        }
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void afterCompletion(int status) {
+                if (status != STATUS_ROLLED_BACK) {
+                    return;
+                }
+                try {
+                    FileMetadata stored = fileMetadataMapper.selectById(fileHash);
+                    if (stored != null && objectKey.equals(stored.getObjectKey())) {
+                        return;
+                    }
+                } catch (Exception e) {
+                    log.warn("回滚后查询文件元数据失败，保留对象: fileHash={}", fileHash, e);
+                    return;
+                }
+                removeObjectQuietly(objectKey);
+                log.info("事务回滚，删除CAS对象: fileHash={}, objectKey={}", fileHash, objectKey);
+            }
+        });
+    }
+
+    void removeObjectQuietly(String objectKey) {
+        try {
+            minioClient.removeObject(RemoveObjectArgs.builder()
+                    .bucket(bucketName)
+                    .object(objectKey)
+                    .build());
+        } catch (Exception e) {
+            log.warn("删除对象失败: objectKey={}", objectKey, e);
+        }
+    }
+
+    /**
+     * 规范化客户端提供的哈希，不是合法的SHA-256十六进制串时返回 null
+     */
+    String normalizeHash(String hash) {
+        if (hash == null || hash.length() != 64) {
+            return null;
+        }
+        String lower = hash.toLowerCase();
+        for (int i = 0; i < lower.length(); i++) {
+            if (Character.digit(lower.charAt(i), 16) < 0) {
+                return null;
+            }
         }
-        return hexString.toString();
+        return lower;
     }
 
     /**
@@ -260,7 +430,7 @@ public class FileStorageService {
     /**
      * 获取文件扩展名
      */
-    private String getExtension(String fileName) {
+    String getExtension(String fileName) {
         if (fileName == null) return null;
         int dotIndex = fileName.lastIndexOf('.');
         return dotIndex > 0 ? fileName.substring(dotIndex + 1).toLowerCase() : null;
@@ -9,6 +9,7 @@ import org.springframework.transaction.annotation.Transactional;
 
 import java.time.LocalDateTime;
 import java.util.List;
+import java.util.Objects;
 
 /**
  * 文件夹管理服务
@@ -25,6 +26,9 @@ public class FolderService {
      */
     @Transactional
     public Folder createFolder(Long userId, String name, Long parentId) {
+        validateName(name);
+        folderMapper.lockTree(userId);
+        
         Folder folder = new Folder()
                 .setUserId(userId)
                 .setName(name)
@@ -37,61 +41,100 @@ public class FolderService {
         
         // 计算路径和层级
         if (parentId != null) {
-            Folder parent = folderMapper.selectById(parentId);
-            if (parent == null) {
+            Folder parent = getActiveFolder(parentId);
+            if (!parent.getUserId().equals(userId)) {
                 throw new IllegalArgumentException("父文件夹不存在");
             }
             folder.setPath(parent.getPath() + "/" + name);
             folder.setLevel(parent.getLevel() + 1);
-            
-            // 更新父文件夹的子文件夹数
-            parent.setFolderCount(parent.getFolderCount() + 1);
-            parent.setUpdatedAt(LocalDateTime.now());
-            folderMapper.updateById(parent);
         } else {
             folder.setPath("/" + name);
             folder.setLevel(1);
         }
+        ensurePathFree(userId, folder.getPath());
         
         folderMapper.insert(folder);
+        if (parentId != null) {
+            // 更新父文件夹的子文件夹数
+            folderMapper.adjustFolderCount(parentId, 1);
+        }
         log.info("创建文件夹成功: userId={}, path={}", userId, folder.getPath());
         return folder;
     }
     
     /**
-     * 重命名文件夹
+     * 重命名文件夹（整棵子树一条语句更新路径）
      */
     @Transactional
-    public Folder renameFolder(Long folderId, String newName) {
-        Folder folder = folderMapper.selectById(folderId);
-        if (folder == null) {
-            throw new IllegalArgumentException("文件夹不存在");
+    public Folder renameFolder(Long userId, Long folderId, String newName) {
+        validateName(newName);
+        Folder folder = lockAndLoad(userId, folderId);
+        if (folder.getName().equals(newName)) {
+            return folder;
         }
         
         String oldPath = folder.getPath();
         String newPath = oldPath.substring(0, oldPath.lastIndexOf("/") + 1) + newName;
+        ensurePathFree(userId, newPath);
         
-        folder.setName(newName);
-        folder.setPath(newPath);
-        folder.setUpdatedAt(LocalDateTime.now());
-        folderMapper.updateById(folder);
+        int updated = rewriteSubtree(folder, newName, folder.getParentId(), newPath, 0);
         
-        // 更新子文件夹路径
-        updateChildrenPath(folder.getUserId(), oldPath, newPath);
+        log.info("重命名文件夹成功: folderId={}, newName={}, rows={}", folderId, newName, updated);
+        return folderMapper.selectById(folderId);
+    }
+    
+    /**
+     * 移动文件夹（整棵子树一条语句更新路径和层级）
+     *
+     * @param newParentId 目标父文件夹，null 表示移到根目录
+     */
+    @Transactional
+    public Folder moveFolder(Long userId, Long folderId, Long newParentId) {
+        Folder folder = lockAndLoad(userId, folderId);
+        Long oldParentId = folder.getParentId();
+        if (Objects.equals(oldParentId, newParentId)) {
+            return folder;
+        }
         
-        log.info("重命名文件夹成功: folderId={}, newName={}", folderId, newName);
-        return folder;
+        String newPath;
+        int newLevel;
+        if (newParentId != null) {
+            Folder parent = getActiveFolder(newParentId);
+            if (!parent.getUserId().equals(userId)) {
+                throw new IllegalArgumentException("目标文件夹不存在");
+            }
+            // 不能移到自身或自己的子孙下
+            if (parent.getPath().equals(folder.getPath()) || parent.getPath().startsWith(folder.getPath() + "/")) {
+                throw new IllegalArgumentException("不能移动到自身或子文件夹下");
+            }
+            newPath = parent.getPath() + "/" + folder.getName();
+            newLevel = parent.getLevel() + 1;
+        } else {
+            newPath = "/" + folder.getName();
+            newLevel = 1;
+        }
+        ensurePathFree(userId, newPath);
+        
+        int updated = rewriteSubtree(folder, folder.getName(), newParentId, newPath, newLevel - folder.getLevel());
+        
+        // 新旧父文件夹子文件夹数原子增减
+        if (oldParentId != null) {
+            folderMapper.adjustFolderCount(oldParentId, -1);
+        }
+        if (newParentId != null) {
+            folderMapper.adjustFolderCount(newParentId, 1);
+        }
+        
+        log.info("移动文件夹成功: folderId={}, newParentId={}, rows={}", folderId, newParentId, updated);
+        return folderMapper.selectById(folderId);
     }
     
     /**
      * 删除文件夹（软删除）
      */
     @Transactional
-    public void deleteFolder(Long folderId) {
-        Folder folder = folderMapper.selectById(folderId);
-        if (folder == null) {
-            throw new IllegalArgumentException("文件夹不存在");
-        }
+    public void deleteFolder(Long userId, Long folderId) {
+        Folder folder = lockAndLoad(userId, folderId);
         
         // 检查是否有内容
         if (folder.getFileCount() > 0 || folder.getFolderCount() > 0) {
@@ -103,12 +146,7 @@ public class FolderService {
         
         // 更新父文件夹的子文件夹数
         if (folder.getParentId() != null) {
-            Folder parent = folderMapper.selectById(folder.getParentId());
-            if (parent != null) {
-                parent.setFolderCount(parent.getFolderCount() - 1);
-                parent.setUpdatedAt(LocalDateTime.now());
-                folderMapper.updateById(parent);
-            }
+            folderMapper.adjustFolderCount(folder.getParentId(), -1);
         }
         
         log.info("删除文件夹成功: folderId={}", folderId);
@@ -117,8 +155,8 @@ public class FolderService {
     /**
      * 获取文件夹详情
      */
-    public Folder getFolderById(Long folderId) {
-        return folderMapper.selectById(folderId);
+    public Folder getFolderById(Long userId, Long folderId) {
+        return getOwnedFolder(userId, folderId);
     }
     
     /**
@@ -131,19 +169,65 @@ public class FolderService {
     /**
      * 获取子文件夹
      */
-    public List<Folder> getSubFolders(Long parentId) {
+    public List<Folder> getSubFolders(Long userId, Long parentId) {
+        getOwnedFolder(userId, parentId);
         return folderMapper.selectByParentId(parentId);
     }
     
     /**
-     * 更新子文件夹路径
+     * 校验归属后锁住用户的文件夹树并读取最新状态，之后计算出的路径不会被并发修改打乱
+     */
+    private Folder lockAndLoad(Long userId, Long folderId) {
+        getOwnedFolder(userId, folderId);
+        folderMapper.lockTree(userId);
+        return getOwnedFolder(userId, folderId);
+    }
+    
+    /**
+     * 读取当前用户的文件夹，不属于该用户时按不存在处理
      */
-    private void updateChildrenPath(Long userId, String oldPath, String newPath) {
-        List<Folder> children = folderMapper.selectByPathPrefix(userId, oldPath + "/");
-        for (Folder child : children) {
-            child.setPath(child.getPath().replace(oldPath, newPath));
-            child.setUpdatedAt(LocalDateTime.now());
-            folderMapper.updateById(child);
+    private Folder getOwnedFolder(Long userId, Long folderId) {
+        Folder folder = getActiveFolder(folderId);
+        if (!folder.getUserId().equals(userId)) {
+            throw new IllegalArgumentException("文件夹不存在");
+        }
+        return folder;
+    }
+    
+    /**
+     * 同级重名检查（持有 lockTree 时调用），重名会让子树路径前缀改写波及另一个文件夹
+     */
+    private void ensurePathFree(Long userId, String path) {
+        if (folderMapper.existsActivePath(userId, path)) {
+            throw new IllegalArgumentException("同名文件夹已存在");
+        }
+    }
+    
+    private Folder getActiveFolder(Long folderId) {
+        Folder folder = folderMapper.selectById(folderId);
+        if (folder == null || folder.getDeletedAt() != null) {
+            throw new IllegalArgumentException("文件夹不存在");
+        }
+        return folder;
+    }
+    
+    /**
+     * 重写子树：按前缀截取替换（不是字符串替换，路径中旧名称出现多次也不会误改）
+     */
+    private int rewriteSubtree(Folder folder, String name, Long parentId, String newPath, int levelDelta) {
+        String oldPath = folder.getPath();
+        String pattern = escapeLike(oldPath) + "/%";
+        return folderMapper.rewriteSubtree(folder.getUserId(), folder.getId(), name, parentId,
+                oldPath, newPath, pattern, levelDelta);
+    }
+    
+    private static String escapeLike(String value) {
+        return value.replace("\\", "\\\\").replace("%", "\\%").replace("_", "\\_");
+    }
+    
+    private static void validateName(String name) {
+        if (name == null || name.isBlank() || name.contains("/")) {
+            throw new IllegalArgumentException("文件夹名称不合法");
         }
     }
 }
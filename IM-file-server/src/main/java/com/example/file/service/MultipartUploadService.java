@@ -0,0 +1,406 @@
+package com.example.file.service;
+
+import com.example.file.entity.FileUploadSession;
+import com.example.file.entity.UserFile;
+import com.example.file.mapper.FileUploadSessionMapper;
+import io.minio.*;
+import io.minio.messages.DeleteError;
+import io.minio.messages.DeleteObject;
+import io.minio.messages.Item;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * ====================================================================
+ * 分片上传服务 (Resumable Multipart Upload)
+ * ====================================================================
+ *
+ * 【流程】
+ * 1. init：创建会话（可带客户端哈希，已存在直接秒传）
+ * 2. PUT parts/{n}：各分片可并行上传，请求体直接流式写入 MinIO 对象 tmp/multipart/{uploadId}/{n}
+ * 3. GET parts：断线重连后查询已上传分片，只补传缺失的
+ * 4. complete：MinIO 服务端合并分片（不经过本服务），读一遍合并结果算 SHA-256，再转为CAS对象
+ *
+ * 【分片状态】
+ * Redis 位图 file:upload:parts:{uploadId}，第 n-1 位表示第 n 片已上传。
+ * SETBIT 原子且与分片并发无关，不再整段重写 chunk_etags JSON；
+ * 位图丢失时以 MinIO 中实际存在的分片对象为准重建。
+ *
+ * 【清理】
+ * 过期未完成的会话定时标记为失败，并删除其分片对象和位图。
+ */
+@Slf4j
+@Service
+@RequiredArgsConstructor
+public class MultipartUploadService {
+
+    private final MinioClient minioClient;
+
+    private final FileUploadSessionMapper uploadSessionMapper;
+
+    private final FileStorageService fileStorageService;
+
+    private final StringRedisTemplate stringRedisTemplate;
+
+    private final TransactionTemplate transactionTemplate;
+
+    private final UserStorageService userStorageService;
+
+    @Value("${minio.bucket-name:files}")
+    private String bucketName;
+
+    /** 会话过期后仍停在合并中超过该时长，视为合并实例已宕机 */
+    @Value("${file.upload.merge-timeout-minutes:60}")
+    private int mergeTimeoutMinutes;
+
+    private static final String PARTS_KEY = "file:upload:parts:";
+
+    /** MinIO 合并时除最后一片外每片至少 5MB */
+    private static final int MIN_CHUNK_SIZE = 5 * 1024 * 1024;
+
+    private static final int MAX_CHUNK_SIZE = 64 * 1024 * 1024;
+
+    private static final int MAX_CHUNK_COUNT = 10000;
+
+    private static final int STATUS_UPLOADING = 1;
+    private static final int STATUS_MERGING = 2;
+    private static final int STATUS_COMPLETED = 3;
+    private static final int STATUS_FAILED = 4;
+    private static final int STATUS_CANCELLED = 5;
+
+    /**
+     * 初始化分片上传
+     */
+    public FileUploadSession initMultipartUpload(Long userId, String fileName, Long fileSize,
+                                                 String mimeType, int chunkSize, String fileHash) {
+        if (fileSize == null || fileSize <= 0) {
+            throw new RuntimeException("文件大小无效");
+        }
+        if (chunkSize < MIN_CHUNK_SIZE || chunkSize > MAX_CHUNK_SIZE) {
+            throw new RuntimeException("分片大小需在5MB到64MB之间");
+        }
+        int chunkCount = (int) Math.ceil((double) fileSize / chunkSize);
+        if (chunkCount > MAX_CHUNK_COUNT) {
+            throw new RuntimeException("分片数量超过上限，请增大分片大小");
+        }
+
+        FileUploadSession session = new FileUploadSession();
+        session.setUploadId(UUID.randomUUID().toString());
+        session.setUserId(userId);
+        session.setFileHash(fileStorageService.normalizeHash(fileHash));
+        session.setFileName(fileName);
+        session.setFileSize(fileSize);
+        session.setMimeType(mimeType);
+        session.setChunkSize(chunkSize);
+        session.setChunkCount(chunkCount);
+        session.setUploadedChunks(0);
+        session.setStatus(STATUS_UPLOADING);
+        session.setExpiresAt(LocalDateTime.now().plusHours(24));
+        session.setCreatedAt(LocalDateTime.now());
+
+        // 预留空间，与会话同寿命
+        userStorageService.reserve(userId, session.getUploadId(), fileSize, Duration.ofHours(24));
+        try {
+            uploadSessionMapper.insert(session);
+        } catch (RuntimeException e) {
+            userStorageService.release(userId, session.getUploadId(), fileSize);
+            throw e;
+        }
+
+        log.info("初始化分片上传: uploadId={}, fileName={}, chunkCount={}",
+                session.getUploadId(), fileName, chunkCount);
+
+        return session;
+    }
+
+    /**
+     * 上传单个分片，请求体直接流式写入 MinIO
+     *
+     * @return 已上传分片数
+     */
+    public long uploadPart(Long userId, String uploadId, int partNumber, InputStream body, long contentLength)
+            throws Exception {
+        FileUploadSession session = getActiveSession(userId, uploadId);
+        if (partNumber < 1 || partNumber > session.getChunkCount()) {
+            throw new RuntimeException("分片序号无效");
+        }
+        long expectedSize = partSize(session, partNumber);
+        if (contentLength != expectedSize) {
+            throw new RuntimeException("分片大小不符，期望 " + expectedSize + " 字节");
+        }
+
+        // 重传同一分片直接覆盖
+        minioClient.putObject(PutObjectArgs.builder()
+                .bucket(bucketName)
+                .object(partKey(uploadId, partNumber))
+                .stream(body, expectedSize, -1)
+                .build());
+
+        String key = PARTS_KEY + uploadId;
+        stringRedisTemplate.opsForValue().setBit(key, partNumber - 1, true);
+        stringRedisTemplate.expireAt(key, toDate(session.getExpiresAt()));
+        return countParts(uploadId);
+    }
+
+    /**
+     * 查询已上传的分片序号（断点续传）
+     */
+    public List<Integer> getUploadedParts(Long userId, String uploadId) {
+        FileUploadSession session = getActiveSession(userId, uploadId);
+        byte[] bitmap = loadBitmap(session);
+        List<Integer> parts = new ArrayList<>();
+        for (int i = 0; i < session.getChunkCount(); i++) {
+            if (isSet(bitmap, i)) {
+                parts.add(i + 1);
+            }
+        }
+        return parts;
+    }
+
+    /**
+     * 完成上传：服务端合并分片并转为CAS对象
+     */
+    public UserFile completeUpload(Long userId, String uploadId, String sourceType, String sourceId) throws Exception {
+        FileUploadSession session = getActiveSession(userId, uploadId);
+
+        // 1. 抢占会话，防止重复合并
+        if (uploadSessionMapper.transitStatus(uploadId, STATUS_UPLOADING, STATUS_MERGING) == 0) {
+            throw new RuntimeException("上传会话正在合并或已结束");
+        }
+
+        String mergedKey = partPrefix(uploadId) + "merged";
+        try {
+            // 2. 确认分片齐全
+            byte[] bitmap = loadBitmap(session);
+            List<ComposeSource> sources = new ArrayList<>(session.getChunkCount());
+            for (int i = 0; i < session.getChunkCount(); i++) {
+                if (!isSet(bitmap, i)) {
+                    throw new RuntimeException("分片未全部上传，缺少第 " + (i + 1) + " 片");
+                }
+                sources.add(ComposeSource.builder().bucket(bucketName).object(partKey(uploadId, i + 1)).build());
+            }
+
+            // 3. MinIO 服务端合并，数据不经过本服务
+            minioClient.composeObject(ComposeObjectArgs.builder()
+                    .bucket(bucketName)
+                    .object(mergedKey)
+                    .sources(sources)
+                    .build());
+
+            // 4. 读一遍合并结果算哈希
+            String fileHash = hashObject(mergedKey);
+            if (session.getFileHash() != null && !session.getFileHash().equals(fileHash)) {
+                throw new RuntimeException("文件哈希校验失败");
+            }
+
+            // 5. 转为CAS对象并创建用户文件
+            String ext = fileStorageService.getExtension(session.getFileName());
+            UserFile userFile = transactionTemplate.execute(status -> {
+                try {
+                    fileStorageService.promoteTempObject(userId, mergedKey, fileHash, session.getFileSize(),
+                            session.getMimeType(), ext);
+                } catch (Exception e) {
+                    throw new RuntimeException("保存文件失败: " + e.getMessage(), e);
+                }
+                // 会话已被清理任务判定为合并超时并释放配额时放弃入库
+                if (uploadSessionMapper.transitStatus(uploadId, STATUS_MERGING, STATUS_COMPLETED) == 0) {
+                    throw new RuntimeException("上传会话已超时结束");
+                }
+                UserFile created = fileStorageService.createUserFile(userId, fileHash, session.getFileName(),
+                        sourceType, sourceId);
+                userStorageService.settleWithTransaction(userId, uploadId, session.getFileSize());
+                session.setFileHash(fileHash);
+                session.setUploadedChunks(session.getChunkCount());
+                session.setStatus(STATUS_COMPLETED);
+                session.setCompletedAt(LocalDateTime.now());
+                uploadSessionMapper.updateById(session);
+                return created;
+            });
+
+            cleanup(uploadId);
+            log.info("分片上传完成: uploadId={}, fileHash={}", uploadId, fileHash);
+            return userFile;
+        } catch (Exception e) {
+            // 退回上传中，客户端可补传后重试
+            uploadSessionMapper.transitStatus(uploadId, STATUS_MERGING, STATUS_UPLOADING);
+            fileStorageService.removeObjectQuietly(mergedKey);
+            throw e;
+        }
+    }
+
+    /**
+     * 取消上传
+     */
+    public void abortUpload(Long userId, String uploadId) {
+        FileUploadSession session = getActiveSession(userId, uploadId);
+        if (uploadSessionMapper.transitStatus(uploadId, STATUS_UPLOADING, STATUS_CANCELLED) > 0) {
+            userStorageService.release(userId, uploadId, session.getFileSize());
+            cleanup(uploadId);
+        }
+    }
+
+    /**
+     * 定时清理过期未完成的会话，包括合并中途实例宕机遗留的合并中会话
+     */
+    @Scheduled(fixedDelayString = "${file.upload.cleanup-interval-ms:600000}")
+    public void cleanupExpiredSessions() {
+        List<FileUploadSession> expired = uploadSessionMapper.findExpired(100, mergeTimeoutMinutes);
+        int cleaned = 0;
+        for (FileUploadSession session : expired) {
+            // 多实例同时清理时只有一个能抢到
+            if (uploadSessionMapper.transitStatus(session.getUploadId(), session.getStatus(), STATUS_FAILED) == 0) {
+                continue;
+            }
+            userStorageService.release(session.getUserId(), session.getUploadId(), session.getFileSize());
+            cleanup(session.getUploadId());
+            cleaned++;
+        }
+        if (cleaned > 0) {
+            log.info("清理过期分片上传会话: count={}", cleaned);
+        }
+    }
+
+    private FileUploadSession getActiveSession(Long userId, String uploadId) {
+        FileUploadSession session = uploadSessionMapper.findByUploadId(uploadId);
+        if (session == null || !session.getUserId().equals(userId)) {
+            throw new RuntimeException("上传会话不存在或无权限");
+        }
+        if (session.getStatus() != STATUS_UPLOADING) {
+            throw new RuntimeException("上传会话已结束");
+        }
+        if (session.getExpiresAt().isBefore(LocalDateTime.now())) {
+            throw new RuntimeException("上传会话已过期");
+        }
+        return session;
+    }
+
+    /**
+     * 读取分片位图；位图丢失时按 MinIO 中的分片对象重建
+     */
+    private byte[] loadBitmap(FileUploadSession session) {
+        String key = PARTS_KEY + session.getUploadId();
+        byte[] rawKey = key.getBytes(StandardCharsets.UTF_8);
+        byte[] bitmap = stringRedisTemplate.execute((RedisCallback<byte[]>) connection ->
+                connection.stringCommands().get(rawKey));
+        if (bitmap != null) {
+            return bitmap;
+        }
+
+        byte[] rebuilt = new byte[(session.getChunkCount() + 7) / 8];
+        String prefix = partPrefix(session.getUploadId());
+        for (Result<Item> result : minioClient.listObjects(ListObjectsArgs.builder()
+                .bucket(bucketName)
+                .prefix(prefix)
+                .build())) {
+            try {
+                String name = result.get().objectName().substring(prefix.length());
+                if (name.chars().allMatch(Character::isDigit)) {
+                    int index = Integer.parseInt(name) - 1;
+                    if (index >= 0 && index < session.getChunkCount()) {
+                        rebuilt[index >>> 3] |= (byte) (0x80 >>> (index & 7));
+                    }
+                }
+            } catch (Exception e) {
+                throw new RuntimeException("读取分片列表失败", e);
+            }
+        }
+        stringRedisTemplate.execute((RedisCallback<Object>) connection -> {
+            connection.stringCommands().set(rawKey, rebuilt);
+            connection.keyCommands().expireAt(rawKey, toDate(session.getExpiresAt()).getTime() / 1000);
+            return null;
+        });
+        return rebuilt;
+    }
+
+    /**
+     * Redis 位图按高位在前排列，与 SETBIT 的偏移一致
+     */
+    private static boolean isSet(byte[] bitmap, int index) {
+        int byteIndex = index >>> 3;
+        return byteIndex < bitmap.length && (bitmap[byteIndex] & (0x80 >>> (index & 7))) != 0;
+    }
+
+    private long countParts(String uploadId) {
+        byte[] rawKey = (PARTS_KEY + uploadId).getBytes(StandardCharsets.UTF_8);
+        Long count = stringRedisTemplate.execute((RedisCallback<Long>) connection ->
+                connection.stringCommands().bitCount(rawKey));
+        return count != null ? count : 0;
+    }
+
+    private String hashObject(String objectKey) throws Exception {
+        MessageDigest digest = MessageDigest.getInstance("SHA-256");
+        try (InputStream in = new DigestInputStream(minioClient.getObject(GetObjectArgs.builder()
+                .bucket(bucketName)
+                .object(objectKey)
+                .build()), digest)) {
+            in.transferTo(OutputStream.nullOutputStream());
+        }
+        return HexFormat.of().formatHex(digest.digest());
+    }
+
+    /**
+     * 删除分片对象和位图
+     */
+    private void cleanup(String uploadId) {
+        try {
+            List<DeleteObject> objects = new ArrayList<>();
+            for (Result<Item> result : minioClient.listObjects(ListObjectsArgs.builder()
+                    .bucket(bucketName)
+                    .prefix(partPrefix(uploadId))
+                    .recursive(true)
+                    .build())) {
+                objects.add(new DeleteObject(result.get().objectName()));
+            }
+            if (!objects.isEmpty()) {
+                // removeObjects 惰性执行，必须遍历结果
+                for (Result<DeleteError> result : minioClient.removeObjects(RemoveObjectsArgs.builder()
+                        .bucket(bucketName)
+                        .objects(objects)
+                        .build())) {
+                    DeleteError error = result.get();
+                    log.warn("删除分片对象失败: object={}, message={}", error.objectName(), error.message());
+                }
+            }
+        } catch (Exception e) {
+            log.warn("清理分片对象失败: uploadId={}", uploadId, e);
+        }
+        stringRedisTemplate.delete(PARTS_KEY + uploadId);
+    }
+
+    private static long partSize(FileUploadSession session, int partNumber) {
+        long offset = (long) (partNumber - 1) * session.getChunkSize();
+        return Math.min(session.getChunkSize(), session.getFileSize() - offset);
+    }
+
+    private static String partPrefix(String uploadId) {
+        return FileStorageService.TEMP_PREFIX + "multipart/" + uploadId + "/";
+    }
+
+    private static String partKey(String uploadId, int partNumber) {
+        return partPrefix(uploadId) + partNumber;
+    }
+
+    private static Date toDate(LocalDateTime time) {
+        return Date.from(time.atZone(ZoneId.systemDefault()).toInstant());
+    }
+}
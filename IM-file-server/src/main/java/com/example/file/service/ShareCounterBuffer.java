@@ -0,0 +1,90 @@
+package com.example.file.service;
+
+import com.example.file.mapper.FileShareMapper;
+import jakarta.annotation.PreDestroy;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 分享查看/下载计数缓冲
+ * 热门分享链接的每次访问都 UPDATE 同一行会在行锁上排队，这里先在内存中用 LongAdder 累加，
+ * 定时把所有分享的增量合并成一条 UPDATE 写回；写库失败的增量放回缓冲，下一轮重试。
+ * 实例宕机最多丢失一个刷新周期的计数。
+ */
+@Slf4j
+@Component
+@RequiredArgsConstructor
+public class ShareCounterBuffer {
+
+    private final FileShareMapper fileShareMapper;
+
+    private final Map<Long, Counters> pending = new ConcurrentHashMap<>();
+
+    public void addView(Long shareId) {
+        pending.computeIfAbsent(shareId, id -> new Counters()).views.increment();
+    }
+
+    public void addDownload(Long shareId) {
+        pending.computeIfAbsent(shareId, id -> new Counters()).downloads.increment();
+    }
+
+    @Scheduled(fixedDelayString = "${file.share.counter-flush-interval-ms:3000}")
+    public void flush() {
+        if (pending.isEmpty()) {
+            return;
+        }
+        List<Long> ids = new ArrayList<>();
+        List<Long> views = new ArrayList<>();
+        List<Long> downloads = new ArrayList<>();
+        pending.forEach((shareId, counters) -> {
+            long v = counters.views.sumThenReset();
+            long d = counters.downloads.sumThenReset();
+            if (v == 0 && d == 0) {
+                // 一个周期没有访问的分享移出缓冲；移出瞬间并发写入的增量在下面补回
+                if (pending.remove(shareId, counters)) {
+                    v = counters.views.sumThenReset();
+                    d = counters.downloads.sumThenReset();
+                }
+                if (v == 0 && d == 0) {
+                    return;
+                }
+            }
+            ids.add(shareId);
+            views.add(v);
+            downloads.add(d);
+        });
+        if (ids.isEmpty()) {
+            return;
+        }
+        try {
+            fileShareMapper.addCounts(ids.toArray(new Long[0]), views.toArray(new Long[0]),
+                    downloads.toArray(new Long[0]));
+            log.debug("分享计数写回: shares={}", ids.size());
+        } catch (Exception e) {
+            log.error("分享计数写回失败，增量放回缓冲: shares={}", ids.size(), e);
+            for (int i = 0; i < ids.size(); i++) {
+                Counters counters = pending.computeIfAbsent(ids.get(i), id -> new Counters());
+                counters.views.add(views.get(i));
+                counters.downloads.add(downloads.get(i));
+            }
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        flush();
+    }
+
+    private static final class Counters {
+        private final LongAdder views = new LongAdder();
+        private final LongAdder downloads = new LongAdder();
+    }
+}
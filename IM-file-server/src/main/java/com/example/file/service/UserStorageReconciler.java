@@ -0,0 +1,107 @@
+package com.example.file.service;
+
+import com.example.file.mapper.UserStorageQuotaMapper;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * 存储用量纠偏
+ * 按用户ID分批，用 user_files（未删除）重算 used_storage / file_count，修正触发器与软删除之间累积的偏差。
+ * 每批一条 UPDATE，只写有偏差的行；被修正用户的 Redis 已用量随后丢弃，下次预留时重新装载。
+ * 多实例同时触发时由 Redis 租约锁保证只有一个实例执行，锁值为本次执行的随机令牌，只释放自己持有的锁。
+ */
+@Slf4j
+@Component
+@RequiredArgsConstructor
+public class UserStorageReconciler {
+
+    private static final String LOCK_KEY = "file:quota:reconcile:lock";
+
+    /**
+     * 仍是自己的令牌时释放：KEYS[1]=锁 ARGV[1]=令牌
+     */
+    private static final DefaultRedisScript<Long> RELEASE_SCRIPT = new DefaultRedisScript<>(
+            "if redis.call('GET', KEYS[1]) == ARGV[1] then " +
+            "return redis.call('DEL', KEYS[1]) " +
+            "end " +
+            "return 0", Long.class);
+
+    private final UserStorageQuotaMapper userStorageQuotaMapper;
+
+    private final UserStorageService userStorageService;
+
+    private final StringRedisTemplate stringRedisTemplate;
+
+    @Value("${file.quota.reconcile-batch-size:500}")
+    private int batchSize;
+
+    @Value("${file.quota.reconcile-quiet-minutes:5}")
+    private int quietMinutes;
+
+    /** 租约时长，需长于一次全量纠偏的耗时；实例宕机时到期自动释放 */
+    @Value("${file.quota.reconcile-lock-minutes:60}")
+    private int lockMinutes;
+
+    @Scheduled(cron = "${file.quota.reconcile-cron:0 30 3 * * ?}")
+    public void reconcile() {
+        String token = UUID.randomUUID().toString();
+        Boolean acquired;
+        try {
+            acquired = stringRedisTemplate.opsForValue()
+                    .setIfAbsent(LOCK_KEY, token, Duration.ofMinutes(lockMinutes));
+        } catch (Exception e) {
+            log.error("获取存储用量纠偏锁失败，跳过本次纠偏", e);
+            return;
+        }
+        if (!Boolean.TRUE.equals(acquired)) {
+            log.info("存储用量纠偏正在其他实例执行，跳过");
+            return;
+        }
+        try {
+            reconcileAll();
+        } finally {
+            try {
+                stringRedisTemplate.execute(RELEASE_SCRIPT, List.of(LOCK_KEY), token);
+            } catch (Exception e) {
+                // 租约到期后自动释放
+                log.warn("释放存储用量纠偏锁失败: error={}", e.getMessage());
+            }
+        }
+    }
+
+    private void reconcileAll() {
+        long startedAt = System.currentTimeMillis();
+        long cursor = Long.MIN_VALUE;
+        int scanned = 0;
+        int fixed = 0;
+        try {
+            while (true) {
+                List<Long> userIds = userStorageQuotaMapper.selectUserIdsAfter(cursor, batchSize);
+                if (userIds.isEmpty()) {
+                    break;
+                }
+                long from = userIds.get(0);
+                cursor = userIds.get(userIds.size() - 1);
+                List<Long> drifted = userStorageQuotaMapper.reconcileRange(from, cursor, quietMinutes);
+                for (Long userId : drifted) {
+                    userStorageService.evictUsed(userId);
+                }
+                scanned += userIds.size();
+                fixed += drifted.size();
+            }
+            log.info("存储用量纠偏完成: scanned={}, fixed={}, cost={}ms", scanned, fixed,
+                    System.currentTimeMillis() - startedAt);
+        } catch (Exception e) {
+            log.error("存储用量纠偏失败: scanned={}, fixed={}", scanned, fixed, e);
+        }
+    }
+}
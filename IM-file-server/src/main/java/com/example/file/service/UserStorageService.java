@@ -2,28 +2,105 @@ package com.example.file.service;
 
 import com.example.file.entity.UserStorageQuota;
 import com.example.file.mapper.UserStorageQuotaMapper;
-import lombok.RequiredArgsConstructor;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.LoadingCache;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
 
+import java.time.Duration;
 import java.time.LocalDateTime;
+import java.util.List;
 
 /**
  * 用户存储配额服务
+ *
+ * 【记账】
+ * used_storage / file_count 由 user_files 的 INSERT 触发器累加，软删除时由 {@link #decreaseUsage} 原子扣减，
+ * 全部是 SQL 增量，不做读-改-写；{@link UserStorageReconciler} 定期按 user_files 重算纠偏。
+ *
+ * 【预留】
+ * 上传开始时在 Redis 原子预留（已用量 + 未结算预留 + 本次 ≤ 总配额），
+ * 事务提交后结算为已用量，回滚或放弃时释放；预留自带过期时间，客户端断开不会永久占用。
+ * - file:quota:used:{userId}      已用量，缺失时从数据库装载
+ * - file:quota:reserved:{userId}  ZSET，成员 {预留ID}:{字节数}，分数为过期时间
+ *
+ * 【配额上限】
+ * 总配额、单文件上限变化很少，本地缓存 5 分钟。
  */
 @Slf4j
 @Service
-@RequiredArgsConstructor
 public class UserStorageService {
-    
+
     private final UserStorageQuotaMapper userStorageQuotaMapper;
-    
+
+    private final StringRedisTemplate stringRedisTemplate;
+
+    private final LoadingCache<Long, UserStorageQuota> limits;
+
     // 默认配额 10GB
     private static final long DEFAULT_MAX_STORAGE = 10L * 1024 * 1024 * 1024;
     // 默认单文件最大 500MB
     private static final long DEFAULT_MAX_FILE_SIZE = 500L * 1024 * 1024;
-    
+
+    private static final String USED_KEY = "file:quota:used:";
+    private static final String RESERVED_KEY = "file:quota:reserved:";
+    private static final Duration USED_TTL = Duration.ofHours(1);
+
+    /**
+     * 预留：清理过期预留后判断是否超额，未超额则加入
+     * KEYS: 1 已用量  2 预留集合
+     * ARGV: 1 当前毫秒  2 过期毫秒  3 成员  4 字节数  5 总配额
+     * 返回: -1 已用量未装载 / 0 空间不足 / 1 成功
+     */
+    private static final DefaultRedisScript<Long> RESERVE_SCRIPT = new DefaultRedisScript<>("""
+            local used = redis.call('GET', KEYS[1])
+            if not used then
+                return -1
+            end
+            redis.call('ZREMRANGEBYSCORE', KEYS[2], '-inf', ARGV[1])
+            local reserved = 0
+            for _, member in ipairs(redis.call('ZRANGE', KEYS[2], 0, -1)) do
+                reserved = reserved + tonumber(string.match(member, ':(%d+)$'))
+            end
+            if tonumber(used) + reserved + tonumber(ARGV[4]) > tonumber(ARGV[5]) then
+                return 0
+            end
+            redis.call('ZADD', KEYS[2], ARGV[2], ARGV[3])
+            local ttl = redis.call('PTTL', KEYS[2])
+            if ttl < 0 or tonumber(ARGV[1]) + ttl < tonumber(ARGV[2]) then
+                redis.call('PEXPIREAT', KEYS[2], ARGV[2])
+            end
+            return 1
+            """, Long.class);
+
+    /**
+     * 结算：移除预留，已用量已装载时累加（数据库侧已由触发器累加）
+     * KEYS: 1 已用量  2 预留集合
+     * ARGV: 1 成员  2 字节数
+     */
+    private static final DefaultRedisScript<Long> SETTLE_SCRIPT = new DefaultRedisScript<>("""
+            redis.call('ZREM', KEYS[2], ARGV[1])
+            if redis.call('EXISTS', KEYS[1]) == 1 then
+                redis.call('INCRBY', KEYS[1], ARGV[2])
+            end
+            return 1
+            """, Long.class);
+
+    public UserStorageService(UserStorageQuotaMapper userStorageQuotaMapper,
+                              StringRedisTemplate stringRedisTemplate) {
+        this.userStorageQuotaMapper = userStorageQuotaMapper;
+        this.stringRedisTemplate = stringRedisTemplate;
+        this.limits = Caffeine.newBuilder()
+                .maximumSize(100_000)
+                .expireAfterWrite(Duration.ofMinutes(5))
+                .build(this::getUserQuota);
+    }
+
     /**
      * 获取用户存储配额
      */
@@ -35,78 +112,120 @@ public class UserStorageService {
         }
         return quota;
     }
-    
+
     /**
-     * 创建默认配额
+     * 创建默认配额（并发创建时以先插入的为准）
      */
     @Transactional
     public UserStorageQuota createDefaultQuota(Long userId) {
-        UserStorageQuota quota = new UserStorageQuota()
-                .setUserId(userId)
-                .setMaxStorage(DEFAULT_MAX_STORAGE)
-                .setMaxFileSize(DEFAULT_MAX_FILE_SIZE)
-                .setUsedStorage(0L)
-                .setFileCount(0)
-                .setExtraStorage(0L)
-                .setUpdatedAt(LocalDateTime.now());
-        userStorageQuotaMapper.insert(quota);
-        return quota;
+        userStorageQuotaMapper.insertDefault(userId, DEFAULT_MAX_STORAGE, DEFAULT_MAX_FILE_SIZE);
+        return userStorageQuotaMapper.selectById(userId);
     }
-    
+
     /**
-     * 检查是否可以上传文件
+     * 检查是否可以上传文件（不预留）
      */
     public boolean canUpload(Long userId, long fileSize) {
-        UserStorageQuota quota = getUserQuota(userId);
-        
+        UserStorageQuota quota = limits.get(userId);
+
         // 检查单文件大小限制
         if (fileSize > quota.getMaxFileSize()) {
             return false;
         }
-        
+
         // 检查总存储空间
-        long totalAvailable = quota.getTotalAvailable();
-        return quota.getUsedStorage() + fileSize <= totalAvailable;
+        return loadUsed(userId) + fileSize <= quota.getTotalAvailable();
+    }
+
+    /**
+     * 预留上传空间，空间不足时抛出异常
+     *
+     * @param reservationId 预留ID（分片上传用 uploadId，单次上传用随机ID）
+     * @param ttl           预留有效期，超时未结算自动释放
+     */
+    public void reserve(Long userId, String reservationId, long fileSize, Duration ttl) {
+        UserStorageQuota quota = limits.get(userId);
+        if (fileSize > quota.getMaxFileSize()) {
+            throw new RuntimeException("文件大小超过单文件上限");
+        }
+        long now = System.currentTimeMillis();
+        List<String> keys = List.of(USED_KEY + userId, RESERVED_KEY + userId);
+        String[] args = {String.valueOf(now), String.valueOf(now + ttl.toMillis()),
+                member(reservationId, fileSize), String.valueOf(fileSize), String.valueOf(quota.getTotalAvailable())};
+
+        Long result = stringRedisTemplate.execute(RESERVE_SCRIPT, keys, (Object[]) args);
+        if (result != null && result == -1) {
+            loadUsed(userId);
+            result = stringRedisTemplate.execute(RESERVE_SCRIPT, keys, (Object[]) args);
+        }
+        if (result == null || result != 1) {
+            throw new RuntimeException("存储空间不足");
+        }
     }
-    
+
     /**
-     * 增加存储使用量
+     * 在当前事务结束时结算预留：提交则计入已用量，回滚则释放；无事务时立即结算
+     */
+    public void settleWithTransaction(Long userId, String reservationId, long fileSize) {
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            settle(userId, reservationId, fileSize);
+            return;
+        }
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void afterCompletion(int status) {
+                if (status == STATUS_COMMITTED) {
+                    settle(userId, reservationId, fileSize);
+                } else {
+                    release(userId, reservationId, fileSize);
+                }
+            }
+        });
+    }
+
+    /**
+     * 释放预留
+     */
+    public void release(Long userId, String reservationId, long fileSize) {
+        try {
+            stringRedisTemplate.opsForZSet().remove(RESERVED_KEY + userId, member(reservationId, fileSize));
+        } catch (Exception e) {
+            // 预留会自然过期
+            log.warn("释放存储预留失败: userId={}, reservationId={}", userId, reservationId, e);
+        }
+    }
+
+    /**
+     * 增加存储使用量（原子增量）
      */
     @Transactional
     public void increaseUsage(Long userId, long size) {
-        UserStorageQuota quota = getUserQuota(userId);
-        quota.setUsedStorage(quota.getUsedStorage() + size);
-        quota.setUpdatedAt(LocalDateTime.now());
-        userStorageQuotaMapper.updateById(quota);
+        userStorageQuotaMapper.incrementUsage(userId, size);
+        adjustUsedAfterCommit(userId, size);
         log.info("增加用户存储使用量: userId={}, size={}", userId, size);
     }
-    
+
     /**
-     * 减少存储使用量
+     * 减少存储使用量（原子增量，用于软删除：触发器只处理物理删除）
      */
     @Transactional
     public void decreaseUsage(Long userId, long size) {
-        UserStorageQuota quota = getUserQuota(userId);
-        quota.setUsedStorage(Math.max(0, quota.getUsedStorage() - size));
-        quota.setUpdatedAt(LocalDateTime.now());
-        userStorageQuotaMapper.updateById(quota);
+        userStorageQuotaMapper.decrementUsage(userId, size);
+        adjustUsedAfterCommit(userId, -size);
         log.info("减少用户存储使用量: userId={}, size={}", userId, size);
     }
-    
+
     /**
      * 增加赠送空间
      */
     @Transactional
     public void addBonusStorage(Long userId, long bonusSize, LocalDateTime expiresAt) {
-        UserStorageQuota quota = getUserQuota(userId);
-        long current = quota.getExtraStorage() != null ? quota.getExtraStorage() : 0;
-        quota.setExtraStorage(current + bonusSize);
-        quota.setExpiresAt(expiresAt);
-        quota.setUpdatedAt(LocalDateTime.now());
-        userStorageQuotaMapper.updateById(quota);
+        getUserQuota(userId);
+        userStorageQuotaMapper.addExtraStorage(userId, bonusSize, expiresAt);
+        limits.invalidate(userId);
         log.info("增加用户赠送空间: userId={}, bonusSize={}", userId, bonusSize);
     }
-    
+
     /**
      * 获取存储使用百分比
      */
@@ -116,4 +235,59 @@ public class UserStorageService {
         if (total == 0) return 0;
         return (int) (quota.getUsedStorage() * 100 / total);
     }
+
+    /**
+     * 纠偏后丢弃 Redis 中的已用量，下次预留时重新装载
+     */
+    public void evictUsed(Long userId) {
+        stringRedisTemplate.delete(USED_KEY + userId);
+    }
+
+    private void settle(Long userId, String reservationId, long fileSize) {
+        try {
+            stringRedisTemplate.execute(SETTLE_SCRIPT, List.of(USED_KEY + userId, RESERVED_KEY + userId),
+                    member(reservationId, fileSize), String.valueOf(fileSize));
+        } catch (Exception e) {
+            // 已用量以数据库为准，丢掉 Redis 副本等下次装载
+            log.warn("结算存储预留失败: userId={}, reservationId={}", userId, reservationId, e);
+            evictUsed(userId);
+        }
+    }
+
+    private void adjustUsedAfterCommit(Long userId, long delta) {
+        Runnable adjust = () -> {
+            String key = USED_KEY + userId;
+            if (Boolean.TRUE.equals(stringRedisTemplate.hasKey(key))) {
+                stringRedisTemplate.opsForValue().increment(key, delta);
+            }
+        };
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            adjust.run();
+            return;
+        }
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void afterCommit() {
+                adjust.run();
+            }
+        });
+    }
+
+    /**
+     * 读取已用量，Redis 缺失时从数据库装载
+     */
+    private long loadUsed(Long userId) {
+        String key = USED_KEY + userId;
+        String cached = stringRedisTemplate.opsForValue().get(key);
+        if (cached != null) {
+            return Long.parseLong(cached);
+        }
+        long used = getUserQuota(userId).getUsedStorage();
+        stringRedisTemplate.opsForValue().setIfAbsent(key, String.valueOf(used), USED_TTL);
+        return used;
+    }
+
+    private static String member(String reservationId, long fileSize) {
+        return reservationId + ":" + fileSize;
+    }
 }
@@ -0,0 +1,366 @@
+package com.example.file.transcode;
+
+import com.example.file.cache.FileMetadataCache;
+import com.example.file.entity.FileMetadata;
+import com.example.file.entity.FileTranscodeTask;
+import com.example.file.mapper.FileMetadataMapper;
+import com.example.file.mapper.FileTranscodeTaskMapper;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.minio.GetObjectArgs;
+import io.minio.MinioClient;
+import io.minio.PutObjectArgs;
+import io.minio.StatObjectArgs;
+import io.minio.errors.ErrorResponseException;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.pdfbox.Loader;
+import org.apache.pdfbox.pdmodel.PDDocument;
+import org.apache.pdfbox.pdmodel.common.PDRectangle;
+import org.apache.pdfbox.rendering.ImageType;
+import org.apache.pdfbox.rendering.PDFRenderer;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.stream.ImageInputStream;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.time.LocalDateTime;
+import java.util.HexFormat;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * ====================================================================
+ * 缩略图 / 预览生成 (Transcode Worker Pool)
+ * ====================================================================
+ *
+ * 【任务来源】
+ * 新内容入库（CAS 首次写入）时按类型入队 file_transcode_tasks：
+ * - 图片 → thumbnail：small / medium / large 三档缩略图
+ * - PDF  → preview：首页渲染为预览图，并由预览图生成缩略图、记录页数
+ *
+ * 【认领】
+ * 定时轮询，按空闲 worker 数用 UPDATE ... WHERE id IN (SELECT ... FOR UPDATE SKIP LOCKED) 认领，
+ * 多实例并发认领互不阻塞；worker 宕机遗留的处理中任务超时后退回待处理。
+ *
+ * 【生成】
+ * - 图片用 ImageReader 按比例降采样解码，超大原图不会整张解进内存，再逐级缩小到各档尺寸
+ * - PDF 先落到本地临时文件再由 PDFBox 加载，只渲染第一页
+ * - 输出按内容 SHA-256 写入 CAS 路径，已存在的对象不重复上传
+ */
+@Slf4j
+@Service
+@RequiredArgsConstructor
+public class TranscodeService {
+
+    public static final String TARGET_THUMBNAIL = "thumbnail";
+
+    public static final String TARGET_PREVIEW = "preview";
+
+    /** ImageIO 内置可解码的格式 */
+    private static final Set<String> IMAGE_FORMATS = Set.of("jpg", "jpeg", "png", "gif", "bmp");
+
+    /** 缩略图档位（长边像素），从大到小生成，每档由上一档缩小 */
+    private static final Map<String, Integer> THUMBNAIL_SIZES = new LinkedHashMap<>();
+
+    static {
+        THUMBNAIL_SIZES.put("large", 1080);
+        THUMBNAIL_SIZES.put("medium", 480);
+        THUMBNAIL_SIZES.put("small", 160);
+    }
+
+    private final MinioClient minioClient;
+
+    private final FileTranscodeTaskMapper taskMapper;
+
+    private final FileMetadataMapper fileMetadataMapper;
+
+    private final FileMetadataCache fileMetadataCache;
+
+    private final ObjectMapper objectMapper;
+
+    @Value("${minio.bucket-name:files}")
+    private String bucketName;
+
+    @Value("${file.transcode.workers:2}")
+    private int workers;
+
+    @Value("${file.transcode.max-source-mb:100}")
+    private long maxSourceMb;
+
+    @Value("${file.transcode.preview-width:1024}")
+    private int previewWidth;
+
+    @Value("${file.transcode.stale-minutes:10}")
+    private int staleMinutes;
+
+    private final AtomicInteger inFlight = new AtomicInteger();
+
+    private ThreadPoolExecutor executor;
+
+    private String workerId;
+
+    @PostConstruct
+    public void init() {
+        AtomicInteger threadIndex = new AtomicInteger();
+        // 认领数不超过空闲 worker 数，队列只是缓冲，不会溢出
+        executor = new ThreadPoolExecutor(workers, workers, 0, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(workers), r -> {
+                    Thread thread = new Thread(r, "transcode-worker-" + threadIndex.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                });
+        String runtimeName = ManagementFactory.getRuntimeMXBean().getName();
+        workerId = runtimeName.length() > 50 ? runtimeName.substring(0, 50) : runtimeName;
+    }
+
+    @PreDestroy
+    public void shutdown() throws InterruptedException {
+        // 未完成的任务保持处理中，超时后由其他实例重新认领
+        executor.shutdown();
+        executor.awaitTermination(30, TimeUnit.SECONDS);
+    }
+
+    /**
+     * 新内容入库后按类型建任务，不支持的类型忽略
+     */
+    public void enqueue(String fileHash, Long userId, String mimeType, String ext) {
+        String format = ext != null ? ext.toLowerCase(Locale.ROOT) : null;
+        String target = null;
+        if ("pdf".equals(format) || "application/pdf".equals(mimeType)) {
+            target = TARGET_PREVIEW;
+        } else if (format != null && IMAGE_FORMATS.contains(format)) {
+            target = TARGET_THUMBNAIL;
+        }
+        if (target != null) {
+            taskMapper.enqueue(fileHash, userId, format, target);
+        }
+    }
+
+    /**
+     * 按空闲 worker 数认领任务
+     */
+    @Scheduled(fixedDelayString = "${file.transcode.poll-interval-ms:2000}")
+    public void poll() {
+        int free = workers - inFlight.get();
+        if (free <= 0) {
+            return;
+        }
+        List<FileTranscodeTask> tasks;
+        try {
+            tasks = taskMapper.claimTasks(workerId, free);
+        } catch (Exception e) {
+            log.error("认领转码任务失败", e);
+            return;
+        }
+        for (FileTranscodeTask task : tasks) {
+            inFlight.incrementAndGet();
+            executor.execute(() -> {
+                try {
+                    process(task);
+                } finally {
+                    inFlight.decrementAndGet();
+                }
+            });
+        }
+    }
+
+    /**
+     * 处理中超时的任务退回待处理
+     */
+    @Scheduled(fixedDelayString = "${file.transcode.stale-check-interval-ms:60000}")
+    public void resetStaleTasks() {
+        try {
+            int reset = taskMapper.resetStale(staleMinutes);
+            if (reset > 0) {
+                log.warn("转码任务超时，已退回待处理: count={}", reset);
+            }
+        } catch (Exception e) {
+            log.error("重置超时转码任务失败", e);
+        }
+    }
+
+    private void process(FileTranscodeTask task) {
+        long startedAt = System.currentTimeMillis();
+        try {
+            FileMetadata source = fileMetadataMapper.selectById(task.getFileHash());
+            if (source == null) {
+                throw new IllegalStateException("源文件不存在");
+            }
+            if (source.getFileSize() > maxSourceMb * 1024 * 1024) {
+                throw new IllegalStateException("源文件过大，跳过生成");
+            }
+
+            Derived derived = TARGET_PREVIEW.equals(task.getTargetFormat())
+                    ? renderPdf(task, source)
+                    : renderImage(task, source);
+
+            fileMetadataMapper.updateDerived(source.getFileHash(),
+                    objectMapper.writeValueAsString(derived.thumbnailKeys()), derived.previewKey(),
+                    derived.width(), derived.height(), derived.pageCount());
+            fileMetadataCache.invalidate(source.getFileHash());
+
+            task.setStatus(FileTranscodeTask.STATUS_SUCCESS)
+                    .setProgress(100)
+                    .setOutputHash(derived.outputHash())
+                    .setOutputKey(derived.outputKey())
+                    .setCompletedAt(LocalDateTime.now());
+            taskMapper.updateById(task);
+            log.info("转码完成: taskId={}, fileHash={}, target={}, cost={}ms", task.getId(), task.getFileHash(),
+                    task.getTargetFormat(), System.currentTimeMillis() - startedAt);
+        } catch (Exception e) {
+            log.error("转码失败: taskId={}, fileHash={}", task.getId(), task.getFileHash(), e);
+            try {
+                task.setStatus(FileTranscodeTask.STATUS_FAILED)
+                        .setErrorMessage(e.getMessage())
+                        .setCompletedAt(LocalDateTime.now());
+                taskMapper.updateById(task);
+            } catch (Exception ex) {
+                log.error("更新转码任务状态失败: taskId={}", task.getId(), ex);
+            }
+        }
+    }
+
+    private Derived renderImage(FileTranscodeTask task, FileMetadata source) throws Exception {
+        int width;
+        int height;
+        BufferedImage image;
+        try (InputStream in = openObject(source);
+             ImageInputStream iis = ImageIO.createImageInputStream(in)) {
+            Iterator<ImageReader> readers = ImageIO.getImageReaders(iis);
+            if (!readers.hasNext()) {
+                throw new IllegalStateException("不支持的图片格式");
+            }
+            ImageReader reader = readers.next();
+            try {
+                reader.setInput(iis, true, true);
+                width = reader.getWidth(0);
+                height = reader.getHeight(0);
+                // 解码时直接降采样到最大档的两倍左右，再缩放保证质量
+                int largest = THUMBNAIL_SIZES.values().iterator().next();
+                int subsampling = Math.max(1, Math.max(width, height) / (largest * 2));
+                ImageReadParam param = reader.getDefaultReadParam();
+                param.setSourceSubsampling(subsampling, subsampling, 0, 0);
+                image = reader.read(0, param);
+            } finally {
+                reader.dispose();
+            }
+        }
+        taskMapper.updateProgress(task.getId(), 30);
+
+        Map<String, String> thumbnailKeys = writeThumbnails(image);
+        String largeKey = thumbnailKeys.get("large");
+        return new Derived(thumbnailKeys, null, width, height, null, hashOf(largeKey), largeKey);
+    }
+
+    private Derived renderPdf(FileTranscodeTask task, FileMetadata source) throws Exception {
+        Path temp = Files.createTempFile("transcode-", ".pdf");
+        try {
+            try (InputStream in = openObject(source)) {
+                Files.copy(in, temp, StandardCopyOption.REPLACE_EXISTING);
+            }
+            int pageCount;
+            BufferedImage page;
+            try (PDDocument document = Loader.loadPDF(temp.toFile())) {
+                pageCount = document.getNumberOfPages();
+                if (pageCount == 0) {
+                    throw new IllegalStateException("PDF 没有页面");
+                }
+                PDRectangle box = document.getPage(0).getCropBox();
+                float scale = Math.min(previewWidth / Math.max(box.getWidth(), 1f), 4f);
+                page = new PDFRenderer(document).renderImage(0, scale, ImageType.RGB);
+            }
+            taskMapper.updateProgress(task.getId(), 50);
+
+            String previewKey = store(page);
+            Map<String, String> thumbnailKeys = writeThumbnails(page);
+            return new Derived(thumbnailKeys, previewKey, null, null, pageCount, hashOf(previewKey), previewKey);
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+    }
+
+    /**
+     * 从大到小生成各档缩略图，每档由上一档缩小
+     */
+    private Map<String, String> writeThumbnails(BufferedImage image) throws Exception {
+        Map<String, String> keys = new LinkedHashMap<>();
+        BufferedImage current = image;
+        for (Map.Entry<String, Integer> size : THUMBNAIL_SIZES.entrySet()) {
+            current = ImageScaler.fit(current, size.getValue());
+            keys.put(size.getKey(), store(current));
+        }
+        return keys;
+    }
+
+    /**
+     * 编码后按内容哈希写入CAS路径，已存在则跳过上传
+     */
+    private String store(BufferedImage image) throws Exception {
+        byte[] bytes = ImageScaler.encode(image);
+        String format = ImageScaler.formatOf(image);
+        String hash = HexFormat.of().formatHex(MessageDigest.getInstance("SHA-256").digest(bytes));
+        String key = "cas/" + hash.substring(0, 2) + "/" + hash.substring(2, 4) + "/" + hash + "." + format;
+        if (!exists(key)) {
+            minioClient.putObject(PutObjectArgs.builder()
+                    .bucket(bucketName)
+                    .object(key)
+                    .stream(new ByteArrayInputStream(bytes), bytes.length, -1)
+                    .contentType("png".equals(format) ? "image/png" : "image/jpeg")
+                    .build());
+        }
+        return key;
+    }
+
+    private boolean exists(String key) throws Exception {
+        try {
+            minioClient.statObject(StatObjectArgs.builder().bucket(bucketName).object(key).build());
+            return true;
+        } catch (ErrorResponseException e) {
+            if ("NoSuchKey".equals(e.errorResponse().code())) {
+                return false;
+            }
+            throw e;
+        }
+    }
+
+    private InputStream openObject(FileMetadata source) throws Exception {
+        return minioClient.getObject(GetObjectArgs.builder()
+                .bucket(source.getBucketName())
+                .object(source.getObjectKey())
+                .build());
+    }
+
+    /**
+     * CAS 键 cas/xx/yy/{hash}.{ext} 中的哈希
+     */
+    private static String hashOf(String casKey) {
+        String name = casKey.substring(casKey.lastIndexOf('/') + 1);
+        int dot = name.indexOf('.');
+        return dot > 0 ? name.substring(0, dot) : name;
+    }
+
+    private record Derived(Map<String, String> thumbnailKeys, String previewKey, Integer width, Integer height,
+                           Integer pageCount, String outputHash, String outputKey) {
+    }
+}
@@ -3,7 +3,10 @@ package com.example.im.client;
 import org.springframework.cloud.openfeign.FeignClient;
 import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RequestBody;
 
+import java.util.List;
 import java.util.Map;
 
 /**
@@ -17,4 +20,10 @@ public interface UserClient {
      */
     @GetMapping("/api/v1/users/{userId}")
     Map<String, Object> getUserById(@PathVariable("userId") Long userId);
+    
+    /**
+     * 批量获取用户名片（id、nickname、avatarUrl），单次最多1000个
+     */
+    @PostMapping("/api/v1/users/cards")
+    Map<String, Object> getUserCards(@RequestBody List<Long> userIds);
 }
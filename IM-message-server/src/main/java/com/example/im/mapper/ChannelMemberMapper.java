@@ -55,6 +55,16 @@ public interface ChannelMemberMapper extends BaseMapper<ChannelMember> {
             "</script>")
     int batchIncrementUnreadCount(@Param("channelId") Long channelId, @Param("userIds") List<Long> userIds);
     
+    /**
+     * 批量获取多个会话中除指定用户外的成员（channel_id、user_id）
+     */
+    @Select("<script>" +
+            "SELECT channel_id, user_id FROM channel_members " +
+            "WHERE channel_id IN <foreach collection='channelIds' item='cid' open='(' separator=',' close=')'>#{cid}</foreach> " +
+            "AND user_id != #{excludeUserId} AND left_at IS NULL" +
+            "</script>")
+    List<ChannelMember> getOtherMembers(@Param("channelIds") List<Long> channelIds, @Param("excludeUserId") Long excludeUserId);
+    
     /**
      * 获取用户加入的频道ID列表
      */
@@ -11,7 +11,14 @@ import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
 
 import java.time.OffsetDateTime;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 
 /**
  * 会话服务
@@ -26,6 +33,9 @@ public class ChannelService {
     private final SequenceService sequenceService;
     private final UserClient userClient;
 
+    /** 用户服务批量名片接口单次上限 */
+    private static final int USER_CARD_BATCH_SIZE = 1000;
+
     /**
      * 创建单聊会话
      */
@@ -223,29 +233,45 @@ public class ChannelService {
     public List<Channel> getUserChannels(Long userId) {
         List<Long> channelIds = channelMemberMapper.getChannelIdsByUser(userId);
         if (channelIds.isEmpty()) {
-            return java.util.Collections.emptyList();
+            return Collections.emptyList();
         }
         List<Channel> channels = channelMapper.selectBatchIds(channelIds);
         
-        // 为私聊会话设置对方用户名
+        // 为私聊会话设置对方用户名：一次查询取出所有私聊的对方成员，再一次批量获取名片
+        List<Long> privateChannelIds = new ArrayList<>();
         for (Channel channel : channels) {
             if (channel.getChannelType() != null && channel.getChannelType() == 1) {
-                // 私聊会话：获取对方用户ID和用户名
-                List<Long> memberIds = channelMemberMapper.getMemberIds(channel.getId());
-                Long targetUserId = memberIds.stream()
-                        .filter(id -> !id.equals(userId))
-                        .findFirst()
-                        .orElse(null);
-                
-                if (targetUserId != null) {
-                    channel.setTargetUserId(targetUserId);
-                    // 获取对方用户名
-                    String displayName = getUserDisplayName(targetUserId);
-                    channel.setDisplayName(displayName);
-                    // 如果没有设置 name，使用 displayName
-                    if (channel.getName() == null || channel.getName().isEmpty()) {
-                        channel.setName(displayName);
-                    }
+                privateChannelIds.add(channel.getId());
+            }
+        }
+        Map<Long, Long> targetByChannel = new HashMap<>(privateChannelIds.size() * 2);
+        if (!privateChannelIds.isEmpty()) {
+            for (ChannelMember member : channelMemberMapper.getOtherMembers(privateChannelIds, userId)) {
+                targetByChannel.putIfAbsent(member.getChannelId(), member.getUserId());
+            }
+        }
+        
+        List<Channel> privateChannels = new ArrayList<>(targetByChannel.size());
+        for (Channel channel : channels) {
+            Long targetUserId = targetByChannel.get(channel.getId());
+            if (targetUserId != null) {
+                channel.setTargetUserId(targetUserId);
+                privateChannels.add(channel);
+            }
+        }
+        
+        if (!privateChannels.isEmpty()) {
+            Set<Long> targetUserIds = new HashSet<>();
+            for (Channel channel : privateChannels) {
+                targetUserIds.add(channel.getTargetUserId());
+            }
+            Map<Long, String> displayNames = getUserDisplayNames(targetUserIds);
+            for (Channel channel : privateChannels) {
+                String displayName = displayNames.getOrDefault(channel.getTargetUserId(), "用户" + channel.getTargetUserId());
+                channel.setDisplayName(displayName);
+                // 如果没有设置 name，使用 displayName
+                if (channel.getName() == null || channel.getName().isEmpty()) {
+                    channel.setName(displayName);
                 }
             }
         }
@@ -254,28 +280,31 @@ public class ChannelService {
     }
     
     /**
-     * 获取用户显示名称
+     * 批量获取用户显示名称（昵称为空时用户服务已回退为用户名）
+     * 按用户服务单次上限分批调用，失败的批次由调用方回退为默认名称
      */
-    private String getUserDisplayName(Long userId) {
-        try {
-            java.util.Map<String, Object> result = userClient.getUserById(userId);
-            if (result != null && result.get("data") != null) {
-                @SuppressWarnings("unchecked")
-                java.util.Map<String, Object> data = (java.util.Map<String, Object>) result.get("data");
-                // 优先使用 nickname，其次 username
-                String nickname = (String) data.get("nickname");
-                if (nickname != null && !nickname.isEmpty()) {
-                    return nickname;
-                }
-                String username = (String) data.get("username");
-                if (username != null && !username.isEmpty()) {
-                    return username;
+    private Map<Long, String> getUserDisplayNames(Collection<Long> userIds) {
+        Map<Long, String> names = new HashMap<>(userIds.size() * 2);
+        List<Long> ids = new ArrayList<>(userIds);
+        for (int from = 0; from < ids.size(); from += USER_CARD_BATCH_SIZE) {
+            List<Long> batch = ids.subList(from, Math.min(from + USER_CARD_BATCH_SIZE, ids.size()));
+            try {
+                Map<String, Object> result = userClient.getUserCards(batch);
+                if (result != null && result.get("data") instanceof List<?> cards) {
+                    for (Object item : cards) {
+                        if (item instanceof Map<?, ?> card && card.get("id") instanceof Number id) {
+                            Object nickname = card.get("nickname");
+                            if (nickname != null && !nickname.toString().isEmpty()) {
+                                names.put(id.longValue(), nickname.toString());
+                            }
+                        }
+                    }
                 }
+            } catch (Exception e) {
+                log.warn("批量获取用户信息失败: size={}, error={}", batch.size(), e.getMessage());
             }
-        } catch (Exception e) {
-            log.warn("获取用户信息失败: userId={}, error={}", userId, e.getMessage());
         }
-        return "用户" + userId;
+        return names;
     }
     
     /**
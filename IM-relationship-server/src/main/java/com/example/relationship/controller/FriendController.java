@@ -100,6 +100,15 @@ public class FriendController {
         return Result.success(isFriend);
     }
     
+    @Operation(summary = "获取共同好友ID")
+    @GetMapping("/friends/mutual")
+    public Result<List<Long>> getMutualFriends(
+            @RequestHeader("X-User-Id") Long userId,
+            @RequestParam Long targetId) {
+        List<Long> mutualFriendIds = friendRelationService.getMutualFriendIds(userId, targetId);
+        return Result.success(mutualFriendIds);
+    }
+    
     @Operation(summary = "获取好友详情")
     @GetMapping("/friends/{friendId}")
     public Result<FriendVO> getFriendDetail(
@@ -24,7 +24,7 @@ public class FriendRecommendation {
     
     private Long recommendedUserId;
     
-    /** 推荐原因: mutual_friends, same_group, nearby */
+    /** 推荐原因: mutual_friends, same_department, same_group, nearby */
     private String reason;
     
     /** 推荐详情(JSONB) */
@@ -0,0 +1,377 @@
+package com.example.relationship.graph;
+
+import com.example.relationship.mapper.BlacklistMapper;
+import com.example.relationship.mapper.FriendRelationMapper;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.scheduling.annotation.Async;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * ====================================================================
+ * 内存好友图 (In-memory Friend Graph)
+ * ====================================================================
+ *
+ * 【结构】
+ * userId → 升序排列的 long[] 好友ID（有向边，对应 friend_relations 的一行）
+ * - 每条边 8 字节，没有 Long 装箱和 HashSet 节点开销
+ * - 数组发布后不再修改，变更时整体复制替换（写少读多），读路径无锁
+ * - 黑名单用同样的结构单独存一份：userId → 被其拉黑的用户ID
+ *
+ * 【查询】
+ * - isFriend：二分查找，O(log d)
+ * - 共同好友：两个有序数组归并求交；度数相差悬殊时对大数组二分
+ * - 好友数：数组长度
+ * - isBlocked：同 isFriend，好友申请准入时用来判断是否被对方拉黑
+ *
+ * 【数据来源】
+ * - 启动时及每天定时流式读取 friend_relations 和 blacklist 全量构建，构建期间收到的变更在切换前按序重放
+ * - 运行时由 friend_event_topic 广播（每个实例都消费）和本实例事务提交后的回调增量维护：
+ *   两者都只是信号，按用户对回查数据库后覆盖四条边，不依赖事件顺序
+ * - 构建完成前 isReady 为 false，调用方应走 Redis/数据库
+ */
+@Slf4j
+@Component
+@RequiredArgsConstructor
+public class FriendGraph {
+
+    private static final long[] EMPTY = new long[0];
+
+    private final FriendRelationMapper friendRelationMapper;
+
+    private final BlacklistMapper blacklistMapper;
+
+    private final TransactionTemplate transactionTemplate;
+
+    private volatile ConcurrentHashMap<Long, long[]> adjacency = new ConcurrentHashMap<>();
+
+    private volatile ConcurrentHashMap<Long, long[]> blocks = new ConcurrentHashMap<>();
+
+    private volatile boolean ready;
+
+    /** 按用户对分段的刷新锁 */
+    private final Object[] pairLocks = new Object[64];
+
+    {
+        for (int i = 0; i < pairLocks.length; i++) {
+            pairLocks[i] = new Object();
+        }
+    }
+
+    /** 构建期间收到的变更，构建完成后重放到新图上 */
+    private List<EdgeChange> pending;
+
+    @Async
+    @EventListener(ApplicationReadyEvent.class)
+    public void bootstrap() {
+        try {
+            rebuild();
+        } catch (Exception e) {
+            log.error("构建内存好友图失败，好友判断将走缓存/数据库", e);
+        }
+    }
+
+    /**
+     * 定时全量重建，纠正事件丢失（MQ 发送失败、消费异常）造成的偏差
+     */
+    @Scheduled(cron = "${relationship.friend-graph.rebuild-cron:0 15 4 * * ?}")
+    public void scheduledRebuild() {
+        try {
+            rebuild();
+        } catch (Exception e) {
+            log.error("定时重建内存好友图失败，继续使用旧图", e);
+        }
+    }
+
+    /**
+     * 从数据库全量重建
+     */
+    public void rebuild() {
+        long startedAt = System.currentTimeMillis();
+        synchronized (this) {
+            if (pending != null) {
+                log.warn("内存好友图正在构建中，忽略重复请求");
+                return;
+            }
+            pending = new ArrayList<>();
+        }
+        ConcurrentHashMap<Long, long[]> building = new ConcurrentHashMap<>();
+        ConcurrentHashMap<Long, long[]> buildingBlocks = new ConcurrentHashMap<>();
+        Loader loader = new Loader(building);
+        Loader blockLoader = new Loader(buildingBlocks);
+        try {
+            transactionTemplate.executeWithoutResult(status -> {
+                friendRelationMapper.streamEdges(context -> {
+                    Map<String, Object> row = context.getResultObject();
+                    loader.accept(((Number) row.get("uid")).longValue(), ((Number) row.get("fid")).longValue());
+                });
+                blacklistMapper.streamBlocks(context -> {
+                    Map<String, Object> row = context.getResultObject();
+                    blockLoader.accept(((Number) row.get("uid")).longValue(), ((Number) row.get("bid")).longValue());
+                });
+            });
+            loader.flush();
+            blockLoader.flush();
+        } catch (RuntimeException e) {
+            synchronized (this) {
+                pending = null;
+            }
+            throw e;
+        }
+        int replayed;
+        synchronized (this) {
+            replayed = pending.size();
+            for (EdgeChange change : pending) {
+                apply(building, buildingBlocks, change);
+            }
+            adjacency = building;
+            blocks = buildingBlocks;
+            pending = null;
+            ready = true;
+        }
+        log.info("内存好友图构建完成: users={}, edges={}, blocks={}, replayed={}, cost={}ms",
+            building.size(), loader.edges, blockLoader.edges, replayed, System.currentTimeMillis() - startedAt);
+    }
+
+    public boolean isReady() {
+        return ready;
+    }
+
+    /**
+     * userId 的好友中是否包含 friendId
+     */
+    public boolean isFriend(long userId, long friendId) {
+        long[] neighbors = adjacency.get(userId);
+        return neighbors != null && Arrays.binarySearch(neighbors, friendId) >= 0;
+    }
+
+    /**
+     * userId 是否拉黑了 targetId
+     */
+    public boolean isBlocked(long userId, long targetId) {
+        long[] blocked = blocks.get(userId);
+        return blocked != null && Arrays.binarySearch(blocked, targetId) >= 0;
+    }
+
+    /**
+     * 好友ID（升序，返回副本）
+     */
+    public long[] friends(long userId) {
+        long[] neighbors = adjacency.get(userId);
+        return neighbors == null ? EMPTY : neighbors.clone();
+    }
+
+    /**
+     * 好友数量
+     */
+    public int degree(long userId) {
+        long[] neighbors = adjacency.get(userId);
+        return neighbors == null ? 0 : neighbors.length;
+    }
+
+    /**
+     * 共同好友ID（升序）
+     */
+    public long[] mutualFriends(long userId, long otherId) {
+        long[] a = adjacency.getOrDefault(userId, EMPTY);
+        long[] b = adjacency.getOrDefault(otherId, EMPTY);
+        if (a.length > b.length) {
+            long[] tmp = a;
+            a = b;
+            b = tmp;
+        }
+        long[] out = new long[a.length];
+        int n = 0;
+        if (shouldProbe(a.length, b.length)) {
+            for (long id : a) {
+                if (Arrays.binarySearch(b, id) >= 0) {
+                    out[n++] = id;
+                }
+            }
+        } else {
+            int i = 0;
+            int j = 0;
+            while (i < a.length && j < b.length) {
+                if (a[i] < b[j]) {
+                    i++;
+                } else if (a[i] > b[j]) {
+                    j++;
+                } else {
+                    out[n++] = a[i];
+                    i++;
+                    j++;
+                }
+            }
+        }
+        return n == out.length ? out : Arrays.copyOf(out, n);
+    }
+
+    /**
+     * 共同好友数量
+     */
+    public int countMutualFriends(long userId, long otherId) {
+        return mutualFriends(userId, otherId).length;
+    }
+
+    // ========== 增量维护 ==========
+
+    /**
+     * 两个用户之间的好友/黑名单关系发生变化（事务内调用时在提交后生效）
+     */
+    public void onPairChanged(long userId1, long userId2) {
+        afterCommit(() -> refreshPair(userId1, userId2));
+    }
+
+    /**
+     * 从数据库读取两个用户之间四条边（双向好友、双向拉黑）的当前状态并覆盖到图上
+     * 事件只作为信号，以数据库为准，事件乱序或重复都不会把旧状态写回；
+     * 同一对用户的读库和写图在同一把分段锁内完成，并发刷新时后读到的状态一定后写入
+     */
+    public void refreshPair(long userId1, long userId2) {
+        synchronized (pairLockOf(userId1, userId2)) {
+            boolean friend12 = friendRelationMapper.findRelation(userId1, userId2) != null;
+            boolean friend21 = friendRelationMapper.findRelation(userId2, userId1) != null;
+            boolean block12 = blacklistMapper.findBlocked(userId1, userId2) != null;
+            boolean block21 = blacklistMapper.findBlocked(userId2, userId1) != null;
+            submit(new EdgeChange(userId1, userId2, false, friend12));
+            submit(new EdgeChange(userId2, userId1, false, friend21));
+            submit(new EdgeChange(userId1, userId2, true, block12));
+            submit(new EdgeChange(userId2, userId1, true, block21));
+        }
+    }
+
+    private Object pairLockOf(long userId1, long userId2) {
+        long low = Math.min(userId1, userId2);
+        long high = Math.max(userId1, userId2);
+        long hash = low * 31 + high;
+        return pairLocks[(int) ((hash ^ (hash >>> 32)) & (pairLocks.length - 1))];
+    }
+
+    private void afterCommit(Runnable action) {
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCommit() {
+                    action.run();
+                }
+            });
+        } else {
+            action.run();
+        }
+    }
+
+    private void submit(EdgeChange change) {
+        synchronized (this) {
+            if (pending != null) {
+                pending.add(change);
+            }
+        }
+        apply(adjacency, blocks, change);
+    }
+
+    private static void apply(ConcurrentHashMap<Long, long[]> friends, ConcurrentHashMap<Long, long[]> blocked, EdgeChange change) {
+        ConcurrentHashMap<Long, long[]> graph = change.block() ? blocked : friends;
+        if (change.added()) {
+            graph.compute(change.userId(), (k, old) -> insert(old, change.targetId()));
+        } else {
+            graph.computeIfPresent(change.userId(), (k, old) -> remove(old, change.targetId()));
+        }
+    }
+
+    private static long[] insert(long[] neighbors, long id) {
+        if (neighbors == null) {
+            return new long[]{id};
+        }
+        int pos = Arrays.binarySearch(neighbors, id);
+        if (pos >= 0) {
+            return neighbors;
+        }
+        int at = -pos - 1;
+        long[] next = new long[neighbors.length + 1];
+        System.arraycopy(neighbors, 0, next, 0, at);
+        next[at] = id;
+        System.arraycopy(neighbors, at, next, at + 1, neighbors.length - at);
+        return next;
+    }
+
+    private static long[] remove(long[] neighbors, long id) {
+        int pos = Arrays.binarySearch(neighbors, id);
+        if (pos < 0) {
+            return neighbors;
+        }
+        if (neighbors.length == 1) {
+            return null;
+        }
+        long[] next = new long[neighbors.length - 1];
+        System.arraycopy(neighbors, 0, next, 0, pos);
+        System.arraycopy(neighbors, pos + 1, next, pos, neighbors.length - pos - 1);
+        return next;
+    }
+
+    /**
+     * 小数组逐个在大数组中二分的代价 (a·log b) 低于归并 (a + b) 时走二分
+     */
+    private static boolean shouldProbe(int small, int large) {
+        return small * (64 - Long.numberOfLeadingZeros(large)) < small + large;
+    }
+
+    /**
+     * @param block true 表示黑名单边，false 表示好友边
+     */
+    private record EdgeChange(long userId, long targetId, boolean block, boolean added) {
+    }
+
+    /**
+     * 按 user_id 分段累积有序的对端ID，切换用户时落成一个数组（去重）
+     */
+    private static final class Loader {
+
+        private final ConcurrentHashMap<Long, long[]> target;
+
+        private long currentUser = Long.MIN_VALUE;
+
+        private long[] buffer = new long[64];
+
+        private int size;
+
+        private long edges;
+
+        Loader(ConcurrentHashMap<Long, long[]> target) {
+            this.target = target;
+        }
+
+        void accept(long userId, long friendId) {
+            if (userId != currentUser) {
+                flush();
+                currentUser = userId;
+            }
+            if (size > 0 && buffer[size - 1] == friendId) {
+                return;
+            }
+            if (size == buffer.length) {
+                buffer = Arrays.copyOf(buffer, size * 2);
+            }
+            buffer[size++] = friendId;
+        }
+
+        void flush() {
+            if (size > 0) {
+                target.put(currentUser, Arrays.copyOf(buffer, size));
+                edges += size;
+                size = 0;
+            }
+        }
+    }
+}
@@ -0,0 +1,204 @@
+package com.example.relationship.interaction;
+
+import com.example.relationship.graph.FriendGraph;
+import com.example.relationship.mapper.FriendInteractionMapper;
+import jakarta.annotation.PreDestroy;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * ====================================================================
+ * 好友互动聚合器 (Friend Interaction Aggregator)
+ * ====================================================================
+ *
+ * 【为什么要聚合】
+ * 私聊消息和通话是高频事件，逐条 UPDATE friend_interactions 会把写压力原样压到数据库。
+ * 这里先在内存里按 (userId, friendId) 累加增量，定时一次性 upsert。
+ *
+ * 【计分】
+ * - 私聊消息 1 分/条，通话 5 分/次 + 1 分/分钟
+ * - 库里的 interaction_score 按 updated_at 至今的时长半衰（默认 14 天）后再加上新增分数，
+ *   同一条语句把结果同步到 friend_relations.intimacy_score
+ *
+ * 【一致性】
+ * - 只累加双方确实是好友的方向（内存好友图未就绪时不过滤）
+ * - 落库失败的增量合并回内存，下个周期重试；进程退出前再刷一次
+ * - 多实例各自聚合，库内是累加语义，不会互相覆盖
+ */
+@Slf4j
+@Component
+@RequiredArgsConstructor
+public class InteractionAggregator {
+
+    public static final int MESSAGE_POINTS = 1;
+
+    public static final int CALL_POINTS = 5;
+
+    private final FriendInteractionMapper friendInteractionMapper;
+
+    private final FriendGraph friendGraph;
+
+    @Value("${relationship.interaction.half-life-days:14}")
+    private int halfLifeDays;
+
+    @Value("${relationship.interaction.batch-size:1000}")
+    private int batchSize;
+
+    private final ConcurrentHashMap<PairKey, Delta> pending = new ConcurrentHashMap<>();
+
+    /**
+     * 记录一条私聊消息
+     */
+    public void recordMessage(long senderId, long receiverId, long atMillis) {
+        record(senderId, receiverId, 1, 0, 0, atMillis, 0L);
+    }
+
+    /**
+     * 记录一次已接通的一对一通话
+     */
+    public void recordCall(long userId1, long userId2, int durationSeconds, long endedAtMillis) {
+        record(userId1, userId2, 0, 1, Math.max(durationSeconds, 0), 0L, endedAtMillis);
+    }
+
+    private void record(long a, long b, int messages, int calls, int callSeconds, long messageAt, long callAt) {
+        if (a == b) {
+            return;
+        }
+        boolean graphReady = friendGraph.isReady();
+        if (!graphReady || friendGraph.isFriend(a, b)) {
+            accumulate(new PairKey(a, b), messages, calls, callSeconds, messageAt, callAt);
+        }
+        if (!graphReady || friendGraph.isFriend(b, a)) {
+            accumulate(new PairKey(b, a), messages, calls, callSeconds, messageAt, callAt);
+        }
+    }
+
+    private void accumulate(PairKey key, int messages, int calls, int callSeconds, long messageAt, long callAt) {
+        pending.compute(key, (k, delta) -> {
+            Delta d = delta != null ? delta : new Delta();
+            d.messageCount += messages;
+            d.callCount += calls;
+            d.callDuration += callSeconds;
+            d.points += messages * MESSAGE_POINTS + calls * CALL_POINTS + callSeconds / 60;
+            d.lastMessageAt = Math.max(d.lastMessageAt, messageAt);
+            d.lastCallAt = Math.max(d.lastCallAt, callAt);
+            return d;
+        });
+    }
+
+    /**
+     * 定时把累计的增量批量写入数据库
+     */
+    @Scheduled(fixedDelayString = "${relationship.interaction.flush-interval-ms:5000}")
+    public synchronized void flush() {
+        if (pending.isEmpty()) {
+            return;
+        }
+        long startedAt = System.currentTimeMillis();
+        List<PairKey> keys = new ArrayList<>(pending.keySet());
+        // 按主键顺序写，降低多实例并发 upsert 同一批行时的死锁概率
+        keys.sort(Comparator.comparingLong(PairKey::userId).thenComparingLong(PairKey::friendId));
+        List<PairKey> batchKeys = new ArrayList<>(batchSize);
+        List<Delta> batchDeltas = new ArrayList<>(batchSize);
+        int flushed = 0;
+        for (PairKey key : keys) {
+            // remove 与 record 中的 compute 互斥，移除后的新增量会进入新条目，不会丢
+            Delta delta = pending.remove(key);
+            if (delta == null) {
+                continue;
+            }
+            batchKeys.add(key);
+            batchDeltas.add(delta);
+            if (batchKeys.size() >= batchSize) {
+                flushed += write(batchKeys, batchDeltas);
+                batchKeys.clear();
+                batchDeltas.clear();
+            }
+        }
+        flushed += write(batchKeys, batchDeltas);
+        log.debug("好友互动增量已落库: pairs={}, cost={}ms", flushed, System.currentTimeMillis() - startedAt);
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        flush();
+    }
+
+    private int write(List<PairKey> keys, List<Delta> deltas) {
+        int n = keys.size();
+        if (n == 0) {
+            return 0;
+        }
+        Long[] userIds = new Long[n];
+        Long[] friendIds = new Long[n];
+        Integer[] messageCounts = new Integer[n];
+        Integer[] callCounts = new Integer[n];
+        Integer[] callDurations = new Integer[n];
+        Integer[] points = new Integer[n];
+        Long[] lastMessageAts = new Long[n];
+        Long[] lastCallAts = new Long[n];
+        for (int i = 0; i < n; i++) {
+            PairKey key = keys.get(i);
+            Delta d = deltas.get(i);
+            userIds[i] = key.userId();
+            friendIds[i] = key.friendId();
+            messageCounts[i] = d.messageCount;
+            callCounts[i] = d.callCount;
+            callDurations[i] = d.callDuration;
+            points[i] = d.points;
+            lastMessageAts[i] = d.lastMessageAt;
+            lastCallAts[i] = d.lastCallAt;
+        }
+        try {
+            friendInteractionMapper.upsertDeltas(userIds, friendIds, messageCounts, callCounts, callDurations,
+                points, lastMessageAts, lastCallAts, halfLifeDays * 86400L);
+            return n;
+        } catch (Exception e) {
+            log.error("好友互动增量落库失败，合并回内存等待重试: pairs={}", n, e);
+            for (int i = 0; i < n; i++) {
+                Delta failed = deltas.get(i);
+                pending.merge(keys.get(i), failed, Delta::merge);
+            }
+            return 0;
+        }
+    }
+
+    private record PairKey(long userId, long friendId) {
+    }
+
+    /**
+     * 单个方向的累计增量，只在 ConcurrentHashMap.compute/merge 内修改
+     */
+    private static final class Delta {
+
+        int messageCount;
+
+        int callCount;
+
+        int callDuration;
+
+        int points;
+
+        long lastMessageAt;
+
+        long lastCallAt;
+
+        Delta merge(Delta other) {
+            messageCount += other.messageCount;
+            callCount += other.callCount;
+            callDuration += other.callDuration;
+            points += other.points;
+            lastMessageAt = Math.max(lastMessageAt, other.lastMessageAt);
+            lastCallAt = Math.max(lastCallAt, other.lastCallAt);
+            return this;
+        }
+    }
+}
@@ -0,0 +1,44 @@
+package com.example.relationship.listener;
+
+import com.example.relationship.interaction.InteractionAggregator;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.rocketmq.spring.annotation.RocketMQMessageListener;
+import org.apache.rocketmq.spring.core.RocketMQListener;
+import org.springframework.stereotype.Component;
+
+/**
+ * 通话互动监听器
+ * 集群消费 IM_CALL_TOPIC 的 CALL_ENDED 事件（音视频服务在一对一通话结束时发送）
+ */
+@Slf4j
+@Component
+@RequiredArgsConstructor
+@RocketMQMessageListener(
+    topic = "IM_CALL_TOPIC",
+    consumerGroup = "relationship-call-interaction-group"
+)
+public class CallInteractionListener implements RocketMQListener<String> {
+
+    private final InteractionAggregator interactionAggregator;
+
+    private final ObjectMapper objectMapper;
+
+    @Override
+    public void onMessage(String message) {
+        try {
+            JsonNode event = objectMapper.readTree(message);
+            if (!"CALL_ENDED".equals(event.path("event").asText())
+                    || !event.hasNonNull("userId1") || !event.hasNonNull("userId2")) {
+                return;
+            }
+            long endedAt = event.path("endedAt").asLong(System.currentTimeMillis());
+            interactionAggregator.recordCall(event.get("userId1").asLong(), event.get("userId2").asLong(),
+                event.path("durationSeconds").asInt(0), endedAt);
+        } catch (Exception e) {
+            log.error("处理通话互动事件失败: message={}", message, e);
+        }
+    }
+}
@@ -0,0 +1,54 @@
+package com.example.relationship.listener;
+
+import com.example.relationship.graph.FriendGraph;
+import com.example.relationship.service.FriendEventPublisher;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.rocketmq.spring.annotation.MessageModel;
+import org.apache.rocketmq.spring.annotation.RocketMQMessageListener;
+import org.apache.rocketmq.spring.core.RocketMQListener;
+import org.springframework.stereotype.Component;
+
+/**
+ * 好友事件监听器
+ * 广播消费 friend_event_topic，每个实例各自更新本地内存好友图。
+ * 事件在事务提交后发送，只作为信号：按用户对回查数据库覆盖图上的边，
+ * 并发消费、乱序或重复投递都不会留下旧状态。
+ */
+@Slf4j
+@Component
+@RequiredArgsConstructor
+@RocketMQMessageListener(
+    topic = FriendEventPublisher.FRIEND_EVENT_TOPIC,
+    consumerGroup = "relationship-friend-graph-group",
+    messageModel = MessageModel.BROADCASTING
+)
+public class FriendEventListener implements RocketMQListener<String> {
+
+    private final FriendGraph friendGraph;
+
+    private final ObjectMapper objectMapper;
+
+    @Override
+    public void onMessage(String message) {
+        try {
+            JsonNode event = objectMapper.readTree(message);
+            if (!event.hasNonNull("userId1") || !event.hasNonNull("userId2")) {
+                log.warn("无效的好友事件: {}", message);
+                return;
+            }
+            long userId1 = event.get("userId1").asLong();
+            long userId2 = event.get("userId2").asLong();
+            switch (event.path("event").asText()) {
+                case FriendEventPublisher.FRIEND_ADDED, FriendEventPublisher.FRIEND_DELETED,
+                     FriendEventPublisher.FRIEND_BLOCKED, FriendEventPublisher.USER_UNBLOCKED ->
+                        friendGraph.refreshPair(userId1, userId2);
+                default -> log.debug("忽略好友事件: {}", message);
+            }
+        } catch (Exception e) {
+            log.error("处理好友事件失败: message={}", message, e);
+        }
+    }
+}
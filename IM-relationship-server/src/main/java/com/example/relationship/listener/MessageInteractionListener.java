@@ -0,0 +1,76 @@
+package com.example.relationship.listener;
+
+import com.example.relationship.interaction.InteractionAggregator;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.rocketmq.spring.annotation.RocketMQMessageListener;
+import org.apache.rocketmq.spring.core.RocketMQListener;
+import org.springframework.stereotype.Component;
+
+import java.time.LocalDateTime;
+import java.time.OffsetDateTime;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+
+/**
+ * 消息互动监听器
+ * 集群消费 IM_PUSH_TOPIC，只统计一对一私聊（写扩散且接收者只有一人），交给聚合器累加
+ * 按消息的 createdAt 计分，消费积压或重投时不会把旧消息算成新互动；缺失或无法解析时用当前时间
+ */
+@Slf4j
+@Component
+@RequiredArgsConstructor
+@RocketMQMessageListener(
+    topic = "IM_PUSH_TOPIC",
+    consumerGroup = "relationship-message-interaction-group"
+)
+public class MessageInteractionListener implements RocketMQListener<String> {
+
+    /** 无时区的时间（fastjson 可能输出 yyyy-MM-dd HH:mm:ss[.SSS]）按本地时区解析 */
+    private static final DateTimeFormatter LOCAL_FORMAT = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss[.SSS]");
+
+    private final InteractionAggregator interactionAggregator;
+
+    private final ObjectMapper objectMapper;
+
+    @Override
+    public void onMessage(String message) {
+        try {
+            JsonNode payload = objectMapper.readTree(message);
+            JsonNode receiverIds = payload.path("receiverIds");
+            if (!payload.hasNonNull("senderId") || !receiverIds.isArray() || receiverIds.size() != 1) {
+                return;
+            }
+            interactionAggregator.recordMessage(payload.get("senderId").asLong(), receiverIds.get(0).asLong(),
+                // 时钟偏差导致的未来时间按当前时间计
+                Math.min(createdAtMillis(payload.path("createdAt")), System.currentTimeMillis()));
+        } catch (Exception e) {
+            log.error("处理消息互动事件失败: message={}", message, e);
+        }
+    }
+
+    private static long createdAtMillis(JsonNode createdAt) {
+        if (createdAt.isNumber()) {
+            return createdAt.asLong();
+        }
+        String text = createdAt.asText(null);
+        if (text != null && !text.isEmpty()) {
+            try {
+                return OffsetDateTime.parse(text).toInstant().toEpochMilli();
+            } catch (DateTimeParseException ignored) {
+                // 不带时区，按本地时间解析
+            }
+            try {
+                LocalDateTime local = text.indexOf('T') > 0
+                    ? LocalDateTime.parse(text) : LocalDateTime.parse(text, LOCAL_FORMAT);
+                return local.atZone(ZoneId.systemDefault()).toInstant().toEpochMilli();
+            } catch (DateTimeParseException e) {
+                log.debug("无法解析消息时间，按当前时间计分: createdAt={}", text);
+            }
+        }
+        return System.currentTimeMillis();
+    }
+}
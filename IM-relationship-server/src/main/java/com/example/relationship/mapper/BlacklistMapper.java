@@ -3,10 +3,15 @@ package com.example.relationship.mapper;
 import com.baomidou.mybatisplus.core.mapper.BaseMapper;
 import com.example.relationship.entity.Blacklist;
 import org.apache.ibatis.annotations.Mapper;
+import org.apache.ibatis.annotations.Options;
 import org.apache.ibatis.annotations.Param;
+import org.apache.ibatis.annotations.ResultType;
 import org.apache.ibatis.annotations.Select;
+import org.apache.ibatis.mapping.ResultSetType;
+import org.apache.ibatis.session.ResultHandler;
 
 import java.util.List;
+import java.util.Map;
 
 /**
  * 黑名单Mapper
@@ -31,4 +36,12 @@ public interface BlacklistMapper extends BaseMapper<Blacklist> {
      */
     @Select("SELECT * FROM blacklist WHERE user_id = #{blockedUserId} AND blocked_user_id = #{userId} LIMIT 1")
     Blacklist findBlockedBy(@Param("userId") Long userId, @Param("blockedUserId") Long blockedUserId);
+    
+    /**
+     * 按 (user_id, blocked_user_id) 顺序流式读取全部黑名单（构建内存好友图用，需在事务内调用）
+     */
+    @Select("SELECT user_id AS uid, blocked_user_id AS bid FROM blacklist ORDER BY user_id, blocked_user_id")
+    @Options(resultSetType = ResultSetType.FORWARD_ONLY, fetchSize = 5000)
+    @ResultType(Map.class)
+    void streamBlocks(ResultHandler<Map<String, Object>> handler);
 }
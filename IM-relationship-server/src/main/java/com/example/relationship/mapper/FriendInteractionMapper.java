@@ -5,6 +5,7 @@ import com.example.relationship.entity.FriendInteraction;
 import org.apache.ibatis.annotations.Mapper;
 import org.apache.ibatis.annotations.Param;
 import org.apache.ibatis.annotations.Select;
+import org.apache.ibatis.annotations.Update;
 
 import java.util.List;
 
@@ -17,4 +18,52 @@ public interface FriendInteractionMapper extends BaseMapper<FriendInteraction> {
     
     @Select("SELECT * FROM friend_interactions WHERE user_id = #{userId} AND friend_id = #{friendId}")
     FriendInteraction selectByUserAndFriend(@Param("userId") Long userId, @Param("friendId") Long friendId);
+    
+    /**
+     * 批量累加互动增量（unnest 展开为一条语句），同时把衰减后的分数同步到 friend_relations.intimacy_score
+     * interaction_score 按 updated_at 至今的时长半衰后再加上本批分数；时间以毫秒传入，0 表示无
+     */
+    @Update("WITH d AS (" +
+            "  SELECT * FROM unnest(" +
+            "    #{userIds, typeHandler=org.apache.ibatis.type.ArrayTypeHandler}::bigint[]," +
+            "    #{friendIds, typeHandler=org.apache.ibatis.type.ArrayTypeHandler}::bigint[]," +
+            "    #{messageCounts, typeHandler=org.apache.ibatis.type.ArrayTypeHandler}::int[]," +
+            "    #{callCounts, typeHandler=org.apache.ibatis.type.ArrayTypeHandler}::int[]," +
+            "    #{callDurations, typeHandler=org.apache.ibatis.type.ArrayTypeHandler}::int[]," +
+            "    #{points, typeHandler=org.apache.ibatis.type.ArrayTypeHandler}::int[]," +
+            "    #{lastMessageAts, typeHandler=org.apache.ibatis.type.ArrayTypeHandler}::bigint[]," +
+            "    #{lastCallAts, typeHandler=org.apache.ibatis.type.ArrayTypeHandler}::bigint[]" +
+            "  ) AS t(user_id, friend_id, message_count, call_count, call_duration, points, last_message_ms, last_call_ms)" +
+            "), up AS (" +
+            "  INSERT INTO friend_interactions AS fi (user_id, friend_id, message_count, call_count, call_duration," +
+            "    last_message_at, last_call_at, last_interaction_at, interaction_score, updated_at)" +
+            "  SELECT user_id, friend_id, message_count, call_count, call_duration," +
+            "    to_timestamp(NULLIF(last_message_ms, 0) / 1000.0), to_timestamp(NULLIF(last_call_ms, 0) / 1000.0)," +
+            "    to_timestamp(NULLIF(GREATEST(last_message_ms, last_call_ms), 0) / 1000.0), points, NOW()" +
+            "  FROM d" +
+            "  ON CONFLICT (user_id, friend_id) DO UPDATE SET" +
+            "    message_count = COALESCE(fi.message_count, 0) + EXCLUDED.message_count," +
+            "    call_count = COALESCE(fi.call_count, 0) + EXCLUDED.call_count," +
+            "    call_duration = COALESCE(fi.call_duration, 0) + EXCLUDED.call_duration," +
+            "    last_message_at = GREATEST(fi.last_message_at, EXCLUDED.last_message_at)," +
+            "    last_call_at = GREATEST(fi.last_call_at, EXCLUDED.last_call_at)," +
+            "    last_interaction_at = GREATEST(fi.last_interaction_at, EXCLUDED.last_interaction_at)," +
+            "    interaction_score = LEAST(ROUND(COALESCE(fi.interaction_score, 0)" +
+            "      * POWER(0.5, EXTRACT(EPOCH FROM (NOW() - COALESCE(fi.updated_at, NOW()))) / #{halfLifeSeconds}))" +
+            "      + EXCLUDED.interaction_score, 2147483647)," +
+            "    updated_at = NOW()" +
+            "  RETURNING user_id, friend_id, interaction_score" +
+            ") " +
+            "UPDATE friend_relations fr SET intimacy_score = up.interaction_score FROM up " +
+            "WHERE fr.user_id = up.user_id AND fr.friend_id = up.friend_id AND fr.deleted_at IS NULL " +
+            "AND fr.intimacy_score IS DISTINCT FROM up.interaction_score")
+    int upsertDeltas(@Param("userIds") Long[] userIds,
+                     @Param("friendIds") Long[] friendIds,
+                     @Param("messageCounts") Integer[] messageCounts,
+                     @Param("callCounts") Integer[] callCounts,
+                     @Param("callDurations") Integer[] callDurations,
+                     @Param("points") Integer[] points,
+                     @Param("lastMessageAts") Long[] lastMessageAts,
+                     @Param("lastCallAts") Long[] lastCallAts,
+                     @Param("halfLifeSeconds") long halfLifeSeconds);
 }
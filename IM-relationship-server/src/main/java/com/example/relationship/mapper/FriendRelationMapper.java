@@ -3,10 +3,15 @@ package com.example.relationship.mapper;
 import com.baomidou.mybatisplus.core.mapper.BaseMapper;
 import com.example.relationship.entity.FriendRelation;
 import org.apache.ibatis.annotations.Mapper;
+import org.apache.ibatis.annotations.Options;
 import org.apache.ibatis.annotations.Param;
+import org.apache.ibatis.annotations.ResultType;
 import org.apache.ibatis.annotations.Select;
+import org.apache.ibatis.mapping.ResultSetType;
+import org.apache.ibatis.session.ResultHandler;
 
 import java.util.List;
+import java.util.Map;
 
 /**
  * 好友关系Mapper
@@ -49,4 +54,12 @@ public interface FriendRelationMapper extends BaseMapper<FriendRelation> {
      */
     @Select("SELECT friend_id FROM friend_relations WHERE user_id = #{userId} AND deleted_at IS NULL")
     List<Long> findFriendIds(@Param("userId") Long userId);
+    
+    /**
+     * 按 (user_id, friend_id) 顺序流式读取全部有效好友边（构建内存好友图用，需在事务内调用）
+     */
+    @Select("SELECT user_id AS uid, friend_id AS fid FROM friend_relations WHERE deleted_at IS NULL ORDER BY user_id, friend_id")
+    @Options(resultSetType = ResultSetType.FORWARD_ONLY, fetchSize = 5000)
+    @ResultType(Map.class)
+    void streamEdges(ResultHandler<Map<String, Object>> handler);
 }
@@ -4,9 +4,14 @@ import com.baomidou.mybatisplus.core.mapper.BaseMapper;
 import com.example.relationship.entity.FriendRequest;
 import org.apache.ibatis.annotations.Mapper;
 import org.apache.ibatis.annotations.Param;
+import org.apache.ibatis.annotations.Options;
+import org.apache.ibatis.annotations.ResultType;
 import org.apache.ibatis.annotations.Select;
+import org.apache.ibatis.mapping.ResultSetType;
+import org.apache.ibatis.session.ResultHandler;
 
 import java.util.List;
+import java.util.Map;
 
 /**
  * 好友申请Mapper
@@ -37,4 +42,13 @@ public interface FriendRequestMapper extends BaseMapper<FriendRequest> {
      */
     @Select("SELECT COUNT(*) FROM friend_requests WHERE receiver_id = #{userId} AND status = 0 AND expires_at > NOW()")
     int countPending(@Param("userId") Long userId);
+    
+    /**
+     * 流式读取未过期的待处理申请及剩余秒数（预热 Redis 标记用，需在事务内调用）
+     */
+    @Select("SELECT sender_id AS sid, receiver_id AS rid, CAST(EXTRACT(EPOCH FROM (expires_at - NOW())) AS BIGINT) AS ttl " +
+            "FROM friend_requests WHERE status = 0 AND expires_at > NOW()")
+    @Options(resultSetType = ResultSetType.FORWARD_ONLY, fetchSize = 5000)
+    @ResultType(Map.class)
+    void streamPending(ResultHandler<Map<String, Object>> handler);
 }
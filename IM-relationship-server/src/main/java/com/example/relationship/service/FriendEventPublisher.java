@@ -0,0 +1,57 @@
+package com.example.relationship.service;
+
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.rocketmq.spring.core.RocketMQTemplate;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+/**
+ * 好友事件发布
+ * 发送好友变更事件到 friend_event_topic，在事务内调用时延迟到提交后发送，
+ * 保证各实例收到事件回查数据库时能读到新关系；事务回滚时不发送
+ */
+@Slf4j
+@Service
+@RequiredArgsConstructor
+public class FriendEventPublisher {
+
+    public static final String FRIEND_EVENT_TOPIC = "friend_event_topic";
+
+    public static final String FRIEND_ADDED = "FRIEND_ADDED";
+    public static final String FRIEND_DELETED = "FRIEND_DELETED";
+    public static final String FRIEND_BLOCKED = "FRIEND_BLOCKED";
+    public static final String USER_UNBLOCKED = "USER_UNBLOCKED";
+
+    private final RocketMQTemplate rocketMQTemplate;
+
+    /**
+     * 发布好友事件
+     *
+     * @param userId1 发起方
+     * @param userId2 对方
+     * @param event 事件类型
+     */
+    public void publish(Long userId1, Long userId2, String event) {
+        String message = String.format("{\"userId1\":%d,\"userId2\":%d,\"event\":\"%s\"}", userId1, userId2, event);
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCommit() {
+                    send(message, event);
+                }
+            });
+        } else {
+            send(message, event);
+        }
+    }
+
+    private void send(String message, String event) {
+        try {
+            rocketMQTemplate.convertAndSend(FRIEND_EVENT_TOPIC, message);
+        } catch (Exception e) {
+            log.error("发送好友事件失败: event={}, message={}", event, message, e);
+        }
+    }
+}
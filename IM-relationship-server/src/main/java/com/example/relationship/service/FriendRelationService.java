@@ -4,12 +4,12 @@ import com.example.relationship.dto.FriendVO;
 import com.example.relationship.entity.Blacklist;
 import com.example.relationship.entity.FriendGroup;
 import com.example.relationship.entity.FriendRelation;
+import com.example.relationship.graph.FriendGraph;
 import com.example.relationship.mapper.BlacklistMapper;
 import com.example.relationship.mapper.FriendGroupMapper;
 import com.example.relationship.mapper.FriendRelationMapper;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
-import org.apache.rocketmq.spring.core.RocketMQTemplate;
 import org.springframework.data.redis.core.RedisTemplate;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
@@ -58,6 +58,7 @@ import java.util.stream.Collectors;
  * - friend:list:{userId} → List<FriendVO> 好友列表（展示用）
  * - 缓存过期时间：10分钟
  * - 好友变动时主动清除缓存
+ * - 好友判断、好友ID、共同好友、好友数优先走进程内的 {@link FriendGraph}，未就绪时才走上面的缓存
  * 
  * @author 学习笔记
  * @see FriendRequestService 好友申请服务
@@ -80,8 +81,11 @@ public class FriendRelationService {
     /** Redis模板 - 好友关系缓存 */
     private final RedisTemplate<String, Object> redisTemplate;
     
-    /** RocketMQ模板 - 好友事件通知 */
-    private final RocketMQTemplate rocketMQTemplate;
+    /** 好友事件发布 - 事务提交后通知各实例 */
+    private final FriendEventPublisher friendEventPublisher;
+    
+    /** 内存好友图 - 好友判断/共同好友 */
+    private final FriendGraph friendGraph;
     
     /** 好友列表缓存Key前缀 */
     private static final String CACHE_FRIEND_LIST = "friend:list:";
@@ -102,6 +106,15 @@ public class FriendRelationService {
      */
     @SuppressWarnings("unchecked")
     public Set<Long> getFriendIds(Long userId) {
+        if (friendGraph.isReady()) {
+            long[] friendIds = friendGraph.friends(userId);
+            Set<Long> result = new LinkedHashSet<>(friendIds.length * 4 / 3 + 1);
+            for (long friendId : friendIds) {
+                result.add(friendId);
+            }
+            return result;
+        }
+        
         String cacheKey = CACHE_FRIEND_IDS + userId;
         Object cached = redisTemplate.opsForValue().get(cacheKey);
         if (cached != null) {
@@ -117,9 +130,43 @@ public class FriendRelationService {
      * 检查两人是否是好友
      */
     public boolean isFriend(Long userId, Long targetId) {
+        if (friendGraph.isReady()) {
+            return friendGraph.isFriend(userId, targetId);
+        }
         return getFriendIds(userId).contains(targetId);
     }
     
+    /**
+     * 获取共同好友ID（升序）
+     */
+    public List<Long> getMutualFriendIds(Long userId, Long targetId) {
+        if (friendGraph.isReady()) {
+            return Arrays.stream(friendGraph.mutualFriends(userId, targetId)).boxed().collect(Collectors.toList());
+        }
+        Set<Long> mine = getFriendIds(userId);
+        return getFriendIds(targetId).stream().filter(mine::contains).sorted().collect(Collectors.toList());
+    }
+    
+    /**
+     * 获取共同好友数量
+     */
+    public int countMutualFriends(Long userId, Long targetId) {
+        if (friendGraph.isReady()) {
+            return friendGraph.countMutualFriends(userId, targetId);
+        }
+        return getMutualFriendIds(userId, targetId).size();
+    }
+    
+    /**
+     * 获取好友数量
+     */
+    public int countFriends(Long userId) {
+        if (friendGraph.isReady()) {
+            return friendGraph.degree(userId);
+        }
+        return friendRelationMapper.countFriends(userId);
+    }
+    
     /**
      * 获取好友详情
      */
@@ -204,9 +251,10 @@ public class FriendRelationService {
         // 清除缓存
         clearCache(userId);
         clearCache(friendId);
+        friendGraph.onPairChanged(userId, friendId);
         
-        // 发送好友删除事件
-        sendFriendDeletedEvent(userId, friendId);
+        // 发送好友删除事件（提交后）
+        friendEventPublisher.publish(userId, friendId, FriendEventPublisher.FRIEND_DELETED);
         
         log.info("好友关系已删除: {} <-> {}", userId, friendId);
     }
@@ -240,6 +288,8 @@ public class FriendRelationService {
         }
         
         clearCache(userId);
+        friendGraph.onPairChanged(userId, friendId);
+        friendEventPublisher.publish(userId, friendId, FriendEventPublisher.FRIEND_BLOCKED);
         log.info("用户已被拉黑: {} blocked {}", userId, friendId);
     }
     
@@ -254,6 +304,8 @@ public class FriendRelationService {
         }
         blacklistMapper.deleteById(blacklist.getId());
         clearCache(userId);
+        friendGraph.onPairChanged(userId, blockedUserId);
+        friendEventPublisher.publish(userId, blockedUserId, FriendEventPublisher.USER_UNBLOCKED);
         log.info("取消拉黑: {} unblocked {}", userId, blockedUserId);
     }
     
@@ -277,7 +329,7 @@ public class FriendRelationService {
      */
     public Map<String, Integer> getFriendStats(Long userId) {
         Map<String, Integer> stats = new HashMap<>();
-        stats.put("total", friendRelationMapper.countFriends(userId));
+        stats.put("total", countFriends(userId));
         stats.put("starred", friendRelationMapper.findStarredFriends(userId).size());
         stats.put("blocked", blacklistMapper.findByUser(userId).size());
         return stats;
@@ -366,13 +418,4 @@ public class FriendRelationService {
         redisTemplate.delete(CACHE_FRIEND_LIST + userId);
         redisTemplate.delete(CACHE_FRIEND_IDS + userId);
     }
-    
-    private void sendFriendDeletedEvent(Long userId, Long friendId) {
-        try {
-            String message = String.format("{\"userId1\":%d,\"userId2\":%d,\"event\":\"FRIEND_DELETED\"}", userId, friendId);
-            rocketMQTemplate.convertAndSend("friend_event_topic", message);
-        } catch (Exception e) {
-            log.error("发送好友删除事件失败", e);
-        }
-    }
 }
@@ -6,19 +6,35 @@ import com.example.relationship.dto.FriendAuditRequest;
 import com.example.relationship.dto.FriendRequestVO;
 import com.example.relationship.entity.FriendRelation;
 import com.example.relationship.entity.FriendRequest;
+import com.example.relationship.graph.FriendGraph;
 import com.example.relationship.mapper.BlacklistMapper;
 import com.example.relationship.mapper.FriendRelationMapper;
 import com.example.relationship.mapper.FriendRequestMapper;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import org.apache.rocketmq.spring.core.RocketMQTemplate;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.data.redis.connection.RedisStringCommands;
+import org.springframework.data.redis.connection.StringRedisConnection;
+import org.springframework.data.redis.core.RedisCallback;
 import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.data.redis.core.types.Expiration;
+import org.springframework.scheduling.annotation.Async;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.transaction.support.TransactionTemplate;
 
+import java.time.Duration;
 import java.time.OffsetDateTime;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Map;
 import java.util.concurrent.TimeUnit;
 
 /**
@@ -34,10 +50,47 @@ public class FriendRequestService {
     private final BlacklistMapper blacklistMapper;
     private final RedisTemplate<String, Object> redisTemplate;
     private final RocketMQTemplate rocketMQTemplate;
+    private final FriendGraph friendGraph;
+    private final FriendEventPublisher friendEventPublisher;
+    private final StringRedisTemplate stringRedisTemplate;
+    private final TransactionTemplate transactionTemplate;
     
     private static final String CACHE_PENDING_COUNT = "friend:pending:count:";
     private static final String RATE_LIMIT_KEY = "friend:apply:limit:";
     
+    /**
+     * 待处理申请标记 friend:apply:pair:{较小ID}:{较大ID}，值为申请发起方，与申请同寿命
+     * 一对用户只有一个标记，与数据库按 (LEAST, GREATEST) 建立的待处理唯一索引对应
+     */
+    private static final String PENDING_KEY = "friend:apply:pair:";
+    
+    private static final long RATE_LIMIT_SECONDS = 60;
+    private static final Duration REQUEST_TTL = Duration.ofDays(7);
+    
+    /**
+     * 申请准入脚本：频率限制、重复申请、反向申请一次判定
+     * KEYS: 1 频率限制  2 用户对待处理标记  3 对方待处理数量缓存
+     * ARGV: 1 频率限制秒数  2 待处理标记秒数  3 申请发起方ID
+     * 返回: LIMITED / DUPLICATE / REVERSE / OK
+     * 重复申请不消耗频率限制；双方同时互相申请时，脚本在 Redis 内串行执行，后到的一方必然看到先到一方的标记而走 REVERSE
+     */
+    private static final DefaultRedisScript<String> ADMISSION_SCRIPT = new DefaultRedisScript<>("""
+            if redis.call('EXISTS', KEYS[1]) == 1 then
+                return 'LIMITED'
+            end
+            local owner = redis.call('GET', KEYS[2])
+            if owner == ARGV[3] then
+                return 'DUPLICATE'
+            end
+            redis.call('SET', KEYS[1], '1', 'EX', ARGV[1])
+            if owner then
+                return 'REVERSE'
+            end
+            redis.call('SET', KEYS[2], ARGV[3], 'EX', ARGV[2])
+            redis.call('DEL', KEYS[3])
+            return 'OK'
+            """, String.class);
+    
     /**
      * 发起好友申请
      */
@@ -50,38 +103,33 @@ public class FriendRequestService {
             throw new RuntimeException("不能添加自己为好友");
         }
         
-        // 2. 检查是否已经是好友
-        FriendRelation existing = friendRelationMapper.findRelation(userId, targetUserId);
-        if (existing != null) {
-            throw new RuntimeException("已经是好友了");
-        }
-        
-        // 3. 检查是否被对方拉黑
-        if (blacklistMapper.findBlockedBy(userId, targetUserId) != null) {
-            throw new RuntimeException("对方已将你加入黑名单");
-        }
+        // 2-3. 好友关系和拉黑（内存好友图就绪时不访问数据库）
+        checkRelation(userId, targetUserId);
         
-        // 4. 检查频率限制（1分钟内只能发送1次）
-        String rateLimitKey = RATE_LIMIT_KEY + userId + ":" + targetUserId;
-        if (Boolean.TRUE.equals(redisTemplate.hasKey(rateLimitKey))) {
+        // 4-6. 频率限制（1分钟内只能发送1次）、重复申请、对方是否也向我发起了申请：一次 Lua 调用
+        String pendingKey = pendingKey(userId, targetUserId);
+        String admission = stringRedisTemplate.execute(ADMISSION_SCRIPT,
+                List.of(RATE_LIMIT_KEY + userId + ":" + targetUserId, pendingKey, CACHE_PENDING_COUNT + targetUserId),
+                String.valueOf(RATE_LIMIT_SECONDS), String.valueOf(REQUEST_TTL.getSeconds()), String.valueOf(userId));
+        if ("LIMITED".equals(admission)) {
             throw new RuntimeException("请求过于频繁，请稍后再试");
         }
-        
-        // 5. 检查是否有待处理的申请
-        FriendRequest pendingRequest = friendRequestMapper.findPendingBetween(userId, targetUserId);
-        if (pendingRequest != null) {
+        if ("DUPLICATE".equals(admission)) {
             throw new RuntimeException("已有待处理的申请");
         }
-        
-        // 6. 检查对方是否也向我发起了申请（可以直接成为好友）
-        FriendRequest reverseRequest = friendRequestMapper.findPendingBetween(targetUserId, userId);
-        if (reverseRequest != null) {
-            // 直接同意对方的申请
-            acceptRequest(userId, reverseRequest.getId(), request.getRemark(), null);
-            return reverseRequest.getId();
+        if ("REVERSE".equals(admission)) {
+            FriendRequest reverseRequest = friendRequestMapper.findPendingBetween(targetUserId, userId);
+            if (reverseRequest != null && reverseRequest.getExpiresAt().isAfter(OffsetDateTime.now())) {
+                // 直接同意对方的申请
+                acceptRequest(userId, reverseRequest.getId(), request.getRemark(), null);
+                return reverseRequest.getId();
+            }
+            // 对方的申请尚未提交：这对用户只允许一条待处理申请
+            throw new RuntimeException("对方正在向你发送好友申请，请稍后在申请列表中处理");
         }
         
-        // 7. 创建申请记录
+        // 7. 事务回滚时撤销待处理标记，然后创建申请记录
+        releasePendingOnRollback(pendingKey);
         FriendRequest friendRequest = new FriendRequest()
                 .setSenderId(userId)
                 .setReceiverId(targetUserId)
@@ -94,15 +142,15 @@ public class FriendRequestService {
                 .setCreatedAt(OffsetDateTime.now())
                 .setUpdatedAt(OffsetDateTime.now());
         
-        friendRequestMapper.insert(friendRequest);
-        
-        // 8. 设置频率限制
-        redisTemplate.opsForValue().set(rateLimitKey, "1", 1, TimeUnit.MINUTES);
-        
-        // 9. 清除对方的待处理数量缓存
-        redisTemplate.delete(CACHE_PENDING_COUNT + targetUserId);
+        try {
+            friendRequestMapper.insert(friendRequest);
+        } catch (DuplicateKeyException e) {
+            // 库里已有这对用户的待处理申请（uk_friend_request_pending_pair），撤销刚写入的标记
+            stringRedisTemplate.delete(pendingKey);
+            throw new RuntimeException("已有待处理的申请");
+        }
         
-        // 10. 发送通知消息到MQ
+        // 8. 发送通知消息到MQ
         sendNotification(targetUserId, "NEW_FRIEND_REQUEST", friendRequest.getId());
         
         log.info("好友申请创建成功: {} -> {}", userId, targetUserId);
@@ -160,6 +208,17 @@ public class FriendRequestService {
                 .setUpdatedAt(OffsetDateTime.now());
         friendRequestMapper.updateById(request);
         
+        // 反方向的待处理申请（唯一索引建立前的旧数据）一并视为同意，并清除这对用户的标记
+        FriendRequest opposite = friendRequestMapper.findPendingBetween(request.getReceiverId(), request.getSenderId());
+        if (opposite != null) {
+            opposite.setStatus(FriendRequest.STATUS_ACCEPTED)
+                    .setHandledBy(userId)
+                    .setHandledAt(OffsetDateTime.now())
+                    .setUpdatedAt(OffsetDateTime.now());
+            friendRequestMapper.updateById(opposite);
+        }
+        stringRedisTemplate.delete(pendingKey(request.getSenderId(), request.getReceiverId()));
+        
         // 2. 创建双向好友关系
         OffsetDateTime now = OffsetDateTime.now();
         
@@ -201,9 +260,10 @@ public class FriendRequestService {
         // 3. 清除缓存
         clearFriendCache(request.getSenderId());
         clearFriendCache(request.getReceiverId());
+        friendGraph.onPairChanged(request.getSenderId(), request.getReceiverId());
         
-        // 4. 发送MQ消息（创建会话、通知双方等）
-        sendFriendAddedEvent(request.getSenderId(), request.getReceiverId());
+        // 4. 发送MQ消息（创建会话、通知双方等，提交后发送）
+        friendEventPublisher.publish(request.getSenderId(), request.getReceiverId(), FriendEventPublisher.FRIEND_ADDED);
         
         log.info("好友申请已同意: {} <-> {}", request.getSenderId(), request.getReceiverId());
     }
@@ -219,6 +279,7 @@ public class FriendRequestService {
                 .setRejectReason(reason)
                 .setUpdatedAt(OffsetDateTime.now());
         friendRequestMapper.updateById(request);
+        stringRedisTemplate.delete(pendingKey(request.getSenderId(), request.getReceiverId()));
         
         log.info("好友申请已拒绝: requestId={}", requestId);
     }
@@ -233,6 +294,7 @@ public class FriendRequestService {
                 .setHandledAt(OffsetDateTime.now())
                 .setUpdatedAt(OffsetDateTime.now());
         friendRequestMapper.updateById(request);
+        stringRedisTemplate.delete(pendingKey(request.getSenderId(), request.getReceiverId()));
         
         log.info("好友申请已忽略: requestId={}", requestId);
     }
@@ -299,6 +361,92 @@ public class FriendRequestService {
         };
     }
     
+    /**
+     * 启动时为已有的待处理申请补齐 Redis 标记（SET NX，多实例重复执行无副作用）
+     */
+    @Async
+    @EventListener(ApplicationReadyEvent.class)
+    public void warmPendingMarkers() {
+        long startedAt = System.currentTimeMillis();
+        List<String[]> batch = new ArrayList<>(1000);
+        long[] total = new long[1];
+        try {
+            transactionTemplate.executeWithoutResult(status -> friendRequestMapper.streamPending(context -> {
+                Map<String, Object> row = context.getResultObject();
+                long ttl = ((Number) row.get("ttl")).longValue();
+                if (ttl <= 0) {
+                    return;
+                }
+                long senderId = ((Number) row.get("sid")).longValue();
+                batch.add(new String[]{pendingKey(senderId, ((Number) row.get("rid")).longValue()),
+                        String.valueOf(senderId), String.valueOf(ttl)});
+                if (batch.size() >= 1000) {
+                    total[0] += writeMarkers(batch);
+                }
+            }));
+            total[0] += writeMarkers(batch);
+            log.info("待处理好友申请标记预热完成: count={}, cost={}ms", total[0], System.currentTimeMillis() - startedAt);
+        } catch (Exception e) {
+            log.error("待处理好友申请标记预热失败，旧申请的重复/反向判断将依赖数据库唯一约束", e);
+        }
+    }
+    
+    private int writeMarkers(List<String[]> batch) {
+        if (batch.isEmpty()) {
+            return 0;
+        }
+        stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            StringRedisConnection conn = (StringRedisConnection) connection;
+            for (String[] marker : batch) {
+                conn.set(marker[0], marker[1], Expiration.seconds(Long.parseLong(marker[2])),
+                        RedisStringCommands.SetOption.SET_IF_ABSENT);
+            }
+            return null;
+        });
+        int size = batch.size();
+        batch.clear();
+        return size;
+    }
+    
+    private void checkRelation(Long userId, Long targetUserId) {
+        if (friendGraph.isReady()) {
+            if (friendGraph.isFriend(userId, targetUserId)) {
+                throw new RuntimeException("已经是好友了");
+            }
+            if (friendGraph.isBlocked(targetUserId, userId)) {
+                throw new RuntimeException("对方已将你加入黑名单");
+            }
+            return;
+        }
+        if (friendRelationMapper.findRelation(userId, targetUserId) != null) {
+            throw new RuntimeException("已经是好友了");
+        }
+        if (blacklistMapper.findBlockedBy(userId, targetUserId) != null) {
+            throw new RuntimeException("对方已将你加入黑名单");
+        }
+    }
+    
+    private void releasePendingOnRollback(String pendingKey) {
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            return;
+        }
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void afterCompletion(int status) {
+                if (status == STATUS_ROLLED_BACK) {
+                    stringRedisTemplate.delete(pendingKey);
+                }
+            }
+        });
+    }
+    
+    /**
+     * 用户对待处理标记，与申请方向无关
+     */
+    private static String pendingKey(Long userId1, Long userId2) {
+        return PENDING_KEY + Math.min(userId1, userId2) + ":" + Math.max(userId1, userId2);
+    }
+    
     private void clearFriendCache(Long userId) {
         redisTemplate.delete(CACHE_PENDING_COUNT + userId);
         redisTemplate.delete("friend:list:" + userId);
@@ -313,13 +461,4 @@ public class FriendRequestService {
             log.error("发送通知失败", e);
         }
     }
-    
-    private void sendFriendAddedEvent(Long userId1, Long userId2) {
-        try {
-            String message = String.format("{\"userId1\":%d,\"userId2\":%d,\"event\":\"FRIEND_ADDED\"}", userId1, userId2);
-            rocketMQTemplate.convertAndSend("friend_event_topic", message);
-        } catch (Exception e) {
-            log.error("发送好友添加事件失败", e);
-        }
-    }
 }
@@ -7,6 +7,7 @@ import org.springframework.cloud.client.discovery.EnableDiscoveryClient;
 import org.springframework.cloud.openfeign.EnableFeignClients;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.ComponentScan;
+import org.springframework.scheduling.annotation.EnableScheduling;
 import org.springframework.web.client.RestTemplate;
 
 /**
@@ -18,6 +19,7 @@ import org.springframework.web.client.RestTemplate;
 @SpringBootApplication(excludeName = {"com.alibaba.cloud.sentinel.feign.SentinelFeignAutoConfiguration"})
 @EnableDiscoveryClient
 @EnableFeignClients
+@EnableScheduling
 @ComponentScan(basePackages = {"com.example.auth", "com.example.common", "com.example.oauth2authserver"})
 @MapperScan({"com.example.auth.mapper", "com.example.oauth2authserver.mapper"})
 public class AuthServerApplication {
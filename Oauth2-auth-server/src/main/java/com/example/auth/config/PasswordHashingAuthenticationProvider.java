@@ -0,0 +1,48 @@
+package com.example.auth.config;
+
+import com.example.auth.model.LoginUser;
+import com.example.auth.service.PasswordHashUpgradeService;
+import com.example.common.security.PasswordHashingRejectedException;
+import org.springframework.security.authentication.InternalAuthenticationServiceException;
+import org.springframework.security.authentication.dao.DaoAuthenticationProvider;
+import org.springframework.security.core.Authentication;
+import org.springframework.security.core.AuthenticationException;
+import org.springframework.security.core.userdetails.UserDetails;
+
+/**
+ * 适配有界密码哈希线程池的认证提供者
+ * 1. 密码比对被线程池拒绝时转换为 InternalAuthenticationServiceException（由失败处理器返回 503，不计入失败次数）；
+ *    包括用户不存在时的防计时攻击比对，该比对在父类 retrieveUser 的 catch 块中执行，异常不会被父类包装
+ * 2. 登录成功后的哈希升级交给 PasswordHashUpgradeService 在后台执行，登录线程只做一次 BCrypt 比对
+ *
+ * @author Junjie
+ * @date 2025-11-24
+ */
+public class PasswordHashingAuthenticationProvider extends DaoAuthenticationProvider {
+
+    private final PasswordHashUpgradeService passwordHashUpgradeService;
+
+    public PasswordHashingAuthenticationProvider(PasswordHashUpgradeService passwordHashUpgradeService) {
+        this.passwordHashUpgradeService = passwordHashUpgradeService;
+    }
+
+    @Override
+    public Authentication authenticate(Authentication authentication) throws AuthenticationException {
+        try {
+            return super.authenticate(authentication);
+        } catch (PasswordHashingRejectedException e) {
+            throw new InternalAuthenticationServiceException(e.getMessage(), e);
+        }
+    }
+
+    @Override
+    protected Authentication createSuccessAuthentication(Object principal, Authentication authentication,
+                                                         UserDetails user) {
+        if (user instanceof LoginUser loginUser && loginUser.getUserDetails() != null
+                && authentication.getCredentials() != null) {
+            passwordHashUpgradeService.upgradeIfNeeded(loginUser.getUserDetails().getUserId(),
+                user.getPassword(), authentication.getCredentials().toString().toCharArray());
+        }
+        return super.createSuccessAuthentication(principal, authentication, user);
+    }
+}
@@ -2,7 +2,11 @@ package com.example.auth.config;
 
 import com.example.auth.handler.LoginFailureHandler;
 import com.example.auth.handler.LoginSuccessHandler;
+import com.example.auth.service.PasswordHashUpgradeService;
 import com.example.auth.service.UserDetailsServiceImpl;
+import com.example.common.security.BoundedPasswordEncoder;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.security.authentication.AuthenticationManager;
@@ -11,7 +15,6 @@ import org.springframework.security.authentication.dao.DaoAuthenticationProvider
 import org.springframework.security.config.annotation.web.builders.HttpSecurity;
 import org.springframework.security.config.annotation.web.configuration.EnableWebSecurity;
 import org.springframework.security.config.annotation.web.configurers.AbstractHttpConfigurer;
-import org.springframework.security.crypto.bcrypt.BCryptPasswordEncoder;
 import org.springframework.security.crypto.password.PasswordEncoder;
 import org.springframework.security.web.SecurityFilterChain;
 import jakarta.servlet.http.HttpServletResponse;
@@ -80,8 +83,13 @@ public class WebSecurityConfig {
      * boolean match = passwordEncoder.matches("123456", encoded);
      */
     @Bean
-    public PasswordEncoder passwordEncoder() {
-        return new BCryptPasswordEncoder();
+    public PasswordEncoder passwordEncoder(@Value("${security.password.bcrypt-strength:10}") int strength,
+                                           @Value("${security.password.hash-threads:4}") int threads,
+                                           @Value("${security.password.hash-queue-capacity:200}") int queueCapacity,
+                                           @Value("${security.password.hash-timeout-ms:3000}") long timeoutMillis,
+                                           MeterRegistry meterRegistry) {
+        // BCrypt 计算放到有界线程池，队列满时快速失败，避免登录高峰占满请求线程
+        return new BoundedPasswordEncoder(strength, threads, queueCapacity, timeoutMillis, meterRegistry);
     }
     
     /**
@@ -96,13 +104,16 @@ public class WebSecurityConfig {
      * 1. 接收用户名密码
      * 2. 调用 userDetailsService.loadUserByUsername() 加载用户
      * 3. 使用 passwordEncoder 比对密码
-     * 4. 返回认证结果
+     * 4. 存储的哈希强度低于当前配置时，后台用本次明文重新哈希并回写（PasswordHashUpgradeService）
+     * 5. 返回认证结果
      */
     @Bean
-    public AuthenticationManager authenticationManager() {
-        DaoAuthenticationProvider provider = new DaoAuthenticationProvider();
+    public AuthenticationManager authenticationManager(PasswordEncoder passwordEncoder,
+                                                       PasswordHashUpgradeService passwordHashUpgradeService) {
+        // 登录时升级旧强度哈希（后台执行）
+        DaoAuthenticationProvider provider = new PasswordHashingAuthenticationProvider(passwordHashUpgradeService);
         provider.setUserDetailsService(userDetailsService);  // 设置用户加载服务
-        provider.setPasswordEncoder(passwordEncoder());      // 设置密码编码器
+        provider.setPasswordEncoder(passwordEncoder);        // 设置密码编码器
         return new ProviderManager(provider);
     }
     
@@ -3,10 +3,14 @@ package com.example.auth.fallback;
 import com.example.auth.feign.UserServiceClient;
 import com.example.domain.dto.UserDetailsDTO;
 import com.example.domain.vo.Result;
+import com.example.domain.vo.UserCardVO;
 import com.example.domain.vo.UserVO;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.stereotype.Component;
 
+import java.util.List;
+import java.util.Map;
+
 /**
  * @author Junjie
  * @version 1.0.0
@@ -49,6 +53,18 @@ public class UserServiceClientFallback implements UserServiceClient {
         return Result.error(500, "服务暂时不可用");
     }
     
+    @Override
+    public Result<List<UserCardVO>> getUserCards(List<Long> userIds) {
+        log.error("调用 User-server 失败，触发降级: getUserCards(size={})", userIds != null ? userIds.size() : 0);
+        return Result.error(500, "服务暂时不可用");
+    }
+    
+    @Override
+    public Result<Void> upgradePasswordHash(Long userId, Map<String, String> hashData) {
+        log.error("[Fallback] 升级密码哈希失败: userId={}", userId);
+        return Result.error(500, "服务暂时不可用");
+    }
+    
     @Override
     public void updateLastLoginTime(String email) {
         log.error("[Fallback] 更新最后登录时间失败: email={}", email);
@@ -2,10 +2,14 @@ package com.example.auth.feign;
 
 import com.example.domain.dto.UserDetailsDTO;
 import com.example.domain.vo.Result;
+import com.example.domain.vo.UserCardVO;
 import com.example.domain.vo.UserVO;
 import org.springframework.cloud.openfeign.FeignClient;
 import org.springframework.web.bind.annotation.*;
 
+import java.util.List;
+import java.util.Map;
+
 /**
  * ====================================================================
  * User服务 Feign 客户端 (Declarative HTTP Client)
@@ -89,6 +93,19 @@ public interface UserServiceClient {
     @GetMapping("/api/v1/users/{userId}")
     Result<UserVO> getUserById(@PathVariable("userId") Long userId);
     
+    /**
+     * 批量获取用户名片（单次最多1000个）
+     */
+    @PostMapping("/api/v1/users/cards")
+    Result<List<UserCardVO>> getUserCards(@RequestBody List<Long> userIds);
+    
+    /**
+     * 升级用户密码哈希（登录时重新哈希，旧强度升级到当前强度）
+     * 请求体：oldHash（校验时读到的哈希）、newHash（新哈希），库中哈希已变化时不写入
+     */
+    @PutMapping("/api/v1/users/internal/{userId}/password-hash")
+    Result<Void> upgradePasswordHash(@PathVariable("userId") Long userId, @RequestBody Map<String, String> hashData);
+    
     /**
      * 更新用户最后登录时间
      */
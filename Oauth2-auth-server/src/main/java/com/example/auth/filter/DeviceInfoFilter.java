@@ -3,6 +3,7 @@ package com.example.auth.filter;
 import com.example.auth.context.DeviceContextHolder;
 import com.example.auth.dto.DeviceInfo;
 import com.example.auth.service.DeviceService;
+import com.example.auth.util.ClientIpResolver;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Component;
@@ -27,6 +28,9 @@ public class DeviceInfoFilter extends OncePerRequestFilter {
     
     @Autowired
     private DeviceService deviceService;
+
+    @Autowired
+    private ClientIpResolver clientIpResolver;
     
     @Override
     protected void doFilterInternal(HttpServletRequest request, 
@@ -38,7 +42,7 @@ public class DeviceInfoFilter extends OncePerRequestFilter {
             // 从Header中获取设备信息
             String deviceId = request.getHeader("X-Device-Id");
             String userAgent = request.getHeader("User-Agent");
-            String ipAddress = getClientIP(request);
+            String ipAddress = clientIpResolver.resolve(request);
             
             // 解析设备信息
             DeviceInfo deviceInfo = deviceService.parseDeviceInfo(deviceId, ipAddress, userAgent);
@@ -57,33 +61,4 @@ public class DeviceInfoFilter extends OncePerRequestFilter {
             DeviceContextHolder.clear();
         }
     }
-    
-    /**
-     * 获取客户端真实IP
-     */
-    private String getClientIP(HttpServletRequest request) {
-        String ip = request.getHeader("X-Forwarded-For");
-        if (ip == null || ip.isEmpty() || "unknown".equalsIgnoreCase(ip)) {
-            ip = request.getHeader("Proxy-Client-IP");
-        }
-        if (ip == null || ip.isEmpty() || "unknown".equalsIgnoreCase(ip)) {
-            ip = request.getHeader("WL-Proxy-Client-IP");
-        }
-        if (ip == null || ip.isEmpty() || "unknown".equalsIgnoreCase(ip)) {
-            ip = request.getHeader("HTTP_CLIENT_IP");
-        }
-        if (ip == null || ip.isEmpty() || "unknown".equalsIgnoreCase(ip)) {
-            ip = request.getHeader("HTTP_X_FORWARDED_FOR");
-        }
-        if (ip == null || ip.isEmpty() || "unknown".equalsIgnoreCase(ip)) {
-            ip = request.getRemoteAddr();
-        }
-        
-        // 处理多个IP的情况（取第一个）
-        if (ip != null && ip.contains(",")) {
-            ip = ip.split(",")[0].trim();
-        }
-        
-        return ip;
-    }
 }
@@ -1,6 +1,7 @@
 package com.example.auth.filter;
 
 import com.example.auth.service.LoginAttemptService;
+import com.example.auth.util.ClientIpResolver;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Autowired;
@@ -21,7 +22,7 @@ import java.util.Map;
  * @version 1.0.0
  * @date 2025-11-06
  * 登录尝试过滤器
- * 在 OAuth2 登录前检查是否被锁定
+ * 在 OAuth2 登录前检查账号是否被锁定，以及所在 IP 网段是否处于限速期
  */
 @Slf4j
 @Component
@@ -31,6 +32,9 @@ public class LoginAttemptFilter extends OncePerRequestFilter {
     @Autowired
     private LoginAttemptService loginAttemptService;
     
+    @Autowired
+    private ClientIpResolver clientIpResolver;
+    
     private final ObjectMapper objectMapper = new ObjectMapper();
     
     @Override
@@ -39,25 +43,26 @@ public class LoginAttemptFilter extends OncePerRequestFilter {
                                    FilterChain filterChain) 
             throws ServletException, IOException {
         
-        // 只拦截 OAuth2 token 请求
-        if (!"/oauth/token".equals(request.getRequestURI())) {
+        // 只拦截表单登录和 OAuth2 密码模式 token 请求
+        String uri = request.getRequestURI();
+        boolean formLogin = "/login".equals(uri) && "POST".equalsIgnoreCase(request.getMethod());
+        boolean passwordGrant = "/oauth/token".equals(uri) && "password".equals(request.getParameter("grant_type"));
+        if (!formLogin && !passwordGrant) {
             filterChain.doFilter(request, response);
             return;
         }
         
         // 获取用户名（从请求参数中）
         String username = request.getParameter("username");
-        String grantType = request.getParameter("grant_type");
-        
-        // 只对密码模式进行检查
-        if (!"password".equals(grantType) || username == null || username.isEmpty()) {
+        if (username == null || username.isEmpty()) {
             filterChain.doFilter(request, response);
             return;
         }
         
-        // 检查是否被锁定
-        if (loginAttemptService.isBlocked(username)) {
-            long remainingTime = loginAttemptService.getBlockRemainingTime(username);
+        // 检查是否被锁定（一次 Redis 调用同时得到锁定状态和剩余时间）
+        LoginAttemptService.AttemptStatus status = loginAttemptService.check(username, clientIpResolver.resolve(request));
+        if (status.blocked()) {
+            long remainingTime = status.blockRemainingSeconds();
             
             log.warn("登录被阻止 - 账户已锁定: username={}, remainingTime={}秒", 
                     username, remainingTime);
@@ -76,6 +81,24 @@ public class LoginAttemptFilter extends OncePerRequestFilter {
             return;
         }
         
+        // 网段失败过多：限速而非锁定，稍后即可重试
+        if (status.throttleRemainingMillis() > 0) {
+            long retryAfter = Math.max(1, (status.throttleRemainingMillis() + 999) / 1000);
+            log.warn("登录被限速 - 网段失败过多: username={}, retryAfter={}秒", username, retryAfter);
+            
+            response.setStatus(429);
+            response.setHeader("Retry-After", String.valueOf(retryAfter));
+            response.setContentType("application/json;charset=UTF-8");
+            
+            Map<String, Object> errorResponse = new HashMap<>();
+            errorResponse.put("error", "too_many_requests");
+            errorResponse.put("error_description", "登录请求过于频繁，请在 " + retryAfter + " 秒后重试");
+            errorResponse.put("retry_after_seconds", retryAfter);
+            
+            response.getWriter().write(objectMapper.writeValueAsString(errorResponse));
+            return;
+        }
+        
         // 未被锁定，继续处理
         filterChain.doFilter(request, response);
     }
@@ -1,6 +1,9 @@
 package com.example.auth.handler;
 
 import com.example.auth.service.LoginAttemptService;
+import com.example.auth.service.LoginLogService;
+import com.example.auth.util.ClientIpResolver;
+import com.example.common.security.PasswordHashingRejectedException;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Autowired;
@@ -29,6 +32,12 @@ public class LoginFailureHandler extends SimpleUrlAuthenticationFailureHandler {
     @Autowired
     private LoginAttemptService loginAttemptService;
     
+    @Autowired
+    private LoginLogService loginLogService;
+    
+    @Autowired
+    private ClientIpResolver clientIpResolver;
+    
     private final ObjectMapper objectMapper = new ObjectMapper();
     
     @Override
@@ -37,17 +46,33 @@ public class LoginFailureHandler extends SimpleUrlAuthenticationFailureHandler {
                                        AuthenticationException exception) 
             throws IOException, ServletException {
         
+        // 密码校验线程池过载：不是密码错误，不计入失败次数，提示稍后重试
+        if (exception.getCause() instanceof PasswordHashingRejectedException) {
+            log.warn("LOGIN_SHED|ip={}|reason={}", clientIpResolver.resolve(request), exception.getMessage());
+            response.setStatus(HttpServletResponse.SC_SERVICE_UNAVAILABLE);
+            response.setHeader("Retry-After", "1");
+            response.setContentType("application/json;charset=UTF-8");
+            
+            Map<String, Object> errorResponse = new HashMap<>();
+            errorResponse.put("code", 503);
+            errorResponse.put("message", "登录繁忙，请稍后重试");
+            response.getWriter().write(objectMapper.writeValueAsString(errorResponse));
+            return;
+        }
+        
         // 获取用户名和IP地址
         String username = request.getParameter("username");
-        String ipAddress = getClientIp(request);
+        String ipAddress = clientIpResolver.resolve(request);
         String userAgent = request.getHeader("User-Agent");
         
         if (username != null && !username.isEmpty()) {
-            // 记录登录失败
-            loginAttemptService.loginFailed(username);
+            // 记录登录失败（同一次调用返回剩余尝试次数）
+            LoginAttemptService.AttemptStatus status = loginAttemptService.loginFailed(username, ipAddress);
+            int remainingAttempts = status.remainingAttempts();
             
-            // 获取剩余尝试次数
-            int remainingAttempts = loginAttemptService.getRemainingAttempts(username);
+            // 写入失败审计日志（认证失败时拿不到用户ID，邮箱记入错误信息；次数统计以上面的计数为准）
+            loginLogService.recordLoginLog(null, "password", false, request,
+                    "email=" + username + ", " + exception.getMessage());
             
             // 记录结构化日志（供 ELK 收集）
             log.warn("LOGIN_FAILURE|email={}|ip={}|userAgent={}|device={}|reason={}|remainingAttempts={}", 
@@ -64,9 +89,9 @@ public class LoginFailureHandler extends SimpleUrlAuthenticationFailureHandler {
             errorResponse.put("error", exception.getMessage());
             errorResponse.put("remaining_attempts", remainingAttempts);
             
-            if (remainingAttempts == 0) {
+            if (status.blocked()) {
                 errorResponse.put("error_description", 
-                    "登录失败次数过多，账户已被锁定15分钟");
+                    "登录失败次数过多，账户已被锁定，请在 " + status.blockRemainingSeconds() + " 秒后重试");
             } else if (remainingAttempts <= 2) {
                 errorResponse.put("warning", 
                     "您还有 " + remainingAttempts + " 次尝试机会");
@@ -87,24 +112,6 @@ public class LoginFailureHandler extends SimpleUrlAuthenticationFailureHandler {
         }
     }
     
-    /**
-     * 获取客户端真实IP
-     */
-    private String getClientIp(HttpServletRequest request) {
-        String ip = request.getHeader("X-Forwarded-For");
-        if (ip == null || ip.isEmpty() || "unknown".equalsIgnoreCase(ip)) {
-            ip = request.getHeader("X-Real-IP");
-        }
-        if (ip == null || ip.isEmpty() || "unknown".equalsIgnoreCase(ip)) {
-            ip = request.getRemoteAddr();
-        }
-        // 处理多个代理的情况
-        if (ip != null && ip.contains(",")) {
-            ip = ip.split(",")[0].trim();
-        }
-        return ip;
-    }
-    
     /**
      * 解析设备类型
      */
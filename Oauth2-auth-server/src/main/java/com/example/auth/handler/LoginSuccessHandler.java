@@ -3,14 +3,15 @@ package com.example.auth.handler;
 import com.example.auth.context.DeviceContextHolder;
 import com.example.auth.dto.DeviceInfo;
 import com.example.auth.feign.UserServiceClient;
-import com.example.auth.service.DeviceService;
+import com.example.auth.model.LoginUser;
 import com.example.auth.service.LoginAttemptService;
+import com.example.auth.service.PostLoginService;
+import com.example.auth.util.ClientIpResolver;
 import com.example.common.util.JwtUtil;
 import com.example.domain.dto.UserDetailsDTO;
 import com.example.domain.vo.Result;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import lombok.extern.slf4j.Slf4j;
-import org.apache.rocketmq.spring.core.RocketMQTemplate;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.http.MediaType;
 import org.springframework.security.core.Authentication;
@@ -30,6 +31,7 @@ import java.util.Map;
  * @date 2025-11-10
  * 登录成功处理器
  * 在用户登录成功后更新最后登录时间并清除登录失败记录
+ * 用户详情优先取自认证阶段的 LoginUser，最后登录时间、设备记录、登录事件交给 PostLoginService 异步处理
  */
 @Slf4j
 @Component
@@ -37,6 +39,9 @@ public class LoginSuccessHandler extends SavedRequestAwareAuthenticationSuccessH
     
     @Autowired
     private UserServiceClient userServiceClient;
+
+    @Autowired
+    private ClientIpResolver clientIpResolver;
     
     @Autowired
     private LoginAttemptService loginAttemptService;
@@ -45,10 +50,7 @@ public class LoginSuccessHandler extends SavedRequestAwareAuthenticationSuccessH
     private JwtUtil jwtUtil;
     
     @Autowired
-    private DeviceService deviceService;
-    
-    @Autowired(required = false)
-    private RocketMQTemplate rocketMQTemplate;
+    private PostLoginService postLoginService;
     
     private static final ObjectMapper objectMapper = new ObjectMapper();
     
@@ -60,50 +62,19 @@ public class LoginSuccessHandler extends SavedRequestAwareAuthenticationSuccessH
         
         // 获取用户邮箱（username 字段存储的是邮箱）
         String email = authentication.getName();
-        String ip = getClientIp(request);
+        String ip = clientIpResolver.resolve(request);
         String userAgent = request.getHeader("User-Agent");
         
         try {
             // 清除登录失败记录
             loginAttemptService.loginSucceeded(email);
             
-            // 更新最后登录时间
-            userServiceClient.updateLastLoginTime(email);
-            
-            // 获取用户详情
-            com.example.domain.vo.Result<UserDetailsDTO> userResponse = 
-                userServiceClient.getUserDetailsByEmail(email);
-            
-            if (userResponse == null || userResponse.getData() == null) {
-                throw new RuntimeException("无法获取用户信息");
-            }
+            // 获取用户详情（认证阶段已加载，非 LoginUser 主体时回退到 Feign 查询）
+            UserDetailsDTO userDetails = resolveUserDetails(authentication, email);
             
-            UserDetailsDTO userDetails = userResponse.getData();
-            
-            // ⭐ 记录设备信息
+            // ⭐ 异步处理：更新最后登录时间、记录设备、发送登录MQ事件
             DeviceInfo deviceInfo = DeviceContextHolder.getDevice();
-            if (deviceInfo != null) {
-                deviceService.upsertDevice(userDetails.getUserId(), deviceInfo);
-                log.info("登录设备已记录: userId={}, deviceId={}", 
-                    userDetails.getUserId(), deviceInfo.getDeviceId());
-            }
-            
-            // ⭐ 发送登录MQ事件
-            try {
-                Map<String, Object> loginEvent = new HashMap<>();
-                loginEvent.put("userId", userDetails.getUserId());
-                loginEvent.put("email", email);
-                loginEvent.put("deviceId", deviceInfo != null ? deviceInfo.getDeviceId() : null);
-                loginEvent.put("ip", ip);
-                loginEvent.put("userAgent", userAgent);
-                loginEvent.put("eventType", "LOGIN");
-                loginEvent.put("timestamp", System.currentTimeMillis());
-                
-                rocketMQTemplate.convertAndSend("USER_EVENT:LOGIN", loginEvent);
-            } catch (Exception e) {
-                log.error("发送登录MQ事件失败: userId={}", userDetails.getUserId(), e);
-                // 不影响主流程
-            }
+            postLoginService.afterLogin(userDetails.getUserId(), email, deviceInfo, ip, userAgent);
             
             // 生成 JWT token（包含邮箱验证状态）
             String token = jwtUtil.generateToken(
@@ -147,21 +118,18 @@ public class LoginSuccessHandler extends SavedRequestAwareAuthenticationSuccessH
     }
     
     /**
-     * 获取客户端真实IP
+     * 获取登录用户详情
      */
-    private String getClientIp(HttpServletRequest request) {
-        String ip = request.getHeader("X-Forwarded-For");
-        if (ip == null || ip.isEmpty() || "unknown".equalsIgnoreCase(ip)) {
-            ip = request.getHeader("X-Real-IP");
+    private UserDetailsDTO resolveUserDetails(Authentication authentication, String email) {
+        if (authentication.getPrincipal() instanceof LoginUser loginUser && loginUser.getUserDetails() != null) {
+            return loginUser.getUserDetails();
         }
-        if (ip == null || ip.isEmpty() || "unknown".equalsIgnoreCase(ip)) {
-            ip = request.getRemoteAddr();
-        }
-        // 处理多个代理的情况
-        if (ip != null && ip.contains(",")) {
-            ip = ip.split(",")[0].trim();
+        
+        Result<UserDetailsDTO> userResponse = userServiceClient.getUserDetailsByEmail(email);
+        if (userResponse == null || userResponse.getData() == null) {
+            throw new RuntimeException("无法获取用户信息");
         }
-        return ip;
+        return userResponse.getData();
     }
     
     /**
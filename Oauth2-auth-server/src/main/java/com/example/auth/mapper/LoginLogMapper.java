@@ -2,6 +2,7 @@ package com.example.auth.mapper;
 
 import com.baomidou.mybatisplus.core.mapper.BaseMapper;
 import com.example.domain.model.LoginLog;
+import org.apache.ibatis.annotations.Insert;
 import org.apache.ibatis.annotations.Mapper;
 import org.apache.ibatis.annotations.Param;
 import org.apache.ibatis.annotations.Select;
@@ -15,6 +16,19 @@ import java.util.List;
 @Mapper
 public interface LoginLogMapper extends BaseMapper<LoginLog> {
     
+    /**
+     * 批量插入登录日志（多行 INSERT）
+     */
+    @Insert({
+        "<script>",
+        "INSERT INTO login_logs (user_id, login_type, success, ip_address, user_agent, device_id, country, city, error_message, created_at) VALUES ",
+        "<foreach collection='list' item='item' separator=','>",
+        "(#{item.userId}, #{item.loginType}, #{item.success}, CAST(#{item.ipAddress} AS inet), #{item.userAgent}, #{item.deviceId}, #{item.country}, #{item.city}, #{item.errorMessage}, #{item.createdAt})",
+        "</foreach>",
+        "</script>"
+    })
+    int batchInsert(@Param("list") List<LoginLog> logs);
+    
     /**
      * 获取用户最后一次登录记录
      */
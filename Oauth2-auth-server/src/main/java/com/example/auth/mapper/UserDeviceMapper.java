@@ -57,6 +57,14 @@ public interface UserDeviceMapper {
     @Update("UPDATE user_devices SET status = #{status} WHERE user_id = #{userId} AND status = 'ACTIVE'")
     int updateAllStatus(@Param("userId") Long userId, @Param("status") String status);
     
+    /**
+     * 踢下线用户所有活跃设备，返回被踢的设备ID（单条 UPDATE ... RETURNING）
+     */
+    @Select("UPDATE user_devices SET status = #{status}, last_active_at = CURRENT_TIMESTAMP " +
+            "WHERE user_id = #{userId} AND status = 'ACTIVE' RETURNING device_id")
+    @Options(flushCache = Options.FlushCachePolicy.TRUE)
+    List<String> kickAllActive(@Param("userId") Long userId, @Param("status") String status);
+    
     /**
      * 删除设备
      */
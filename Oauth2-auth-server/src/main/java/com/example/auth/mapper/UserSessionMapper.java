@@ -19,12 +19,38 @@ public interface UserSessionMapper extends BaseMapper<UserSession> {
     @Update("UPDATE user_sessions SET last_accessed_at = NOW() WHERE id = #{sessionId}")
     int updateLastAccessTime(@Param("sessionId") String sessionId);
     
+    /**
+     * 批量写回最后访问时间与滑动过期时间
+     */
+    @Update({
+        "<script>",
+        "UPDATE user_sessions AS s SET last_accessed_at = v.last_accessed_at, expires_at = v.expires_at FROM (VALUES ",
+        "<foreach collection='list' item='item' separator=','>",
+        "(#{item.id}, #{item.lastAccessedAt}::timestamptz, #{item.expiresAt}::timestamptz)",
+        "</foreach>",
+        ") AS v(id, last_accessed_at, expires_at) WHERE s.id = v.id",
+        "</script>"
+    })
+    int batchTouch(@Param("list") List<UserSession> sessions);
+    
     /**
      * 获取用户的活跃会话
      */
     @Select("SELECT * FROM user_sessions WHERE user_id = #{userId} AND expires_at > NOW() ORDER BY last_accessed_at DESC")
     List<UserSession> getActiveSessionsByUserId(@Param("userId") Long userId);
     
+    /**
+     * 查询用户所有会话ID
+     */
+    @Select("SELECT id FROM user_sessions WHERE user_id = #{userId}")
+    List<String> selectIdsByUserId(@Param("userId") Long userId);
+    
+    /**
+     * 查询过期会话ID
+     */
+    @Select("SELECT id FROM user_sessions WHERE expires_at < NOW()")
+    List<String> selectExpiredIds();
+    
     /**
      * 批量删除过期会话
      */
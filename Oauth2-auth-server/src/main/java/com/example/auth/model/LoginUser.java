@@ -0,0 +1,41 @@
+package com.example.auth.model;
+
+import com.example.domain.dto.UserDetailsDTO;
+import org.springframework.security.core.GrantedAuthority;
+import org.springframework.security.core.userdetails.User;
+
+import java.util.Collection;
+
+/**
+ * 登录用户主体
+ * 认证阶段从 User-server 加载的 UserDetailsDTO 随 Authentication 一起传给 LoginSuccessHandler，
+ * 避免登录成功后再次 Feign 查询用户详情
+ *
+ * @author Junjie
+ * @date 2025-11-20
+ */
+public class LoginUser extends User {
+
+    private final transient UserDetailsDTO userDetails;
+
+    public LoginUser(UserDetailsDTO userDetails, String username, String password,
+                     Collection<? extends GrantedAuthority> authorities) {
+        super(username, password, authorities);
+        this.userDetails = userDetails;
+    }
+
+    public UserDetailsDTO getUserDetails() {
+        return userDetails;
+    }
+
+    /**
+     * 认证完成后 ProviderManager 会擦除凭证，同时清掉 DTO 中的密码哈希
+     */
+    @Override
+    public void eraseCredentials() {
+        super.eraseCredentials();
+        if (userDetails != null) {
+            userDetails.setPasswordHash(null);
+        }
+    }
+}
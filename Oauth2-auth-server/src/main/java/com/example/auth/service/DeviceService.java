@@ -6,7 +6,11 @@ import com.example.auth.model.UserDevice;
 import lombok.extern.slf4j.Slf4j;
 import org.apache.rocketmq.spring.core.RocketMQTemplate;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.data.redis.connection.RedisCallback;
+import org.springframework.data.redis.connection.ReturnType;
+import org.springframework.data.redis.connection.StringRedisConnection;
 import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.data.redis.core.StringRedisTemplate;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
 
@@ -26,12 +30,33 @@ import java.util.concurrent.TimeUnit;
 @Service
 public class DeviceService {
     
+    /**
+     * 单设备踢下线脚本：写入踢人标记，设备映射仍指向 ARGV[2] 时删除设备映射及其 RefreshToken
+     * 脚本访问的键全部经 KEYS 传入（集群槽位校验、脚本审计）
+     * KEYS[1]=auth:kick:{userId}:{deviceId}, KEYS[2]=auth:device:{userId}:{deviceId},
+     * KEYS[3]=auth:refresh:{refreshToken}（设备无 RefreshToken 时省略）, ARGV[1]=标记TTL(秒), ARGV[2]=refreshToken
+     * 返回 1=已删除, 0=无 RefreshToken, -1=RefreshToken 已轮换（由调用方重新读取后删除）
+     */
+    private static final String KICK_SCRIPT =
+            "redis.call('SET', KEYS[1], '1', 'EX', ARGV[1]) " +
+            "if #KEYS < 3 then return 0 end " +
+            "if redis.call('GET', KEYS[2]) == ARGV[2] then " +
+            "redis.call('DEL', KEYS[2], KEYS[3]) " +
+            "return 1 end " +
+            "return -1";
+    
+    /** 踢人标记有效期（Access Token 有效期） */
+    private static final long KICK_MARK_SECONDS = TimeUnit.MINUTES.toSeconds(15);
+    
     @Autowired
     private UserDeviceMapper deviceMapper;
     
     @Autowired
     private RedisTemplate<String, String> redisTemplate;
     
+    @Autowired
+    private StringRedisTemplate stringRedisTemplate;
+    
     @Autowired
     private RocketMQTemplate rocketMQTemplate;
     
@@ -108,15 +133,7 @@ public class DeviceService {
         redisTemplate.opsForValue().set(kickKey, "1", 15, TimeUnit.MINUTES);
         
         // 3. 删除该设备的Refresh Token
-        String deviceKey = "auth:device:" + userId + ":" + deviceId;
-        String refreshToken = redisTemplate.opsForValue().get(deviceKey);
-        if (refreshToken != null) {
-            // 删除设备映射
-            redisTemplate.delete(deviceKey);
-            // 删除Refresh Token
-            redisTemplate.delete("auth:refresh:" + refreshToken);
-            log.info("已删除设备的RefreshToken: userId={}, deviceId={}", userId, deviceId);
-        }
+        deleteDeviceRefreshToken(userId, deviceId);
         
         // 4. 发送MQ事件（通知IM网关断开连接）
         try {
@@ -138,24 +155,84 @@ public class DeviceService {
     
     /**
      * 踢下线用户的所有设备
+     * 一条 UPDATE 标记所有活跃设备，一次 Redis 管道写入踢人标记并删除 RefreshToken，一条 MQ 事件携带全部设备ID
      * 
      * @param userId 用户ID
+     * @return 被踢下线的设备数
      */
     @Transactional(rollbackFor = Exception.class)
-    public void kickAllDevices(Long userId) {
+    public int kickAllDevices(Long userId) {
         log.warn("踢下线用户所有设备: userId={}", userId);
         
-        // 1. 查询所有活跃设备
-        List<UserDevice> devices = deviceMapper.findByUserId(userId);
+        // 1. 数据库批量标记为被踢
+        List<String> deviceIds = deviceMapper.kickAllActive(userId, UserDevice.DeviceStatus.KICKED.name());
+        if (deviceIds.isEmpty()) {
+            return 0;
+        }
         
-        // 2. 批量踢下线
-        for (UserDevice device : devices) {
-            if (UserDevice.DeviceStatus.ACTIVE.name().equals(device.getStatus())) {
-                kickDevice(userId, device.getDeviceId());
+        // 2. Redis 管道：先读出各设备的 RefreshToken，再逐设备执行踢人脚本（所有键经 KEYS 传入）
+        List<Object> refreshTokens = stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            StringRedisConnection conn = (StringRedisConnection) connection;
+            for (String deviceId : deviceIds) {
+                conn.get("auth:device:" + userId + ":" + deviceId);
             }
+            return null;
+        });
+        List<Object> results = stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            StringRedisConnection conn = (StringRedisConnection) connection;
+            String ttl = String.valueOf(KICK_MARK_SECONDS);
+            for (int i = 0; i < deviceIds.size(); i++) {
+                String deviceId = deviceIds.get(i);
+                String kickKey = "auth:kick:" + userId + ":" + deviceId;
+                String deviceKey = "auth:device:" + userId + ":" + deviceId;
+                Object refreshToken = refreshTokens.get(i);
+                if (refreshToken != null) {
+                    conn.eval(KICK_SCRIPT, ReturnType.INTEGER, 3,
+                            kickKey, deviceKey, "auth:refresh:" + refreshToken, ttl, refreshToken.toString());
+                } else {
+                    conn.eval(KICK_SCRIPT, ReturnType.INTEGER, 2, kickKey, deviceKey, ttl);
+                }
+            }
+            return null;
+        });
+        // 两次管道之间 RefreshToken 被轮换的设备，重新读取后删除
+        for (int i = 0; i < deviceIds.size(); i++) {
+            if (results.get(i) instanceof Long result && result < 0) {
+                deleteDeviceRefreshToken(userId, deviceIds.get(i));
+            }
+        }
+        
+        // 3. 发送一条聚合MQ事件（通知IM网关断开连接）
+        try {
+            Map<String, Object> event = new HashMap<>();
+            event.put("userId", userId);
+            event.put("deviceIds", deviceIds);
+            event.put("eventType", "KICK_OUT");
+            event.put("timestamp", System.currentTimeMillis());
+            
+            rocketMQTemplate.convertAndSend("RISK_EVENT:KICK_OUT", event);
+        } catch (Exception e) {
+            log.error("发送踢人MQ事件失败: userId={}, count={}", userId, deviceIds.size(), e);
+            // 不影响主流程，继续执行
         }
         
-        log.warn("用户所有设备已踢下线: userId={}, count={}", userId, devices.size());
+        log.warn("用户所有设备已踢下线: userId={}, count={}", userId, deviceIds.size());
+        return deviceIds.size();
+    }
+    
+    /**
+     * 删除设备映射及其 RefreshToken
+     */
+    private void deleteDeviceRefreshToken(Long userId, String deviceId) {
+        String deviceKey = "auth:device:" + userId + ":" + deviceId;
+        String refreshToken = redisTemplate.opsForValue().get(deviceKey);
+        if (refreshToken != null) {
+            // 删除设备映射
+            redisTemplate.delete(deviceKey);
+            // 删除Refresh Token
+            redisTemplate.delete("auth:refresh:" + refreshToken);
+            log.info("已删除设备的RefreshToken: userId={}, deviceId={}", userId, deviceId);
+        }
     }
     
     /**
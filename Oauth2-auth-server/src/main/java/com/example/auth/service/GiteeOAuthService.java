@@ -8,10 +8,14 @@ import com.example.auth.entity.OAuthBinding;
 import com.example.auth.mapper.OAuthBindingMapper;
 import com.example.auth.mapper.UserMapper;
 import com.example.common.util.JwtUtil;
+import com.example.domain.event.UserChangedEvent;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
+import org.apache.rocketmq.spring.core.RocketMQTemplate;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
 
 import com.example.auth.config.GiteeProperties;
 
@@ -30,10 +34,14 @@ import java.util.UUID;
 @RequiredArgsConstructor
 public class GiteeOAuthService {
     
+    /** User-server 的用户变更主题（搜索索引、注册可用性过滤器） */
+    private static final String USER_CHANGED_TOPIC = "USER_CHANGED_TOPIC";
+    
     private final OAuthBindingMapper oauthBindingMapper;
     private final UserMapper userMapper;
     private final JwtUtil jwtUtil;
     private final GiteeProperties giteeProperties;
+    private final RocketMQTemplate rocketMQTemplate;
     
     @jakarta.annotation.PostConstruct
     public void init() {
@@ -141,6 +149,7 @@ public class GiteeOAuthService {
                     user.setStatus(1); // 正常状态
                     user.setCreatedAt(OffsetDateTime.now());
                     userMapper.insert(user);
+                    publishUserCreated(user);
                 } else {
                     // 已存在的用户，如果Gitee提供了邮箱，更新邮箱验证状态
                     if (giteeEmail != null && !Boolean.TRUE.equals(user.getEmailVerified())) {
@@ -237,6 +246,36 @@ public class GiteeOAuthService {
         oauthBindingMapper.updateById(binding);
     }
     
+    /**
+     * 事务提交后发布用户新增事件，User-server 各副本据此更新搜索索引和注册可用性过滤器
+     */
+    private void publishUserCreated(OAuthBinding.User user) {
+        UserChangedEvent event = new UserChangedEvent();
+        event.setId(user.getId());
+        event.setUsername(user.getUsername());
+        event.setEmail(user.getEmail());
+        event.setDeleted(false);
+        event.setOperation("UPSERT");
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            sendUserChanged(event);
+            return;
+        }
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void afterCommit() {
+                sendUserChanged(event);
+            }
+        });
+    }
+    
+    private void sendUserChanged(UserChangedEvent event) {
+        try {
+            rocketMQTemplate.convertAndSend(USER_CHANGED_TOPIC, JSONUtil.toJsonStr(event));
+        } catch (Exception e) {
+            log.error("发送用户变更事件失败: userId={}", event.getId(), e);
+        }
+    }
+    
     /**
      * 将 Hutool JSONObject 转换为标准 Java Map
      * 过滤掉 JSONNull 值，避免 Jackson 序列化失败
@@ -0,0 +1,393 @@
+package com.example.auth.service;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.io.DefaultResourceLoader;
+import org.springframework.core.io.Resource;
+import org.springframework.stereotype.Service;
+
+import jakarta.annotation.PostConstruct;
+import java.io.BufferedReader;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * IP 地理位置服务
+ * 启动时把 IP 段库加载为按起始地址排序的 long[] 区间表，查询为二分查找。
+ * IPv4 用一个 long 表示，IPv6 用高/低两个 long 表示（无符号比较）。
+ * lookup 返回位置编号（-1 表示未知），国家/城市/经纬度通过编号读取；
+ * 查询路径不创建对象（IPv6 解析使用线程本地缓冲），可在每次登录时调用。
+ */
+@Slf4j
+@Service
+public class IpIntelligenceService {
+
+    /** 未知位置 */
+    public static final int UNKNOWN = -1;
+
+    private static final double EARTH_RADIUS_KM = 6371.0;
+
+    @Value("${auth.ip-db.location:classpath:ip/ip-ranges.csv}")
+    private String location;
+
+    // IPv4 区间表
+    private long[] v4Start = new long[0];
+    private long[] v4End = new long[0];
+    private int[] v4Loc = new int[0];
+
+    // IPv6 区间表
+    private long[] v6StartHi = new long[0];
+    private long[] v6StartLo = new long[0];
+    private long[] v6EndHi = new long[0];
+    private long[] v6EndLo = new long[0];
+    private int[] v6Loc = new int[0];
+
+    // 位置表
+    private String[] countries = new String[0];
+    private String[] cities = new String[0];
+    private double[] latitudes = new double[0];
+    private double[] longitudes = new double[0];
+
+    private static final ThreadLocal<long[]> V6_BUFFER = ThreadLocal.withInitial(() -> new long[2]);
+    private static final ThreadLocal<int[]> V6_GROUPS = ThreadLocal.withInitial(() -> new int[8]);
+
+    @PostConstruct
+    public void load() {
+        Resource resource = new DefaultResourceLoader().getResource(location);
+        if (!resource.exists()) {
+            log.warn("IP 库文件不存在，地理位置查询将全部返回未知: {}", location);
+            return;
+        }
+
+        List<long[]> v4Rows = new ArrayList<>();
+        List<long[]> v6Rows = new ArrayList<>();
+        Map<String, Integer> locIndex = new HashMap<>();
+        List<String> countryList = new ArrayList<>();
+        List<String> cityList = new ArrayList<>();
+        List<Double> latList = new ArrayList<>();
+        List<Double> lonList = new ArrayList<>();
+        long[] v6 = new long[2];
+
+        try (BufferedReader reader = new BufferedReader(
+                new InputStreamReader(resource.getInputStream(), StandardCharsets.UTF_8))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                line = line.trim();
+                if (line.isEmpty() || line.startsWith("#")) {
+                    continue;
+                }
+                String[] cols = line.split(",", -1);
+                if (cols.length < 6) {
+                    continue;
+                }
+                String locKey = cols[2] + "|" + cols[3] + "|" + cols[4] + "|" + cols[5];
+                Integer loc = locIndex.get(locKey);
+                if (loc == null) {
+                    loc = countryList.size();
+                    locIndex.put(locKey, loc);
+                    countryList.add(cols[2].isEmpty() ? null : cols[2].intern());
+                    cityList.add(cols[3].isEmpty() ? null : cols[3].intern());
+                    latList.add(cols[4].isEmpty() ? Double.NaN : Double.parseDouble(cols[4]));
+                    lonList.add(cols[5].isEmpty() ? Double.NaN : Double.parseDouble(cols[5]));
+                }
+
+                if (cols[0].indexOf(':') < 0) {
+                    long start = parseIpv4(cols[0], 0, cols[0].length());
+                    long end = parseIpv4(cols[1], 0, cols[1].length());
+                    if (start >= 0 && end >= start) {
+                        v4Rows.add(new long[]{start, end, loc});
+                    }
+                } else if (parseIpv6(cols[0], v6)) {
+                    long startHi = v6[0];
+                    long startLo = v6[1];
+                    if (parseIpv6(cols[1], v6)) {
+                        v6Rows.add(new long[]{startHi, startLo, v6[0], v6[1], loc});
+                    }
+                }
+            }
+        } catch (Exception e) {
+            log.error("加载 IP 库失败: {}", location, e);
+            return;
+        }
+
+        v4Rows.sort(Comparator.comparingLong(r -> r[0]));
+        v6Rows.sort((a, b) -> {
+            int c = Long.compareUnsigned(a[0], b[0]);
+            return c != 0 ? c : Long.compareUnsigned(a[1], b[1]);
+        });
+
+        int n4 = v4Rows.size();
+        long[] s4 = new long[n4];
+        long[] e4 = new long[n4];
+        int[] l4 = new int[n4];
+        for (int i = 0; i < n4; i++) {
+            long[] r = v4Rows.get(i);
+            s4[i] = r[0];
+            e4[i] = r[1];
+            l4[i] = (int) r[2];
+        }
+
+        int n6 = v6Rows.size();
+        long[] sh = new long[n6];
+        long[] sl = new long[n6];
+        long[] eh = new long[n6];
+        long[] el = new long[n6];
+        int[] l6 = new int[n6];
+        for (int i = 0; i < n6; i++) {
+            long[] r = v6Rows.get(i);
+            sh[i] = r[0];
+            sl[i] = r[1];
+            eh[i] = r[2];
+            el[i] = r[3];
+            l6[i] = (int) r[4];
+        }
+
+        this.v4Start = s4;
+        this.v4End = e4;
+        this.v4Loc = l4;
+        this.v6StartHi = sh;
+        this.v6StartLo = sl;
+        this.v6EndHi = eh;
+        this.v6EndLo = el;
+        this.v6Loc = l6;
+        this.countries = countryList.toArray(new String[0]);
+        this.cities = cityList.toArray(new String[0]);
+        this.latitudes = latList.stream().mapToDouble(Double::doubleValue).toArray();
+        this.longitudes = lonList.stream().mapToDouble(Double::doubleValue).toArray();
+
+        log.info("IP 库加载完成: ipv4Ranges={}, ipv6Ranges={}, locations={}", n4, n6, countries.length);
+    }
+
+    /**
+     * 查询 IP 所在位置编号
+     *
+     * @param ip IPv4 或 IPv6 字符串
+     * @return 位置编号，未知返回 UNKNOWN
+     */
+    public int lookup(CharSequence ip) {
+        if (ip == null || ip.length() == 0) {
+            return UNKNOWN;
+        }
+        boolean v6 = false;
+        for (int i = 0; i < ip.length(); i++) {
+            if (ip.charAt(i) == ':') {
+                v6 = true;
+                break;
+            }
+        }
+        if (!v6) {
+            return lookupV4(parseIpv4(ip, 0, ip.length()));
+        }
+
+        long[] buf = V6_BUFFER.get();
+        if (!parseIpv6(ip, buf)) {
+            return UNKNOWN;
+        }
+        // IPv4 映射地址 ::ffff:a.b.c.d 按 IPv4 查询
+        if (buf[0] == 0 && (buf[1] >>> 32) == 0xFFFFL) {
+            return lookupV4(buf[1] & 0xFFFFFFFFL);
+        }
+        return lookupV6(buf[0], buf[1]);
+    }
+
+    public String country(int loc) {
+        return loc >= 0 ? countries[loc] : null;
+    }
+
+    public String city(int loc) {
+        return loc >= 0 ? cities[loc] : null;
+    }
+
+    /**
+     * 是否有经纬度
+     */
+    public boolean hasCoordinates(int loc) {
+        return loc >= 0 && !Double.isNaN(latitudes[loc]) && !Double.isNaN(longitudes[loc]);
+    }
+
+    /**
+     * 两个位置之间的球面距离（公里），任一位置无经纬度时返回 -1
+     */
+    public double distanceKm(int locA, int locB) {
+        if (!hasCoordinates(locA) || !hasCoordinates(locB)) {
+            return -1;
+        }
+        double lat1 = Math.toRadians(latitudes[locA]);
+        double lat2 = Math.toRadians(latitudes[locB]);
+        double dLat = lat2 - lat1;
+        double dLon = Math.toRadians(longitudes[locB] - longitudes[locA]);
+        double a = Math.sin(dLat / 2) * Math.sin(dLat / 2)
+                + Math.cos(lat1) * Math.cos(lat2) * Math.sin(dLon / 2) * Math.sin(dLon / 2);
+        return 2 * EARTH_RADIUS_KM * Math.asin(Math.min(1.0, Math.sqrt(a)));
+    }
+
+    private int lookupV4(long ip) {
+        if (ip < 0) {
+            return UNKNOWN;
+        }
+        long[] starts = v4Start;
+        int lo = 0;
+        int hi = starts.length - 1;
+        int found = -1;
+        while (lo <= hi) {
+            int mid = (lo + hi) >>> 1;
+            if (starts[mid] <= ip) {
+                found = mid;
+                lo = mid + 1;
+            } else {
+                hi = mid - 1;
+            }
+        }
+        return found >= 0 && ip <= v4End[found] ? v4Loc[found] : UNKNOWN;
+    }
+
+    private int lookupV6(long ipHi, long ipLo) {
+        long[] startHi = v6StartHi;
+        long[] startLo = v6StartLo;
+        int lo = 0;
+        int hi = startHi.length - 1;
+        int found = -1;
+        while (lo <= hi) {
+            int mid = (lo + hi) >>> 1;
+            if (compare(startHi[mid], startLo[mid], ipHi, ipLo) <= 0) {
+                found = mid;
+                lo = mid + 1;
+            } else {
+                hi = mid - 1;
+            }
+        }
+        return found >= 0 && compare(ipHi, ipLo, v6EndHi[found], v6EndLo[found]) <= 0 ? v6Loc[found] : UNKNOWN;
+    }
+
+    private static int compare(long aHi, long aLo, long bHi, long bLo) {
+        int c = Long.compareUnsigned(aHi, bHi);
+        return c != 0 ? c : Long.compareUnsigned(aLo, bLo);
+    }
+
+    /**
+     * 解析 IPv4，失败返回 -1
+     */
+    static long parseIpv4(CharSequence s, int from, int to) {
+        long result = 0;
+        int octet = 0;
+        int digits = 0;
+        int dots = 0;
+        for (int i = from; i < to; i++) {
+            char c = s.charAt(i);
+            if (c >= '0' && c <= '9') {
+                octet = octet * 10 + (c - '0');
+                if (++digits > 3 || octet > 255) {
+                    return -1;
+                }
+            } else if (c == '.') {
+                if (digits == 0 || ++dots > 3) {
+                    return -1;
+                }
+                result = (result << 8) | octet;
+                octet = 0;
+                digits = 0;
+            } else {
+                return -1;
+            }
+        }
+        if (dots != 3 || digits == 0) {
+            return -1;
+        }
+        return (result << 8) | octet;
+    }
+
+    /**
+     * 解析 IPv6（支持 :: 压缩、内嵌 IPv4、%zone 后缀），结果写入 out[0]=高64位 out[1]=低64位
+     */
+    static boolean parseIpv6(CharSequence s, long[] out) {
+        int len = s.length();
+        for (int i = 0; i < len; i++) {
+            if (s.charAt(i) == '%') {
+                len = i;
+                break;
+            }
+        }
+        int[] groups = V6_GROUPS.get();
+        int count = 0;
+        int compressAt = -1;
+        int i = 0;
+        if (len >= 2 && s.charAt(0) == ':' && s.charAt(1) == ':') {
+            compressAt = 0;
+            i = 2;
+        }
+        while (i < len) {
+            if (count == 8) {
+                return false;
+            }
+            int start = i;
+            int value = 0;
+            int digits = 0;
+            boolean dotted = false;
+            while (i < len && s.charAt(i) != ':') {
+                char c = s.charAt(i);
+                if (c == '.') {
+                    dotted = true;
+                    break;
+                }
+                int d = Character.digit(c, 16);
+                if (d < 0 || ++digits > 4) {
+                    return false;
+                }
+                value = (value << 4) | d;
+                i++;
+            }
+            if (dotted) {
+                long v4 = parseIpv4(s, start, len);
+                if (v4 < 0 || count > 6) {
+                    return false;
+                }
+                groups[count++] = (int) (v4 >>> 16);
+                groups[count++] = (int) (v4 & 0xFFFF);
+                i = len;
+                break;
+            }
+            if (digits == 0) {
+                return false;
+            }
+            groups[count++] = value;
+            if (i < len) {
+                // 当前字符为 ':'
+                i++;
+                if (i < len && s.charAt(i) == ':') {
+                    if (compressAt >= 0) {
+                        return false;
+                    }
+                    compressAt = count;
+                    i++;
+                } else if (i == len) {
+                    return false;
+                }
+            }
+        }
+
+        if (compressAt < 0 && count != 8) {
+            return false;
+        }
+        if (compressAt >= 0) {
+            if (count > 7) {
+                return false;
+            }
+            int tail = count - compressAt;
+            int zeros = 8 - count;
+            for (int k = tail - 1; k >= 0; k--) {
+                groups[compressAt + zeros + k] = groups[compressAt + k];
+            }
+            Arrays.fill(groups, compressAt, compressAt + zeros, 0);
+        }
+
+        out[0] = ((long) groups[0] << 48) | ((long) groups[1] << 32) | ((long) groups[2] << 16) | groups[3];
+        out[1] = ((long) groups[4] << 48) | ((long) groups[5] << 32) | ((long) groups[6] << 16) | groups[7];
+        return true;
+    }
+}
@@ -2,9 +2,15 @@ package com.example.auth.service;
 
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Autowired;
-import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.data.redis.core.script.RedisScript;
 import org.springframework.stereotype.Service;
 
+import java.net.InetAddress;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
 import java.util.concurrent.TimeUnit;
 
 /**
@@ -13,120 +19,204 @@ import java.util.concurrent.TimeUnit;
  * @date 2025-11-06
  * 登录尝试服务
  * 防止暴力破解攻击
+ * 按账号和 IP 网段（IPv4 /24，IPv6 /64）分别做滑动窗口计数（Redis ZSET），
+ * 检查、计数、锁定在同一个 Lua 脚本中完成，一次往返返回锁定状态、剩余次数和剩余锁定时间，
+ * 并发失败请求也无法越过 MAX_ATTEMPTS
+ * 只有账号维度会锁定；网段失败过多时只限速（每个网段每 SUBNET_THROTTLE_MS 放行一次尝试），
+ * 不会因为同网段的他人而锁死账号
  */
 @Slf4j
 @Service
 public class LoginAttemptService {
     
-    private static final String LOGIN_ATTEMPT_PREFIX = "login:attempt:";
+    // v2：窗口由 INCR 计数改为 ZSET，换前缀避免与旧 key 类型冲突
+    private static final String LOGIN_ATTEMPT_PREFIX = "login:attempt:v2:";
     private static final String LOGIN_BLOCK_PREFIX = "login:block:";
+    private static final String LOGIN_THROTTLE_PREFIX = "login:throttle:";
+    private static final String SUBNET_SEGMENT = "net:";
     
     // 最大失败次数
     private static final int MAX_ATTEMPTS = 5;
     
+    // 同一网段失败次数超过该值后开始限速（撞库通常换账号不换网段）
+    private static final int MAX_SUBNET_ATTEMPTS = 50;
+    
+    // 网段限速期间两次尝试的最小间隔（毫秒）
+    private static final long SUBNET_THROTTLE_MS = 2000;
+    
     // 锁定时间（分钟）
     private static final int LOCK_TIME_MINUTES = 15;
     
-    // 失败记录过期时间（分钟）
+    // 失败记录滑动窗口（分钟）
     private static final int ATTEMPT_EXPIRE_MINUTES = 60;
     
+    /**
+     * 滑动窗口限流脚本
+     * KEYS[1]=账号窗口 KEYS[2]=账号锁定 KEYS[3]=网段窗口 KEYS[4]=网段限速（无 IP 时传空串）
+     * ARGV[1]=当前毫秒 ARGV[2]=窗口毫秒 ARGV[3]=账号上限 ARGV[4]=锁定毫秒 ARGV[5]=网段上限
+     * ARGV[6]=1 记录一次失败 / 0 仅检查 ARGV[7]=ZSET 成员 ARGV[8]=网段限速间隔毫秒
+     * 返回 {是否锁定, 账号剩余次数, 锁定剩余毫秒, 限速剩余毫秒}
+     */
+    private static final String LIMIT_SCRIPT =
+            "local now = tonumber(ARGV[1]) " +
+            "local window = tonumber(ARGV[2]) " +
+            "local max = tonumber(ARGV[3]) " +
+            "local blockMs = tonumber(ARGV[4]) " +
+            "local fail = ARGV[6] == '1' " +
+            "local ttl = redis.call('PTTL', KEYS[2]) " +
+            "if ttl > 0 then return {1, 0, ttl, 0} end " +
+            "redis.call('ZREMRANGEBYSCORE', KEYS[1], '-inf', now - window) " +
+            "local count = redis.call('ZCARD', KEYS[1]) " +
+            "if fail then " +
+            "  redis.call('ZADD', KEYS[1], now, ARGV[7]) " +
+            "  redis.call('PEXPIRE', KEYS[1], window) " +
+            "  count = count + 1 " +
+            "end " +
+            "local throttle = 0 " +
+            "if KEYS[3] ~= '' then " +
+            "  redis.call('ZREMRANGEBYSCORE', KEYS[3], '-inf', now - window) " +
+            "  if fail then " +
+            "    redis.call('ZADD', KEYS[3], now, ARGV[7]) " +
+            "    redis.call('PEXPIRE', KEYS[3], window) " +
+            "  elseif redis.call('ZCARD', KEYS[3]) >= tonumber(ARGV[5]) then " +
+            "    if not redis.call('SET', KEYS[4], '1', 'PX', ARGV[8], 'NX') then " +
+            "      throttle = math.max(1, redis.call('PTTL', KEYS[4])) " +
+            "    end " +
+            "  end " +
+            "end " +
+            "if fail and count >= max then " +
+            "  redis.call('SET', KEYS[2], '1', 'PX', blockMs) " +
+            "  return {1, 0, blockMs, 0} " +
+            "end " +
+            "return {0, math.max(0, max - count), 0, throttle}";
+    
+    @SuppressWarnings("rawtypes")
+    private static final RedisScript<List> LIMIT = new DefaultRedisScript<>(LIMIT_SCRIPT, List.class);
+    
     @Autowired
-    private RedisTemplate<String, String> redisTemplate;
+    private StringRedisTemplate stringRedisTemplate;
     
     /**
-     * 登录成功，清除失败记录
+     * 登录尝试状态
      * 
-     * @param key 用户标识（用户名或IP）
+     * @param blocked 是否被锁定
+     * @param remainingAttempts 剩余尝试次数
+     * @param blockRemainingSeconds 锁定剩余时间（秒），未锁定为0
+     * @param throttleRemainingMillis 网段限速剩余时间（毫秒），未限速为0
      */
-    public void loginSucceeded(String key) {
-        String attemptKey = LOGIN_ATTEMPT_PREFIX + key;
-        String blockKey = LOGIN_BLOCK_PREFIX + key;
-        
-        redisTemplate.delete(attemptKey);
-        redisTemplate.delete(blockKey);
-        
-        log.info("登录成功，清除失败记录: key={}", key);
+    public record AttemptStatus(boolean blocked, int remainingAttempts, long blockRemainingSeconds,
+                                long throttleRemainingMillis) {
     }
     
     /**
-     * 登录失败，记录失败次数
+     * 登录成功，清除账号失败记录（单次 DEL 两个 key）
+     * 网段计数不清除，避免攻击者用自己的账号重置网段窗口
      * 
-     * @param key 用户标识（用户名或IP）
+     * @param key 用户标识（邮箱）
      */
-    public void loginFailed(String key) {
-        String attemptKey = LOGIN_ATTEMPT_PREFIX + key;
-        
-        // 增加失败次数
-        Long attempts = redisTemplate.opsForValue().increment(attemptKey);
-        
-        if (attempts == null) {
-            attempts = 1L;
-        }
-        
-        // 设置过期时间
-        if (attempts == 1) {
-            redisTemplate.expire(attemptKey, ATTEMPT_EXPIRE_MINUTES, TimeUnit.MINUTES);
-        }
-        
-        log.warn("登录失败: key={}, attempts={}/{}", key, attempts, MAX_ATTEMPTS);
+    public void loginSucceeded(String key) {
+        stringRedisTemplate.delete(Arrays.asList(LOGIN_ATTEMPT_PREFIX + key, LOGIN_BLOCK_PREFIX + key));
         
-        // 如果超过最大次数，锁定账户
-        if (attempts >= MAX_ATTEMPTS) {
-            blockUser(key);
-        }
+        log.info("登录成功，清除失败记录: key={}", key);
     }
     
     /**
-     * 锁定用户
+     * 登录失败，记录失败次数并在达到上限时锁定
      * 
-     * @param key 用户标识
+     * @param key 用户标识（邮箱）
+     * @param ip 客户端IP，可为空
+     * @return 记录后的状态
      */
-    private void blockUser(String key) {
-        String blockKey = LOGIN_BLOCK_PREFIX + key;
-        redisTemplate.opsForValue().set(blockKey, "blocked", LOCK_TIME_MINUTES, TimeUnit.MINUTES);
+    public AttemptStatus loginFailed(String key, String ip) {
+        AttemptStatus status = evaluate(key, ip, true);
+        
+        log.warn("登录失败: key={}, ip={}, remaining={}/{}, blocked={}", 
+            key, ip, status.remainingAttempts(), MAX_ATTEMPTS, status.blocked());
         
-        log.warn("用户被锁定: key={}, lockTime={}分钟", key, LOCK_TIME_MINUTES);
+        return status;
     }
     
     /**
-     * 检查用户是否被锁定
+     * 检查是否被锁定（不计数）
      * 
-     * @param key 用户标识
-     * @return true=被锁定，false=未锁定
+     * @param key 用户标识（邮箱）
+     * @param ip 客户端IP，可为空
+     * @return 当前状态
      */
-    public boolean isBlocked(String key) {
-        String blockKey = LOGIN_BLOCK_PREFIX + key;
-        Boolean hasKey = redisTemplate.hasKey(blockKey);
-        return Boolean.TRUE.equals(hasKey);
+    public AttemptStatus check(String key, String ip) {
+        return evaluate(key, ip, false);
     }
     
     /**
-     * 获取剩余尝试次数
+     * 统计账号最近 minutes 分钟内的失败次数（不超过滑动窗口）
      * 
-     * @param key 用户标识
-     * @return 剩余次数
+     * @param key 用户标识（邮箱）
+     * @param minutes 统计窗口（分钟）
+     * @return 失败次数
      */
-    public int getRemainingAttempts(String key) {
-        String attemptKey = LOGIN_ATTEMPT_PREFIX + key;
-        String attemptsStr = redisTemplate.opsForValue().get(attemptKey);
+    public int countRecentFailures(String key, int minutes) {
+        long window = TimeUnit.MINUTES.toMillis(Math.min(minutes, ATTEMPT_EXPIRE_MINUTES));
+        Long count = stringRedisTemplate.opsForZSet().count(LOGIN_ATTEMPT_PREFIX + key,
+            System.currentTimeMillis() - window, Double.POSITIVE_INFINITY);
+        return count != null ? count.intValue() : 0;
+    }
+    
+    private AttemptStatus evaluate(String key, String ip, boolean fail) {
+        String subnet = subnetOf(ip);
+        List<String> keys = Arrays.asList(
+            LOGIN_ATTEMPT_PREFIX + key,
+            LOGIN_BLOCK_PREFIX + key,
+            subnet != null ? LOGIN_ATTEMPT_PREFIX + SUBNET_SEGMENT + subnet : "",
+            subnet != null ? LOGIN_THROTTLE_PREFIX + SUBNET_SEGMENT + subnet : ""
+        );
+        long now = System.currentTimeMillis();
+        
+        List<?> result = stringRedisTemplate.execute(LIMIT, keys,
+            String.valueOf(now),
+            String.valueOf(TimeUnit.MINUTES.toMillis(ATTEMPT_EXPIRE_MINUTES)),
+            String.valueOf(MAX_ATTEMPTS),
+            String.valueOf(TimeUnit.MINUTES.toMillis(LOCK_TIME_MINUTES)),
+            String.valueOf(MAX_SUBNET_ATTEMPTS),
+            fail ? "1" : "0",
+            now + "-" + ThreadLocalRandom.current().nextInt(Integer.MAX_VALUE),
+            String.valueOf(SUBNET_THROTTLE_MS));
         
-        if (attemptsStr == null) {
-            return MAX_ATTEMPTS;
+        if (result == null || result.size() < 4) {
+            return new AttemptStatus(false, MAX_ATTEMPTS, 0, 0);
         }
+        boolean blocked = ((Number) result.get(0)).longValue() == 1;
+        int remaining = ((Number) result.get(1)).intValue();
+        long ttlMs = ((Number) result.get(2)).longValue();
+        long throttleMs = ((Number) result.get(3)).longValue();
         
-        int attempts = Integer.parseInt(attemptsStr);
-        return Math.max(0, MAX_ATTEMPTS - attempts);
+        if (blocked && fail) {
+            log.warn("用户被锁定: key={}, ip={}, lockTime={}秒", key, ip, ttlMs / 1000);
+        }
+        return new AttemptStatus(blocked, remaining, blocked ? Math.max(1, ttlMs / 1000) : 0, throttleMs);
     }
     
     /**
-     * 获取锁定剩余时间（秒）
-     * 
-     * @param key 用户标识
-     * @return 剩余时间（秒），未锁定返回0
+     * 计算 IP 所在网段：IPv4 取 /24，IPv6 取 /64
      */
-    public long getBlockRemainingTime(String key) {
-        String blockKey = LOGIN_BLOCK_PREFIX + key;
-        Long expire = redisTemplate.getExpire(blockKey, TimeUnit.SECONDS);
-        return expire != null && expire > 0 ? expire : 0;
+    private String subnetOf(String ip) {
+        if (ip == null || ip.isEmpty()) {
+            return null;
+        }
+        if (ip.indexOf(':') < 0) {
+            int lastDot = ip.lastIndexOf('.');
+            return lastDot > 0 ? ip.substring(0, lastDot) : ip;
+        }
+        try {
+            // 含 ':' 的字符串按 IPv6 字面量解析，不会触发 DNS 查询
+            byte[] bytes = InetAddress.getByName(ip).getAddress();
+            StringBuilder sb = new StringBuilder(16);
+            for (int i = 0; i < 8 && i < bytes.length; i++) {
+                sb.append(Character.forDigit((bytes[i] >> 4) & 0xF, 16))
+                  .append(Character.forDigit(bytes[i] & 0xF, 16));
+            }
+            return sb.toString();
+        } catch (Exception e) {
+            return ip;
+        }
     }
 }
@@ -2,17 +2,20 @@ package com.example.auth.service;
 
 import com.example.domain.model.LoginLog;
 import com.example.auth.mapper.LoginLogMapper;
+import com.example.auth.util.ClientIpResolver;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Autowired;
-import org.springframework.scheduling.annotation.Async;
 import org.springframework.stereotype.Service;
 
 import jakarta.servlet.http.HttpServletRequest;
 import java.time.LocalDateTime;
+import java.util.Objects;
 
 /**
  * 登录日志服务
  * 记录用户登录历史，用于安全审计和异常检测
+ * 日志经 LoginLogWriter 异步批量写库，异常登录检查优先使用其内存摘要
+ * 失败次数以 LoginAttemptService 的账号滑动窗口为准（Redis，所有实例共享）
  */
 @Slf4j
 @Service
@@ -20,11 +23,23 @@ public class LoginLogService {
     
     @Autowired
     private LoginLogMapper loginLogMapper;
+
+    @Autowired
+    private ClientIpResolver clientIpResolver;
+    
+    @Autowired
+    private LoginLogWriter loginLogWriter;
+    
+    @Autowired
+    private IpIntelligenceService ipIntelligenceService;
+    
+    @Autowired
+    private LoginAttemptService loginAttemptService;
     
     /**
      * 异步记录登录日志
+     * 请求信息在调用线程中取出，写库由 LoginLogWriter 批量完成
      */
-    @Async
     public void recordLoginLog(Long userId, String loginType, boolean success,
                                HttpServletRequest request, String errorMessage) {
         try {
@@ -32,17 +47,20 @@ public class LoginLogService {
             loginLog.setUserId(userId);
             loginLog.setLoginType(loginType);
             loginLog.setSuccess(success);
-            loginLog.setIpAddress(getClientIp(request));
+            loginLog.setIpAddress(clientIpResolver.resolve(request));
             loginLog.setUserAgent(request.getHeader("User-Agent"));
             loginLog.setDeviceId(request.getHeader("X-Device-Id"));
             loginLog.setErrorMessage(errorMessage);
             loginLog.setCreatedAt(LocalDateTime.now());
             
-            // 解析地理位置（可选，可以调用IP库服务）
-            // loginLog.setCountry(parseCountry(ipAddress));
-            // loginLog.setCity(parseCity(ipAddress));
+            // 解析地理位置（本地IP库）
+            int loc = ipIntelligenceService.lookup(loginLog.getIpAddress());
+            loginLog.setCountry(ipIntelligenceService.country(loc));
+            loginLog.setCity(ipIntelligenceService.city(loc));
             
-            loginLogMapper.insert(loginLog);
+            if (!loginLogWriter.submit(loginLog)) {
+                log.debug("登录日志队列已满，丢弃: userId={}, loginType={}", userId, loginType);
+            }
             
             if (success) {
                 log.info("登录成功日志: userId={}, loginType={}, ip={}", 
@@ -60,7 +78,6 @@ public class LoginLogService {
     /**
      * 记录简单登录日志
      */
-    @Async
     public void recordLoginLog(Long userId, String loginType, boolean success,
                                String ipAddress, String userAgent) {
         try {
@@ -70,9 +87,14 @@ public class LoginLogService {
             loginLog.setSuccess(success);
             loginLog.setIpAddress(ipAddress);
             loginLog.setUserAgent(userAgent);
+            int loc = ipIntelligenceService.lookup(ipAddress);
+            loginLog.setCountry(ipIntelligenceService.country(loc));
+            loginLog.setCity(ipIntelligenceService.city(loc));
             loginLog.setCreatedAt(LocalDateTime.now());
             
-            loginLogMapper.insert(loginLog);
+            if (!loginLogWriter.submit(loginLog)) {
+                log.debug("登录日志队列已满，丢弃: userId={}, loginType={}", userId, loginType);
+            }
             
         } catch (Exception e) {
             log.error("记录登录日志失败: userId={}, loginType={}", userId, loginType, e);
@@ -91,22 +113,43 @@ public class LoginLogService {
         }
     }
     
+    /**
+     * 获取用户最近一次成功登录（优先内存摘要，只保证 ipAddress 和 createdAt）
+     */
+    public LoginLog getLastSuccessLogin(Long userId) {
+        LoginLogWriter.LoginSummary summary = loginLogWriter.getSummary(userId);
+        if (summary != null && summary.getLastSuccessIp() != null) {
+            LoginLog lastLogin = new LoginLog();
+            lastLogin.setUserId(userId);
+            lastLogin.setSuccess(true);
+            lastLogin.setIpAddress(summary.getLastSuccessIp());
+            lastLogin.setCreatedAt(summary.getLastSuccessAt());
+            return lastLogin;
+        }
+        return loginLogMapper.getLastSuccessLoginLog(userId);
+    }
+    
     /**
      * 检查是否有异常登录（如异地登录）
      */
     public boolean checkAbnormalLogin(Long userId, String currentIp) {
         try {
-            // 获取最近的成功登录记录
-            LoginLog lastLogin = loginLogMapper.getLastSuccessLoginLog(userId);
-            
+            LoginLog lastLogin = getLastSuccessLogin(userId);
             if (lastLogin == null) {
                 return false; // 首次登录
             }
+            String lastIp = lastLogin.getIpAddress();
             
-            // 简单的IP段检查（实际应该使用IP地理位置服务）
-            if (!isSameIpRange(lastLogin.getIpAddress(), currentIp)) {
+            // 两个IP都能定位时按国家/城市比较，否则退回IP段比较
+            int lastLoc = ipIntelligenceService.lookup(lastIp);
+            int currentLoc = ipIntelligenceService.lookup(currentIp);
+            boolean differentPlace = lastLoc != IpIntelligenceService.UNKNOWN && currentLoc != IpIntelligenceService.UNKNOWN
+                ? !Objects.equals(ipIntelligenceService.country(lastLoc), ipIntelligenceService.country(currentLoc))
+                    || !Objects.equals(ipIntelligenceService.city(lastLoc), ipIntelligenceService.city(currentLoc))
+                : !isSameIpRange(lastIp, currentIp);
+            if (differentPlace) {
                 log.warn("检测到异地登录: userId={}, lastIp={}, currentIp={}", 
-                    userId, lastLogin.getIpAddress(), currentIp);
+                    userId, lastIp, currentIp);
                 return true;
             }
             
@@ -119,34 +162,18 @@ public class LoginLogService {
     
     /**
      * 获取登录失败次数
+     * 读取 LoginAttemptService 的账号失败窗口（所有实例共享），登录成功后清零；
+     * 超出滑动窗口的部分不再保留
      */
-    public int getFailedLoginCount(Long userId, int minutes) {
+    public int getFailedLoginCount(String email, int minutes) {
         try {
-            LocalDateTime since = LocalDateTime.now().minusMinutes(minutes);
-            return loginLogMapper.countFailedLogins(userId, since);
+            return loginAttemptService.countRecentFailures(email, minutes);
         } catch (Exception e) {
-            log.error("获取登录失败次数失败: userId={}", userId, e);
+            log.error("获取登录失败次数失败: email={}", email, e);
             return 0;
         }
     }
     
-    /**
-     * 获取客户端IP
-     */
-    private String getClientIp(HttpServletRequest request) {
-        String ip = request.getHeader("X-Forwarded-For");
-        if (ip == null || ip.isEmpty() || "unknown".equalsIgnoreCase(ip)) {
-            ip = request.getHeader("X-Real-IP");
-        }
-        if (ip == null || ip.isEmpty() || "unknown".equalsIgnoreCase(ip)) {
-            ip = request.getRemoteAddr();
-        }
-        if (ip != null && ip.contains(",")) {
-            ip = ip.split(",")[0].trim();
-        }
-        return ip;
-    }
-    
     /**
      * 简单的IP段比较
      */
@@ -0,0 +1,182 @@
+package com.example.auth.service;
+
+import com.example.auth.mapper.LoginLogMapper;
+import com.example.domain.model.LoginLog;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 登录日志批量写入器
+ * 1. 有界队列缓冲登录日志，队列满时丢弃新日志并计数（不阻塞登录请求）
+ * 2. 专用写线程攒批，多行 INSERT 写入 login_logs
+ * 3. 维护每个用户的登录摘要（最后成功登录IP和时间），异常登录检查无需查库
+ * 摘要只在本实例内有效，未命中或覆盖不到查询窗口时由调用方回退到数据库
+ */
+@Slf4j
+@Component
+public class LoginLogWriter {
+
+    private final LoginLogMapper loginLogMapper;
+
+    private final BlockingQueue<LoginLog> queue;
+
+    private final int batchSize;
+
+    private final int maxSummaries;
+
+    private final Map<Long, LoginSummary> summaries = new ConcurrentHashMap<>();
+
+    private final Counter enqueued;
+    private final Counter dropped;
+    private final Counter written;
+    private final Counter failed;
+
+    private volatile boolean running = true;
+
+    private Thread writerThread;
+
+    public LoginLogWriter(LoginLogMapper loginLogMapper,
+                          MeterRegistry meterRegistry,
+                          @Value("${auth.login-log.queue-capacity:10000}") int queueCapacity,
+                          @Value("${auth.login-log.batch-size:500}") int batchSize,
+                          @Value("${auth.login-log.max-summaries:100000}") int maxSummaries) {
+        this.loginLogMapper = loginLogMapper;
+        this.queue = new ArrayBlockingQueue<>(queueCapacity);
+        this.batchSize = batchSize;
+        this.maxSummaries = maxSummaries;
+
+        this.enqueued = Counter.builder("auth.login_log.enqueued").register(meterRegistry);
+        this.dropped = Counter.builder("auth.login_log.dropped").register(meterRegistry);
+        this.written = Counter.builder("auth.login_log.written").register(meterRegistry);
+        this.failed = Counter.builder("auth.login_log.failed").register(meterRegistry);
+        Gauge.builder("auth.login_log.queue_depth", queue, BlockingQueue::size).register(meterRegistry);
+    }
+
+    @PostConstruct
+    public void start() {
+        writerThread = new Thread(this::runLoop, "login-log-writer");
+        writerThread.setDaemon(true);
+        writerThread.start();
+    }
+
+    /**
+     * 提交一条登录日志（非阻塞）
+     *
+     * @return false 表示队列已满被丢弃
+     */
+    public boolean submit(LoginLog loginLog) {
+        if (loginLog.getCreatedAt() == null) {
+            loginLog.setCreatedAt(LocalDateTime.now());
+        }
+        updateSummary(loginLog);
+
+        if (!queue.offer(loginLog)) {
+            dropped.increment();
+            return false;
+        }
+        enqueued.increment();
+        return true;
+    }
+
+    /**
+     * 获取用户登录摘要，没有时返回 null
+     */
+    public LoginSummary getSummary(Long userId) {
+        return userId != null ? summaries.get(userId) : null;
+    }
+
+    private void updateSummary(LoginLog loginLog) {
+        // 失败次数由 LoginAttemptService 统计，摘要只记成功登录
+        if (loginLog.getUserId() == null || !Boolean.TRUE.equals(loginLog.getSuccess())) {
+            return;
+        }
+        if (summaries.size() >= maxSummaries && !summaries.containsKey(loginLog.getUserId())) {
+            summaries.clear();
+        }
+        LoginSummary summary = summaries.computeIfAbsent(loginLog.getUserId(), id -> new LoginSummary());
+        summary.recordSuccess(loginLog.getIpAddress(), loginLog.getCreatedAt());
+    }
+
+    private void runLoop() {
+        List<LoginLog> batch = new ArrayList<>(batchSize);
+        while (running || !queue.isEmpty()) {
+            try {
+                LoginLog first = queue.poll(1, TimeUnit.SECONDS);
+                if (first == null) {
+                    continue;
+                }
+                batch.add(first);
+                queue.drainTo(batch, batchSize - 1);
+                writeBatch(batch);
+            } catch (InterruptedException e) {
+                if (!running) {
+                    queue.drainTo(batch);
+                    writeBatch(batch);
+                    break;
+                }
+            } finally {
+                batch.clear();
+            }
+        }
+    }
+
+    private void writeBatch(List<LoginLog> batch) {
+        if (batch.isEmpty()) {
+            return;
+        }
+        try {
+            loginLogMapper.batchInsert(batch);
+            written.increment(batch.size());
+        } catch (Exception e) {
+            failed.increment(batch.size());
+            log.error("批量写入登录日志失败: count={}", batch.size(), e);
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() throws InterruptedException {
+        running = false;
+        if (writerThread != null) {
+            writerThread.interrupt();
+            writerThread.join(TimeUnit.SECONDS.toMillis(10));
+        }
+    }
+
+    /**
+     * 单个用户的登录摘要
+     */
+    public static class LoginSummary {
+
+        private volatile String lastSuccessIp;
+
+        private volatile LocalDateTime lastSuccessAt;
+
+        void recordSuccess(String ip, LocalDateTime at) {
+            this.lastSuccessIp = ip;
+            this.lastSuccessAt = at;
+        }
+
+        public String getLastSuccessIp() {
+            return lastSuccessIp;
+        }
+
+        public LocalDateTime getLastSuccessAt() {
+            return lastSuccessAt;
+        }
+    }
+}
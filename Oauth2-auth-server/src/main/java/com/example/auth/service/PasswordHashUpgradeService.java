@@ -0,0 +1,116 @@
+package com.example.auth.service;
+
+import com.example.auth.feign.UserServiceClient;
+import com.example.domain.vo.Result;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.security.crypto.password.PasswordEncoder;
+import org.springframework.stereotype.Service;
+
+import jakarta.annotation.PreDestroy;
+import java.nio.CharBuffer;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 登录时密码哈希升级
+ * 存储的 BCrypt 强度低于当前配置时，用本次登录的明文重新哈希并回写 User-server。
+ * 重新哈希在后台单线程中执行，不占用登录请求线程；同一用户同时只升级一次，
+ * 队列满时直接跳过，下次登录再升级。
+ * 排队中的明文只以 char[] 保存，哈希完成或任务被拒绝后立即清零。
+ * 回写按校验时读到的旧哈希比较并替换，期间密码被修改时不会覆盖。
+ *
+ * @author Junjie
+ * @date 2025-11-24
+ */
+@Slf4j
+@Service
+public class PasswordHashUpgradeService {
+
+    @Autowired
+    private PasswordEncoder passwordEncoder;
+
+    @Autowired
+    private UserServiceClient userServiceClient;
+
+    /** 正在升级的用户 */
+    private final Set<Long> pending = ConcurrentHashMap.newKeySet();
+
+    private final ThreadPoolExecutor executor;
+
+    public PasswordHashUpgradeService(@Value("${auth.password-upgrade.queue-capacity:16}") int queueCapacity) {
+        this.executor = new ThreadPoolExecutor(
+                1, 1, 0, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(queueCapacity),
+                r -> {
+                    Thread thread = new Thread(r, "password-upgrade");
+                    thread.setDaemon(true);
+                    return thread;
+                },
+                new ThreadPoolExecutor.AbortPolicy());
+    }
+
+    /**
+     * 存储的哈希需要升级时提交后台升级任务
+     *
+     * @param userId 用户ID
+     * @param storedHash 本次登录校验使用的哈希
+     * @param rawPassword 本次登录的明文密码，由本服务负责清零
+     */
+    public void upgradeIfNeeded(Long userId, String storedHash, char[] rawPassword) {
+        if (rawPassword == null) {
+            return;
+        }
+        if (userId == null || storedHash == null || !passwordEncoder.upgradeEncoding(storedHash)
+                || !pending.add(userId)) {
+            Arrays.fill(rawPassword, '\0');
+            return;
+        }
+        try {
+            executor.execute(() -> {
+                try {
+                    upgrade(userId, storedHash, rawPassword);
+                } finally {
+                    pending.remove(userId);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            pending.remove(userId);
+            Arrays.fill(rawPassword, '\0');
+            log.debug("密码哈希升级队列已满，跳过: userId={}", userId);
+        }
+    }
+
+    private void upgrade(Long userId, String storedHash, char[] rawPassword) {
+        try {
+            String newHash;
+            try {
+                newHash = passwordEncoder.encode(CharBuffer.wrap(rawPassword));
+            } finally {
+                Arrays.fill(rawPassword, '\0');
+            }
+            Result<Void> result = userServiceClient.upgradePasswordHash(userId,
+                    Map.of("oldHash", storedHash, "newHash", newHash));
+            if (result == null || !result.isSuccess()) {
+                log.warn("升级密码哈希失败: userId={}, result={}", userId, result);
+                return;
+            }
+            log.info("密码哈希已升级: userId={}", userId);
+        } catch (Exception e) {
+            // 包括哈希线程池繁忙，下次登录再升级
+            log.warn("升级密码哈希失败: userId={}, error={}", userId, e.getMessage());
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        executor.shutdown();
+    }
+}
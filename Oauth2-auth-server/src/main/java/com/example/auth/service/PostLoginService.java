@@ -0,0 +1,135 @@
+package com.example.auth.service;
+
+import com.example.auth.dto.DeviceInfo;
+import com.example.auth.feign.UserServiceClient;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.rocketmq.spring.core.RocketMQTemplate;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Service;
+
+import jakarta.annotation.PreDestroy;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 登录后置处理服务
+ * 登录风险评估、登录日志、更新最后登录时间、记录设备、发送 USER_EVENT:LOGIN 事件统一放到专用线程池异步执行，
+ * 登录请求线程签发 JWT 后即可返回，不再串行等待这些远程调用
+ *
+ * @author Junjie
+ * @date 2025-11-20
+ */
+@Slf4j
+@Service
+public class PostLoginService {
+
+    @Autowired
+    private UserServiceClient userServiceClient;
+
+    @Autowired
+    private DeviceService deviceService;
+
+    @Autowired
+    private RiskControlService riskControlService;
+
+    @Autowired
+    private LoginLogService loginLogService;
+
+    @Autowired(required = false)
+    private RocketMQTemplate rocketMQTemplate;
+
+    /**
+     * 有界线程池：队列满时由调用线程执行（退化为同步），保证登录副作用不丢失
+     */
+    private final ThreadPoolExecutor executor = new ThreadPoolExecutor(
+            4, 16, 60, TimeUnit.SECONDS,
+            new ArrayBlockingQueue<>(2000),
+            new NamedThreadFactory(),
+            new ThreadPoolExecutor.CallerRunsPolicy());
+
+    /**
+     * 提交登录后置任务
+     *
+     * @param userId 用户ID
+     * @param email 邮箱
+     * @param deviceInfo 设备信息（必须在请求线程中取出，ThreadLocal 不会传到线程池）
+     * @param ip 客户端IP
+     * @param userAgent User-Agent
+     */
+    public void afterLogin(Long userId, String email, DeviceInfo deviceInfo, String ip, String userAgent) {
+        executor.execute(() -> {
+            // 0. 登录风险评估（需在设备和登录日志落库前，基于上次成功登录比较），再记录本次登录日志
+            RiskControlService.LoginRisk risk = null;
+            try {
+                risk = riskControlService.assessLoginRisk(userId, ip, deviceInfo != null ? deviceInfo.getDeviceId() : null);
+            } catch (Exception e) {
+                log.error("登录风险评估失败: userId={}", userId, e);
+            }
+            loginLogService.recordLoginLog(userId, "password", true, ip, userAgent);
+
+            // 1. 更新最后登录时间
+            try {
+                userServiceClient.updateLastLoginTime(email);
+            } catch (Exception e) {
+                log.error("更新最后登录时间失败: email={}", email, e);
+            }
+
+            // 2. 记录设备信息
+            if (deviceInfo != null) {
+                try {
+                    deviceService.upsertDevice(userId, deviceInfo);
+                    log.info("登录设备已记录: userId={}, deviceId={}", userId, deviceInfo.getDeviceId());
+                } catch (Exception e) {
+                    log.error("记录登录设备失败: userId={}, deviceId={}", userId, deviceInfo.getDeviceId(), e);
+                }
+            }
+
+            // 3. 发送登录MQ事件
+            if (rocketMQTemplate != null) {
+                try {
+                    Map<String, Object> loginEvent = new HashMap<>();
+                    loginEvent.put("userId", userId);
+                    loginEvent.put("email", email);
+                    loginEvent.put("deviceId", deviceInfo != null ? deviceInfo.getDeviceId() : null);
+                    loginEvent.put("ip", ip);
+                    loginEvent.put("userAgent", userAgent);
+                    loginEvent.put("eventType", "LOGIN");
+                    if (risk != null) {
+                        loginEvent.put("riskScore", risk.score());
+                        loginEvent.put("riskReasons", risk.reasons());
+                        loginEvent.put("abnormal", riskControlService.isAbnormal(risk));
+                    }
+                    loginEvent.put("timestamp", System.currentTimeMillis());
+
+                    rocketMQTemplate.convertAndSend("USER_EVENT:LOGIN", loginEvent);
+                } catch (Exception e) {
+                    log.error("发送登录MQ事件失败: userId={}", userId, e);
+                }
+            }
+        });
+    }
+
+    @PreDestroy
+    public void shutdown() throws InterruptedException {
+        executor.shutdown();
+        if (!executor.awaitTermination(10, TimeUnit.SECONDS)) {
+            log.warn("登录后置任务未在关闭前全部完成: remaining={}", executor.getQueue().size());
+        }
+    }
+
+    private static class NamedThreadFactory implements ThreadFactory {
+        private final AtomicInteger counter = new AtomicInteger();
+
+        @Override
+        public Thread newThread(Runnable r) {
+            Thread thread = new Thread(r, "post-login-" + counter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }
+    }
+}
@@ -1,18 +1,24 @@
 package com.example.auth.service;
 
+import com.example.auth.mapper.UserDeviceMapper;
 import com.example.auth.mapper.UserPunishmentMapper;
 import com.example.auth.model.UserPunishment;
+import com.example.domain.model.LoginLog;
 import lombok.extern.slf4j.Slf4j;
 import org.apache.rocketmq.spring.core.RocketMQTemplate;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.data.redis.core.RedisTemplate;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
 
+import java.time.Duration;
 import java.time.LocalDateTime;
+import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Objects;
 import java.util.concurrent.TimeUnit;
 
 /**
@@ -37,6 +43,36 @@ public class RiskControlService {
     @Autowired(required = false)
     private RocketMQTemplate rocketMQTemplate;
     
+    @Autowired
+    private UserDeviceMapper deviceMapper;
+    
+    @Autowired
+    private LoginLogService loginLogService;
+    
+    @Autowired
+    private IpIntelligenceService ipIntelligenceService;
+    
+    /**
+     * 两次登录间换算速度超过该值（km/h）视为不可能的移动
+     */
+    @Value("${auth.risk.max-travel-speed-kmh:900}")
+    private double maxTravelSpeedKmh;
+    
+    /**
+     * 达到该分数的登录记为异常登录
+     */
+    @Value("${auth.risk.abnormal-login-score:60}")
+    private int abnormalLoginScore;
+    
+    /**
+     * 登录风险评估结果
+     *
+     * @param score 风险分（0-100）
+     * @param reasons 命中的规则
+     */
+    public record LoginRisk(int score, List<String> reasons) {
+    }
+    
     /**
      * 封禁用户
      * 
@@ -264,4 +300,72 @@ public class RiskControlService {
             UserPunishment.PunishmentType.BAN.name()
         );
     }
+    
+    /**
+     * 登录风险评估：与上次成功登录比较距离、设备是否新出现、移动速度
+     * 必须在本次登录的设备和日志落库之前调用
+     *
+     * @param userId 用户ID
+     * @param ip 本次登录IP
+     * @param deviceId 本次登录设备ID（可为null）
+     * @return 风险评估结果
+     */
+    public LoginRisk assessLoginRisk(Long userId, String ip, String deviceId) {
+        int score = 0;
+        List<String> reasons = new ArrayList<>(4);
+        
+        // 1. 设备新颖度
+        if (deviceId != null && deviceMapper.findByUserIdAndDeviceId(userId, deviceId) == null) {
+            score += 20;
+            reasons.add("NEW_DEVICE");
+        }
+        
+        LoginLog lastLogin = loginLogService.getLastSuccessLogin(userId);
+        if (lastLogin == null || lastLogin.getIpAddress() == null) {
+            // 首次登录，没有可比较的位置
+            return new LoginRisk(score, reasons);
+        }
+        
+        int lastLoc = ipIntelligenceService.lookup(lastLogin.getIpAddress());
+        int currentLoc = ipIntelligenceService.lookup(ip);
+        // 任一方不在地址库中（库缺失或未覆盖）视为没有位置信号，不计分
+        if (currentLoc != IpIntelligenceService.UNKNOWN && lastLoc != IpIntelligenceService.UNKNOWN) {
+            // 2. 距离：每 250km 加 1 分，最多 40 分；跨国再加 10 分
+            double distanceKm = ipIntelligenceService.distanceKm(lastLoc, currentLoc);
+            if (distanceKm > 0) {
+                score += (int) Math.min(40, distanceKm / 250);
+                if (distanceKm >= 250) {
+                    reasons.add("DISTANCE_" + Math.round(distanceKm) + "KM");
+                }
+            }
+            if (!Objects.equals(ipIntelligenceService.country(lastLoc), ipIntelligenceService.country(currentLoc))) {
+                score += 10;
+                reasons.add("COUNTRY_CHANGED");
+            }
+            
+            // 3. 速度：两次登录之间不可能完成的移动
+            if (distanceKm > 0 && lastLogin.getCreatedAt() != null) {
+                double hours = Math.max(Duration.between(lastLogin.getCreatedAt(), LocalDateTime.now()).toMillis(), 60_000L)
+                    / 3_600_000.0;
+                if (distanceKm / hours > maxTravelSpeedKmh) {
+                    score += 30;
+                    reasons.add("IMPOSSIBLE_TRAVEL");
+                }
+            }
+        }
+        
+        score = Math.min(score, 100);
+        if (score >= abnormalLoginScore) {
+            log.warn("异常登录: userId={}, ip={}, deviceId={}, score={}, reasons={}", 
+                userId, ip, deviceId, score, reasons);
+        }
+        return new LoginRisk(score, reasons);
+    }
+    
+    /**
+     * 风险分是否达到异常登录阈值
+     */
+    public boolean isAbnormal(LoginRisk risk) {
+        return risk.score() >= abnormalLoginScore;
+    }
 }
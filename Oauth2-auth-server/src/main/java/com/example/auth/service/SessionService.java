@@ -3,34 +3,36 @@ package com.example.auth.service;
 import com.baomidou.mybatisplus.core.conditions.query.QueryWrapper;
 import com.example.domain.model.UserSession;
 import com.example.auth.mapper.UserSessionMapper;
+import com.example.auth.util.ClientIpResolver;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Autowired;
-import org.springframework.data.redis.core.RedisTemplate;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
 
 import jakarta.servlet.http.HttpServletRequest;
 import java.time.LocalDateTime;
 import java.util.*;
-import java.util.concurrent.TimeUnit;
 
 /**
  * 会话管理服务
  * 处理用户会话的创建、验证、更新和清理
+ * 会话缓存、滑动续期和访问时间写回由 SessionStore 负责
  */
 @Slf4j
 @Service
 public class SessionService {
     
-    private static final String SESSION_KEY_PREFIX = "session:";
     private static final long SESSION_TIMEOUT_HOURS = 24;
     private static final int MAX_SESSIONS_PER_USER = 5;
     
     @Autowired
     private UserSessionMapper sessionMapper;
+
+    @Autowired
+    private ClientIpResolver clientIpResolver;
     
     @Autowired
-    private RedisTemplate<String, Object> redisTemplate;
+    private SessionStore sessionStore;
     
     /**
      * 创建新会话
@@ -42,7 +44,7 @@ public class SessionService {
             String sessionId = UUID.randomUUID().toString();
             
             // 获取设备信息
-            String ipAddress = getClientIp(request);
+            String ipAddress = clientIpResolver.resolve(request);
             String userAgent = request.getHeader("User-Agent");
             String deviceId = request.getHeader("X-Device-Id");
             String deviceType = parseDeviceType(userAgent);
@@ -70,7 +72,7 @@ public class SessionService {
             sessionMapper.insert(session);
             
             // 缓存到Redis
-            cacheSession(session);
+            sessionStore.save(session);
             
             // 检查并清理多余的会话
             cleanupExcessSessions(userId);
@@ -90,24 +92,19 @@ public class SessionService {
      */
     public boolean validateSession(String sessionId) {
         try {
-            // 先从Redis查询
-            UserSession session = getCachedSession(sessionId);
-            
-            if (session == null) {
-                // Redis中没有，从数据库查询
-                session = sessionMapper.selectById(sessionId);
-                if (session != null && session.isActive()) {
-                    // 重新缓存
-                    cacheSession(session);
-                }
+            // 近端缓存命中，直接记录访问
+            if (sessionStore.isRecentlyValidated(sessionId)) {
+                sessionStore.touch(sessionId);
+                return true;
             }
             
+            UserSession session = getSession(sessionId);
             if (session == null || !session.isActive()) {
                 return false;
             }
             
-            // 更新最后访问时间
-            updateLastAccessTime(sessionId);
+            // 更新最后访问时间（合并后批量写回）
+            sessionStore.touch(sessionId);
             
             return true;
         } catch (Exception e) {
@@ -122,13 +119,13 @@ public class SessionService {
     public UserSession getSession(String sessionId) {
         try {
             // 先从Redis查询
-            UserSession session = getCachedSession(sessionId);
+            UserSession session = sessionStore.get(sessionId);
             
             if (session == null) {
                 // 从数据库查询
                 session = sessionMapper.selectById(sessionId);
                 if (session != null && session.isActive()) {
-                    cacheSession(session);
+                    sessionStore.save(session);
                 }
             }
             
@@ -149,7 +146,7 @@ public class SessionService {
             sessionMapper.deleteById(sessionId);
             
             // 删除Redis缓存
-            redisTemplate.delete(SESSION_KEY_PREFIX + sessionId);
+            sessionStore.evict(Collections.singletonList(sessionId));
             
             log.info("销毁会话成功: sessionId={}", sessionId);
         } catch (Exception e) {
@@ -164,22 +161,18 @@ public class SessionService {
     public void destroyUserSessions(Long userId) {
         try {
             // 查询用户的所有会话
-            List<UserSession> sessions = sessionMapper.selectList(
-                new QueryWrapper<UserSession>().eq("user_id", userId)
-            );
+            List<String> sessionIds = sessionMapper.selectIdsByUserId(userId);
             
             // 删除数据库记录
             sessionMapper.delete(
                 new QueryWrapper<UserSession>().eq("user_id", userId)
             );
             
-            // 删除Redis缓存
-            for (UserSession session : sessions) {
-                redisTemplate.delete(SESSION_KEY_PREFIX + session.getId());
-            }
+            // 删除Redis缓存（管道批量删除）
+            sessionStore.evict(sessionIds);
             
             log.info("销毁用户所有会话成功: userId={}, count={}", 
-                userId, sessions.size());
+                userId, sessionIds.size());
         } catch (Exception e) {
             log.error("销毁用户会话失败: userId={}", userId, e);
         }
@@ -202,24 +195,6 @@ public class SessionService {
         }
     }
     
-    /**
-     * 更新最后访问时间
-     */
-    private void updateLastAccessTime(String sessionId) {
-        try {
-            sessionMapper.updateLastAccessTime(sessionId);
-            
-            // 更新Redis缓存
-            UserSession session = getCachedSession(sessionId);
-            if (session != null) {
-                session.setLastAccessedAt(LocalDateTime.now());
-                cacheSession(session);
-            }
-        } catch (Exception e) {
-            log.error("更新会话访问时间失败: sessionId={}", sessionId, e);
-        }
-    }
-    
     /**
      * 清理过期会话
      */
@@ -227,27 +202,19 @@ public class SessionService {
     public void cleanupExpiredSessions() {
         try {
             // 查询过期会话
-            List<UserSession> expiredSessions = sessionMapper.selectList(
-                new QueryWrapper<UserSession>()
-                    .lt("expires_at", LocalDateTime.now())
-            );
+            List<String> expiredIds = sessionMapper.selectExpiredIds();
             
-            if (expiredSessions.isEmpty()) {
+            if (expiredIds.isEmpty()) {
                 return;
             }
             
             // 删除数据库记录
-            sessionMapper.delete(
-                new QueryWrapper<UserSession>()
-                    .lt("expires_at", LocalDateTime.now())
-            );
+            sessionMapper.deleteExpiredSessions();
             
-            // 删除Redis缓存
-            for (UserSession session : expiredSessions) {
-                redisTemplate.delete(SESSION_KEY_PREFIX + session.getId());
-            }
+            // 删除Redis缓存（管道批量删除）
+            sessionStore.evict(expiredIds);
             
-            log.info("清理过期会话成功: count={}", expiredSessions.size());
+            log.info("清理过期会话成功: count={}", expiredIds.size());
         } catch (Exception e) {
             log.error("清理过期会话失败", e);
         }
@@ -276,39 +243,6 @@ public class SessionService {
         }
     }
     
-    /**
-     * 缓存会话到Redis
-     */
-    private void cacheSession(UserSession session) {
-        String key = SESSION_KEY_PREFIX + session.getId();
-        redisTemplate.opsForValue().set(key, session, SESSION_TIMEOUT_HOURS, TimeUnit.HOURS);
-    }
-    
-    /**
-     * 从Redis获取会话
-     */
-    private UserSession getCachedSession(String sessionId) {
-        String key = SESSION_KEY_PREFIX + sessionId;
-        return (UserSession) redisTemplate.opsForValue().get(key);
-    }
-    
-    /**
-     * 获取客户端IP
-     */
-    private String getClientIp(HttpServletRequest request) {
-        String ip = request.getHeader("X-Forwarded-For");
-        if (ip == null || ip.isEmpty() || "unknown".equalsIgnoreCase(ip)) {
-            ip = request.getHeader("X-Real-IP");
-        }
-        if (ip == null || ip.isEmpty() || "unknown".equalsIgnoreCase(ip)) {
-            ip = request.getRemoteAddr();
-        }
-        if (ip != null && ip.contains(",")) {
-            ip = ip.split(",")[0].trim();
-        }
-        return ip;
-    }
-    
     /**
      * 解析设备类型
      */
@@ -0,0 +1,264 @@
+package com.example.auth.service;
+
+import com.example.auth.mapper.UserSessionMapper;
+import com.example.domain.model.UserSession;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.connection.RedisCallback;
+import org.springframework.data.redis.connection.ReturnType;
+import org.springframework.data.redis.connection.StringRedisConnection;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import jakarta.annotation.PreDestroy;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 会话存储
+ * 1. Redis 中以紧凑 Hash（session:{id}）保存会话，按最后访问时间滑动续期
+ * 2. 最后访问时间先在内存中合并，定时批量写回 Redis 和 user_sessions 表（write-behind）
+ * 3. 本地近端缓存短时间内已验证过的会话ID，热点会话的验证不访问 Redis
+ * 注意：Hash 中不保存 sessionData，需要完整会话数据时以数据库为准
+ */
+@Slf4j
+@Component
+public class SessionStore {
+
+    private static final String SESSION_KEY_PREFIX = "session:";
+    private static final int DB_BATCH_SIZE = 500;
+    private static final int NEAR_CACHE_MAX_SIZE = 10000;
+
+    /**
+     * 续期脚本：只续期仍存在的会话，避免把已删除会话写成残缺 Hash
+     */
+    private static final String TOUCH_SCRIPT =
+            "if redis.call('EXISTS', KEYS[1]) == 1 then " +
+            "redis.call('HSET', KEYS[1], 'la', ARGV[1], 'e', ARGV[2]) " +
+            "redis.call('PEXPIRE', KEYS[1], ARGV[3]) " +
+            "return 1 end " +
+            "return 0";
+
+    private static final String F_USER_ID = "uid";
+    private static final String F_IP = "ip";
+    private static final String F_USER_AGENT = "ua";
+    private static final String F_DEVICE_ID = "did";
+    private static final String F_DEVICE_TYPE = "dt";
+    private static final String F_CREATED_AT = "c";
+    private static final String F_LAST_ACCESSED_AT = "la";
+    private static final String F_EXPIRES_AT = "e";
+
+    @Autowired
+    private StringRedisTemplate stringRedisTemplate;
+
+    @Autowired
+    private UserSessionMapper sessionMapper;
+
+    /** 会话空闲超时（滑动过期） */
+    @Value("${auth.session.timeout-hours:24}")
+    private long timeoutHours;
+
+    /** 近端缓存有效期 */
+    @Value("${auth.session.near-cache-ttl-ms:5000}")
+    private long nearCacheTtlMs;
+
+    /** 待写回的最后访问时间：sessionId -> epochMillis */
+    private final Map<String, Long> pendingAccess = new ConcurrentHashMap<>();
+
+    /** 近端缓存：sessionId -> 本地有效截止时间 */
+    private final Map<String, Long> validated = new ConcurrentHashMap<>();
+
+    /**
+     * 保存会话
+     */
+    public void save(UserSession session) {
+        String key = SESSION_KEY_PREFIX + session.getId();
+        Map<String, String> hash = new HashMap<>();
+        hash.put(F_USER_ID, String.valueOf(session.getUserId()));
+        putIfNotNull(hash, F_IP, session.getIpAddress());
+        putIfNotNull(hash, F_USER_AGENT, session.getUserAgent());
+        putIfNotNull(hash, F_DEVICE_ID, session.getDeviceId());
+        putIfNotNull(hash, F_DEVICE_TYPE, session.getDeviceType());
+        putIfNotNull(hash, F_CREATED_AT, toMillis(session.getCreatedAt()));
+        putIfNotNull(hash, F_LAST_ACCESSED_AT, toMillis(session.getLastAccessedAt()));
+        putIfNotNull(hash, F_EXPIRES_AT, toMillis(session.getExpiresAt()));
+
+        long ttlMs = ttlMillis(session.getExpiresAt());
+        if (ttlMs <= 0) {
+            return;
+        }
+        stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            StringRedisConnection conn = (StringRedisConnection) connection;
+            conn.hMSet(key, hash);
+            conn.pExpire(key, ttlMs);
+            return null;
+        });
+    }
+
+    /**
+     * 读取会话（Redis 未命中返回 null）
+     */
+    public UserSession get(String sessionId) {
+        Map<Object, Object> hash = stringRedisTemplate.opsForHash().entries(SESSION_KEY_PREFIX + sessionId);
+        if (hash.isEmpty()) {
+            return null;
+        }
+        UserSession session = new UserSession();
+        session.setId(sessionId);
+        session.setUserId(Long.valueOf((String) hash.get(F_USER_ID)));
+        session.setIpAddress((String) hash.get(F_IP));
+        session.setUserAgent((String) hash.get(F_USER_AGENT));
+        session.setDeviceId((String) hash.get(F_DEVICE_ID));
+        session.setDeviceType((String) hash.get(F_DEVICE_TYPE));
+        session.setCreatedAt(fromMillis((String) hash.get(F_CREATED_AT)));
+        session.setLastAccessedAt(fromMillis((String) hash.get(F_LAST_ACCESSED_AT)));
+        session.setExpiresAt(fromMillis((String) hash.get(F_EXPIRES_AT)));
+
+        // 尚未写回的访问时间以内存为准
+        Long pending = pendingAccess.get(sessionId);
+        if (pending != null) {
+            session.setLastAccessedAt(fromMillis(pending));
+            session.setExpiresAt(fromMillis(pending + TimeUnit.HOURS.toMillis(timeoutHours)));
+        }
+        return session;
+    }
+
+    /**
+     * 近端缓存中是否已有有效记录
+     */
+    public boolean isRecentlyValidated(String sessionId) {
+        Long until = validated.get(sessionId);
+        if (until == null) {
+            return false;
+        }
+        if (until < System.currentTimeMillis()) {
+            validated.remove(sessionId, until);
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * 记录一次访问：写入近端缓存，访问时间留待批量写回
+     */
+    public void touch(String sessionId) {
+        long now = System.currentTimeMillis();
+        pendingAccess.put(sessionId, now);
+        if (validated.size() >= NEAR_CACHE_MAX_SIZE) {
+            validated.clear();
+        }
+        validated.put(sessionId, now + nearCacheTtlMs);
+    }
+
+    /**
+     * 删除会话（管道批量 DEL）
+     */
+    public void evict(Collection<String> sessionIds) {
+        if (sessionIds.isEmpty()) {
+            return;
+        }
+        for (String sessionId : sessionIds) {
+            validated.remove(sessionId);
+            pendingAccess.remove(sessionId);
+        }
+        stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            StringRedisConnection conn = (StringRedisConnection) connection;
+            for (String sessionId : sessionIds) {
+                conn.del(SESSION_KEY_PREFIX + sessionId);
+            }
+            return null;
+        });
+    }
+
+    /**
+     * 批量写回最后访问时间，并滑动续期 Redis TTL
+     */
+    @Scheduled(fixedDelayString = "${auth.session.flush-interval-ms:5000}")
+    public void flush() {
+        if (pendingAccess.isEmpty()) {
+            return;
+        }
+        long timeoutMs = TimeUnit.HOURS.toMillis(timeoutHours);
+        List<UserSession> batch = new ArrayList<>();
+        for (String sessionId : pendingAccess.keySet()) {
+            Long accessedAt = pendingAccess.remove(sessionId);
+            if (accessedAt == null) {
+                continue;
+            }
+            UserSession session = new UserSession();
+            session.setId(sessionId);
+            session.setLastAccessedAt(fromMillis(accessedAt));
+            session.setExpiresAt(fromMillis(accessedAt + timeoutMs));
+            batch.add(session);
+        }
+        if (batch.isEmpty()) {
+            return;
+        }
+
+        try {
+            stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+                StringRedisConnection conn = (StringRedisConnection) connection;
+                for (UserSession session : batch) {
+                    conn.eval(TOUCH_SCRIPT, ReturnType.INTEGER, 1,
+                            SESSION_KEY_PREFIX + session.getId(),
+                            String.valueOf(toMillis(session.getLastAccessedAt())),
+                            String.valueOf(toMillis(session.getExpiresAt())),
+                            String.valueOf(timeoutMs));
+                }
+                return null;
+            });
+        } catch (Exception e) {
+            log.error("会话续期写回Redis失败: count={}", batch.size(), e);
+        }
+
+        for (int i = 0; i < batch.size(); i += DB_BATCH_SIZE) {
+            List<UserSession> chunk = batch.subList(i, Math.min(i + DB_BATCH_SIZE, batch.size()));
+            try {
+                sessionMapper.batchTouch(chunk);
+            } catch (Exception e) {
+                log.error("会话访问时间写回数据库失败: count={}", chunk.size(), e);
+            }
+        }
+        log.debug("会话访问时间批量写回: count={}", batch.size());
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        flush();
+    }
+
+    private long ttlMillis(LocalDateTime expiresAt) {
+        if (expiresAt == null) {
+            return TimeUnit.HOURS.toMillis(timeoutHours);
+        }
+        return expiresAt.atZone(ZoneId.systemDefault()).toInstant().toEpochMilli() - System.currentTimeMillis();
+    }
+
+    private static void putIfNotNull(Map<String, String> hash, String field, Object value) {
+        if (value != null) {
+            hash.put(field, value.toString());
+        }
+    }
+
+    private static Long toMillis(LocalDateTime time) {
+        return time != null ? time.atZone(ZoneId.systemDefault()).toInstant().toEpochMilli() : null;
+    }
+
+    private static LocalDateTime fromMillis(String millis) {
+        return millis != null ? fromMillis(Long.parseLong(millis)) : null;
+    }
+
+    private static LocalDateTime fromMillis(long millis) {
+        return LocalDateTime.ofInstant(Instant.ofEpochMilli(millis), ZoneId.systemDefault());
+    }
+}
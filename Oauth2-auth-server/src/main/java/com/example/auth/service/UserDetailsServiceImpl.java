@@ -3,6 +3,7 @@ package com.example.auth.service;
 import com.example.domain.dto.UserDetailsDTO;
 import com.example.domain.vo.Result;
 import com.example.auth.feign.UserServiceClient;
+import com.example.auth.model.LoginUser;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.security.core.GrantedAuthority;
@@ -106,10 +107,7 @@ public class UserDetailsServiceImpl implements UserDetailsService {
         log.info("构建 Spring Security UserDetails: loginUsername={}", loginUsername);
         log.info("======== 用户详情加载完成，准备进行密码验证 ========");
         
-        return org.springframework.security.core.userdetails.User.builder()
-                .username(loginUsername)
-                .password(userDetails.getPasswordHash())
-                .authorities(authorities)
-                .build();
+        // 携带 UserDetailsDTO，供 LoginSuccessHandler 直接使用
+        return new LoginUser(userDetails, loginUsername, userDetails.getPasswordHash(), authorities);
     }
 }
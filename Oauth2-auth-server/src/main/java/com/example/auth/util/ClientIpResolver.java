@@ -0,0 +1,120 @@
+package com.example.auth.util;
+
+import com.google.common.net.InetAddresses;
+import jakarta.servlet.http.HttpServletRequest;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 客户端IP解析
+ * X-Forwarded-For / X-Real-IP 可被客户端伪造，只在直连方是可信代理（网关、负载均衡）时采信：
+ * 从 X-Forwarded-For 右侧向左跳过可信代理，第一个不可信的地址即为客户端IP；
+ * 直连方不可信时直接使用 remoteAddr。
+ */
+@Slf4j
+@Component
+public class ClientIpResolver {
+
+    private final List<Cidr> trustedProxies = new ArrayList<>();
+
+    public ClientIpResolver(@Value("${auth.trusted-proxies:127.0.0.1/32,::1/128,10.0.0.0/8,172.16.0.0/12,192.168.0.0/16}")
+                            List<String> trustedProxies) {
+        for (String cidr : trustedProxies) {
+            Cidr parsed = Cidr.parse(cidr.trim());
+            if (parsed != null) {
+                this.trustedProxies.add(parsed);
+            } else {
+                log.warn("忽略无效的可信代理配置: {}", cidr);
+            }
+        }
+    }
+
+    public String resolve(HttpServletRequest request) {
+        String remote = request.getRemoteAddr();
+        if (!isTrusted(remote)) {
+            return remote;
+        }
+        String forwarded = request.getHeader("X-Forwarded-For");
+        if (forwarded != null && !forwarded.isBlank()) {
+            String[] hops = forwarded.split(",");
+            for (int i = hops.length - 1; i >= 0; i--) {
+                String hop = hops[i].trim();
+                if (parseLiteral(hop) == null) {
+                    // 无法解析的一跳之前的内容都不可信
+                    return remote;
+                }
+                if (!isTrusted(hop)) {
+                    return hop;
+                }
+            }
+            return hops[0].trim();
+        }
+        String realIp = request.getHeader("X-Real-IP");
+        if (realIp != null && parseLiteral(realIp.trim()) != null) {
+            return realIp.trim();
+        }
+        return remote;
+    }
+
+    private boolean isTrusted(String ip) {
+        byte[] address = parseLiteral(ip);
+        if (address == null) {
+            return false;
+        }
+        for (Cidr cidr : trustedProxies) {
+            if (cidr.contains(address)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * 只解析严格的 IPv4/IPv6 字面量，不会把请求头中的主机名交给 DNS
+     */
+    private static byte[] parseLiteral(String ip) {
+        if (ip == null || ip.isEmpty() || !InetAddresses.isInetAddress(ip)) {
+            return null;
+        }
+        return InetAddresses.forString(ip).getAddress();
+    }
+
+    private record Cidr(byte[] network, int prefix) {
+
+        static Cidr parse(String value) {
+            int slash = value.indexOf('/');
+            byte[] network = parseLiteral(slash < 0 ? value : value.substring(0, slash));
+            if (network == null) {
+                return null;
+            }
+            try {
+                int prefix = slash < 0 ? network.length * 8 : Integer.parseInt(value.substring(slash + 1));
+                return prefix >= 0 && prefix <= network.length * 8 ? new Cidr(network, prefix) : null;
+            } catch (NumberFormatException e) {
+                return null;
+            }
+        }
+
+        boolean contains(byte[] address) {
+            if (address.length != network.length) {
+                return false;
+            }
+            int full = prefix / 8;
+            for (int i = 0; i < full; i++) {
+                if (address[i] != network[i]) {
+                    return false;
+                }
+            }
+            int rest = prefix % 8;
+            if (rest == 0) {
+                return true;
+            }
+            int mask = 0xFF << (8 - rest);
+            return (address[full] & mask) == (network[full] & mask);
+        }
+    }
+}
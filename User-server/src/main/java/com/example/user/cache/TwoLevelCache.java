@@ -0,0 +1,130 @@
+package com.example.user.cache;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.cache.support.AbstractValueAdaptingCache;
+
+import java.util.concurrent.Callable;
+
+/**
+ * 两级缓存
+ * L1 为本进程 Caffeine（有容量上限和较短 TTL），L2 为 Redis。
+ * 读：先查 L1，未命中查 L2 并回填 L1；写/删：先写 L2，再更新本地 L1，并广播失效消息让其他副本丢弃 L1。
+ * 本地 key 统一转成字符串，与 Redis key 及失效消息中的 key 保持一致。
+ *
+ * @author Junjie
+ * @date 2025-11-22
+ */
+@Slf4j
+public class TwoLevelCache extends AbstractValueAdaptingCache {
+
+    private final String name;
+
+    private final Cache<String, Object> local;
+
+    private final org.springframework.cache.Cache remote;
+
+    private final TwoLevelCacheManager.InvalidationPublisher publisher;
+
+    public TwoLevelCache(String name, Cache<String, Object> local,
+                         org.springframework.cache.Cache remote,
+                         TwoLevelCacheManager.InvalidationPublisher publisher) {
+        // Redis 侧不缓存 null，两级保持一致
+        super(false);
+        this.name = name;
+        this.local = local;
+        this.remote = remote;
+        this.publisher = publisher;
+    }
+
+    @Override
+    public String getName() {
+        return name;
+    }
+
+    @Override
+    public Object getNativeCache() {
+        return local;
+    }
+
+    @Override
+    protected Object lookup(Object key) {
+        String localKey = localKey(key);
+        Object value = local.getIfPresent(localKey);
+        if (value != null) {
+            return value;
+        }
+        ValueWrapper wrapper = remote.get(key);
+        if (wrapper == null || wrapper.get() == null) {
+            return null;
+        }
+        value = wrapper.get();
+        local.put(localKey, value);
+        return value;
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public <T> T get(Object key, Callable<T> valueLoader) {
+        // 同一 key 的并发加载在本进程内合并为一次
+        return (T) fromStoreValue(local.get(localKey(key), k -> {
+            ValueWrapper wrapper = remote.get(key);
+            if (wrapper != null && wrapper.get() != null) {
+                return wrapper.get();
+            }
+            try {
+                T loaded = valueLoader.call();
+                if (loaded != null) {
+                    remote.put(key, loaded);
+                }
+                return loaded;
+            } catch (Exception e) {
+                throw new ValueRetrievalException(key, valueLoader, e);
+            }
+        }));
+    }
+
+    @Override
+    public void put(Object key, Object value) {
+        if (value == null) {
+            evict(key);
+            return;
+        }
+        remote.put(key, value);
+        String localKey = localKey(key);
+        local.put(localKey, value);
+        publisher.publish(name, localKey);
+    }
+
+    @Override
+    public void evict(Object key) {
+        remote.evict(key);
+        String localKey = localKey(key);
+        local.invalidate(localKey);
+        publisher.publish(name, localKey);
+    }
+
+    @Override
+    public void clear() {
+        remote.clear();
+        local.invalidateAll();
+        publisher.publish(name, null);
+    }
+
+    /**
+     * 处理其他副本广播的失效消息，只清本地 L1
+     *
+     * @param key 失效的 key，null 表示清空整个缓存
+     */
+    void invalidateLocal(String key) {
+        if (key == null) {
+            local.invalidateAll();
+        } else {
+            local.invalidate(key);
+        }
+    }
+
+    private static String localKey(Object key) {
+        return key.toString();
+    }
+}
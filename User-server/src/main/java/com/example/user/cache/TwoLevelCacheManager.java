@@ -0,0 +1,127 @@
+package com.example.user.cache;
+
+import com.github.benmanes.caffeine.cache.Caffeine;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.cache.Cache;
+import org.springframework.cache.transaction.AbstractTransactionSupportingCacheManager;
+import org.springframework.cache.transaction.TransactionAwareCacheDecorator;
+import org.springframework.data.redis.cache.RedisCacheManager;
+import org.springframework.data.redis.connection.Message;
+import org.springframework.data.redis.connection.MessageListener;
+import org.springframework.data.redis.core.StringRedisTemplate;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Map;
+import java.util.UUID;
+
+/**
+ * 两级缓存管理器（Caffeine L1 + Redis L2）
+ * 每个缓存名按需创建 TwoLevelCache，L2 复用 RedisCacheManager 中按名字配置的 TTL。
+ * 失效消息通过 Redis Pub/Sub 广播，格式：实例ID \n 缓存名 \n key（key 为空表示清空），
+ * 本实例发出的消息在收到时忽略。
+ *
+ * @author Junjie
+ * @date 2025-11-22
+ */
+@Slf4j
+public class TwoLevelCacheManager extends AbstractTransactionSupportingCacheManager implements MessageListener {
+
+    /**
+     * L1 失效广播频道
+     */
+    public static final String INVALIDATION_CHANNEL = "user:cache:invalidate";
+
+    private final String instanceId = UUID.randomUUID().toString();
+
+    private final RedisCacheManager redisCacheManager;
+
+    private final StringRedisTemplate stringRedisTemplate;
+
+    private final long defaultLocalMaxSize;
+
+    private final Duration localTtl;
+
+    private final Map<String, Long> localMaxSizes;
+
+    /**
+     * @param redisCacheManager L2 缓存管理器（不开启事务感知，由本管理器统一包装）
+     * @param stringRedisTemplate 用于发布失效消息
+     * @param defaultLocalMaxSize L1 默认最大条目数
+     * @param localTtl L1 写入后过期时间，作为失效消息丢失时的兜底
+     * @param localMaxSizes 按缓存名覆盖的 L1 最大条目数
+     */
+    public TwoLevelCacheManager(RedisCacheManager redisCacheManager, StringRedisTemplate stringRedisTemplate,
+                                long defaultLocalMaxSize, Duration localTtl, Map<String, Long> localMaxSizes) {
+        this.redisCacheManager = redisCacheManager;
+        this.stringRedisTemplate = stringRedisTemplate;
+        this.defaultLocalMaxSize = defaultLocalMaxSize;
+        this.localTtl = localTtl;
+        this.localMaxSizes = localMaxSizes;
+    }
+
+    @Override
+    protected Collection<? extends Cache> loadCaches() {
+        return Collections.emptyList();
+    }
+
+    @Override
+    protected Cache getMissingCache(String name) {
+        Cache remote = redisCacheManager.getCache(name);
+        if (remote == null) {
+            return null;
+        }
+        com.github.benmanes.caffeine.cache.Cache<String, Object> local = Caffeine.newBuilder()
+            .maximumSize(localMaxSizes.getOrDefault(name, defaultLocalMaxSize))
+            .expireAfterWrite(localTtl)
+            .build();
+        return new TwoLevelCache(name, local, remote, this::publish);
+    }
+
+    /**
+     * 广播失效消息，发布失败只记录日志（L1 TTL 兜底）
+     */
+    private void publish(String cacheName, String key) {
+        try {
+            stringRedisTemplate.convertAndSend(INVALIDATION_CHANNEL,
+                instanceId + "\n" + cacheName + "\n" + (key != null ? key : ""));
+        } catch (Exception e) {
+            log.warn("发布缓存失效消息失败: cache={}, key={}, error={}", cacheName, key, e.getMessage());
+        }
+    }
+
+    @Override
+    public void onMessage(Message message, byte[] pattern) {
+        String body = new String(message.getBody(), StandardCharsets.UTF_8);
+        int first = body.indexOf('\n');
+        int second = first < 0 ? -1 : body.indexOf('\n', first + 1);
+        if (second < 0) {
+            log.warn("无效的缓存失效消息: {}", body);
+            return;
+        }
+        if (body.regionMatches(0, instanceId, 0, first) && first == instanceId.length()) {
+            return;
+        }
+        String cacheName = body.substring(first + 1, second);
+        String key = second + 1 < body.length() ? body.substring(second + 1) : null;
+
+        // 只处理本实例已创建的缓存，未创建说明本地没有 L1 数据
+        Cache cache = lookupCache(cacheName);
+        if (cache instanceof TransactionAwareCacheDecorator decorated) {
+            cache = decorated.getTargetCache();
+        }
+        if (cache instanceof TwoLevelCache twoLevelCache) {
+            twoLevelCache.invalidateLocal(key);
+        }
+    }
+
+    /**
+     * 发布失效消息的回调
+     */
+    @FunctionalInterface
+    interface InvalidationPublisher {
+        void publish(String cacheName, String key);
+    }
+}
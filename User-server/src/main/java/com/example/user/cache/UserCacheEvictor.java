@@ -0,0 +1,61 @@
+package com.example.user.cache;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.cache.Cache;
+import org.springframework.cache.CacheManager;
+import org.springframework.stereotype.Component;
+
+/**
+ * 按用户清除 userDetails 缓存
+ * userDetails 以 email、id:{userId}、username:{username} 三种 key 缓存同一用户，
+ * 用户变更时逐个 key 清除，不再 allEntries 清空所有用户。
+ * 通过 CacheManager 清除，两级缓存会同时广播 L1 失效。
+ *
+ * @author Junjie
+ * @date 2025-11-22
+ */
+@Slf4j
+@Component
+public class UserCacheEvictor {
+
+    public static final String USER_DETAILS = "userDetails";
+
+    public static final String USER_CARD = "userCard";
+
+    @Autowired
+    private CacheManager cacheManager;
+
+    /**
+     * 清除一个用户的全部 userDetails 缓存
+     *
+     * @param userId 用户ID（可为null）
+     * @param email 邮箱（可为null）
+     * @param username 用户名（可为null）
+     */
+    public void evictUserDetails(Long userId, String email, String username) {
+        try {
+            Cache cache = cacheManager.getCache(USER_DETAILS);
+            if (cache == null) {
+                return;
+            }
+            if (email != null) {
+                cache.evict(email);
+            }
+            if (userId != null) {
+                cache.evict("id:" + userId);
+            }
+            if (username != null) {
+                cache.evict("username:" + username);
+            }
+            // 名片的昵称可能回退为用户名，一并清除
+            Cache cardCache = userId != null ? cacheManager.getCache(USER_CARD) : null;
+            if (cardCache != null) {
+                cardCache.evict(userId);
+            }
+            log.info("清除用户缓存: userId={}, email={}, username={}", userId, email, username);
+        } catch (Exception e) {
+            log.warn("清除用户缓存失败: userId={}, email={}, error={}", userId, email, e.getMessage());
+        }
+    }
+}
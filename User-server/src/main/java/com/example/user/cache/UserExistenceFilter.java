@@ -0,0 +1,235 @@
+package com.example.user.cache;
+
+import com.example.user.mapper.UserMapper;
+import com.google.common.hash.BloomFilter;
+import com.google.common.hash.Funnels;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.scheduling.annotation.Async;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * 注册可用性过滤器
+ * 对已存在的邮箱和用户名各维护一个可扩容布隆过滤器：
+ * mightContain 为 false 时一定不存在，直接返回可用，不查库；为 true 时由调用方查库确认。
+ * 启动时及每天定时从数据库流式构建，增量加入只有两个入口（布隆过滤器不支持删除，删除用户只会多一次查库）：
+ * 本副本 createUser 提交后 addAfterCommit，其他副本及 Gitee 登录建号经 UserChangedEvent 调用 add。
+ * 增量加入与构建切换互斥，构建期间的新增同时写入新旧过滤器，切换时不丢。
+ * 构建完成前 isReady 为 false，调用方应直接查库。
+ *
+ * @author Junjie
+ * @date 2025-11-23
+ */
+@Slf4j
+@Component
+public class UserExistenceFilter {
+
+    @Autowired
+    private UserMapper userMapper;
+
+    @Autowired
+    private TransactionTemplate transactionTemplate;
+
+    @Value("${user.existence-filter.initial-capacity:1000000}")
+    private long initialCapacity;
+
+    @Value("${user.existence-filter.fpp:0.001}")
+    private double fpp;
+
+    private volatile ScalableBloomFilter emails;
+
+    private volatile ScalableBloomFilter usernames;
+
+    /** 保护构建中过滤器的登记与切换，与 add 互斥 */
+    private final Object swapLock = new Object();
+
+    /** 构建中的过滤器，构建期间的新增同时写入，保证切换时不丢 */
+    private volatile ScalableBloomFilter buildingEmails;
+
+    private volatile ScalableBloomFilter buildingUsernames;
+
+    @Async
+    @EventListener(ApplicationReadyEvent.class)
+    public void bootstrap() {
+        try {
+            rebuild();
+        } catch (Exception e) {
+            log.error("构建注册可用性过滤器失败，检查将直接查库", e);
+        }
+    }
+
+    /**
+     * 定时全量重建，清掉已删除用户留下的条目并收紧分段
+     */
+    @Scheduled(cron = "${user.existence-filter.rebuild-cron:0 0 4 * * ?}")
+    public void scheduledRebuild() {
+        try {
+            rebuild();
+        } catch (Exception e) {
+            log.error("定时重建注册可用性过滤器失败，继续使用旧过滤器", e);
+        }
+    }
+
+    /**
+     * 从数据库全量重建
+     * 先登记构建中的过滤器再开始读库：登记前 add 的用户已提交，一定在读库快照中；
+     * 登记后 add 的用户同时写入构建中的过滤器
+     */
+    public synchronized void rebuild() {
+        long startedAt = System.currentTimeMillis();
+        ScalableBloomFilter newEmails = new ScalableBloomFilter(initialCapacity, fpp);
+        ScalableBloomFilter newUsernames = new ScalableBloomFilter(initialCapacity, fpp);
+        synchronized (swapLock) {
+            buildingEmails = newEmails;
+            buildingUsernames = newUsernames;
+        }
+        boolean built = false;
+        try {
+            transactionTemplate.executeWithoutResult(status -> userMapper.streamIdentityRows(context -> {
+                Map<String, Object> row = context.getResultObject();
+                newEmails.put((String) row.get("email"));
+                newUsernames.put((String) row.get("username"));
+            }));
+            built = true;
+        } finally {
+            synchronized (swapLock) {
+                if (built) {
+                    emails = newEmails;
+                    usernames = newUsernames;
+                }
+                buildingEmails = null;
+                buildingUsernames = null;
+            }
+        }
+        log.info("注册可用性过滤器构建完成: emails={}, usernames={}, cost={}ms",
+            newEmails.approximateCount(), newUsernames.approximateCount(), System.currentTimeMillis() - startedAt);
+    }
+
+    public boolean isReady() {
+        return emails != null && usernames != null;
+    }
+
+    /**
+     * 邮箱可能已存在（false 表示一定不存在）
+     */
+    public boolean mightContainEmail(String email) {
+        ScalableBloomFilter filter = emails;
+        return filter == null || filter.mightContain(email);
+    }
+
+    /**
+     * 用户名可能已存在（false 表示一定不存在）
+     */
+    public boolean mightContainUsername(String username) {
+        ScalableBloomFilter filter = usernames;
+        return filter == null || filter.mightContain(username);
+    }
+
+    /**
+     * 记录新用户的邮箱和用户名（调用时用户必须已提交）
+     * 同时写入当前过滤器和构建中的过滤器
+     */
+    public void add(String email, String username) {
+        synchronized (swapLock) {
+            put(emails, buildingEmails, email);
+            put(usernames, buildingUsernames, username);
+        }
+    }
+
+    /**
+     * 在当前事务提交后记录新用户，没有事务时立即记录
+     */
+    public void addAfterCommit(String email, String username) {
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            add(email, username);
+            return;
+        }
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void afterCommit() {
+                add(email, username);
+            }
+        });
+    }
+
+    private static void put(ScalableBloomFilter current, ScalableBloomFilter building, String value) {
+        if (value == null) {
+            return;
+        }
+        if (current != null) {
+            current.put(value);
+        }
+        if (building != null) {
+            building.put(value);
+        }
+    }
+
+    /**
+     * 可扩容布隆过滤器
+     * 当前分段的元素数达到容量时追加一个容量翻倍、误判率减半的新分段，
+     * 总误判率收敛在 2 * fpp 以内；查询时任一分段命中即视为可能存在。
+     */
+    static final class ScalableBloomFilter {
+
+        private final List<BloomFilter<CharSequence>> segments = new CopyOnWriteArrayList<>();
+
+        private volatile long capacity;
+
+        private double segmentFpp;
+
+        ScalableBloomFilter(long initialCapacity, double fpp) {
+            this.capacity = initialCapacity;
+            this.segmentFpp = fpp;
+            segments.add(newSegment());
+        }
+
+        boolean mightContain(String value) {
+            for (BloomFilter<CharSequence> segment : segments) {
+                if (segment.mightContain(value)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        void put(String value) {
+            BloomFilter<CharSequence> current = segments.get(segments.size() - 1);
+            if (current.approximateElementCount() >= capacity) {
+                synchronized (this) {
+                    current = segments.get(segments.size() - 1);
+                    if (current.approximateElementCount() >= capacity) {
+                        capacity *= 2;
+                        segmentFpp /= 2;
+                        current = newSegment();
+                        segments.add(current);
+                    }
+                }
+            }
+            current.put(value);
+        }
+
+        long approximateCount() {
+            long count = 0;
+            for (BloomFilter<CharSequence> segment : segments) {
+                count += segment.approximateElementCount();
+            }
+            return count;
+        }
+
+        private BloomFilter<CharSequence> newSegment() {
+            return BloomFilter.create(Funnels.stringFunnel(StandardCharsets.UTF_8), capacity, segmentFpp);
+        }
+    }
+}
@@ -1,12 +1,13 @@
 package com.example.user.config;
 
+import com.example.user.cache.TwoLevelCacheManager;
 import com.fasterxml.jackson.annotation.JsonAutoDetect;
 import com.fasterxml.jackson.annotation.PropertyAccessor;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.databind.SerializationFeature;
 import com.fasterxml.jackson.databind.jsontype.impl.LaissezFaireSubTypeValidator;
 import com.fasterxml.jackson.datatype.jsr310.JavaTimeModule;
-import org.springframework.cache.CacheManager;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.cache.annotation.EnableCaching;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
@@ -14,6 +15,9 @@ import org.springframework.data.redis.cache.RedisCacheConfiguration;
 import org.springframework.data.redis.cache.RedisCacheManager;
 import org.springframework.data.redis.connection.RedisConnectionFactory;
 import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.listener.ChannelTopic;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
 import org.springframework.data.redis.serializer.Jackson2JsonRedisSerializer;
 import org.springframework.data.redis.serializer.RedisSerializationContext;
 import org.springframework.data.redis.serializer.StringRedisSerializer;
@@ -27,7 +31,7 @@ import java.util.Map;
  * @version 1.0.0
  * @date 2025-11-06
  * Redis 缓存配置
- * 为不同类型的数据配置不同的缓存策略
+ * 为不同类型的数据配置不同的缓存策略，@Cacheable 走本地 Caffeine + Redis 两级缓存
  */
 @Configuration
 @EnableCaching
@@ -73,9 +77,13 @@ public class CacheConfig {
      * @version 1.0.0
      * @date 2025-11-06
      * 配置缓存管理器
+     * 两级缓存：本地 Caffeine（L1）+ Redis（L2），L1 失效通过 Redis Pub/Sub 在副本间广播
      */
     @Bean
-    public CacheManager cacheManager(RedisConnectionFactory factory) {
+    public TwoLevelCacheManager cacheManager(RedisConnectionFactory factory,
+                                             StringRedisTemplate stringRedisTemplate,
+                                             @Value("${user.cache.local.max-size:10000}") long localMaxSize,
+                                             @Value("${user.cache.local.ttl-seconds:60}") long localTtlSeconds) {
         // 配置序列化
         Jackson2JsonRedisSerializer<Object> jackson2JsonRedisSerializer = new Jackson2JsonRedisSerializer<>(Object.class);
         ObjectMapper om = new ObjectMapper();
@@ -107,6 +115,14 @@ public class CacheConfig {
         cacheConfigurations.put("userDetails", 
             config.entryTtl(Duration.ofMinutes(10)));
         
+        // 用户资料缓存 30 分钟
+        cacheConfigurations.put("userProfile", 
+            config.entryTtl(Duration.ofMinutes(30)));
+        
+        // 用户名片缓存 30 分钟（UserCardService 直接批量读写同名 key）
+        cacheConfigurations.put("userCard", 
+            config.entryTtl(Duration.ofMinutes(30)));
+        
         // 邮箱存在性检查缓存 5 分钟
         cacheConfigurations.put("emailExists", 
             config.entryTtl(Duration.ofMinutes(5)));
@@ -119,10 +135,33 @@ public class CacheConfig {
         cacheConfigurations.put("verificationCodes", 
             config.entryTtl(Duration.ofMinutes(10)));
         
-        return RedisCacheManager.builder(factory)
+        // L2：事务感知由外层两级缓存管理器统一处理
+        RedisCacheManager redisCacheManager = RedisCacheManager.builder(factory)
             .cacheDefaults(config)
             .withInitialCacheConfigurations(cacheConfigurations)
-            .transactionAware()  // 支持事务
             .build();
+        redisCacheManager.initializeCaches();
+        
+        // L1：热点用户的详情和资料给更大的本地容量
+        Map<String, Long> localMaxSizes = new HashMap<>();
+        localMaxSizes.put("userDetails", localMaxSize * 2);
+        localMaxSizes.put("userProfile", localMaxSize * 2);
+        
+        TwoLevelCacheManager cacheManager = new TwoLevelCacheManager(redisCacheManager, stringRedisTemplate,
+            localMaxSize, Duration.ofSeconds(localTtlSeconds), localMaxSizes);
+        cacheManager.setTransactionAware(true);  // 支持事务
+        return cacheManager;
+    }
+    
+    /**
+     * 订阅 L1 缓存失效广播
+     */
+    @Bean
+    public RedisMessageListenerContainer cacheInvalidationListenerContainer(RedisConnectionFactory factory,
+                                                                            TwoLevelCacheManager cacheManager) {
+        RedisMessageListenerContainer container = new RedisMessageListenerContainer();
+        container.setConnectionFactory(factory);
+        container.addMessageListener(cacheManager, new ChannelTopic(TwoLevelCacheManager.INVALIDATION_CHANNEL));
+        return container;
     }
 }
@@ -1,10 +1,12 @@
 package com.example.user.config;
 
+import com.example.common.security.BoundedPasswordEncoder;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.security.config.annotation.web.builders.HttpSecurity;
 import org.springframework.security.config.annotation.web.configuration.EnableWebSecurity;
-import org.springframework.security.crypto.bcrypt.BCryptPasswordEncoder;
 import org.springframework.security.crypto.password.PasswordEncoder;
 import org.springframework.security.web.SecurityFilterChain;
 
@@ -23,10 +25,15 @@ public class SecurityConfig {
      * @version 1.0.0
      * @date 2025-11-06
      * 提供密码加密器 Bean
+     * BCrypt 计算放到有界线程池，避免注册/改密高峰占满请求线程
      */
     @Bean
-    public PasswordEncoder passwordEncoder() {
-        return new BCryptPasswordEncoder();
+    public PasswordEncoder passwordEncoder(@Value("${security.password.bcrypt-strength:10}") int strength,
+                                           @Value("${security.password.hash-threads:4}") int threads,
+                                           @Value("${security.password.hash-queue-capacity:200}") int queueCapacity,
+                                           @Value("${security.password.hash-timeout-ms:3000}") long timeoutMillis,
+                                           MeterRegistry meterRegistry) {
+        return new BoundedPasswordEncoder(strength, threads, queueCapacity, timeoutMillis, meterRegistry);
     }
     
     /**
@@ -1,11 +1,15 @@
 package com.example.user.controller;
 
 import com.example.common.converter.UserConverter;
+import com.example.common.security.PasswordHashingRejectedException;
 import com.example.domain.dto.UserDTO;
 import com.example.domain.model.User;
 import com.example.domain.vo.Result;
+import com.example.domain.vo.UserCardVO;
 import com.example.domain.vo.UserRegisterVO;
 import com.example.domain.vo.UserVO;
+import com.example.user.search.UserSearchIndex;
+import com.example.user.service.UserCardService;
 import com.example.user.service.UserService;
 import io.swagger.v3.oas.annotations.tags.Tag;
 import io.swagger.v3.oas.annotations.Operation;
@@ -19,6 +23,8 @@ import org.springframework.web.bind.annotation.*;
 import jakarta.validation.Valid;
 import jakarta.validation.constraints.Email;
 import jakarta.validation.constraints.NotBlank;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Map;
 
 /**
@@ -38,6 +44,12 @@ public class UserController {
     @Autowired
     private UserService userService;
     
+    @Autowired
+    private UserCardService userCardService;
+    
+    @Autowired
+    private UserSearchIndex userSearchIndex;
+    
     /**
      * 用户注册
      */
@@ -77,6 +89,8 @@ public class UserController {
             log.info("用户注册成功: userId={}, email={}", user.getId(), user.getEmail());
             return ResponseEntity.ok(Result.success(vo));
             
+        } catch (PasswordHashingRejectedException e) {
+            return ResponseEntity.ok(Result.error(503, e.getMessage()));
         } catch (Exception e) {
             log.error("用户注册失败", e);
             return ResponseEntity.ok(Result.error(500, "注册失败: " + e.getMessage()));
@@ -108,6 +122,31 @@ public class UserController {
         }
     }
     
+    /**
+     * 批量获取用户名片（id、昵称、头像）
+     * 会话列表等场景一次调用代替逐个 getUserById
+     */
+    @Operation(summary = "批量获取用户名片")
+    @PostMapping("/cards")
+    public Result<List<UserCardVO>> getUserCards(
+            @Parameter(description = "用户ID列表，最多1000个")
+            @RequestBody List<Long> userIds) {
+        
+        if (userIds == null || userIds.isEmpty()) {
+            return Result.success(new ArrayList<>());
+        }
+        if (userIds.size() > UserCardService.MAX_BATCH_SIZE) {
+            return Result.error(400, "单次最多查询" + UserCardService.MAX_BATCH_SIZE + "个用户");
+        }
+        
+        try {
+            return Result.success(userCardService.getUserCards(userIds));
+        } catch (Exception e) {
+            log.error("批量获取用户名片失败: size={}", userIds.size(), e);
+            return Result.error(500, "批量获取用户名片失败");
+        }
+    }
+    
     /**
      * 检查邮箱是否存在
      */
@@ -253,6 +292,8 @@ public class UserController {
                 return ResponseEntity.ok(Result.error(400, "旧密码错误"));
             }
             
+        } catch (PasswordHashingRejectedException e) {
+            return ResponseEntity.ok(Result.error(503, e.getMessage()));
         } catch (Exception e) {
             log.error("修改密码失败: userId={}", userId, e);
             return ResponseEntity.ok(Result.error(500, "修改密码失败"));
@@ -260,6 +301,29 @@ public class UserController {
     }
     
     
+    /**
+     * 升级密码哈希（内部接口）
+     * 由 OAuth2-auth-server 在登录校验通过、发现存储的哈希强度过低时调用
+     * 请求体包含 oldHash（校验时读到的哈希）和 newHash（新的 BCrypt 哈希），库中哈希仍为 oldHash 时才写入
+     */
+    @Operation(summary = "升级密码哈希（内部）")
+    @PutMapping("/internal/{userId}/password-hash")
+    public Result<Void> upgradePasswordHash(
+            @Parameter(description = "用户ID")
+            @PathVariable("userId") Long userId,
+            @RequestBody Map<String, String> hashData) {
+        
+        try {
+            if (userService.upgradePasswordHash(userId, hashData.get("oldHash"), hashData.get("newHash"))) {
+                return Result.success("密码哈希已升级");
+            }
+            return Result.error(409, "密码哈希已变化，未升级");
+        } catch (Exception e) {
+            log.error("升级密码哈希失败: userId={}", userId, e);
+            return Result.error(500, "密码哈希升级失败");
+        }
+    }
+    
     /**
      * 更新用户最后登录时间
      * 此接口由 OAuth2-auth-server 在用户登录成功后调用
@@ -282,7 +346,7 @@ public class UserController {
     }
     
     /**
-     * 搜索用户（通过邮箱或手机号）
+     * 搜索用户（通过邮箱或手机号精确匹配）
      */
     @Operation(summary = "搜索用户")
     @GetMapping("/search")
@@ -298,8 +362,7 @@ public class UserController {
             if ("email".equals(searchType)) {
                 user = userService.getUserByEmail(keyword);
             } else if ("phone".equals(searchType)) {
-                // TODO: 手机号搜索待实现
-                return ResponseEntity.ok(Result.error(400, "手机号搜索功能待实现"));
+                user = userService.getUserByPhone(keyword);
             } else {
                 return ResponseEntity.ok(Result.error(400, "不支持的搜索类型"));
             }
@@ -317,4 +380,29 @@ public class UserController {
             return ResponseEntity.ok(Result.error(500, "搜索失败"));
         }
     }
+    
+    /**
+     * 用户联想搜索（用户名、昵称、邮箱、手机号前缀）
+     * 走内存搜索索引，不访问数据库
+     */
+    @Operation(summary = "用户联想搜索")
+    @GetMapping("/search/suggest")
+    public Result<List<UserCardVO>> suggestUsers(
+            @Parameter(description = "搜索关键词（前缀）")
+            @RequestParam(value = "keyword") @NotBlank String keyword,
+            @Parameter(description = "返回条数，最多50")
+            @RequestParam(value = "limit", defaultValue = "10") int limit) {
+        
+        if (!userSearchIndex.isReady()) {
+            return Result.error(503, "搜索索引构建中，请稍后重试");
+        }
+        
+        try {
+            List<Long> userIds = userSearchIndex.search(keyword, Math.max(1, Math.min(limit, 50)));
+            return Result.success(userCardService.getUserCards(userIds));
+        } catch (Exception e) {
+            log.error("用户联想搜索失败: keyword={}", keyword, e);
+            return Result.error(500, "搜索失败");
+        }
+    }
 }
@@ -33,7 +33,8 @@ public class ServiceAuthFilter extends OncePerRequestFilter {
     // 需要保护的内部接口路径（包含敏感信息）
     private static final List<String> INTERNAL_API_PATTERNS = Arrays.asList(
         "/api/users/details/",      // 包含敏感信息的用户详情接口
-        "/api/users/internal/"      // 其他内部接口
+        "/api/users/internal/",     // 其他内部接口
+        "/api/v1/users/internal/"   // 内部接口（如密码哈希升级）
     );
     
     // 公开接口，不需要服务认证
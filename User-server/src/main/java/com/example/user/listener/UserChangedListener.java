@@ -0,0 +1,57 @@
+package com.example.user.listener;
+
+import com.alibaba.fastjson.JSON;
+import com.example.domain.event.UserChangedEvent;
+import com.example.user.cache.UserExistenceFilter;
+import com.example.user.search.UserSearchIndex;
+import com.example.user.service.UserEventPublisher;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.rocketmq.spring.annotation.MessageModel;
+import org.apache.rocketmq.spring.annotation.RocketMQMessageListener;
+import org.apache.rocketmq.spring.core.RocketMQListener;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+/**
+ * 用户变更监听器
+ * 广播消费 USER_CHANGED_TOPIC，每个副本各自更新本地搜索索引和注册可用性过滤器
+ *
+ * @author Junjie
+ * @date 2025-11-23
+ */
+@Slf4j
+@Component
+@RocketMQMessageListener(
+    topic = UserEventPublisher.USER_CHANGED_TOPIC,
+    consumerGroup = "user-search-index-group",
+    messageModel = MessageModel.BROADCASTING
+)
+public class UserChangedListener implements RocketMQListener<String> {
+
+    @Autowired
+    private UserSearchIndex userSearchIndex;
+
+    @Autowired
+    private UserExistenceFilter userExistenceFilter;
+
+    @Override
+    public void onMessage(String message) {
+        try {
+            UserChangedEvent event = JSON.parseObject(message, UserChangedEvent.class);
+            if (event == null || event.getId() == null) {
+                log.warn("无效的用户变更事件: {}", message);
+                return;
+            }
+            if ("DELETE".equals(event.getOperation()) || Boolean.TRUE.equals(event.getDeleted())) {
+                userSearchIndex.remove(event.getId());
+            } else {
+                // 其他副本新注册的用户加入本地注册可用性过滤器
+                userExistenceFilter.add(event.getEmail(), event.getUsername());
+                // 事件只作为信号，以数据库为准（昵称在 user_profiles 中）
+                userSearchIndex.refresh(event.getId());
+            }
+        } catch (Exception e) {
+            log.error("处理用户变更事件失败: message={}", message, e);
+        }
+    }
+}
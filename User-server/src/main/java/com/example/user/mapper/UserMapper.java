@@ -2,7 +2,18 @@ package com.example.user.mapper;
 
 import com.baomidou.mybatisplus.core.mapper.BaseMapper;
 import com.example.domain.model.User;
+import com.example.domain.vo.UserCardVO;
 import org.apache.ibatis.annotations.Mapper;
+import org.apache.ibatis.annotations.Options;
+import org.apache.ibatis.annotations.Param;
+import org.apache.ibatis.annotations.ResultType;
+import org.apache.ibatis.annotations.Select;
+import org.apache.ibatis.annotations.Update;
+import org.apache.ibatis.mapping.ResultSetType;
+import org.apache.ibatis.session.ResultHandler;
+
+import java.util.List;
+import java.util.Map;
 
 /**
  * 用户 Mapper 接口
@@ -15,4 +26,46 @@ import org.apache.ibatis.annotations.Mapper;
 public interface UserMapper extends BaseMapper<User> {
     // 使用MyBatis Plus提供的基础CRUD方法
     // 不再需要自定义SQL，因为新设计中密码直接存储在users表中
+    
+    /**
+     * 批量查询用户名片（users 关联 user_profiles，一次查询）
+     * ids 以 bigint[] 数组传入，语句与 id 个数无关，可复用执行计划
+     */
+    @Select("SELECT u.id, COALESCE(NULLIF(p.nickname, ''), u.username) AS nickname, p.avatar_url " +
+            "FROM users u LEFT JOIN user_profiles p ON p.user_id = u.id " +
+            "WHERE u.id = ANY(#{ids, typeHandler=org.apache.ibatis.type.ArrayTypeHandler}) AND u.deleted_at IS NULL")
+    List<UserCardVO> selectUserCards(@Param("ids") Long[] ids);
+    
+    String SEARCH_ROW_SQL = "SELECT u.id, u.username, u.email, u.phone, p.nickname " +
+            "FROM users u LEFT JOIN user_profiles p ON p.user_id = u.id ";
+    
+    /**
+     * 流式读取全部用户的搜索字段（构建搜索索引用，需在事务内调用以启用游标）
+     */
+    @Select(SEARCH_ROW_SQL + "WHERE u.deleted_at IS NULL")
+    @Options(resultSetType = ResultSetType.FORWARD_ONLY, fetchSize = 2000)
+    @ResultType(Map.class)
+    void streamSearchRows(ResultHandler<Map<String, Object>> handler);
+    
+    /**
+     * 流式读取全部有效用户的邮箱和用户名（构建注册可用性过滤器用，需在事务内调用）
+     */
+    @Select("SELECT email, username FROM users WHERE deleted_at IS NULL")
+    @Options(resultSetType = ResultSetType.FORWARD_ONLY, fetchSize = 5000)
+    @ResultType(Map.class)
+    void streamIdentityRows(ResultHandler<Map<String, Object>> handler);
+    
+    /**
+     * 读取单个用户的搜索字段（增量更新索引用）
+     */
+    @Select(SEARCH_ROW_SQL + "WHERE u.id = #{id} AND u.deleted_at IS NULL")
+    Map<String, Object> selectSearchRow(@Param("id") Long id);
+    
+    /**
+     * 比较并替换密码哈希：仅当库中哈希仍为 oldHash 时写入 newHash
+     * 期间用户改过密码（或已被其他登录升级）时不覆盖
+     */
+    @Update("UPDATE users SET password_hash = #{newHash}, updated_at = NOW() " +
+            "WHERE id = #{id} AND password_hash = #{oldHash} AND deleted_at IS NULL")
+    int compareAndSetPasswordHash(@Param("id") Long id, @Param("oldHash") String oldHash, @Param("newHash") String newHash);
 }
@@ -0,0 +1,340 @@
+package com.example.user.search;
+
+import com.example.user.mapper.UserMapper;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.scheduling.annotation.Async;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 用户前缀搜索索引
+ * 对用户名、昵称、邮箱、手机号做归一化（小写、去空白，手机号只保留数字）后建立有序索引，
+ * 前缀查询为二分定位 + 顺序扫描，不访问数据库。
+ *
+ * 结构：
+ * 1. 基线：按 key 排序的 String[] keys 与并行的 long[] ids，启动时流式读取 users/user_profiles 构建
+ * 2. 增量：基线之后变更过的用户记录在 changed 中（其基线条目全部忽略），当前条目放在有序跳表 delta 中
+ * 增量达到阈值后在内存中合并为新的基线；查询只读取 volatile 的状态引用，不加锁。
+ *
+ * @author Junjie
+ * @date 2025-11-23
+ */
+@Slf4j
+@Component
+public class UserSearchIndex {
+
+    /** delta 条目中 key 与用户ID的分隔符，小于任何可见字符，保证同一 key 的条目连续 */
+    private static final char SEPARATOR = '\u0000';
+
+    private static final int MAX_KEY_LENGTH = 64;
+
+    @Autowired
+    private UserMapper userMapper;
+
+    @Autowired
+    private TransactionTemplate transactionTemplate;
+
+    @Value("${user.search.compact-threshold:10000}")
+    private int compactThreshold;
+
+    private final AtomicLong sequence = new AtomicLong();
+
+    private final Object writeLock = new Object();
+
+    /** 按用户分段的刷新锁，同一用户的读库和写索引串行，避免旧数据覆盖新数据 */
+    private final Object[] refreshLocks = new Object[64];
+
+    {
+        for (int i = 0; i < refreshLocks.length; i++) {
+            refreshLocks[i] = new Object();
+        }
+    }
+
+    private volatile State state = new State(new String[0], new long[0]);
+
+    private volatile boolean ready;
+
+    /**
+     * 用户的一次变更：当前 key 列表（删除时为空）和变更序号
+     */
+    private record Change(String[] keys, long seq) {
+    }
+
+    private static final class State {
+        final String[] keys;
+        final long[] ids;
+        final ConcurrentHashMap<Long, Change> changed = new ConcurrentHashMap<>();
+        final ConcurrentSkipListSet<String> delta = new ConcurrentSkipListSet<>();
+
+        State(String[] keys, long[] ids) {
+            this.keys = keys;
+            this.ids = ids;
+        }
+    }
+
+    /**
+     * 启动后异步构建基线，构建期间的增量变更会在切换时重放
+     */
+    @Async
+    @EventListener(ApplicationReadyEvent.class)
+    public void bootstrap() {
+        try {
+            rebuild();
+        } catch (Exception e) {
+            log.error("构建用户搜索索引失败", e);
+        }
+    }
+
+    /**
+     * 从数据库全量重建基线
+     */
+    public void rebuild() {
+        long startedAt = System.currentTimeMillis();
+        long startSeq = sequence.get();
+
+        List<Entry> entries = new ArrayList<>();
+        int[] users = new int[1];
+        transactionTemplate.executeWithoutResult(status -> userMapper.streamSearchRows(context -> {
+            Map<String, Object> row = context.getResultObject();
+            long userId = ((Number) row.get("id")).longValue();
+            for (String key : keysOf(row)) {
+                entries.add(new Entry(key, userId));
+            }
+            users[0]++;
+        }));
+
+        State next = buildState(entries);
+        synchronized (writeLock) {
+            // 重放构建期间发生的变更（数据库快照可能未包含）
+            state.changed.forEach((userId, change) -> {
+                if (change.seq() > startSeq) {
+                    applyTo(next, userId, change.keys(), change.seq());
+                }
+            });
+            state = next;
+        }
+        ready = true;
+        log.info("用户搜索索引构建完成: users={}, keys={}, cost={}ms",
+            users[0], entries.size(), System.currentTimeMillis() - startedAt);
+    }
+
+    /**
+     * 前缀搜索
+     *
+     * @param query 查询词（用户名/昵称/邮箱/手机号前缀）
+     * @param limit 最大返回数
+     * @return 匹配的用户ID，按 key 字典序
+     */
+    public List<Long> search(String query, int limit) {
+        String prefix = normalizeQuery(query);
+        if (prefix.isEmpty() || limit <= 0) {
+            return Collections.emptyList();
+        }
+        State current = state;
+        Set<Long> result = new LinkedHashSet<>();
+
+        // 1. 基线：二分定位第一个 >= prefix 的 key，顺序扫描到前缀不再匹配
+        String[] keys = current.keys;
+        for (int i = lowerBound(keys, prefix); i < keys.length && result.size() < limit; i++) {
+            if (!keys[i].startsWith(prefix)) {
+                break;
+            }
+            long userId = current.ids[i];
+            if (!current.changed.containsKey(userId)) {
+                result.add(userId);
+            }
+        }
+
+        // 2. 增量
+        if (result.size() < limit && !current.delta.isEmpty()) {
+            for (String entry : current.delta.subSet(prefix, prefix + Character.MAX_VALUE)) {
+                result.add(Long.parseLong(entry, entry.lastIndexOf(SEPARATOR) + 1, entry.length(), 10));
+                if (result.size() >= limit) {
+                    break;
+                }
+            }
+        }
+        return new ArrayList<>(result);
+    }
+
+    /**
+     * 从数据库重新读取一个用户并更新索引（用户不存在或已删除时移除）
+     * 读取和写入在该用户的刷新锁内完成，并发刷新时后读到的数据一定后写入
+     */
+    public void refresh(Long userId) {
+        synchronized (refreshLockOf(userId)) {
+            Map<String, Object> row = userMapper.selectSearchRow(userId);
+            apply(userId, row != null ? keysOf(row) : new String[0]);
+        }
+    }
+
+    /**
+     * 从索引中移除用户
+     */
+    public void remove(Long userId) {
+        synchronized (refreshLockOf(userId)) {
+            apply(userId, new String[0]);
+        }
+    }
+
+    private Object refreshLockOf(Long userId) {
+        return refreshLocks[(int) ((userId ^ (userId >>> 32)) & (refreshLocks.length - 1))];
+    }
+
+    public boolean isReady() {
+        return ready;
+    }
+
+    private void apply(Long userId, String[] keys) {
+        synchronized (writeLock) {
+            State current = state;
+            applyTo(current, userId, keys, sequence.incrementAndGet());
+            // 全量构建完成前不合并，避免构建期间的变更在切换时丢失
+            if (ready && current.changed.size() >= compactThreshold) {
+                compact(current);
+            }
+        }
+    }
+
+    private static void applyTo(State target, Long userId, String[] keys, long seq) {
+        Change old = target.changed.get(userId);
+        if (old != null) {
+            for (String key : old.keys()) {
+                target.delta.remove(key + SEPARATOR + userId);
+            }
+        }
+        for (String key : keys) {
+            target.delta.add(key + SEPARATOR + userId);
+        }
+        target.changed.put(userId, new Change(keys, seq));
+    }
+
+    /**
+     * 把增量合并进基线（调用方持有 writeLock）
+     */
+    private void compact(State current) {
+        long startedAt = System.currentTimeMillis();
+        List<Entry> entries = new ArrayList<>(current.keys.length + current.delta.size());
+        for (int i = 0; i < current.keys.length; i++) {
+            if (!current.changed.containsKey(current.ids[i])) {
+                entries.add(new Entry(current.keys[i], current.ids[i]));
+            }
+        }
+        current.changed.forEach((userId, change) -> {
+            for (String key : change.keys()) {
+                entries.add(new Entry(key, userId));
+            }
+        });
+        state = buildState(entries);
+        log.info("用户搜索索引合并完成: changed={}, keys={}, cost={}ms",
+            current.changed.size(), entries.size(), System.currentTimeMillis() - startedAt);
+    }
+
+    private record Entry(String key, long userId) implements Comparable<Entry> {
+        @Override
+        public int compareTo(Entry other) {
+            int c = key.compareTo(other.key);
+            return c != 0 ? c : Long.compare(userId, other.userId);
+        }
+    }
+
+    private static State buildState(List<Entry> entries) {
+        Collections.sort(entries);
+        String[] keys = new String[entries.size()];
+        long[] ids = new long[entries.size()];
+        for (int i = 0; i < keys.length; i++) {
+            Entry entry = entries.get(i);
+            keys[i] = entry.key();
+            ids[i] = entry.userId();
+        }
+        return new State(keys, ids);
+    }
+
+    private static int lowerBound(String[] keys, String prefix) {
+        int low = 0;
+        int high = keys.length;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (keys[mid].compareTo(prefix) < 0) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    private static String[] keysOf(Map<String, Object> row) {
+        Set<String> keys = new LinkedHashSet<>(4);
+        addKey(keys, normalize((String) row.get("username")));
+        addKey(keys, normalize((String) row.get("nickname")));
+        addKey(keys, normalize((String) row.get("email")));
+        addKey(keys, digitsOnly((String) row.get("phone")));
+        return keys.toArray(new String[0]);
+    }
+
+    private static void addKey(Set<String> keys, String key) {
+        if (key != null && !key.isEmpty()) {
+            keys.add(key.length() > MAX_KEY_LENGTH ? key.substring(0, MAX_KEY_LENGTH) : key);
+        }
+    }
+
+    /**
+     * 查询词归一化：看起来像手机号（只含数字、空格、+、-）时只保留数字
+     */
+    private static String normalizeQuery(String query) {
+        if (query == null) {
+            return "";
+        }
+        boolean phoneLike = !query.isBlank();
+        for (int i = 0; i < query.length() && phoneLike; i++) {
+            char c = query.charAt(i);
+            phoneLike = Character.isDigit(c) || c == '+' || c == '-' || Character.isWhitespace(c);
+        }
+        String normalized = phoneLike ? digitsOnly(query) : normalize(query);
+        return normalized.length() > MAX_KEY_LENGTH ? normalized.substring(0, MAX_KEY_LENGTH) : normalized;
+    }
+
+    private static String normalize(String value) {
+        if (value == null) {
+            return null;
+        }
+        StringBuilder sb = new StringBuilder(value.length());
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (!Character.isWhitespace(c) && c != SEPARATOR) {
+                sb.append(c);
+            }
+        }
+        return sb.toString().toLowerCase(Locale.ROOT);
+    }
+
+    private static String digitsOnly(String value) {
+        if (value == null) {
+            return null;
+        }
+        StringBuilder sb = new StringBuilder(value.length());
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c >= '0' && c <= '9') {
+                sb.append(c);
+            }
+        }
+        return sb.toString();
+    }
+}
@@ -1,6 +1,7 @@
 package com.example.user.service;
 
 import com.baomidou.mybatisplus.core.conditions.query.QueryWrapper;
+import com.example.user.cache.UserCacheEvictor;
 import com.example.user.mapper.UserMapper;
 import com.example.domain.model.User;
 
@@ -38,6 +39,9 @@ public class EmailVerificationService {
     @Autowired
     private UserMapper userMapper;
     
+    @Autowired
+    private UserCacheEvictor userCacheEvictor;
+    
     @Value("${spring.mail.username}")
     private String fromEmail;
     
@@ -143,12 +147,7 @@ public class EmailVerificationService {
             userMapper.updateById(user);
             
             // 3. 清除用户详情缓存，确保登录时读取最新数据
-            try {
-                redisTemplate.delete("userDetails::" + email);
-                log.info("已清除用户缓存: key=userDetails::{}", email);
-            } catch (Exception cacheEx) {
-                log.warn("清除用户缓存失败，但不影响验证结果: {}", cacheEx.getMessage());
-            }
+            userCacheEvictor.evictUserDetails(user.getId(), email, user.getUsername());
             
             log.info("用户邮箱验证成功: userId={}, email={}", user.getId(), email);
             return true;
@@ -0,0 +1,135 @@
+package com.example.user.service;
+
+import com.example.domain.vo.UserCardVO;
+import com.example.user.cache.UserCacheEvictor;
+import com.example.user.mapper.UserMapper;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.DataAccessException;
+import org.springframework.data.redis.core.RedisOperations;
+import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.data.redis.core.SessionCallback;
+import org.springframework.stereotype.Service;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 用户名片服务
+ * 批量获取用户名片：Redis MGET 一次取出缓存，未命中的用一条 ANY 查询回源，再流水线回填缓存。
+ * 缓存 key 与 Spring Cache 的 userCard 缓存一致（userCard::{userId}），
+ * 资料变更时通过 @CacheEvict(value = "userCard") 清除，用户变更时由 UserCacheEvictor 清除。
+ *
+ * @author Junjie
+ * @date 2025-11-22
+ */
+@Slf4j
+@Service
+public class UserCardService {
+    
+    public static final String CACHE_NAME = UserCacheEvictor.USER_CARD;
+    
+    /** 单次批量查询上限 */
+    public static final int MAX_BATCH_SIZE = 1000;
+    
+    private static final String KEY_PREFIX = CACHE_NAME + "::";
+    
+    @Autowired
+    private UserMapper userMapper;
+    
+    @Autowired
+    private RedisTemplate<String, Object> redisTemplate;
+    
+    @Value("${user.cache.card-ttl-minutes:30}")
+    private long cardTtlMinutes;
+    
+    /**
+     * 批量获取用户名片
+     *
+     * @param userIds 用户ID（最多 MAX_BATCH_SIZE 个，重复和 null 会被忽略）
+     * @return 按请求顺序排列的名片，不存在的用户不返回
+     */
+    public List<UserCardVO> getUserCards(Collection<Long> userIds) {
+        Set<Long> ids = new LinkedHashSet<>(userIds);
+        ids.remove(null);
+        if (ids.isEmpty()) {
+            return new ArrayList<>();
+        }
+        
+        // 1. 缓存批量读取
+        List<String> keys = new ArrayList<>(ids.size());
+        for (Long id : ids) {
+            keys.add(KEY_PREFIX + id);
+        }
+        List<Object> cached = null;
+        try {
+            cached = redisTemplate.opsForValue().multiGet(keys);
+        } catch (Exception e) {
+            log.warn("批量读取用户名片缓存失败，直接查库: size={}, error={}", ids.size(), e.getMessage());
+        }
+        
+        Map<Long, UserCardVO> cards = new HashMap<>(ids.size() * 2);
+        List<Long> misses = new ArrayList<>();
+        int i = 0;
+        for (Long id : ids) {
+            Object value = cached != null ? cached.get(i) : null;
+            if (value instanceof UserCardVO card) {
+                cards.put(id, card);
+            } else {
+                misses.add(id);
+            }
+            i++;
+        }
+        
+        // 2. 未命中的一次查库
+        if (!misses.isEmpty()) {
+            List<UserCardVO> loaded = userMapper.selectUserCards(misses.toArray(new Long[0]));
+            for (UserCardVO card : loaded) {
+                cards.put(card.getId(), card);
+            }
+            cacheCards(loaded);
+            log.debug("用户名片批量查询: requested={}, cacheHit={}, loaded={}", 
+                ids.size(), ids.size() - misses.size(), loaded.size());
+        }
+        
+        List<UserCardVO> result = new ArrayList<>(cards.size());
+        for (Long id : ids) {
+            UserCardVO card = cards.get(id);
+            if (card != null) {
+                result.add(card);
+            }
+        }
+        return result;
+    }
+    
+    /**
+     * 流水线回填缓存，失败不影响查询结果
+     */
+    private void cacheCards(List<UserCardVO> cards) {
+        if (cards.isEmpty()) {
+            return;
+        }
+        try {
+            redisTemplate.executePipelined(new SessionCallback<Object>() {
+                @Override
+                @SuppressWarnings("unchecked")
+                public <K, V> Object execute(RedisOperations<K, V> operations) throws DataAccessException {
+                    RedisOperations<String, Object> ops = (RedisOperations<String, Object>) operations;
+                    for (UserCardVO card : cards) {
+                        ops.opsForValue().set(KEY_PREFIX + card.getId(), card, cardTtlMinutes, TimeUnit.MINUTES);
+                    }
+                    return null;
+                }
+            });
+        } catch (Exception e) {
+            log.warn("回填用户名片缓存失败: size={}, error={}", cards.size(), e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,75 @@
+package com.example.user.service;
+
+import com.alibaba.fastjson.JSON;
+import com.example.domain.event.UserChangedEvent;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.rocketmq.spring.core.RocketMQTemplate;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+/**
+ * 用户变更事件发布
+ * 发送 UserChangedEvent 到 USER_CHANGED_TOPIC，在事务内调用时延迟到提交后发送，
+ * 保证消费方回查数据库时能读到新数据
+ *
+ * @author Junjie
+ * @date 2025-11-23
+ */
+@Slf4j
+@Service
+public class UserEventPublisher {
+
+    public static final String USER_CHANGED_TOPIC = "USER_CHANGED_TOPIC";
+
+    @Autowired
+    private RocketMQTemplate rocketMQTemplate;
+
+    /**
+     * 发布用户新增/更新事件
+     */
+    public void publishUpsert(Long userId, String username, String email, String phone) {
+        UserChangedEvent event = new UserChangedEvent();
+        event.setId(userId);
+        event.setUsername(username);
+        event.setEmail(email);
+        event.setMobile(phone);
+        event.setDeleted(false);
+        event.setOperation("UPSERT");
+        publish(event);
+    }
+
+    /**
+     * 发布用户删除事件
+     */
+    public void publishDelete(Long userId) {
+        UserChangedEvent event = new UserChangedEvent();
+        event.setId(userId);
+        event.setDeleted(true);
+        event.setOperation("DELETE");
+        publish(event);
+    }
+
+    private void publish(UserChangedEvent event) {
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCommit() {
+                    send(event);
+                }
+            });
+        } else {
+            send(event);
+        }
+    }
+
+    private void send(UserChangedEvent event) {
+        try {
+            rocketMQTemplate.convertAndSend(USER_CHANGED_TOPIC, JSON.toJSONString(event));
+            log.debug("用户变更事件已发送: userId={}, operation={}", event.getId(), event.getOperation());
+        } catch (Exception e) {
+            log.error("发送用户变更事件失败: userId={}, operation={}", event.getId(), event.getOperation(), e);
+        }
+    }
+}
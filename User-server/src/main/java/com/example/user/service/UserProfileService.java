@@ -1,12 +1,15 @@
 package com.example.user.service;
 
+import com.example.domain.model.User;
 import com.example.domain.model.UserProfile;
+import com.example.user.cache.UserCacheEvictor;
 import com.example.user.mapper.UserProfileMapper;
 import com.example.user.mapper.UserMapper;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.cache.annotation.CacheEvict;
 import org.springframework.cache.annotation.Cacheable;
+import org.springframework.cache.annotation.Caching;
 import org.springframework.data.redis.core.RedisTemplate;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
@@ -26,9 +29,15 @@ public class UserProfileService {
     @Autowired
     private UserProfileMapper userProfileMapper;
     
+    @Autowired
+    private UserEventPublisher userEventPublisher;
+    
     @Autowired
     private UserMapper userMapper;
     
+    @Autowired
+    private UserCacheEvictor userCacheEvictor;
+    
     @Autowired
     private RedisTemplate<String, String> redisTemplate;
     
@@ -79,7 +88,10 @@ public class UserProfileService {
     /**
      * 更新用户基本信息
      */
-    @CacheEvict(value = "userProfile", key = "#p0")
+    @Caching(evict = {
+        @CacheEvict(value = "userProfile", key = "#p0"),
+        @CacheEvict(value = UserCardService.CACHE_NAME, key = "#p0")  // 名片包含昵称和头像
+    })
     @Transactional
     public boolean updateBasicInfo(Long userId, String nickname, String realName,
                                   Integer gender, String birthday, String bio) {
@@ -96,6 +108,9 @@ public class UserProfileService {
             );
             
             if (rows > 0) {
+                evictUserDetails(userId);
+                // 昵称参与用户搜索，通知索引更新
+                userEventPublisher.publishUpsert(userId, null, null, null);
                 log.info("更新用户基本信息成功: userId={}", userId);
                 return true;
             }
@@ -110,13 +125,17 @@ public class UserProfileService {
     /**
      * 更新用户头像
      */
-    @CacheEvict(value = "userProfile", key = "#p0")
+    @Caching(evict = {
+        @CacheEvict(value = "userProfile", key = "#p0"),
+        @CacheEvict(value = UserCardService.CACHE_NAME, key = "#p0")  // 名片包含昵称和头像
+    })
     @Transactional
     public boolean updateAvatar(Long userId, String avatarUrl) {
         try {
             int rows = userProfileMapper.updateAvatar(userId, avatarUrl);
             
             if (rows > 0) {
+                evictUserDetails(userId);
                 log.info("更新用户头像成功: userId={}, avatarUrl={}", userId, avatarUrl);
                 return true;
             }
@@ -128,6 +147,15 @@ public class UserProfileService {
         }
     }
     
+    /**
+     * userDetails 缓存包含昵称和头像，按 email、id、username 三种 key 清除
+     */
+    private void evictUserDetails(Long userId) {
+        User user = userMapper.selectById(userId);
+        userCacheEvictor.evictUserDetails(userId, user != null ? user.getEmail() : null,
+                user != null ? user.getUsername() : null);
+    }
+    
     /**
      * 更新工作信息
      */
@@ -1,24 +1,25 @@
 package com.example.user.service;
 
 import com.baomidou.mybatisplus.core.conditions.query.QueryWrapper;
+import com.example.common.security.PasswordHashingRejectedException;
 import com.example.domain.dto.UserDetailsDTO;
 import com.example.domain.model.User;
 import com.example.domain.model.UserProfile;
 import com.example.domain.model.PasswordHistory;
+import com.example.user.cache.UserCacheEvictor;
+import com.example.user.cache.UserExistenceFilter;
 import com.example.user.mapper.UserMapper;
 import com.example.user.mapper.PasswordHistoryMapper;
 import com.example.user.validator.PasswordValidator;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Autowired;
-import org.springframework.cache.annotation.CacheEvict;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.cache.annotation.Cacheable;
 import org.springframework.scheduling.annotation.Async;
 import org.springframework.security.crypto.password.PasswordEncoder;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
 
-import org.springframework.data.redis.core.RedisTemplate;
-
 import java.time.OffsetDateTime;
 import java.util.List;
 
@@ -51,7 +52,7 @@ import java.util.List;
  * 更好的方式是构造器注入（参考RoleController）
  * 
  * 【关键设计模式】
- * 1. 缓存策略：使用Spring Cache + Redis缓存用户信息
+ * 1. 缓存策略：使用Spring Cache + 本地Caffeine/Redis两级缓存用户信息，变更时按用户清除
  * 2. 密码安全：BCrypt加密 + 密码历史防重复
  * 3. 软删除：使用deleted_at字段标记删除
  * 
@@ -95,16 +96,21 @@ public class UserService {
     @Autowired
     private PasswordValidator passwordValidator;
     
-    /**
-     * Redis模板 - 用于缓存操作
-     * 
-     * 【缓存策略】
-     * - 用户信息缓存Key: user:{userId}
-     * - 缓存过期时间: 通常1小时
-     * - 写操作时清除缓存
-     */
+    /** 按用户清除 userDetails 缓存 */
+    @Autowired
+    private UserCacheEvictor userCacheEvictor;
+    
+    /** 注册可用性过滤器 - 邮箱/用户名一定不存在时免查库 */
+    @Autowired
+    private UserExistenceFilter userExistenceFilter;
+    
+    /** 布隆过滤器未命中时是否查库确认 */
+    @Value("${user.existence-filter.verify-miss:true}")
+    private boolean verifyFilterMiss;
+    
+    /** 用户变更事件发布 - 驱动搜索索引更新 */
     @Autowired
-    private RedisTemplate<String, Object> redisTemplate;
+    private UserEventPublisher userEventPublisher;
     
     /** 密码历史记录限制 - 不能使用最近5次用过的密码 */
     private static final int PASSWORD_HISTORY_LIMIT = 5;
@@ -229,8 +235,47 @@ public class UserService {
     
     /**
      * 检查邮箱是否存在
+     * 布隆过滤器未命中时默认仍查库确认（其他副本的新用户可能尚未进入本地过滤器），
+     * 查到时补入过滤器；关闭 verify-miss 后未命中直接返回不存在
      */
     public boolean checkEmailExists(String email) {
+        if (userExistenceFilter.isReady() && !userExistenceFilter.mightContainEmail(email)) {
+            if (!verifyFilterMiss) {
+                return false;
+            }
+            boolean exists = countEmail(email);
+            if (exists) {
+                log.warn("注册可用性过滤器漏记邮箱，已补入: email={}", email);
+                userExistenceFilter.add(email, null);
+            }
+            return exists;
+        }
+        return countEmail(email);
+    }
+    
+    /**
+     * 检查用户名是否存在
+     * 布隆过滤器未命中时默认仍查库确认，查到时补入过滤器
+     */
+    public boolean checkUsernameExists(String username) {
+        if (userExistenceFilter.isReady() && !userExistenceFilter.mightContainUsername(username)) {
+            if (!verifyFilterMiss) {
+                return false;
+            }
+            boolean exists = countUsername(username);
+            if (exists) {
+                log.warn("注册可用性过滤器漏记用户名，已补入: username={}", username);
+                userExistenceFilter.add(null, username);
+            }
+            return exists;
+        }
+        return countUsername(username);
+    }
+    
+    /**
+     * 查库检查邮箱是否存在
+     */
+    private boolean countEmail(String email) {
         try {
             Long count = userMapper.selectCount(
                 new QueryWrapper<User>()
@@ -245,9 +290,9 @@ public class UserService {
     }
     
     /**
-     * 检查用户名是否存在
+     * 查库检查用户名是否存在
      */
-    public boolean checkUsernameExists(String username) {
+    private boolean countUsername(String username) {
         try {
             Long count = userMapper.selectCount(
                 new QueryWrapper<User>()
@@ -263,8 +308,8 @@ public class UserService {
     
     /**
      * 更新用户最后登录时间
+     * userDetails 缓存不包含最后登录时间，无需清除缓存
      */
-    @CacheEvict(value = "userDetails", allEntries = true)
     public void updateLastLoginTime(String email) {
         try {
             User user = userMapper.selectOne(
@@ -315,6 +360,22 @@ public class UserService {
         }
     }
     
+    /**
+     * 根据手机号获取用户信息
+     */
+    public User getUserByPhone(String phone) {
+        try {
+            return userMapper.selectOne(
+                new QueryWrapper<User>()
+                    .eq("phone", phone)
+                    .isNull("deleted_at")
+            );
+        } catch (Exception e) {
+            log.error("查询用户失败: phone={}", phone, e);
+            return null;
+        }
+    }
+    
     /**
      * 创建新用户（邮箱注册）
      */
@@ -328,8 +389,8 @@ public class UserService {
                 throw new IllegalArgumentException(passwordError);
             }
             
-            // 2. 检查邮箱是否已存在
-            if (checkEmailExists(email)) {
+            // 2. 检查邮箱是否已存在（直接查库，其他副本刚注册的邮箱可能尚未进入本地过滤器）
+            if (countEmail(email)) {
                 log.warn("邮箱已存在: email={}", email);
                 return null;
             }
@@ -345,6 +406,7 @@ public class UserService {
             user.setUpdatedAt(OffsetDateTime.now());
             
             userMapper.insert(user);
+            userExistenceFilter.addAfterCommit(email, username);
             log.info("用户创建成功: userId={}, username={}, email={}", user.getId(), username, email);
             
             // 4. 创建默认用户详情
@@ -363,10 +425,16 @@ public class UserService {
             }
             
             // 7. 清除可能存在的旧缓存（防止缓存脏数据）
-            evictUserCache(email);
+            userCacheEvictor.evictUserDetails(user.getId(), email, username);
+            
+            // 8. 通知搜索索引（事务提交后发送）
+            userEventPublisher.publishUpsert(user.getId(), username, email, null);
             
             return user;
             
+        } catch (PasswordHashingRejectedException e) {
+            // 哈希线程池过载，交给调用方返回 503
+            throw e;
         } catch (Exception e) {
             log.error("创建用户失败: username={}, email={}", username, email, e);
             throw new RuntimeException("创建用户失败", e);
@@ -378,14 +446,8 @@ public class UserService {
      * 在用户信息变更时调用，确保下次读取时获取最新数据
      */
     public void evictUserCache(String email) {
-        try {
-            // Spring Cache 使用的 key 格式: cacheName::key
-            String cacheKey = "userDetails::" + email;
-            Boolean deleted = redisTemplate.delete(cacheKey);
-            log.info("清除用户缓存: key={}, deleted={}", cacheKey, deleted);
-        } catch (Exception e) {
-            log.warn("清除用户缓存失败: email={}, error={}", email, e.getMessage());
-        }
+        // 经 CacheManager 清除，两级缓存的本地副本会同时失效
+        userCacheEvictor.evictUserDetails(null, email, null);
     }
     
     /**
@@ -441,6 +503,8 @@ public class UserService {
             int rows = userMapper.updateById(user);
             
             if (rows > 0) {
+                userCacheEvictor.evictUserDetails(user.getId(), user.getEmail(), user.getUsername());
+                userEventPublisher.publishUpsert(user.getId(), user.getUsername(), user.getEmail(), user.getPhone());
                 log.info("更新用户成功: userId={}", user.getId());
                 return true;
             }
@@ -458,7 +522,6 @@ public class UserService {
      * 修改密码
      */
     @Transactional(rollbackFor = Exception.class)
-    @CacheEvict(value = "userDetails", allEntries = true)
     public boolean changePassword(Long userId, String oldPassword, String newPassword) {
         try {
             User user = userMapper.selectById(userId);
@@ -495,17 +558,44 @@ public class UserService {
             if (rows > 0) {
                 // 5. 记录密码历史
                 savePasswordHistory(userId, newPasswordHash);
+                
+                // 6. 只清除该用户的缓存（事务提交后生效）
+                userCacheEvictor.evictUserDetails(userId, user.getEmail(), user.getUsername());
                 log.info("密码修改成功: userId={}", userId);
                 return true;
             }
             
             return false;
+        } catch (PasswordHashingRejectedException e) {
+            // 哈希线程池过载，交给调用方返回 503
+            throw e;
         } catch (Exception e) {
             log.error("修改密码失败: userId={}", userId, e);
             return false;
         }
     }
     
+    /**
+     * 升级密码哈希（登录时用明文按当前强度重新哈希后回写）
+     * 明文没有变化，不记录密码历史；按 oldHash 比较并替换，库中哈希已变化时不写入
+     */
+    public boolean upgradePasswordHash(Long userId, String oldHash, String newHash) {
+        if (oldHash == null || newHash == null || !newHash.startsWith("$2")) {
+            log.warn("拒绝非 BCrypt 格式的密码哈希: userId={}", userId);
+            return false;
+        }
+        if (userMapper.compareAndSetPasswordHash(userId, oldHash, newHash) == 0) {
+            log.info("密码哈希未升级（哈希已变化或用户不存在）: userId={}", userId);
+            return false;
+        }
+        User user = userMapper.selectById(userId);
+        if (user != null) {
+            userCacheEvictor.evictUserDetails(userId, user.getEmail(), user.getUsername());
+        }
+        log.info("密码哈希已升级: userId={}", userId);
+        return true;
+    }
+    
     /**
      * 检查密码历史
      */
@@ -0,0 +1,47 @@
+package com.example.collab.config;
+
+import com.example.collab.websocket.CollabHandshakeInterceptor;
+import com.example.collab.websocket.CollabWebSocketHandler;
+import lombok.RequiredArgsConstructor;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.web.socket.config.annotation.EnableWebSocket;
+import org.springframework.web.socket.config.annotation.WebSocketConfigurer;
+import org.springframework.web.socket.config.annotation.WebSocketHandlerRegistry;
+import org.springframework.web.socket.server.standard.ServletServerContainerFactoryBean;
+
+/**
+ * WebSocket配置
+ * 协同连接：ws://{host}/api/v1/docs/ws/{docId}，经网关文档路由转发
+ */
+@Configuration
+@EnableWebSocket
+@RequiredArgsConstructor
+public class WebSocketConfig implements WebSocketConfigurer {
+
+    private final CollabWebSocketHandler collabWebSocketHandler;
+
+    private final CollabHandshakeInterceptor collabHandshakeInterceptor;
+
+    @Value("${collab.ws.max-message-bytes:8388608}")
+    private int maxMessageBytes;
+
+    @Override
+    public void registerWebSocketHandlers(WebSocketHandlerRegistry registry) {
+        registry.addHandler(collabWebSocketHandler, "/api/v1/docs/ws/*")
+                .addInterceptors(collabHandshakeInterceptor)
+                .setAllowedOrigins("*");
+    }
+
+    /**
+     * 快照帧可能较大，放宽单条消息上限
+     */
+    @Bean
+    public ServletServerContainerFactoryBean createWebSocketContainer() {
+        ServletServerContainerFactoryBean container = new ServletServerContainerFactoryBean();
+        container.setMaxBinaryMessageBufferSize(maxMessageBytes);
+        container.setMaxTextMessageBufferSize(64 * 1024);
+        return container;
+    }
+}
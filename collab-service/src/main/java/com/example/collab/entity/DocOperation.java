@@ -32,7 +32,7 @@ public class DocOperation {
     /** 父操作ID */
     private String parentOperationId;
     
-    /** 操作类型: insert, delete, format, style */
+    /** 操作类型: insert, delete, format, style, update */
     private String operationType;
     
     /** Yjs Update (二进制) */
@@ -62,4 +62,6 @@ public class DocOperation {
     public static final String OP_DELETE = "delete";
     public static final String OP_FORMAT = "format";
     public static final String OP_STYLE = "style";
+    /** 协同连接上报的 Yjs 增量（服务端不解析具体操作） */
+    public static final String OP_UPDATE = "update";
 }
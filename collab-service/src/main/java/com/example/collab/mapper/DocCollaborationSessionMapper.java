@@ -5,6 +5,7 @@ import com.example.collab.entity.DocCollaborationSession;
 import org.apache.ibatis.annotations.Mapper;
 import org.apache.ibatis.annotations.Param;
 import org.apache.ibatis.annotations.Select;
+import org.apache.ibatis.annotations.Update;
 
 import java.util.List;
 
@@ -19,4 +20,18 @@ public interface DocCollaborationSessionMapper extends BaseMapper<DocCollaborati
      */
     @Select("SELECT * FROM doc_collaboration_sessions WHERE doc_id = #{docId} AND is_active = true")
     List<DocCollaborationSession> findActiveSessionsByDocId(@Param("docId") Long docId);
+
+    /**
+     * 标记会话离开
+     */
+    @Update("UPDATE doc_collaboration_sessions SET is_active = false, is_editing = false, left_at = NOW() " +
+            "WHERE id = #{id}")
+    int markLeft(@Param("id") Long id);
+
+    /**
+     * 节点重启时关闭其遗留的活跃会话
+     */
+    @Update("UPDATE doc_collaboration_sessions SET is_active = false, is_editing = false, left_at = NOW() " +
+            "WHERE node_id = #{nodeId} AND is_active = true")
+    int deactivateByNode(@Param("nodeId") String nodeId);
 }
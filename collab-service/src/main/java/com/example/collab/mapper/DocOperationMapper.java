@@ -2,8 +2,51 @@ package com.example.collab.mapper;
 
 import com.baomidou.mybatisplus.core.mapper.BaseMapper;
 import com.example.collab.entity.DocOperation;
+import org.apache.ibatis.annotations.Delete;
+import org.apache.ibatis.annotations.Insert;
 import org.apache.ibatis.annotations.Mapper;
+import org.apache.ibatis.annotations.Param;
+import org.apache.ibatis.annotations.Select;
+
+import java.util.List;
 
 @Mapper
 public interface DocOperationMapper extends BaseMapper<DocOperation> {
+
+    /**
+     * 批量追加增量（多行 INSERT）
+     */
+    @Insert({
+        "<script>",
+        "INSERT INTO doc_operations (doc_id, session_id, user_id, operation_id, operation_type, yjs_update, lamport_timestamp, created_at) VALUES ",
+        "<foreach collection='list' item='item' separator=','>",
+        "(#{item.docId}, #{item.sessionId}, #{item.userId}, #{item.operationId}, #{item.operationType}, #{item.yjsUpdate}, #{item.lamportTimestamp}, #{item.createdAt})",
+        "</foreach>",
+        "</script>"
+    })
+    int batchInsert(@Param("list") List<DocOperation> operations);
+
+    /**
+     * 快照之后的增量（按房间序号）
+     */
+    @Select("SELECT lamport_timestamp, yjs_update FROM doc_operations " +
+            "WHERE doc_id = #{docId} AND lamport_timestamp > #{afterSeq} ORDER BY lamport_timestamp")
+    List<DocOperation> selectTail(@Param("docId") Long docId, @Param("afterSeq") long afterSeq);
+
+    @Select("SELECT MAX(lamport_timestamp) FROM doc_operations WHERE doc_id = #{docId}")
+    Long selectMaxSeq(@Param("docId") Long docId);
+
+    /**
+     * 删除已并入快照的增量
+     */
+    @Delete("DELETE FROM doc_operations WHERE doc_id = #{docId} AND lamport_timestamp <= #{seq}")
+    int deleteCovered(@Param("docId") Long docId, @Param("seq") long seq);
+
+    /**
+     * 分批删除序号不大于所属文档 content_version 的增量
+     */
+    @Delete("DELETE FROM doc_operations WHERE (doc_id, lamport_timestamp) IN (" +
+            "SELECT o.doc_id, o.lamport_timestamp FROM doc_operations o JOIN documents d ON d.id = o.doc_id " +
+            "WHERE o.lamport_timestamp <= d.content_version LIMIT #{limit})")
+    int pruneCovered(@Param("limit") int limit);
 }
@@ -3,10 +3,36 @@ package com.example.collab.mapper;
 import com.baomidou.mybatisplus.core.mapper.BaseMapper;
 import com.example.collab.entity.Document;
 import org.apache.ibatis.annotations.Mapper;
+import org.apache.ibatis.annotations.Param;
+import org.apache.ibatis.annotations.Select;
+import org.apache.ibatis.annotations.Update;
 
 /**
  * 文档 Mapper
  */
 @Mapper
 public interface DocumentMapper extends BaseMapper<Document> {
+
+    /**
+     * 只读快照相关列（不带 content）
+     */
+    @Select("SELECT id, yjs_state, content_version FROM documents WHERE id = #{id}")
+    Document selectSnapshot(@Param("id") Long id);
+
+    /**
+     * 写入导出内容（数据库或 MinIO 存储），不改写 Yjs 状态
+     */
+    @Update("UPDATE documents SET content = #{content, jdbcType=BINARY}, content_url = #{contentUrl}, storage_type = #{storageType}, " +
+            "content_size = #{contentSize}, edit_count = COALESCE(edit_count, 0) + 1, updated_at = NOW() WHERE id = #{id}")
+    int updateContent(@Param("id") Long id, @Param("content") byte[] content, @Param("contentUrl") String contentUrl,
+                      @Param("storageType") String storageType, @Param("contentSize") long contentSize);
+
+    /**
+     * 写入协同压缩快照，只改 yjs_state 与版本相关列；content_version 只增不减，迟到的旧快照不生效
+     */
+    @Update("UPDATE documents SET yjs_state = #{yjsState}, content_version = #{seq}, " +
+            "edit_count = COALESCE(edit_count, 0) + #{merged}, updated_at = NOW() " +
+            "WHERE id = #{id} AND COALESCE(content_version, 0) < #{seq}")
+    int updateSnapshot(@Param("id") Long id, @Param("yjsState") byte[] yjsState,
+                       @Param("seq") long seq, @Param("merged") int merged);
 }
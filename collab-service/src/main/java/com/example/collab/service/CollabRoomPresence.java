@@ -0,0 +1,14 @@
+package com.example.collab.service;
+
+/**
+ * 协同房间是否存在（任一节点装载了该文档的房间）
+ *
+ * 由协同连接层实现；文档服务据此拒绝会让房间内存状态失效的整体写入，不依赖连接层的具体实现。
+ */
+public interface CollabRoomPresence {
+
+    /**
+     * 是否有节点持有该文档的房间；无法确认时按持有处理
+     */
+    boolean isHeld(String docId);
+}
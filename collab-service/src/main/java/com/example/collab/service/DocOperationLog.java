@@ -0,0 +1,302 @@
+package com.example.collab.service;
+
+import com.example.collab.entity.DocOperation;
+import com.example.collab.entity.Document;
+import com.example.collab.mapper.DocOperationMapper;
+import com.example.collab.mapper.DocumentMapper;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * 文档增量持久化（只追加的操作日志 + 快照压缩）
+ *
+ * 【写入】
+ * 增量进入有界队列，专用写线程攒批后多行 INSERT 到 doc_operations；documents 行不随编辑改写。
+ * 队列满时在调用线程直接写入。写入失败重试数次后批次转入保留区，写线程优先重试保留区，
+ * 成功前不再取新批次（队列随之积压）。保留区达到上限（数据库长时间不可用）时才丢弃并记录错误，
+ * 被丢弃的增量若仍在协同房间内存中，会随下一次快照落库。
+ *
+ * 【压缩】
+ * 新快照写入 documents.yjs_state，content_version 记录其覆盖到的增量序号（lamport_timestamp），
+ * 同一事务内删除已被覆盖的增量；写线程晚于快照落库的被覆盖增量由定时清理兜底。
+ * 何时压缩由协同房间按条数/字节数/时长判断，合并后的状态由编辑者导出（服务端不解析 Yjs）。
+ *
+ * 【读取】
+ * 文档状态 = 快照 + lamport_timestamp 大于 content_version 的增量按序回放。
+ */
+@Slf4j
+@Service
+public class DocOperationLog {
+
+    private static final int MAX_ATTEMPTS = 3;
+
+    private final DocOperationMapper docOperationMapper;
+
+    private final DocumentMapper documentMapper;
+
+    private final BlockingQueue<DocOperation> queue;
+
+    private final int batchSize;
+
+    private final int pruneBatchSize;
+
+    private final int retainCapacity;
+
+    /** 取出与写入在同一把锁内，持锁即可确认此前入队的增量都已落库（或进入保留区） */
+    private final ReentrantLock writeLock = new ReentrantLock();
+
+    /** 写入失败待重试的增量，受 writeLock 保护 */
+    private final List<DocOperation> retained = new ArrayList<>();
+
+    private volatile boolean running = true;
+
+    private Thread writerThread;
+
+    public DocOperationLog(DocOperationMapper docOperationMapper,
+                           DocumentMapper documentMapper,
+                           @Value("${collab.oplog.queue-capacity:20000}") int queueCapacity,
+                           @Value("${collab.oplog.batch-size:200}") int batchSize,
+                           @Value("${collab.oplog.prune-batch-size:5000}") int pruneBatchSize,
+                           @Value("${collab.oplog.retain-capacity:100000}") int retainCapacity) {
+        this.docOperationMapper = docOperationMapper;
+        this.documentMapper = documentMapper;
+        this.queue = new ArrayBlockingQueue<>(queueCapacity);
+        this.batchSize = batchSize;
+        this.pruneBatchSize = pruneBatchSize;
+        this.retainCapacity = retainCapacity;
+    }
+
+    @PostConstruct
+    public void start() {
+        writerThread = new Thread(this::runLoop, "doc-oplog-writer");
+        writerThread.setDaemon(true);
+        writerThread.start();
+    }
+
+    /**
+     * 追加一条增量（通常不阻塞）
+     */
+    public void append(DocOperation operation) {
+        if (!queue.offer(operation)) {
+            log.warn("操作日志队列已满，同步写入: docId={}", operation.getDocId());
+            writeLock.lock();
+            try {
+                if (retained.isEmpty()) {
+                    writeBatch(List.of(operation));
+                } else {
+                    // 数据库仍不可用，直接排在保留区之后
+                    retain(List.of(operation));
+                }
+            } finally {
+                writeLock.unlock();
+            }
+        }
+    }
+
+    /**
+     * 把队列中的增量立即写入
+     */
+    public void flush() {
+        writeLock.lock();
+        try {
+            retryRetained();
+            List<DocOperation> batch = new ArrayList<>(batchSize);
+            while (queue.drainTo(batch, batchSize) > 0) {
+                writeBatch(batch);
+                batch.clear();
+            }
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    /**
+     * 读取文档状态：快照 + 之后的增量
+     * 只读已落库的数据，需要包含此前追加的增量时调用方先 {@link #flush()}；
+     * 协同房间在房间锁内装载，写库放在锁外，避免其他文档的积压增量拖住该房间
+     */
+    public DocState loadState(Long docId) {
+        Document document = documentMapper.selectSnapshot(docId);
+        long snapshotSeq = document != null && document.getContentVersion() != null ? document.getContentVersion() : 0L;
+        byte[] snapshot = document != null ? document.getYjsState() : null;
+        List<DocOperation> tail = docOperationMapper.selectTail(docId, snapshotSeq);
+        return new DocState(snapshot, snapshotSeq, tail);
+    }
+
+    /**
+     * 已落库增量的最大序号
+     */
+    public long maxSeq(Long docId) {
+        flush();
+        Long seq = docOperationMapper.selectMaxSeq(docId);
+        return seq != null ? seq : 0L;
+    }
+
+    /**
+     * 写入压缩快照并删除被覆盖的增量
+     *
+     * @param coveredSeq 快照包含的最大增量序号
+     * @param merged     本次并入快照的增量条数（计入编辑次数）
+     * @return 快照比库中的新并已写入时返回 true
+     */
+    @Transactional
+    public boolean compact(Long docId, byte[] yjsState, long coveredSeq, int merged) {
+        if (documentMapper.updateSnapshot(docId, yjsState, coveredSeq, merged) == 0) {
+            return false;
+        }
+        int pruned = docOperationMapper.deleteCovered(docId, coveredSeq);
+        log.debug("文档快照压缩: docId={}, seq={}, size={}, pruned={}", docId, coveredSeq, yjsState.length, pruned);
+        return true;
+    }
+
+    /**
+     * 清理已被快照覆盖但晚于快照落库的增量
+     */
+    @Scheduled(fixedDelayString = "${collab.oplog.prune-interval-ms:600000}")
+    public void pruneCovered() {
+        try {
+            int total = 0;
+            int deleted;
+            do {
+                deleted = docOperationMapper.pruneCovered(pruneBatchSize);
+                total += deleted;
+            } while (deleted >= pruneBatchSize);
+            if (total > 0) {
+                log.info("清理已压缩的文档增量: count={}", total);
+            }
+        } catch (Exception e) {
+            log.error("清理已压缩的文档增量失败", e);
+        }
+    }
+
+    private void runLoop() {
+        while (running || !queue.isEmpty()) {
+            try {
+                if (!retryRetainedWithLock()) {
+                    // 保留区未清空，暂停取新批次
+                    Thread.sleep(1000L);
+                    continue;
+                }
+                DocOperation first = queue.poll(1, TimeUnit.SECONDS);
+                if (first == null) {
+                    continue;
+                }
+                writeLock.lock();
+                try {
+                    List<DocOperation> batch = new ArrayList<>(batchSize);
+                    batch.add(first);
+                    queue.drainTo(batch, batchSize - 1);
+                    writeBatch(batch);
+                } finally {
+                    writeLock.unlock();
+                }
+            } catch (InterruptedException e) {
+                if (!running) {
+                    flush();
+                    break;
+                }
+            }
+        }
+    }
+
+    private boolean retryRetainedWithLock() {
+        writeLock.lock();
+        try {
+            return retryRetained();
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    /**
+     * 按批重试保留区（持有 writeLock 时调用）
+     *
+     * @return 保留区是否已清空
+     */
+    private boolean retryRetained() {
+        while (!retained.isEmpty()) {
+            List<DocOperation> batch = retained.subList(0, Math.min(batchSize, retained.size()));
+            try {
+                docOperationMapper.batchInsert(batch);
+            } catch (Exception e) {
+                log.warn("重试保留的文档增量失败: retained={}, error={}", retained.size(), e.getMessage());
+                return false;
+            }
+            batch.clear();
+        }
+        return true;
+    }
+
+    /**
+     * 写入一批增量，重试后仍失败时转入保留区（持有 writeLock 时调用）
+     */
+    private void writeBatch(List<DocOperation> batch) {
+        if (batch.isEmpty()) {
+            return;
+        }
+        for (int attempt = 1; ; attempt++) {
+            try {
+                docOperationMapper.batchInsert(batch);
+                return;
+            } catch (Exception e) {
+                if (attempt >= MAX_ATTEMPTS) {
+                    log.error("批量写入文档增量失败，转入保留区重试: count={}", batch.size(), e);
+                    retain(batch);
+                    return;
+                }
+                log.warn("批量写入文档增量失败，重试: count={}, attempt={}", batch.size(), attempt);
+                try {
+                    Thread.sleep(200L * attempt);
+                } catch (InterruptedException ie) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        }
+    }
+
+    private void retain(List<DocOperation> batch) {
+        int free = retainCapacity - retained.size();
+        if (free < batch.size()) {
+            // 仍在协同房间内存中的增量会随下一次快照落库
+            log.error("文档增量保留区已满，丢弃: count={}, retained={}", batch.size() - Math.max(free, 0), retained.size());
+        }
+        if (free > 0) {
+            retained.addAll(free >= batch.size() ? batch : batch.subList(0, free));
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() throws InterruptedException {
+        running = false;
+        if (writerThread != null) {
+            writerThread.interrupt();
+            writerThread.join(TimeUnit.SECONDS.toMillis(10));
+        }
+        writeLock.lock();
+        try {
+            if (!retryRetained()) {
+                log.error("关闭时仍有未写入的文档增量: count={}", retained.size());
+            }
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    /**
+     * 文档状态：快照及其之后的增量（按序号递增）
+     */
+    public record DocState(byte[] snapshot, long snapshotSeq, List<DocOperation> tail) {
+    }
+}
@@ -2,6 +2,7 @@ package com.example.collab.service;
 
 import com.baomidou.mybatisplus.core.conditions.query.LambdaQueryWrapper;
 import com.example.collab.entity.Document;
+import com.example.collab.mapper.DocCollaborationSessionMapper;
 import com.example.collab.mapper.DocumentMapper;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
@@ -50,7 +51,9 @@ import java.util.UUID;
  * - 4: 已删除（软删除）
  * 
  * 【版本管理】
- * - content_version: 内容版本号，每次编辑+1
+ * - 编辑以 Yjs 增量追加到 doc_operations，不改写文档行（见 DocOperationLog）
+ * - content_version: yjs_state 快照覆盖到的增量序号，压缩时前移
+ * - 文档状态 = 快照 + 之后的增量回放
  * - 定期创建快照，支持历史版本回溯
  * - 支持查看任意版本的内容
  * 
@@ -77,6 +80,15 @@ public class DocumentService {
      */
     private final MinioStorageService minioStorageService;
 
+    /** 增量日志与快照压缩 */
+    private final DocOperationLog docOperationLog;
+
+    /** 协同会话（判断文档是否正在协同编辑） */
+    private final DocCollaborationSessionMapper sessionMapper;
+
+    /** 协同房间是否存在 */
+    private final CollabRoomPresence roomPresence;
+
     /**
      * 创建文档
      */
@@ -134,6 +146,10 @@ public class DocumentService {
 
     /**
      * 更新文档内容（混合存储：小文档存数据库，大文档存 MinIO）
+     *
+     * 只写导出内容相关列；yjsState 不为空时作为整体快照写入并覆盖已有增量，
+     * 仅用于无人协同时的整体保存（导入、恢复版本），协同编辑走增量日志。
+     * 整体快照会让协同房间的内存状态和序号失效，文档有活跃会话或房间仍在装载时拒绝写入。
      */
     @Transactional
     public void updateContent(String docId, byte[] content, byte[] yjsState) {
@@ -141,6 +157,10 @@ public class DocumentService {
         if (document == null) {
             throw new RuntimeException("文档不存在");
         }
+        if (yjsState != null && (!sessionMapper.findActiveSessionsByDocId(document.getId()).isEmpty()
+                || roomPresence.isHeld(docId))) {
+            throw new RuntimeException("文档正在协同编辑中，请稍后再试");
+        }
 
         long threshold = minioStorageService.getThreshold();
         
@@ -148,25 +168,19 @@ public class DocumentService {
             // 大文档存 MinIO
             String objectName = docId + "/content";
             String url = minioStorageService.upload(objectName, content, "application/octet-stream");
-            document.setContentUrl(url);
-            document.setContent(null); // 清空数据库存储
-            document.setStorageType("minio");
+            documentMapper.updateContent(document.getId(), null, url, "minio", content.length);
             log.info("大文档存储到 MinIO: docId={}, size={}", docId, content.length);
         } else {
             // 小文档存数据库
-            document.setContent(content);
-            document.setContentUrl(null);
-            document.setStorageType("database");
+            documentMapper.updateContent(document.getId(), content, null, "database", content.length);
         }
-        
-        document.setYjsState(yjsState);
-        document.setContentSize((long) content.length);
-        document.setContentVersion(document.getContentVersion() + 1);
-        document.setEditCount(document.getEditCount() + 1);
-        document.setUpdatedAt(OffsetDateTime.now());
 
-        documentMapper.updateById(document);
-        log.debug("文档内容更新: docId={}, version={}, storage={}", docId, document.getContentVersion(), document.getStorageType());
+        if (yjsState != null) {
+            long currentVersion = document.getContentVersion() != null ? document.getContentVersion() : 0L;
+            long seq = Math.max(docOperationLog.maxSeq(document.getId()), currentVersion) + 1;
+            docOperationLog.compact(document.getId(), yjsState, seq, 0);
+        }
+        log.debug("文档内容更新: docId={}, size={}, snapshot={}", docId, content.length, yjsState != null);
     }
     
     /**
@@ -0,0 +1,119 @@
+package com.example.collab.websocket;
+
+import com.example.collab.service.CollabRoomPresence;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.stereotype.Component;
+
+import java.net.InetAddress;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 文档归属租约
+ *
+ * 房间状态和增量序号只在一个节点内存中，同一文档只能有一个节点持有房间。
+ * 网关按 docId 哈希选节点，实例增减的过渡期内两个节点可能同时收到同一文档的连接，
+ * 因此握手时在 Redis 占用 collab:owner:{docId}（值为节点ID，带过期时间），
+ * 已被其他节点占用时拒绝连接；持有房间期间定期续期，房间卸载时释放。
+ */
+@Slf4j
+@Component
+public class CollabDocOwnership implements CollabRoomPresence {
+
+    private static final String KEY_PREFIX = "collab:owner:";
+
+    /**
+     * 未被占用或已归本节点时占用并续期：KEYS[1]=归属键 ARGV[1]=节点ID ARGV[2]=租约毫秒
+     * 返回当前归属节点
+     */
+    private static final DefaultRedisScript<String> CLAIM_SCRIPT = new DefaultRedisScript<>(
+            "local owner = redis.call('GET', KEYS[1]) " +
+            "if (not owner) or owner == ARGV[1] then " +
+            "redis.call('SET', KEYS[1], ARGV[1], 'PX', ARGV[2]) " +
+            "return ARGV[1] " +
+            "end " +
+            "return owner", String.class);
+
+    /**
+     * 仍归本节点时释放：KEYS[1]=归属键 ARGV[1]=节点ID
+     */
+    private static final DefaultRedisScript<Long> RELEASE_SCRIPT = new DefaultRedisScript<>(
+            "if redis.call('GET', KEYS[1]) == ARGV[1] then " +
+            "return redis.call('DEL', KEYS[1]) " +
+            "end " +
+            "return 0", Long.class);
+
+    private final StringRedisTemplate redisTemplate;
+
+    private final String nodeId;
+
+    private final long leaseMillis;
+
+    public CollabDocOwnership(StringRedisTemplate redisTemplate,
+                              @Value("${collab.owner.lease-seconds:30}") long leaseSeconds,
+                              @Value("${server.port:8014}") int port) {
+        this.redisTemplate = redisTemplate;
+        this.leaseMillis = TimeUnit.SECONDS.toMillis(leaseSeconds);
+        this.nodeId = resolveNodeId(port);
+    }
+
+    public String getNodeId() {
+        return nodeId;
+    }
+
+    public long getLeaseMillis() {
+        return leaseMillis;
+    }
+
+    /**
+     * 占用或续期文档归属
+     *
+     * @return 当前归属节点；Redis 不可用时返回 null
+     */
+    public String claim(String docId) {
+        try {
+            return redisTemplate.execute(CLAIM_SCRIPT, List.of(KEY_PREFIX + docId),
+                    nodeId, String.valueOf(leaseMillis));
+        } catch (Exception e) {
+            log.error("占用文档归属失败: docId={}, nodeId={}", docId, nodeId, e);
+            return null;
+        }
+    }
+
+    /**
+     * 是否有节点持有该文档的房间；Redis 不可用时按持有处理
+     */
+    @Override
+    public boolean isHeld(String docId) {
+        try {
+            return Boolean.TRUE.equals(redisTemplate.hasKey(KEY_PREFIX + docId));
+        } catch (Exception e) {
+            log.warn("查询文档归属失败: docId={}, error={}", docId, e.getMessage());
+            return true;
+        }
+    }
+
+    public boolean isLocal(String owner) {
+        return nodeId.equals(owner);
+    }
+
+    public void release(String docId) {
+        try {
+            redisTemplate.execute(RELEASE_SCRIPT, List.of(KEY_PREFIX + docId), nodeId);
+        } catch (Exception e) {
+            // 租约到期后自动释放
+            log.warn("释放文档归属失败: docId={}, error={}", docId, e.getMessage());
+        }
+    }
+
+    private static String resolveNodeId(int port) {
+        try {
+            return InetAddress.getLocalHost().getHostName() + ":" + port;
+        } catch (Exception e) {
+            return "unknown:" + port;
+        }
+    }
+}
@@ -0,0 +1,95 @@
+package com.example.collab.websocket;
+
+import com.example.collab.entity.Document;
+import com.example.collab.service.DocPermissionService;
+import com.example.collab.service.DocumentService;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.server.ServerHttpRequest;
+import org.springframework.http.server.ServerHttpResponse;
+import org.springframework.stereotype.Component;
+import org.springframework.util.StringUtils;
+import org.springframework.web.socket.WebSocketHandler;
+import org.springframework.web.socket.server.HandshakeInterceptor;
+
+import java.util.Map;
+
+/**
+ * 协同连接握手：用户身份取网关注入的 X-User-Id，文档取路径最后一段
+ * 所有者与 edit 权限可写，view 权限或公开文档只读
+ * 文档归属其他节点时返回 409，客户端稍后重连
+ */
+@Slf4j
+@Component
+@RequiredArgsConstructor
+public class CollabHandshakeInterceptor implements HandshakeInterceptor {
+
+    static final String ATTR_USER_ID = "userId";
+    static final String ATTR_DOC_PK = "docPk";
+    static final String ATTR_DOC_ID = "docId";
+    static final String ATTR_READ_ONLY = "readOnly";
+
+    private final DocumentService documentService;
+
+    private final DocPermissionService docPermissionService;
+
+    private final CollabDocOwnership docOwnership;
+
+    @Override
+    public boolean beforeHandshake(ServerHttpRequest request, ServerHttpResponse response,
+                                   WebSocketHandler wsHandler, Map<String, Object> attributes) {
+        String userIdHeader = request.getHeaders().getFirst("X-User-Id");
+        if (!StringUtils.hasText(userIdHeader)) {
+            response.setStatusCode(HttpStatus.UNAUTHORIZED);
+            return false;
+        }
+        String path = request.getURI().getPath();
+        String docId = path.substring(path.lastIndexOf('/') + 1);
+
+        try {
+            Long userId = Long.parseLong(userIdHeader);
+            Document document = documentService.getDocument(docId);
+            if (document == null) {
+                response.setStatusCode(HttpStatus.NOT_FOUND);
+                return false;
+            }
+
+            boolean editable = userId.equals(document.getOwnerId())
+                    || docPermissionService.canEdit(document.getId(), userId);
+            boolean viewable = editable
+                    || "public".equals(document.getVisibility())
+                    || docPermissionService.canView(document.getId(), userId);
+            if (!viewable) {
+                log.warn("协同连接无权限: docId={}, userId={}", docId, userId);
+                response.setStatusCode(HttpStatus.FORBIDDEN);
+                return false;
+            }
+
+            String owner = docOwnership.claim(docId);
+            if (owner == null) {
+                response.setStatusCode(HttpStatus.SERVICE_UNAVAILABLE);
+                return false;
+            }
+            if (!docOwnership.isLocal(owner)) {
+                log.info("文档归属其他节点，拒绝协同连接: docId={}, owner={}", docId, owner);
+                response.setStatusCode(HttpStatus.CONFLICT);
+                return false;
+            }
+
+            attributes.put(ATTR_USER_ID, userId);
+            attributes.put(ATTR_DOC_PK, document.getId());
+            attributes.put(ATTR_DOC_ID, docId);
+            attributes.put(ATTR_READ_ONLY, !editable);
+            return true;
+        } catch (NumberFormatException e) {
+            response.setStatusCode(HttpStatus.BAD_REQUEST);
+            return false;
+        }
+    }
+
+    @Override
+    public void afterHandshake(ServerHttpRequest request, ServerHttpResponse response,
+                               WebSocketHandler wsHandler, Exception exception) {
+    }
+}
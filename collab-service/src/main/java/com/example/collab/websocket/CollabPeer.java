@@ -0,0 +1,62 @@
+package com.example.collab.websocket;
+
+import lombok.Getter;
+import lombok.Setter;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.web.socket.CloseStatus;
+import org.springframework.web.socket.WebSocketMessage;
+import org.springframework.web.socket.WebSocketSession;
+
+/**
+ * 房间内的一个连接
+ * session 为 ConcurrentWebSocketSessionDecorator：多线程发送自动排队，慢客户端超出缓冲或超时即被断开，不拖慢房间
+ */
+@Slf4j
+@Getter
+class CollabPeer {
+
+    private final WebSocketSession session;
+
+    private final Long userId;
+
+    private final Long docPk;
+
+    private final String docId;
+
+    private final boolean readOnly;
+
+    /** doc_collaboration_sessions.id，记录失败时为空 */
+    @Setter
+    private Long collabSessionId;
+
+    CollabPeer(WebSocketSession session, Long userId, Long docPk, String docId, boolean readOnly) {
+        this.session = session;
+        this.userId = userId;
+        this.docPk = docPk;
+        this.docId = docId;
+        this.readOnly = readOnly;
+    }
+
+    String getId() {
+        return session.getId();
+    }
+
+    void send(WebSocketMessage<?> message) {
+        if (!session.isOpen()) {
+            return;
+        }
+        try {
+            session.sendMessage(message);
+        } catch (Exception e) {
+            log.warn("协同消息发送失败: docId={}, userId={}, error={}", docId, userId, e.getMessage());
+        }
+    }
+
+    void close(CloseStatus status) {
+        try {
+            session.close(status);
+        } catch (Exception e) {
+            log.debug("关闭协同连接失败: docId={}, userId={}, error={}", docId, userId, e.getMessage());
+        }
+    }
+}
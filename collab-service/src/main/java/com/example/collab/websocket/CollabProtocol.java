@@ -0,0 +1,56 @@
+package com.example.collab.websocket;
+
+import org.springframework.web.socket.BinaryMessage;
+
+import java.nio.ByteBuffer;
+import java.util.List;
+
+/**
+ * 协同编辑 WebSocket 协议
+ *
+ * 【客户端 → 服务端（二进制）】
+ * - [0][Yjs update]                     本地编辑产生的增量
+ * - [1][8字节 seq][Y.encodeStateAsUpdate] 响应快照请求，表示该状态已包含 seq 及之前的全部增量
+ *
+ * 【服务端 → 客户端（二进制）】
+ * - [0][4字节 n]{[4字节 len][Yjs update]} × n   一批增量，按顺序 Y.applyUpdate
+ *   加入房间时收到的第一帧为 快照 + 未压缩增量，之后为其他成员的增量（不回显自己的）
+ *
+ * 【文本（JSON）】
+ * - {"type":"awareness", ...}            光标/选区，原样转发给房间内其他成员，不落库
+ * - {"type":"snapshot-request","seq":n}  服务端 → 编辑者，请求一次压缩快照
+ *
+ * Yjs 增量可重复、可乱序应用，重复下发不影响最终一致。
+ */
+final class CollabProtocol {
+
+    static final byte MSG_UPDATE = 0;
+    static final byte MSG_SNAPSHOT = 1;
+
+    static final byte MSG_UPDATES = 0;
+
+    static final String TYPE_AWARENESS = "awareness";
+    static final String TYPE_SNAPSHOT_REQUEST = "snapshot-request";
+
+    private CollabProtocol() {
+    }
+
+    /**
+     * 编码一批增量
+     */
+    static BinaryMessage updates(List<byte[]> updates) {
+        int size = 1 + 4;
+        for (byte[] update : updates) {
+            size += 4 + update.length;
+        }
+        ByteBuffer buffer = ByteBuffer.allocate(size);
+        buffer.put(MSG_UPDATES);
+        buffer.putInt(updates.size());
+        for (byte[] update : updates) {
+            buffer.putInt(update.length);
+            buffer.put(update);
+        }
+        buffer.flip();
+        return new BinaryMessage(buffer);
+    }
+}
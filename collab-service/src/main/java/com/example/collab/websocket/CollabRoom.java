@@ -0,0 +1,297 @@
+package com.example.collab.websocket;
+
+import org.springframework.web.socket.BinaryMessage;
+import org.springframework.web.socket.TextMessage;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 单个文档的协同房间（内存态）
+ *
+ * 【状态】
+ * - snapshot / snapshotSeq  最近一次压缩快照及其覆盖到的序号
+ * - tail                    快照之后的增量，按序号递增；新成员加入时与快照一起下发
+ * - pending                 尚未转发的增量，由 {@link CollabRoomManager} 定时批量下发
+ *
+ * 【压缩】
+ * 服务端不解析 Yjs，压缩借助编辑者完成：tail 超过阈值或距上次快照过久时，
+ * 向一名编辑者发送 snapshot-request(seq)，其回传的完整状态即为新快照，seq 及之前的 tail 随即丢弃。
+ *
+ * 所有状态在 this 上同步；网络发送除加入时的首帧外都在锁外进行。
+ */
+class CollabRoom {
+
+    private final Long docPk;
+
+    private final String docId;
+
+    private final Map<String, CollabPeer> peers = new LinkedHashMap<>();
+
+    private final ArrayDeque<Entry> tail = new ArrayDeque<>();
+
+    private List<Entry> pending = new ArrayList<>();
+
+    private boolean loaded;
+
+    private boolean closed;
+
+    private byte[] snapshot;
+
+    private long snapshotSeq;
+
+    private long seq;
+
+    private long tailBytes;
+
+    private long lastSnapshotAt;
+
+    private long emptySince;
+
+    private String snapshotRequestedFrom;
+
+    private long snapshotRequestedAt;
+
+    CollabRoom(Long docPk, String docId) {
+        this.docPk = docPk;
+        this.docId = docId;
+    }
+
+    Long getDocPk() {
+        return docPk;
+    }
+
+    String getDocId() {
+        return docId;
+    }
+
+    /**
+     * 首次加入时装载状态
+     */
+    interface Loader {
+        void load(CollabRoom room);
+    }
+
+    /**
+     * 装载快照与未压缩的增量（仅在 Loader 中调用）
+     */
+    void init(byte[] snapshot, long snapshotSeq, List<Entry> operations) {
+        this.snapshot = snapshot;
+        this.snapshotSeq = snapshotSeq;
+        this.seq = snapshotSeq;
+        for (Entry entry : operations) {
+            tail.addLast(entry);
+            tailBytes += entry.update().length;
+            seq = Math.max(seq, entry.seq());
+        }
+        this.lastSnapshotAt = System.currentTimeMillis();
+    }
+
+    synchronized boolean isLoaded() {
+        return loaded;
+    }
+
+    /**
+     * 加入房间并下发 快照 + tail
+     *
+     * @return 房间已关闭（正在卸载）时返回 false，调用方应重新获取房间
+     */
+    synchronized boolean join(CollabPeer peer, Loader loader) {
+        if (closed) {
+            return false;
+        }
+        if (!loaded) {
+            loader.load(this);
+            loaded = true;
+        }
+        peers.put(peer.getId(), peer);
+        List<byte[]> initial = new ArrayList<>(tail.size() + 1);
+        if (snapshot != null && snapshot.length > 0) {
+            initial.add(snapshot);
+        }
+        for (Entry entry : tail) {
+            initial.add(entry.update());
+        }
+        // 在锁内发送，保证首帧先于之后的批量增量到达
+        if (!initial.isEmpty()) {
+            peer.send(CollabProtocol.updates(initial));
+        }
+        return true;
+    }
+
+    synchronized void leave(CollabPeer peer) {
+        peers.remove(peer.getId());
+        if (peer.getId().equals(snapshotRequestedFrom)) {
+            snapshotRequestedFrom = null;
+        }
+        if (peers.isEmpty()) {
+            emptySince = System.currentTimeMillis();
+        }
+    }
+
+    /**
+     * 接收一条增量，分配序号并排队转发
+     */
+    synchronized long accept(CollabPeer from, byte[] update) {
+        Entry entry = new Entry(++seq, from.getId(), update);
+        tail.addLast(entry);
+        tailBytes += update.length;
+        pending.add(entry);
+        return entry.seq();
+    }
+
+    /**
+     * 转发 awareness 等即时消息，不排队
+     */
+    void relay(CollabPeer from, TextMessage message) {
+        List<CollabPeer> targets;
+        synchronized (this) {
+            targets = new ArrayList<>(peers.values());
+        }
+        for (CollabPeer peer : targets) {
+            if (peer != from) {
+                peer.send(message);
+            }
+        }
+    }
+
+    /**
+     * 下发排队的增量：每个成员一帧，不回显自己的；需要时向一名编辑者请求快照
+     */
+    void flush(SnapshotPolicy policy) {
+        List<Entry> batch;
+        List<CollabPeer> targets;
+        CollabPeer snapshotPeer = null;
+        long requestSeq = 0;
+        synchronized (this) {
+            long now = System.currentTimeMillis();
+            boolean compact = needsSnapshot(policy, now);
+            if (pending.isEmpty() && !compact) {
+                return;
+            }
+            batch = pending;
+            pending = new ArrayList<>();
+            targets = new ArrayList<>(peers.values());
+            if (compact) {
+                snapshotPeer = pickEditor();
+                if (snapshotPeer != null) {
+                    // pending 已全部取出，seq 之前的增量要么在本批、要么已下发、要么由该成员自己产生
+                    requestSeq = seq;
+                    snapshotRequestedFrom = snapshotPeer.getId();
+                    snapshotRequestedAt = now;
+                }
+            }
+        }
+
+        if (!batch.isEmpty()) {
+            BinaryMessage shared = null;
+            for (CollabPeer peer : targets) {
+                List<byte[]> updates = new ArrayList<>(batch.size());
+                for (Entry entry : batch) {
+                    if (!entry.senderId().equals(peer.getId())) {
+                        updates.add(entry.update());
+                    }
+                }
+                if (updates.isEmpty()) {
+                    continue;
+                }
+                if (updates.size() == batch.size()) {
+                    if (shared == null) {
+                        shared = CollabProtocol.updates(updates);
+                    }
+                    // 帧只读，多个成员共用同一个 ByteBuffer 需各自 duplicate
+                    peer.send(new BinaryMessage(shared.getPayload().duplicate()));
+                } else {
+                    peer.send(CollabProtocol.updates(updates));
+                }
+            }
+        }
+        if (snapshotPeer != null) {
+            snapshotPeer.send(new TextMessage("{\"type\":\"" + CollabProtocol.TYPE_SNAPSHOT_REQUEST
+                    + "\",\"seq\":" + requestSeq + "}"));
+        }
+    }
+
+    /**
+     * 采用编辑者回传的快照
+     *
+     * @return 被快照吸收的增量条数；快照过期或无效时返回 -1
+     */
+    synchronized int applySnapshot(CollabPeer from, long coveredSeq, byte[] state) {
+        if (from.isReadOnly() || coveredSeq <= snapshotSeq || coveredSeq > seq) {
+            return -1;
+        }
+        int merged = 0;
+        while (!tail.isEmpty() && tail.peekFirst().seq() <= coveredSeq) {
+            tailBytes -= tail.pollFirst().update().length;
+            merged++;
+        }
+        snapshot = state;
+        snapshotSeq = coveredSeq;
+        lastSnapshotAt = System.currentTimeMillis();
+        if (from.getId().equals(snapshotRequestedFrom)) {
+            snapshotRequestedFrom = null;
+        }
+        return merged;
+    }
+
+    /**
+     * 文档归属转移到其他节点时关闭房间，返回需要断开的连接
+     */
+    synchronized List<CollabPeer> evict() {
+        closed = true;
+        List<CollabPeer> evicted = new ArrayList<>(peers.values());
+        peers.clear();
+        pending = new ArrayList<>();
+        return evicted;
+    }
+
+    /**
+     * 无人连接超过 idleMillis 时关闭房间，之后的加入会新建房间重新装载
+     */
+    synchronized boolean closeIfIdle(long idleMillis) {
+        if (!closed && peers.isEmpty() && pending.isEmpty()
+                && System.currentTimeMillis() - emptySince >= idleMillis) {
+            closed = true;
+        }
+        return closed;
+    }
+
+    private boolean needsSnapshot(SnapshotPolicy policy, long now) {
+        if (tail.isEmpty()) {
+            return false;
+        }
+        if (snapshotRequestedFrom != null && now - snapshotRequestedAt < policy.requestTimeoutMillis()) {
+            return false;
+        }
+        return tail.size() >= policy.maxOperations()
+                || tailBytes >= policy.maxBytes()
+                || now - lastSnapshotAt >= policy.intervalMillis();
+    }
+
+    /**
+     * 选一名编辑者，上次请求未响应时优先换人
+     */
+    private CollabPeer pickEditor() {
+        CollabPeer fallback = null;
+        for (CollabPeer peer : peers.values()) {
+            if (peer.isReadOnly()) {
+                continue;
+            }
+            if (!peer.getId().equals(snapshotRequestedFrom)) {
+                return peer;
+            }
+            fallback = peer;
+        }
+        return fallback;
+    }
+
+    record Entry(long seq, String senderId, byte[] update) {
+    }
+
+    record SnapshotPolicy(int maxOperations, long maxBytes, long intervalMillis, long requestTimeoutMillis) {
+    }
+}
@@ -0,0 +1,269 @@
+package com.example.collab.websocket;
+
+import com.example.collab.entity.DocCollaborationSession;
+import com.example.collab.entity.DocOperation;
+import com.example.collab.mapper.DocCollaborationSessionMapper;
+import com.example.collab.service.DocOperationLog;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.web.socket.CloseStatus;
+import org.springframework.web.socket.TextMessage;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 协同房间管理
+ *
+ * 【一文档一房间】
+ * 文档第一个连接到达时创建房间，按 快照 + 之后的增量 装载（{@link DocOperationLog#loadState}）；
+ * 最后一个连接离开后空闲一段时间卸载。节点记录在 doc_collaboration_sessions.node_id。
+ *
+ * 【单节点归属】
+ * 网关按 docId 哈希把同一文档的连接路由到同一实例（CollabRoutingFilter）；
+ * 实例增减时由 {@link CollabDocOwnership} 租约兜底：握手时占用，持有房间期间续期，卸载时释放。
+ * 续期发现文档已归其他节点时关闭本地房间并断开连接，客户端重连到归属节点。
+ *
+ * 【写入】
+ * - 每条增量交给 {@link DocOperationLog} 批量追加（lamport_timestamp 为房间内序号），不改写 documents
+ * - 增量每 batch-interval 毫秒合并为一帧转发给其他成员
+ * - 完整状态只在压缩时写一次，同时删除被覆盖的增量
+ */
+@Slf4j
+@Component
+public class CollabRoomManager {
+
+    private final DocOperationLog docOperationLog;
+
+    private final DocCollaborationSessionMapper sessionMapper;
+
+    private final CollabDocOwnership docOwnership;
+
+    private final Map<String, CollabRoom> rooms = new ConcurrentHashMap<>();
+
+    private final ScheduledExecutorService flusher = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread thread = new Thread(r, "collab-flush");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private final CollabRoom.SnapshotPolicy snapshotPolicy;
+
+    private final long batchIntervalMillis;
+
+    private final long idleUnloadMillis;
+
+    private final String nodeId;
+
+    public CollabRoomManager(DocOperationLog docOperationLog,
+                             DocCollaborationSessionMapper sessionMapper,
+                             CollabDocOwnership docOwnership,
+                             @Value("${collab.room.batch-interval-ms:30}") long batchIntervalMillis,
+                             @Value("${collab.room.idle-unload-seconds:30}") long idleUnloadSeconds,
+                             @Value("${collab.snapshot.max-operations:500}") int maxOperations,
+                             @Value("${collab.snapshot.max-bytes:1048576}") long maxBytes,
+                             @Value("${collab.snapshot.interval-seconds:300}") long intervalSeconds,
+                             @Value("${collab.snapshot.request-timeout-seconds:10}") long requestTimeoutSeconds) {
+        this.docOperationLog = docOperationLog;
+        this.sessionMapper = sessionMapper;
+        this.docOwnership = docOwnership;
+        this.batchIntervalMillis = batchIntervalMillis;
+        this.idleUnloadMillis = TimeUnit.SECONDS.toMillis(idleUnloadSeconds);
+        this.snapshotPolicy = new CollabRoom.SnapshotPolicy(maxOperations, maxBytes,
+                TimeUnit.SECONDS.toMillis(intervalSeconds), TimeUnit.SECONDS.toMillis(requestTimeoutSeconds));
+        this.nodeId = docOwnership.getNodeId();
+    }
+
+    @PostConstruct
+    public void start() {
+        try {
+            // 上次进程退出时未关闭的会话
+            int stale = sessionMapper.deactivateByNode(nodeId);
+            if (stale > 0) {
+                log.info("清理本节点遗留协同会话: nodeId={}, count={}", nodeId, stale);
+            }
+        } catch (Exception e) {
+            log.error("清理遗留协同会话失败: nodeId={}", nodeId, e);
+        }
+        flusher.scheduleWithFixedDelay(this::flushAll, batchIntervalMillis, batchIntervalMillis, TimeUnit.MILLISECONDS);
+        long renewMillis = Math.max(docOwnership.getLeaseMillis() / 3, 1000L);
+        flusher.scheduleWithFixedDelay(this::renewOwnership, renewMillis, renewMillis, TimeUnit.MILLISECONDS);
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        flusher.shutdown();
+        flushAll();
+        for (CollabRoom room : rooms.values()) {
+            docOwnership.release(room.getDocId());
+        }
+    }
+
+    /**
+     * 加入文档房间
+     */
+    public void join(CollabPeer peer) {
+        recordJoin(peer);
+        while (true) {
+            CollabRoom room = rooms.computeIfAbsent(peer.getDocId(), id -> new CollabRoom(peer.getDocPk(), id));
+            if (!room.isLoaded()) {
+                // 装载只读库：已接收的增量在房间锁外先落库
+                docOperationLog.flush();
+            }
+            if (room.join(peer, this::load)) {
+                log.debug("加入协同房间: docId={}, userId={}, readOnly={}", peer.getDocId(), peer.getUserId(), peer.isReadOnly());
+                return;
+            }
+            // 房间刚被卸载，移除后重建
+            rooms.remove(peer.getDocId(), room);
+        }
+    }
+
+    public void leave(CollabPeer peer) {
+        CollabRoom room = rooms.get(peer.getDocId());
+        if (room != null) {
+            room.leave(peer);
+        }
+        recordLeave(peer);
+    }
+
+    /**
+     * 接收增量：入房间排队转发，并追加到操作日志
+     */
+    public void onUpdate(CollabPeer peer, byte[] update) {
+        CollabRoom room = rooms.get(peer.getDocId());
+        if (room == null) {
+            return;
+        }
+        long seq = room.accept(peer, update);
+        docOperationLog.append(new DocOperation()
+                .setDocId(peer.getDocPk())
+                .setSessionId(peer.getCollabSessionId())
+                .setUserId(peer.getUserId())
+                .setOperationId(UUID.randomUUID().toString())
+                .setOperationType(DocOperation.OP_UPDATE)
+                .setYjsUpdate(update)
+                .setLamportTimestamp(seq)
+                .setCreatedAt(LocalDateTime.now()));
+    }
+
+    /**
+     * 编辑者回传的压缩快照：替换内存快照，写回 documents 并删除被覆盖的增量
+     */
+    public void onSnapshot(CollabPeer peer, long coveredSeq, byte[] state) {
+        CollabRoom room = rooms.get(peer.getDocId());
+        if (room == null) {
+            return;
+        }
+        int merged = room.applySnapshot(peer, coveredSeq, state);
+        if (merged < 0) {
+            return;
+        }
+        try {
+            docOperationLog.compact(room.getDocPk(), state, coveredSeq, merged);
+            log.debug("协同快照写入: docId={}, seq={}, merged={}, size={}", room.getDocId(), coveredSeq, merged, state.length);
+        } catch (Exception e) {
+            // 数据库仍是旧快照 + 完整操作日志，不影响恢复
+            log.error("协同快照写入失败: docId={}, seq={}", room.getDocId(), coveredSeq, e);
+        }
+    }
+
+    public void onAwareness(CollabPeer peer, TextMessage message) {
+        CollabRoom room = rooms.get(peer.getDocId());
+        if (room != null) {
+            room.relay(peer, message);
+        }
+    }
+
+    private void load(CollabRoom room) {
+        DocOperationLog.DocState state = docOperationLog.loadState(room.getDocPk());
+        List<CollabRoom.Entry> operations = new ArrayList<>(state.tail().size());
+        for (DocOperation operation : state.tail()) {
+            operations.add(new CollabRoom.Entry(operation.getLamportTimestamp(), "", operation.getYjsUpdate()));
+        }
+        room.init(state.snapshot(), state.snapshotSeq(), operations);
+        log.info("协同房间装载: docId={}, snapshotSeq={}, tail={}", room.getDocId(), state.snapshotSeq(), operations.size());
+    }
+
+    private void flushAll() {
+        for (CollabRoom room : rooms.values()) {
+            try {
+                room.flush(snapshotPolicy);
+                if (room.closeIfIdle(idleUnloadMillis)) {
+                    rooms.remove(room.getDocId(), room);
+                    docOwnership.release(room.getDocId());
+                    log.info("协同房间卸载: docId={}", room.getDocId());
+                }
+            } catch (Exception e) {
+                log.error("协同房间下发失败: docId={}", room.getDocId(), e);
+            }
+        }
+    }
+
+    /**
+     * 续期本节点持有的文档归属；已归其他节点时关闭本地房间
+     * Redis 暂时不可用时保留房间，恢复后续期或让出
+     */
+    private void renewOwnership() {
+        for (CollabRoom room : rooms.values()) {
+            try {
+                String owner = docOwnership.claim(room.getDocId());
+                if (owner == null || docOwnership.isLocal(owner)) {
+                    continue;
+                }
+                log.warn("文档已归其他节点，关闭本地协同房间: docId={}, owner={}", room.getDocId(), owner);
+                rooms.remove(room.getDocId(), room);
+                List<CollabPeer> peers = room.evict();
+                // 已接收的增量先落库，归属节点装载时可见
+                docOperationLog.flush();
+                for (CollabPeer peer : peers) {
+                    peer.close(CloseStatus.SERVICE_RESTARTED);
+                }
+            } catch (Exception e) {
+                log.error("续期文档归属失败: docId={}", room.getDocId(), e);
+            }
+        }
+    }
+
+    private void recordJoin(CollabPeer peer) {
+        try {
+            DocCollaborationSession session = new DocCollaborationSession();
+            session.setDocId(peer.getDocPk());
+            session.setUserId(peer.getUserId());
+            session.setSessionToken(UUID.randomUUID().toString());
+            session.setConnectionId(peer.getId());
+            session.setNodeId(nodeId);
+            session.setIsActive(true);
+            session.setIsEditing(!peer.isReadOnly());
+            LocalDateTime now = LocalDateTime.now();
+            session.setJoinedAt(now);
+            session.setLastActivityAt(now);
+            session.setLastHeartbeatAt(now);
+            sessionMapper.insert(session);
+            peer.setCollabSessionId(session.getId());
+        } catch (Exception e) {
+            log.error("记录协同会话失败: docId={}, userId={}", peer.getDocId(), peer.getUserId(), e);
+        }
+    }
+
+    private void recordLeave(CollabPeer peer) {
+        if (peer.getCollabSessionId() == null) {
+            return;
+        }
+        try {
+            sessionMapper.markLeft(peer.getCollabSessionId());
+        } catch (Exception e) {
+            log.error("更新协同会话失败: sessionId={}", peer.getCollabSessionId(), e);
+        }
+    }
+}
@@ -0,0 +1,119 @@
+package com.example.collab.websocket;
+
+import com.alibaba.fastjson.JSON;
+import com.alibaba.fastjson.JSONObject;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.web.socket.BinaryMessage;
+import org.springframework.web.socket.CloseStatus;
+import org.springframework.web.socket.TextMessage;
+import org.springframework.web.socket.WebSocketSession;
+import org.springframework.web.socket.handler.AbstractWebSocketHandler;
+import org.springframework.web.socket.handler.ConcurrentWebSocketSessionDecorator;
+
+import java.nio.ByteBuffer;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 协同编辑 WebSocket 处理器，协议见 {@link CollabProtocol}
+ */
+@Slf4j
+@Component
+public class CollabWebSocketHandler extends AbstractWebSocketHandler {
+
+    private final CollabRoomManager roomManager;
+
+    private final int sendTimeLimitMillis;
+
+    private final int sendBufferBytes;
+
+    // sessionId -> peer
+    private final Map<String, CollabPeer> peers = new ConcurrentHashMap<>();
+
+    public CollabWebSocketHandler(CollabRoomManager roomManager,
+                                  @Value("${collab.ws.send-time-limit-ms:5000}") int sendTimeLimitMillis,
+                                  @Value("${collab.ws.send-buffer-bytes:8388608}") int sendBufferBytes) {
+        this.roomManager = roomManager;
+        this.sendTimeLimitMillis = sendTimeLimitMillis;
+        this.sendBufferBytes = sendBufferBytes;
+    }
+
+    @Override
+    public void afterConnectionEstablished(WebSocketSession session) {
+        Map<String, Object> attributes = session.getAttributes();
+        CollabPeer peer = new CollabPeer(
+                new ConcurrentWebSocketSessionDecorator(session, sendTimeLimitMillis, sendBufferBytes),
+                (Long) attributes.get(CollabHandshakeInterceptor.ATTR_USER_ID),
+                (Long) attributes.get(CollabHandshakeInterceptor.ATTR_DOC_PK),
+                (String) attributes.get(CollabHandshakeInterceptor.ATTR_DOC_ID),
+                (Boolean) attributes.get(CollabHandshakeInterceptor.ATTR_READ_ONLY));
+        peers.put(session.getId(), peer);
+        roomManager.join(peer);
+        log.info("协同连接建立: docId={}, userId={}", peer.getDocId(), peer.getUserId());
+    }
+
+    @Override
+    protected void handleBinaryMessage(WebSocketSession session, BinaryMessage message) {
+        CollabPeer peer = peers.get(session.getId());
+        ByteBuffer payload = message.getPayload();
+        if (peer == null || !payload.hasRemaining()) {
+            return;
+        }
+        if (peer.isReadOnly()) {
+            log.warn("只读连接提交增量，已忽略: docId={}, userId={}", peer.getDocId(), peer.getUserId());
+            return;
+        }
+        byte type = payload.get();
+        switch (type) {
+            case CollabProtocol.MSG_UPDATE -> {
+                byte[] update = new byte[payload.remaining()];
+                payload.get(update);
+                if (update.length > 0) {
+                    roomManager.onUpdate(peer, update);
+                }
+            }
+            case CollabProtocol.MSG_SNAPSHOT -> {
+                if (payload.remaining() < Long.BYTES) {
+                    return;
+                }
+                long coveredSeq = payload.getLong();
+                byte[] state = new byte[payload.remaining()];
+                payload.get(state);
+                roomManager.onSnapshot(peer, coveredSeq, state);
+            }
+            default -> log.warn("未知协同消息类型: docId={}, type={}", peer.getDocId(), type);
+        }
+    }
+
+    @Override
+    protected void handleTextMessage(WebSocketSession session, TextMessage message) {
+        CollabPeer peer = peers.get(session.getId());
+        if (peer == null) {
+            return;
+        }
+        try {
+            JSONObject payload = JSON.parseObject(message.getPayload());
+            if (CollabProtocol.TYPE_AWARENESS.equals(payload.getString("type"))) {
+                roomManager.onAwareness(peer, message);
+            }
+        } catch (Exception e) {
+            log.warn("协同文本消息解析失败: docId={}, error={}", peer.getDocId(), e.getMessage());
+        }
+    }
+
+    @Override
+    public void handleTransportError(WebSocketSession session, Throwable exception) {
+        log.warn("协同连接传输错误: sessionId={}, error={}", session.getId(), exception.getMessage());
+    }
+
+    @Override
+    public void afterConnectionClosed(WebSocketSession session, CloseStatus status) {
+        CollabPeer peer = peers.remove(session.getId());
+        if (peer != null) {
+            roomManager.leave(peer);
+            log.info("协同连接关闭: docId={}, userId={}, status={}", peer.getDocId(), peer.getUserId(), status);
+        }
+    }
+}
@@ -0,0 +1,171 @@
+package com.example.common.security;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.security.crypto.bcrypt.BCryptPasswordEncoder;
+import org.springframework.security.crypto.password.PasswordEncoder;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 有界并发的 BCrypt 密码编码器
+ * encode/matches 提交到专用线程池执行，同时计算的哈希数不超过线程数，
+ * 请求线程只是等待结果，不会所有 Tomcat 线程都压在 CPU 上。
+ * 队列满或等待超时时抛出 PasswordHashingRejectedException（负载削峰），不会无限排队。
+ * upgradeEncoding 在存储的哈希强度低于当前配置时返回 true，调用方据此在登录后
+ * 异步重新哈希（不在登录线程内多算一次 BCrypt）。
+ *
+ * 指标：
+ * password.hash.duration{op}     哈希计算耗时
+ * password.hash.wait{op}         排队等待耗时
+ * password.hash.rejected{op}     被拒绝（队列满/超时）次数
+ * password.hash.queue.depth      当前排队数
+ * password.hash.active           正在计算数
+ *
+ * @author Junjie
+ * @version 1.0.0
+ * @date 2025-11-24
+ */
+public class BoundedPasswordEncoder implements PasswordEncoder, DisposableBean {
+
+    private static final Logger log = LoggerFactory.getLogger(BoundedPasswordEncoder.class);
+
+    private final BCryptPasswordEncoder delegate;
+
+    private final ThreadPoolExecutor executor;
+
+    private final long timeoutMillis;
+
+    private final OpMeters encodeMeters;
+
+    private final OpMeters matchesMeters;
+
+    /**
+     * @param strength BCrypt 强度（log2 轮数），低于该强度的已有哈希会在登录时升级
+     * @param threads 哈希线程数（建议不超过 CPU 核数）
+     * @param queueCapacity 最大排队数，超出直接拒绝
+     * @param timeoutMillis 单次最长等待（排队 + 计算）
+     * @param registry 指标注册表
+     */
+    public BoundedPasswordEncoder(int strength, int threads, int queueCapacity, long timeoutMillis,
+                                  MeterRegistry registry) {
+        this.delegate = new BCryptPasswordEncoder(strength);
+        this.timeoutMillis = timeoutMillis;
+        AtomicInteger counter = new AtomicInteger();
+        this.executor = new ThreadPoolExecutor(threads, threads, 0, TimeUnit.MILLISECONDS,
+            new ArrayBlockingQueue<>(queueCapacity),
+            r -> {
+                Thread thread = new Thread(r, "password-hash-" + counter.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            },
+            new ThreadPoolExecutor.AbortPolicy());
+
+        // 指标在构造时注册一次，计算路径只做记录
+        this.encodeMeters = new OpMeters("encode", registry);
+        this.matchesMeters = new OpMeters("matches", registry);
+        Gauge.builder("password.hash.queue.depth", executor, e -> e.getQueue().size())
+            .description("等待计算的密码哈希数")
+            .register(registry);
+        Gauge.builder("password.hash.active", executor, ThreadPoolExecutor::getActiveCount)
+            .description("正在计算的密码哈希数")
+            .register(registry);
+    }
+
+    @Override
+    public String encode(CharSequence rawPassword) {
+        return execute(encodeMeters, () -> delegate.encode(rawPassword));
+    }
+
+    @Override
+    public boolean matches(CharSequence rawPassword, String encodedPassword) {
+        return execute(matchesMeters, () -> delegate.matches(rawPassword, encodedPassword));
+    }
+
+    @Override
+    public boolean upgradeEncoding(String encodedPassword) {
+        // 只解析哈希前缀中的强度，不做计算，直接在调用线程执行
+        return delegate.upgradeEncoding(encodedPassword);
+    }
+
+    private <T> T execute(OpMeters meters, Callable<T> task) {
+        long submittedAt = System.nanoTime();
+        Future<T> future;
+        try {
+            future = executor.submit(() -> {
+                long startedAt = System.nanoTime();
+                meters.wait.record(startedAt - submittedAt, TimeUnit.NANOSECONDS);
+                try {
+                    return task.call();
+                } finally {
+                    meters.duration.record(System.nanoTime() - startedAt, TimeUnit.NANOSECONDS);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            rejected(meters);
+            throw new PasswordHashingRejectedException("密码校验繁忙，请稍后重试", e);
+        }
+
+        try {
+            return future.get(timeoutMillis, TimeUnit.MILLISECONDS);
+        } catch (TimeoutException e) {
+            future.cancel(false);
+            rejected(meters);
+            throw new PasswordHashingRejectedException("密码校验超时，请稍后重试", e);
+        } catch (InterruptedException e) {
+            future.cancel(false);
+            Thread.currentThread().interrupt();
+            throw new PasswordHashingRejectedException("密码校验被中断", e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException runtimeException) {
+                throw runtimeException;
+            }
+            throw new IllegalStateException("密码哈希计算失败", cause);
+        }
+    }
+
+    private void rejected(OpMeters meters) {
+        meters.rejected.increment();
+        log.warn("密码哈希线程池过载: op={}, queue={}, active={}", meters.op, executor.getQueue().size(), executor.getActiveCount());
+    }
+
+    @Override
+    public void destroy() {
+        executor.shutdown();
+    }
+
+    /**
+     * 单个操作（encode/matches）的指标
+     */
+    private static final class OpMeters {
+
+        private final String op;
+
+        private final Timer wait;
+
+        private final Timer duration;
+
+        private final Counter rejected;
+
+        OpMeters(String op, MeterRegistry registry) {
+            this.op = op;
+            this.wait = Timer.builder("password.hash.wait").tag("op", op).register(registry);
+            this.duration = Timer.builder("password.hash.duration").tag("op", op).register(registry);
+            this.rejected = Counter.builder("password.hash.rejected").tag("op", op).register(registry);
+        }
+    }
+}
@@ -0,0 +1,20 @@
+package com.example.common.security;
+
+/**
+ * 密码哈希线程池过载异常
+ * 队列已满或等待超时时抛出，调用方应返回 503 并提示稍后重试，不应计为密码错误
+ *
+ * @author Junjie
+ * @version 1.0.0
+ * @date 2025-11-24
+ */
+public class PasswordHashingRejectedException extends RuntimeException {
+
+    public PasswordHashingRejectedException(String message) {
+        super(message);
+    }
+
+    public PasswordHashingRejectedException(String message, Throwable cause) {
+        super(message, cause);
+    }
+}
@@ -31,11 +31,12 @@ CREATE TABLE friend_requests (
     expires_at TIMESTAMPTZ DEFAULT (CURRENT_TIMESTAMP + INTERVAL '7 days'),
     
     created_at TIMESTAMPTZ DEFAULT CURRENT_TIMESTAMP,
-    updated_at TIMESTAMPTZ DEFAULT CURRENT_TIMESTAMP,
-    
-    CONSTRAINT uk_friend_request UNIQUE (sender_id, receiver_id)
+    updated_at TIMESTAMPTZ DEFAULT CURRENT_TIMESTAMP
 );
 
+-- 一对用户（不分方向）同时只能有一条待处理申请；已处理的申请不限制，可再次申请
+CREATE UNIQUE INDEX uk_friend_request_pending_pair
+    ON friend_requests (LEAST(sender_id, receiver_id), GREATEST(sender_id, receiver_id)) WHERE status = 0;
 CREATE INDEX idx_friend_requests_receiver ON friend_requests(receiver_id, status);
 CREATE INDEX idx_friend_requests_sender ON friend_requests(sender_id);
 CREATE INDEX idx_friend_requests_expires ON friend_requests(expires_at) WHERE status = 0;
@@ -171,7 +172,7 @@ CREATE TABLE friend_recommendations (
     recommended_user_id BIGINT NOT NULL,
     
     -- 推荐原因
-    reason VARCHAR(100), -- mutual_friends, same_group, nearby
+    reason VARCHAR(100), -- mutual_friends, same_department, same_group, nearby
     reason_detail JSONB, -- 具体信息（共同好友列表等）
     
     -- 推荐分数
@@ -187,6 +188,7 @@ CREATE TABLE friend_recommendations (
 
 CREATE INDEX idx_friend_recommendations_user ON friend_recommendations(user_id, score DESC);
 CREATE INDEX idx_friend_recommendations_expires ON friend_recommendations(expires_at);
+CREATE UNIQUE INDEX idx_friend_recommendations_unique ON friend_recommendations(user_id, recommended_user_id); -- 离线推荐任务 upsert 用
 
 -- 3.8 共同好友缓存表
 CREATE TABLE mutual_friends_cache (
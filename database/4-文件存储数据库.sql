@@ -117,6 +117,7 @@ CREATE TABLE folders (
 CREATE INDEX idx_folders_user ON folders(user_id) WHERE deleted_at IS NULL;
 CREATE INDEX idx_folders_parent ON folders(parent_id);
 CREATE INDEX idx_folders_path ON folders(path);
+CREATE UNIQUE INDEX idx_folders_user_path ON folders(user_id, path) WHERE deleted_at IS NULL; -- 同级不重名，子树按路径前缀改写依赖此约束
 
 -- 4.4 文件分片上传表
 CREATE TABLE file_upload_sessions (
@@ -257,6 +258,7 @@ CREATE INDEX idx_transcode_tasks_status ON file_transcode_tasks(status);
 CREATE INDEX idx_transcode_tasks_user ON file_transcode_tasks(user_id);
 
 -- 触发器：自动更新用户存储使用量
+-- updated_at 取实际写入时刻（clock_timestamp），不用事务开始时刻，长事务写入的行同样落在纠偏的静默窗口内
 CREATE OR REPLACE FUNCTION update_user_storage()
 RETURNS TRIGGER AS $$
 DECLARE
@@ -265,17 +267,17 @@ BEGIN
     SELECT file_size INTO v_file_size FROM file_metadata WHERE file_hash = NEW.file_hash;
     
     IF TG_OP = 'INSERT' THEN
-        INSERT INTO user_storage_quotas (user_id, used_storage, file_count)
-        VALUES (NEW.user_id, v_file_size, 1)
+        INSERT INTO user_storage_quotas (user_id, used_storage, file_count, updated_at)
+        VALUES (NEW.user_id, v_file_size, 1, clock_timestamp())
         ON CONFLICT (user_id) DO UPDATE
         SET used_storage = user_storage_quotas.used_storage + v_file_size,
             file_count = user_storage_quotas.file_count + 1,
-            updated_at = CURRENT_TIMESTAMP;
+            updated_at = clock_timestamp();
     ELSIF TG_OP = 'DELETE' THEN
         UPDATE user_storage_quotas
         SET used_storage = used_storage - v_file_size,
             file_count = file_count - 1,
-            updated_at = CURRENT_TIMESTAMP
+            updated_at = clock_timestamp()
         WHERE user_id = OLD.user_id;
     END IF;
     
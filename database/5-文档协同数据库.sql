@@ -177,6 +177,7 @@ CREATE TABLE doc_operations_2024_11 PARTITION OF doc_operations
 
 CREATE INDEX idx_doc_operations_doc ON doc_operations(doc_id, created_at);
 CREATE INDEX idx_doc_operations_session ON doc_operations(session_id);
+CREATE INDEX idx_doc_operations_doc_seq ON doc_operations(doc_id, lamport_timestamp); -- 快照之后的增量回放
 
 -- 5.5 文档评论表
 CREATE TABLE doc_comments (
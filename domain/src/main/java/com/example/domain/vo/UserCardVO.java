@@ -0,0 +1,31 @@
+package com.example.domain.vo;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.io.Serializable;
+
+/**
+ * 用户名片 VO
+ * 会话列表、成员列表等批量展示场景使用的精简用户信息
+ * nickname 为空时取 username
+ *
+ * @author Junjie
+ * @version 1.0.0
+ */
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+@JsonInclude(JsonInclude.Include.NON_NULL)
+public class UserCardVO implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    private Long id;
+
+    private String nickname;
+
+    private String avatarUrl;
+}
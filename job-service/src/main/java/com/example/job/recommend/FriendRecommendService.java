@@ -0,0 +1,637 @@
+package com.example.job.recommend;
+
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.DataAccessException;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowCallbackHandler;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * ====================================================================
+ * 离线好友推荐 (Friend-of-Friend Recommendation)
+ * ====================================================================
+ *
+ * 【流程】
+ * 1. 在一个 REPEATABLE READ 只读事务里流式读取 friend_relations / friend_interactions / blacklist，
+ *    构建 CSR 社交图快照（见 {@link SocialGraph}）；org_members 单独读取，失败时不使用部门信号
+ * 2. 按用户下标切分成分片，ForkJoinPool 并行计算；每个工作线程复用一份 O(n) 的计分数组，内存与线程数成正比
+ * 3. 每个分片攒够 batch-size 条后批量 upsert 到 friend_recommendations
+ * 4. 清理过期且没有用户反馈的推荐
+ *
+ * 【打分】
+ * score(u, c) = Σ_{f ∈ 共同好友} (1 + 互动强度(u, f) / 50) / ln(2 + deg(f))  + 同部门加分
+ * - Adamic-Adar：好友越少的共同好友越有说服力；好友数超过 max-fanout 的大号不参与扩展
+ * - 与 u 互动越多的好友，其好友越值得推荐
+ * - 部门人数不超过 dept-max-size 时，同部门成员即使没有共同好友也作为候选
+ * - 排除自己、已有好友和任一方向的黑名单，每个用户保留 top-k
+ *
+ * 【规模】
+ * 5M 用户 / 200M 边：图约 1.1GB，每个工作线程计分数组约 12 字节 × 用户数（60MB），
+ * 8 线程下建议 -Xmx3g。已有用户反馈的推荐不会被覆盖。
+ */
+@Slf4j
+@Service
+@RequiredArgsConstructor
+public class FriendRecommendService {
+
+    private static final String UPSERT_SQL = """
+        INSERT INTO friend_recommendations (user_id, recommended_user_id, reason, reason_detail, score, created_at, expires_at)
+        VALUES (?, ?, ?, CAST(? AS jsonb), ?, ?, ?)
+        ON CONFLICT (user_id, recommended_user_id) DO UPDATE
+        SET reason = EXCLUDED.reason,
+            reason_detail = EXCLUDED.reason_detail,
+            score = EXCLUDED.score,
+            created_at = EXCLUDED.created_at,
+            expires_at = EXCLUDED.expires_at
+        WHERE friend_recommendations.feedback IS NULL
+        """;
+
+    /** 共同好友详情里最多展示的ID数 */
+    private static final int MUTUAL_SAMPLE = 3;
+
+    private final JdbcTemplate jdbcTemplate;
+
+    private final PlatformTransactionManager transactionManager;
+
+    @Value("${job.recommend.parallelism:0}")
+    private int parallelism;
+
+    @Value("${job.recommend.shard-size:4096}")
+    private int shardSize;
+
+    @Value("${job.recommend.top-k:20}")
+    private int topK;
+
+    @Value("${job.recommend.max-fanout:2000}")
+    private int maxFanout;
+
+    @Value("${job.recommend.dept-max-size:200}")
+    private int deptMaxSize;
+
+    @Value("${job.recommend.dept-bonus:1.0}")
+    private double deptBonus;
+
+    @Value("${job.recommend.batch-size:1000}")
+    private int batchSize;
+
+    @Value("${job.recommend.fetch-size:10000}")
+    private int fetchSize;
+
+    @Value("${job.recommend.ttl-hours:72}")
+    private int ttlHours;
+
+    /** 与关系服务 relationship.interaction.half-life-days 保持一致 */
+    @Value("${job.recommend.interaction-half-life-days:14}")
+    private int interactionHalfLifeDays;
+
+    /**
+     * 全量计算并写入好友推荐
+     *
+     * @return 是否所有分片都成功
+     */
+    public boolean run() {
+        long startedAt = System.currentTimeMillis();
+        SocialGraph graph = loadGraph();
+        loadDepartments(graph);
+        log.info("社交图加载完成: users={}, edges={}, blocked={}, cost={}ms",
+            graph.size(), graph.edgeCount(), graph.blocked.length / 2, System.currentTimeMillis() - startedAt);
+
+        int threads = parallelism > 0 ? parallelism : Math.min(Runtime.getRuntime().availableProcessors(), 8);
+        Instant now = Instant.now();
+        Run run = new Run(graph, Timestamp.from(now), Timestamp.from(now.plus(ttlHours, ChronoUnit.HOURS)));
+        ForkJoinPool pool = new ForkJoinPool(threads);
+        try {
+            pool.invoke(new ShardTask(run, 0, graph.size()));
+        } finally {
+            pool.shutdown();
+        }
+
+        int purged = jdbcTemplate.update("DELETE FROM friend_recommendations WHERE feedback IS NULL AND expires_at < NOW()");
+        log.info("好友推荐计算完成: users={}, written={}, failedShards={}, purged={}, threads={}, cost={}ms",
+            run.users.sum(), run.written.sum(), run.failedShards.sum(), purged, threads, System.currentTimeMillis() - startedAt);
+        return run.failedShards.sum() == 0;
+    }
+
+    // ========== 加载 ==========
+
+    private SocialGraph loadGraph() {
+        TransactionTemplate tx = new TransactionTemplate(transactionManager);
+        tx.setReadOnly(true);
+        tx.setIsolationLevel(TransactionDefinition.ISOLATION_REPEATABLE_READ);
+        JdbcTemplate streaming = streamingTemplate();
+        return tx.execute(status -> {
+            UserIdCollector users = new UserIdCollector();
+            streaming.query("SELECT user_id, COUNT(*) FROM friend_relations WHERE deleted_at IS NULL GROUP BY user_id ORDER BY user_id", users);
+            long[] userIds = Arrays.copyOf(users.ids, users.size);
+
+            EdgeCollector edges = new EdgeCollector(userIds, users.edges);
+            streaming.query("SELECT user_id, friend_id FROM friend_relations WHERE deleted_at IS NULL ORDER BY user_id, friend_id", edges);
+            int[] offsets = edges.finish();
+            byte[] weights = new byte[edges.neighbors.length];
+
+            // 库里的分数截至 updated_at，按半衰期折算到现在
+            String interactionSql = "SELECT user_id, friend_id, interaction_score * POWER(0.5, EXTRACT(EPOCH FROM (NOW() - updated_at)) / "
+                + interactionHalfLifeDays * 86400L + ") FROM friend_interactions WHERE interaction_score > 0 AND updated_at IS NOT NULL";
+            streaming.query(interactionSql, (RowCallbackHandler) rs -> {
+                int u = Arrays.binarySearch(userIds, rs.getLong(1));
+                int f = Arrays.binarySearch(userIds, rs.getLong(2));
+                if (u < 0 || f < 0) {
+                    return;
+                }
+                int pos = Arrays.binarySearch(edges.neighbors, offsets[u], offsets[u + 1], f);
+                if (pos >= 0) {
+                    weights[pos] = (byte) Math.min(Math.round(rs.getDouble(3)), 100);
+                }
+            });
+
+            BlockCollector blocks = new BlockCollector(userIds);
+            streaming.query("SELECT user_id, blocked_user_id FROM blacklist", blocks);
+            long[] blocked = Arrays.copyOf(blocks.keys, blocks.size);
+            Arrays.sort(blocked);
+
+            return new SocialGraph(userIds, offsets, edges.neighbors, weights, blocked);
+        });
+    }
+
+    private void loadDepartments(SocialGraph graph) {
+        TransactionTemplate tx = new TransactionTemplate(transactionManager);
+        tx.setReadOnly(true);
+        DeptCollector depts = new DeptCollector(graph);
+        try {
+            tx.executeWithoutResult(status -> streamingTemplate().query(
+                "SELECT dept_id, user_id FROM org_members WHERE status = 1 AND dept_id IS NOT NULL ORDER BY dept_id, user_id", depts));
+        } catch (DataAccessException e) {
+            log.warn("读取部门信息失败，本次推荐不使用部门信号: {}", e.getMessage());
+            return;
+        }
+        depts.finish();
+    }
+
+    private JdbcTemplate streamingTemplate() {
+        JdbcTemplate streaming = new JdbcTemplate(jdbcTemplate.getDataSource());
+        streaming.setFetchSize(fetchSize);
+        return streaming;
+    }
+
+    /**
+     * 第一遍：有出边的用户ID（升序）和总边数
+     */
+    private static final class UserIdCollector implements RowCallbackHandler {
+
+        long[] ids = new long[1 << 16];
+
+        int size;
+
+        long edges;
+
+        @Override
+        public void processRow(ResultSet rs) throws SQLException {
+            if (size == ids.length) {
+                ids = Arrays.copyOf(ids, size * 2);
+            }
+            ids[size++] = rs.getLong(1);
+            edges += rs.getLong(2);
+        }
+    }
+
+    /**
+     * 第二遍：按 (user_id, friend_id) 顺序顺序写入 CSR，对端不在图中的边跳过
+     */
+    private static final class EdgeCollector implements RowCallbackHandler {
+
+        final long[] userIds;
+
+        final int[] neighbors;
+
+        final int[] offsets;
+
+        int current = -1;
+
+        int written;
+
+        EdgeCollector(long[] userIds, long edges) {
+            if (edges > Integer.MAX_VALUE - 8) {
+                throw new IllegalStateException("好友边数超出单机推荐上限: " + edges);
+            }
+            this.userIds = userIds;
+            this.neighbors = new int[(int) edges];
+            this.offsets = new int[userIds.length + 1];
+        }
+
+        @Override
+        public void processRow(ResultSet rs) throws SQLException {
+            long userId = rs.getLong(1);
+            while (current + 1 < userIds.length && userIds[current + 1] <= userId) {
+                offsets[++current] = written;
+            }
+            if (current < 0 || userIds[current] != userId || written == neighbors.length) {
+                return;
+            }
+            int f = Arrays.binarySearch(userIds, rs.getLong(2));
+            if (f >= 0 && f != current) {
+                neighbors[written++] = f;
+            }
+        }
+
+        int[] finish() {
+            while (current + 1 < userIds.length) {
+                offsets[++current] = written;
+            }
+            offsets[userIds.length] = written;
+            return offsets;
+        }
+    }
+
+    /**
+     * 黑名单：双向记录
+     */
+    private static final class BlockCollector implements RowCallbackHandler {
+
+        final long[] userIds;
+
+        long[] keys = new long[1024];
+
+        int size;
+
+        BlockCollector(long[] userIds) {
+            this.userIds = userIds;
+        }
+
+        @Override
+        public void processRow(ResultSet rs) throws SQLException {
+            int a = Arrays.binarySearch(userIds, rs.getLong(1));
+            int b = Arrays.binarySearch(userIds, rs.getLong(2));
+            if (a < 0 || b < 0) {
+                return;
+            }
+            if (size + 2 > keys.length) {
+                keys = Arrays.copyOf(keys, keys.length * 2);
+            }
+            keys[size++] = SocialGraph.pairKey(a, b);
+            keys[size++] = SocialGraph.pairKey(b, a);
+        }
+    }
+
+    /**
+     * 部门成员：按 dept_id 分段写入，一个用户在多个部门时取第一个
+     */
+    private static final class DeptCollector implements RowCallbackHandler {
+
+        final SocialGraph graph;
+
+        final int[] deptOf;
+
+        int[] offsets = new int[1024];
+
+        int[] members = new int[1 << 16];
+
+        int deptCount;
+
+        int memberCount;
+
+        long currentDeptId;
+
+        DeptCollector(SocialGraph graph) {
+            this.graph = graph;
+            this.deptOf = new int[graph.size()];
+            Arrays.fill(deptOf, -1);
+        }
+
+        @Override
+        public void processRow(ResultSet rs) throws SQLException {
+            int u = graph.indexOf(rs.getLong(2));
+            if (u < 0) {
+                return;
+            }
+            long deptId = rs.getLong(1);
+            if (deptCount == 0 || deptId != currentDeptId) {
+                if (deptCount + 2 > offsets.length) {
+                    offsets = Arrays.copyOf(offsets, offsets.length * 2);
+                }
+                offsets[deptCount++] = memberCount;
+                currentDeptId = deptId;
+            }
+            if (memberCount == members.length) {
+                members = Arrays.copyOf(members, members.length * 2);
+            }
+            members[memberCount++] = u;
+            if (deptOf[u] < 0) {
+                deptOf[u] = deptCount - 1;
+            }
+        }
+
+        void finish() {
+            offsets[deptCount] = memberCount;
+            graph.deptOf = deptOf;
+            graph.deptOffsets = Arrays.copyOf(offsets, deptCount + 1);
+            graph.deptMembers = Arrays.copyOf(members, memberCount);
+        }
+    }
+
+    // ========== 计算 ==========
+
+    /**
+     * 一次运行的共享状态；Scratch 按工作线程复用
+     */
+    private final class Run {
+
+        final SocialGraph graph;
+
+        final Timestamp createdAt;
+
+        final Timestamp expiresAt;
+
+        final ThreadLocal<Scratch> scratch;
+
+        final LongAdder users = new LongAdder();
+
+        final LongAdder written = new LongAdder();
+
+        final LongAdder failedShards = new LongAdder();
+
+        Run(SocialGraph graph, Timestamp createdAt, Timestamp expiresAt) {
+            this.graph = graph;
+            this.createdAt = createdAt;
+            this.expiresAt = expiresAt;
+            this.scratch = ThreadLocal.withInitial(() -> new Scratch(graph.size(), topK));
+        }
+
+        void processShard(int from, int to) {
+            Scratch s = scratch.get();
+            List<Object[]> batch = new ArrayList<>(batchSize + topK);
+            try {
+                for (int u = from; u < to; u++) {
+                    recommend(u, s, batch);
+                    if (batch.size() >= batchSize) {
+                        flush(batch);
+                    }
+                }
+                flush(batch);
+                users.add(to - from);
+            } catch (Exception e) {
+                failedShards.increment();
+                log.error("好友推荐分片失败: userId=[{}, {}]", graph.userIds[from], graph.userIds[to - 1], e);
+            }
+        }
+
+        private void recommend(int u, Scratch s, List<Object[]> batch) {
+            s.begin(u);
+            int[] neighbors = graph.neighbors;
+            int[] offsets = graph.offsets;
+            for (int i = offsets[u]; i < offsets[u + 1]; i++) {
+                int f = neighbors[i];
+                int fDegree = graph.degree(f);
+                if (fDegree > maxFanout) {
+                    continue;
+                }
+                float w = (float) ((1.0 + graph.weights[i] / 50.0) / Math.log(2 + fDegree));
+                for (int j = offsets[f]; j < offsets[f + 1]; j++) {
+                    int c = neighbors[j];
+                    if (c != u) {
+                        s.add(c, w, true);
+                    }
+                }
+            }
+
+            int dept = graph.departmentOf(u);
+            if (dept >= 0 && graph.departmentSize(dept) <= deptMaxSize) {
+                for (int k = graph.deptOffsets[dept]; k < graph.deptOffsets[dept + 1]; k++) {
+                    int m = graph.deptMembers[k];
+                    if (m != u) {
+                        s.add(m, 0f, false);
+                    }
+                }
+            }
+
+            for (int t = 0; t < s.touchedCount; t++) {
+                int c = s.touched[t];
+                boolean sameDept = dept >= 0 && graph.departmentOf(c) == dept;
+                if ((s.mutual[c] == 0 && !sameDept) || graph.isNeighbor(u, c) || graph.isBlocked(u, c)) {
+                    continue;
+                }
+                s.offer(c, s.score[c] + (sameDept ? (float) deptBonus : 0f));
+            }
+
+            int count = s.drainSorted();
+            for (int r = 0; r < count; r++) {
+                int c = s.resultIdx[r];
+                boolean sameDept = dept >= 0 && graph.departmentOf(c) == dept;
+                batch.add(new Object[]{
+                    graph.userIds[u],
+                    graph.userIds[c],
+                    s.mutual[c] > 0 ? "mutual_friends" : "same_department",
+                    reasonDetail(u, c, s.mutual[c], sameDept),
+                    (double) s.resultScore[r],
+                    createdAt,
+                    expiresAt
+                });
+            }
+        }
+
+        private String reasonDetail(int u, int c, int mutualCount, boolean sameDept) {
+            StringBuilder json = new StringBuilder(96)
+                .append("{\"mutualCount\":").append(mutualCount)
+                .append(",\"mutualFriendIds\":[");
+            int[] neighbors = graph.neighbors;
+            int i = graph.offsets[u];
+            int iEnd = graph.offsets[u + 1];
+            int j = graph.offsets[c];
+            int jEnd = graph.offsets[c + 1];
+            int found = 0;
+            while (i < iEnd && j < jEnd && found < MUTUAL_SAMPLE) {
+                if (neighbors[i] < neighbors[j]) {
+                    i++;
+                } else if (neighbors[i] > neighbors[j]) {
+                    j++;
+                } else {
+                    if (found++ > 0) {
+                        json.append(',');
+                    }
+                    json.append(graph.userIds[neighbors[i]]);
+                    i++;
+                    j++;
+                }
+            }
+            return json.append("],\"sameDepartment\":").append(sameDept).append('}').toString();
+        }
+
+        private void flush(List<Object[]> batch) {
+            if (batch.isEmpty()) {
+                return;
+            }
+            jdbcTemplate.batchUpdate(UPSERT_SQL, batch);
+            written.add(batch.size());
+            batch.clear();
+        }
+    }
+
+    /**
+     * 按用户下标二分的分片任务，分片不超过 shard-size 时直接计算
+     */
+    private final class ShardTask extends RecursiveAction {
+
+        private final Run run;
+
+        private final int from;
+
+        private final int to;
+
+        ShardTask(Run run, int from, int to) {
+            this.run = run;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from <= shardSize) {
+                if (to > from) {
+                    run.processShard(from, to);
+                }
+                return;
+            }
+            int mid = (from + to) >>> 1;
+            invokeAll(new ShardTask(run, from, mid), new ShardTask(run, mid, to));
+        }
+    }
+
+    /**
+     * 单个工作线程的计分数组
+     * 用 stamp 标记本轮触达的候选，换用户时无需清零 O(n) 数组
+     */
+    private static final class Scratch {
+
+        final float[] score;
+
+        final int[] mutual;
+
+        final int[] stamp;
+
+        int[] touched = new int[4096];
+
+        int touchedCount;
+
+        int currentStamp;
+
+        final int[] heapIdx;
+
+        final float[] heapScore;
+
+        int heapSize;
+
+        final int[] resultIdx;
+
+        final float[] resultScore;
+
+        Scratch(int n, int k) {
+            score = new float[n];
+            mutual = new int[n];
+            stamp = new int[n];
+            heapIdx = new int[k];
+            heapScore = new float[k];
+            resultIdx = new int[k];
+            resultScore = new float[k];
+        }
+
+        void begin(int u) {
+            currentStamp = u + 1;
+            touchedCount = 0;
+            heapSize = 0;
+        }
+
+        void add(int c, float w, boolean viaFriend) {
+            if (stamp[c] != currentStamp) {
+                stamp[c] = currentStamp;
+                score[c] = 0f;
+                mutual[c] = 0;
+                if (touchedCount == touched.length) {
+                    touched = Arrays.copyOf(touched, touchedCount * 2);
+                }
+                touched[touchedCount++] = c;
+            }
+            score[c] += w;
+            if (viaFriend) {
+                mutual[c]++;
+            }
+        }
+
+        /**
+         * 小顶堆维护 top-k
+         */
+        void offer(int c, float s) {
+            if (heapIdx.length == 0) {
+                return;
+            }
+            if (heapSize < heapIdx.length) {
+                int i = heapSize++;
+                while (i > 0) {
+                    int parent = (i - 1) >>> 1;
+                    if (heapScore[parent] <= s) {
+                        break;
+                    }
+                    heapIdx[i] = heapIdx[parent];
+                    heapScore[i] = heapScore[parent];
+                    i = parent;
+                }
+                heapIdx[i] = c;
+                heapScore[i] = s;
+            } else if (s > heapScore[0]) {
+                siftDown(c, s);
+            }
+        }
+
+        private void siftDown(int c, float s) {
+            int i = 0;
+            while (true) {
+                int child = 2 * i + 1;
+                if (child >= heapSize) {
+                    break;
+                }
+                if (child + 1 < heapSize && heapScore[child + 1] < heapScore[child]) {
+                    child++;
+                }
+                if (heapScore[child] >= s) {
+                    break;
+                }
+                heapIdx[i] = heapIdx[child];
+                heapScore[i] = heapScore[child];
+                i = child;
+            }
+            heapIdx[i] = c;
+            heapScore[i] = s;
+        }
+
+        /**
+         * 按分数降序取出堆内结果，返回条数
+         */
+        int drainSorted() {
+            int count = heapSize;
+            for (int r = count - 1; r >= 0; r--) {
+                resultIdx[r] = heapIdx[0];
+                resultScore[r] = heapScore[0];
+                heapSize--;
+                if (heapSize > 0) {
+                    siftDown(heapIdx[heapSize], heapScore[heapSize]);
+                }
+            }
+            return count;
+        }
+    }
+}
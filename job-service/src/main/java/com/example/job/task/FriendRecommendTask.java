@@ -0,0 +1,47 @@
+package com.example.job.task;
+
+import com.example.job.recommend.FriendRecommendService;
+import com.xxl.job.core.context.XxlJobHelper;
+import com.xxl.job.core.handler.annotation.XxlJob;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Component;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * 好友推荐任务
+ */
+@Slf4j
+@Component
+@RequiredArgsConstructor
+public class FriendRecommendTask {
+    
+    private final FriendRecommendService friendRecommendService;
+    
+    /** 同一实例上不允许并发运行（单次运行占用约 1GB 以上内存） */
+    private final AtomicBoolean running = new AtomicBoolean(false);
+    
+    /**
+     * 全量计算好友推荐
+     * 每日凌晨3点执行
+     */
+    @XxlJob("buildFriendRecommendations")
+    public void buildFriendRecommendations() {
+        if (!running.compareAndSet(false, true)) {
+            log.warn("好友推荐任务正在运行，跳过本次调度");
+            return;
+        }
+        log.info("开始计算好友推荐...");
+        try {
+            if (!friendRecommendService.run()) {
+                XxlJobHelper.handleFail("部分分片计算失败，详见日志");
+            }
+        } catch (Exception e) {
+            log.error("好友推荐任务失败", e);
+            XxlJobHelper.handleFail(e.getMessage());
+        } finally {
+            running.set(false);
+        }
+    }
+}